@@ -0,0 +1,75 @@
+package de.raysha.lib.net.scs;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.raysha.lib.net.scs.Connector.RawMessage;
+import de.raysha.lib.net.scs.HotPathBenchmarks.PayloadMessage;
+
+/**
+ * The JMH benchmarks of the encryption and decryption of one chunk, in cbc mode ({@link AESConnector})
+ * and in gcm mode ({@link AESGCMConnector}). They measure the same as the fallback {@link HotPathBenchmarks}.
+ *
+ * @author rainu
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class CryptoBenchmarks {
+	@Param({"64", "1024", "16384", "262144"})
+	public int payload;
+
+	@Param({"false", "true"})
+	public boolean gcm;
+
+	private AbstractAESConnector sender;
+	private AbstractAESConnector receiver;
+	private String messageId;
+	private byte[] bytes;
+	private byte[][] encrypted;
+	private int next;
+
+	@Setup
+	public void setup() throws Exception {
+		sender = HotPathBenchmarks.newConnector(null, gcm);
+		receiver = HotPathBenchmarks.newConnector(null, gcm, true);
+		messageId = sender.classToMessageId.get(PayloadMessage.class);
+		bytes = new byte[payload];
+
+		//a gcm connector accepts each nonce only once, so the chunks are encrypted in advance
+		encrypted = new byte[Math.max(16, 4 * 1024 * 1024 / Math.max(1, payload))][];
+		for(int i=0; i < encrypted.length; i++){
+			encrypted[i] = sender.encodeChunk(PayloadMessage.class, 0, true, new byte[payload], payload);
+		}
+		next = 0;
+	}
+
+	@Benchmark
+	public byte[] encrypt() {
+		return sender.encodeChunk(PayloadMessage.class, 0, true, bytes, bytes.length);
+	}
+
+	@Benchmark
+	public byte[] decrypt() throws Exception {
+		if(next == encrypted.length){
+			receiver = HotPathBenchmarks.newConnector(null, gcm, true);
+			next = 0;
+		}
+		return receiver.decodeChunk(new RawMessage(messageId, PayloadMessage.class, ByteBuffer.wrap(encrypted[next++])), 0, true);
+	}
+}
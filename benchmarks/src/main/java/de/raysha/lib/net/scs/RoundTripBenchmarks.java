@@ -0,0 +1,97 @@
+package de.raysha.lib.net.scs;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.raysha.lib.net.scs.HotPathBenchmarks.PayloadMessage;
+import de.raysha.lib.net.scs.model.Message;
+
+/**
+ * The JMH benchmarks of whole round trips: the message is sent to an echo connector and received again.
+ * Each benchmark thread has his own connection, over an in-memory socket pair (see {@link InMemorySocket})
+ * or over loopback. Besides the throughput the latency percentiles are sampled. They measure the same as
+ * the fallback {@link HotPathBenchmarks}.
+ *
+ * @author rainu
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class RoundTripBenchmarks {
+	@Param({"64", "1024", "16384", "262144"})
+	public int payload;
+
+	@Param({"memory-cbc", "loopback-cbc", "loopback-gcm"})
+	public String transport;
+
+	private AbstractAESConnector client;
+	private AbstractAESConnector echo;
+	private PayloadMessage message;
+
+	@Setup
+	public void setup() throws Exception {
+		final boolean gcm = transport.endsWith("-gcm");
+		final Socket clientSocket;
+		final Socket serverSocket;
+		if(transport.startsWith("memory-")){
+			final InMemorySocket[] sockets = InMemorySocket.pair(Math.max(64 * 1024, 2 * payload + 1024));
+			clientSocket = sockets[0];
+			serverSocket = sockets[1];
+		}else{
+			final ServerSocket listener = new ServerSocket(0);
+			try {
+				clientSocket = new Socket("localhost", listener.getLocalPort());
+				serverSocket = listener.accept();
+			} finally {
+				listener.close();
+			}
+		}
+
+		client = HotPathBenchmarks.newConnector(clientSocket, gcm);
+		echo = HotPathBenchmarks.newConnector(serverSocket, gcm, true);
+		final Thread echoThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while(true){
+						echo.send(echo.receive());
+					}
+				} catch (IOException e) { }
+			}
+		}, "Benchmark-Echo");
+		echoThread.setDaemon(true);
+		echoThread.start();
+
+		message = new PayloadMessage(new byte[payload]);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		client.disconnect();
+		echo.disconnect();
+	}
+
+	@Benchmark
+	public Message roundTrip() throws IOException {
+		client.send(message);
+		return client.receive();
+	}
+}
@@ -0,0 +1,87 @@
+package de.raysha.lib.net.scs;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.raysha.lib.net.scs.HotPathBenchmarks.PayloadMessage;
+import de.raysha.lib.net.scs.model.serialize.ObjectSerializer;
+import de.raysha.lib.net.scs.utils.HashGenerator;
+
+/**
+ * The JMH benchmarks of the single stages without encryption: the hashing of the message ids, the
+ * java serialization and the framing over an in-memory socket pair (see {@link InMemorySocket}).
+ * They measure the same as the fallback {@link HotPathBenchmarks}.
+ *
+ * @author rainu
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class StageBenchmarks {
+	@Param({"64", "1024", "16384", "262144"})
+	public int payload;
+
+	private String text;
+	private ObjectSerializer<PayloadMessage> serializer;
+	private PayloadMessage message;
+	private byte[] bytes;
+	private RawConnector sender;
+	private RawConnector receiver;
+
+	@Setup
+	public void setup() throws IOException {
+		final char[] chars = new char[payload];
+		Arrays.fill(chars, 'x');
+		text = new String(chars);
+
+		serializer = new ObjectSerializer<PayloadMessage>();
+		message = new PayloadMessage(new byte[payload]);
+		bytes = new byte[payload];
+
+		final InMemorySocket[] sockets = InMemorySocket.pair(Math.max(64 * 1024, 2 * payload + 64));
+		sender = new RawConnector(sockets[0]);
+		receiver = new RawConnector(sockets[1]);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		sender.disconnect();
+		receiver.disconnect();
+	}
+
+	@Benchmark
+	public String md5() {
+		return HashGenerator.toMD5(text);
+	}
+
+	@Benchmark
+	public PayloadMessage objectSerializer() {
+		return serializer.deserialize(serializer.serialize(message));
+	}
+
+	/**
+	 * Only the framing: one frame is written into and read from an in-memory socket pair.
+	 */
+	@Benchmark
+	public int framing() throws IOException {
+		sender.sendPayload(bytes);
+		return receiver.receivePayload();
+	}
+}
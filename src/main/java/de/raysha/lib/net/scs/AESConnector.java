@@ -2,31 +2,44 @@ package de.raysha.lib.net.scs;
 
 import java.io.IOException;
 import java.net.Socket;
-import java.security.InvalidAlgorithmParameterException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
-import java.security.spec.KeySpec;
+import java.security.SecureRandom;
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
-import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.PBEKeySpec;
-import javax.crypto.spec.SecretKeySpec;
 
 import de.raysha.lib.net.scs.model.Message;
+import de.raysha.lib.net.scs.utils.BufferPool;
 
 /**
  * This class is a special {@link Connector} and it is responsible for secure communication between server and client.
- * All messages will be encrypt by the AES-Cipher.
+ * All messages will be encrypt by the AES-Cipher (in CBC mode). Each message gets his own random initialisation vector,
+ * which is sent in front of the encrypted message. So an identical message never results in the same encrypted bytes.
+ * A batch of messages (see {@link #send(Collection)})
+ * will be encrypted as a whole. Each message is encrypted independently, so several threads can
+ * encrypt (and decrypt) at the same time. Only the writing of the frames is serialized. If the compression
+ * is enabled (see {@link #enableCompression(int)}), the messages will be compressed before they are encrypted.
+ * The messages move through pooled buffers: serializer, (compression,) cipher and socket work on the same
+ * kind of buffers, no intermediate arrays are needed.
  *
  * @author rainu
  */
-public class AESConnector extends Connector {
-	private static final byte[] PASSWORD_SALT = "Secure-Client-Server-Salt".getBytes();
-	private final Cipher encryptCipher;
-	private final Cipher decryptCipher;
+public class AESConnector extends AbstractAESConnector {
+	private static final String TRANSFORMATION = "AES/CBC/PKCS5Padding";
+	private static final int IV_LENGTH = 16;
 
-	private final SecretKey secretKey;
+	private static final SecureRandom random = new SecureRandom();
+
+	/**
+	 * A {@link Cipher} is not thread-safe. So each encryption/decryption borrows a cipher from this pool.
+	 */
+	private final Queue<Cipher> ciphers = new ConcurrentLinkedQueue<Cipher>();
 
 	/**
 	 * Creates an secure connector for client- server- communication.
@@ -36,11 +49,9 @@ public class AESConnector extends Connector {
 	 * @throws InvalidKeyException If the given key is invalid.
 	 */
 	public AESConnector(Socket socket, SecretKey key) throws InvalidKeyException {
-		super(socket);
+		super(socket, key);
 
-		this.secretKey = key;
-		this.encryptCipher = initialiseEncryptionCipher();
-		this.decryptCipher = initialiseDecryptionCipher();
+		this.ciphers.add(checkKey(borrowCipher()));
 	}
 
 	/**
@@ -54,91 +65,294 @@ public class AESConnector extends Connector {
 		this(socket, initialiseKey(password));
 	}
 
-	/**
-	 * Create from string password a {@link SecretKey} that can be used for the secure
-	 * connection.
-	 *
-	 * @param password The plain text password.
-	 * @return The {@link SecretKey} that can used for secure connection.
-	 */
-	public static SecretKey initialiseKey(String password){
-		try{
-			SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-			KeySpec spec = new PBEKeySpec(password.toCharArray(), PASSWORD_SALT, 65536, 256);
-			SecretKey tmp = factory.generateSecret(spec);
-			return new SecretKeySpec(tmp.getEncoded(), "AES");
-		}catch(Exception e){
+	private Cipher checkKey(Cipher cipher) throws InvalidKeyException {
+		try {
+			cipher.init(Cipher.DECRYPT_MODE, getSecretKey(), new IvParameterSpec(new byte[IV_LENGTH]));
+		} catch (GeneralSecurityException e) {
+			if(e instanceof InvalidKeyException) throw (InvalidKeyException)e;
 			throw new IllegalStateException(e);
 		}
+
+		return cipher;
 	}
 
-	private Cipher initialiseDecryptionCipher() throws InvalidKeyException {
-		Cipher cipher = initialiseCipher();
+	private Cipher borrowCipher() {
+		Cipher cipher = ciphers.poll();
+		if(cipher != null){
+			return cipher;
+		}
 
 		try {
-			cipher.init(Cipher.DECRYPT_MODE, secretKey,
-					new IvParameterSpec(new byte[cipher.getBlockSize()]));
-		} catch (InvalidAlgorithmParameterException e) {
+			return Cipher.getInstance(TRANSFORMATION);
+		} catch (Exception e) {
 			throw new IllegalStateException(e);
 		}
+	}
 
-		return cipher;
+	private static byte[] nextIV() {
+		final byte[] iv = new byte[IV_LENGTH];
+		random.nextBytes(iv);
+
+		return iv;
 	}
 
-	private Cipher initialiseEncryptionCipher() throws InvalidKeyException {
-		Cipher cipher = initialiseCipher();
+	/**
+	 * Encrypt the given raw message.
+	 *
+	 * @param rawMessage The raw message.
+	 * @param length The number of bytes of the raw message.
+	 * @return The initialisation vector followed by the encrypted message.
+	 */
+	private byte[] encrypt(byte[] rawMessage, int length) {
+		final byte[] iv = nextIV();
+		final Cipher cipher = borrowCipher();
+		final long start = stageStart();
 
 		try {
-			cipher.init(Cipher.ENCRYPT_MODE, secretKey,
-					new IvParameterSpec(new byte[cipher.getBlockSize()]));
-		} catch (InvalidAlgorithmParameterException e) {
+			cipher.init(Cipher.ENCRYPT_MODE, getSecretKey(), new IvParameterSpec(iv));
+
+			byte[] encrypted = new byte[IV_LENGTH + cipher.getOutputSize(length)];
+			System.arraycopy(iv, 0, encrypted, 0, IV_LENGTH);
+			cipher.doFinal(rawMessage, 0, length, encrypted, IV_LENGTH);
+
+			return encrypted;
+		} catch (GeneralSecurityException e) {
 			throw new IllegalStateException(e);
+		} finally {
+			ciphers.add(cipher);
+			stageDone(MetricStage.ENCRYPT, null, start);
 		}
+	}
 
-		return cipher;
+	/**
+	 * Encrypt the given content into a pooled buffer.
+	 *
+	 * @param content The content. His position will not be changed.
+	 * @return The pooled buffer which contains the initialisation vector followed by the encrypted content.
+	 */
+	private ByteBuffer encrypt(ByteBuffer content) {
+		final byte[] iv = nextIV();
+		final Cipher cipher = borrowCipher();
+		final long start = stageStart();
+		ByteBuffer encrypted = null;
+
+		try {
+			cipher.init(Cipher.ENCRYPT_MODE, getSecretKey(), new IvParameterSpec(iv));
+
+			encrypted = BufferPool.DEFAULT.acquire(IV_LENGTH + cipher.getOutputSize(content.remaining()));
+			encrypted.limit(encrypted.capacity());
+			encrypted.put(iv);
+			cipher.doFinal(content.duplicate(), encrypted);
+			encrypted.flip();
+
+			return encrypted;
+		} catch (GeneralSecurityException e) {
+			BufferPool.DEFAULT.releaseAll(encrypted);
+			throw new IllegalStateException(e);
+		} finally {
+			ciphers.add(cipher);
+			stageDone(MetricStage.ENCRYPT, null, start);
+		}
 	}
 
-	private Cipher initialiseCipher() {
-		Cipher cipher = null;
+	/**
+	 * Decrypt the given content into a pooled buffer.
+	 *
+	 * @param content The initialisation vector followed by the encrypted content. His position will not be changed.
+	 * @return The pooled buffer which contains the decrypted content.
+	 * @throws IOException If no initialisation vector is given.
+	 */
+	private ByteBuffer decryptToBuffer(ByteBuffer content) throws IOException {
+		if(content.remaining() < IV_LENGTH){
+			throw new IOException("The protocol was not followed. No initialisation vector is given!");
+		}
+
+		final ByteBuffer input = content.duplicate();
+		final Cipher cipher = borrowCipher();
+		final long start = stageStart();
+		ByteBuffer decrypted = null;
 
 		try {
-			cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-		} catch (Exception e) {
+			cipher.init(Cipher.DECRYPT_MODE, getSecretKey(),
+					new IvParameterSpec(input.array(), input.arrayOffset() + input.position(), IV_LENGTH));
+			input.position(input.position() + IV_LENGTH);
+
+			decrypted = BufferPool.DEFAULT.acquire(cipher.getOutputSize(input.remaining()));
+			decrypted.limit(decrypted.capacity());
+			cipher.doFinal(input, decrypted);
+			decrypted.flip();
+
+			return decrypted;
+		} catch (GeneralSecurityException e) {
+			BufferPool.DEFAULT.releaseAll(decrypted);
 			throw new IllegalStateException(e);
+		} finally {
+			ciphers.add(cipher);
+			stageDone(MetricStage.DECRYPT, null, start);
 		}
+	}
 
-		return cipher;
+	/**
+	 * Decrypt the given content.
+	 *
+	 * @param content The initialisation vector followed by the encrypted content.
+	 * @return The decrypted content.
+	 * @throws IOException If no initialisation vector is given.
+	 */
+	private byte[] decrypt(ByteBuffer content) throws IOException {
+		if(content.remaining() < IV_LENGTH){
+			throw new IOException("The protocol was not followed. No initialisation vector is given!");
+		}
+
+		final int offset = content.arrayOffset() + content.position();
+		final Cipher cipher = borrowCipher();
+		final long start = stageStart();
+
+		try {
+			cipher.init(Cipher.DECRYPT_MODE, getSecretKey(), new IvParameterSpec(content.array(), offset, IV_LENGTH));
+
+			return cipher.doFinal(content.array(), offset + IV_LENGTH, content.remaining() - IV_LENGTH);
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			ciphers.add(cipher);
+			stageDone(MetricStage.DECRYPT, null, start);
+		}
 	}
 
 	@Override
-	public void send(Message message) throws IOException {
-		byte[] rawMessage = serialize(message);
-
-		synchronized (encryptCipher) {
-			try {
-				rawMessage = encryptCipher.doFinal(rawMessage);
-			} catch (Exception e) {
-				throw new IllegalStateException(e);
+	protected void send(Message message, int correlation) throws IOException {
+		final ByteBuffer rawMessage = serializeToBuffer(message);
+		ByteBuffer compressed = null;
+		ByteBuffer encrypted = null;
+
+		try {
+			if(correlation == PendingRequests.NO_CORRELATION && rawMessage.remaining() > STREAM_THRESHOLD){
+				sendChunked(message.getClass(), rawMessage);
+				return;
 			}
+
+			compressed = compress(message.getClass(), rawMessage);
+			encrypted = encrypt(compressed != null ? compressed : rawMessage);
+
+			sendRaw(message.getClass(), encrypted, compressed != null, correlation);
+		} finally {
+			BufferPool.DEFAULT.releaseAll(rawMessage, compressed, encrypted);
 		}
+	}
+
+	/**
+	 * Send all given {@link Message}s in one frame. The whole batch will be encrypted only once.
+	 */
+	@Override
+	public void send(Collection<? extends Message> messages) throws IOException {
+		if(messages.isEmpty()){
+			return;
+		}
+
+		final ByteBuffer rawBatch = serializeBatchToBuffer(messages);
+		ByteBuffer compressed = null;
+		ByteBuffer encrypted = null;
+
+		try {
+			compressed = compress(null, rawBatch);
+			encrypted = encrypt(compressed != null ? compressed : rawBatch);
+
+			sendRawBatch(encrypted, compressed != null);
+		} finally {
+			BufferPool.DEFAULT.releaseAll(rawBatch, compressed, encrypted);
+		}
+	}
+
+	@Override
+	protected byte[] encodeShared(Class<? extends Message> messageClass, byte[] rawMessage) {
+		return encrypt(rawMessage, rawMessage.length);
+	}
+
+	/**
+	 * The initialisation vector is sent in front of the encrypted message, so the encrypted message is not bound
+	 * to this connection. All connectors with the same key can send it.
+	 */
+	@Override
+	protected boolean isSharedEncoding() {
+		return true;
+	}
+
+	/**
+	 * Each chunk of a streamed message will be encrypted separately.
+	 */
+	@Override
+	protected byte[] encodeChunk(Class<? extends Message> messageClass, int index, boolean last, byte[] chunk, int length) {
+		return encrypt(chunk, length);
+	}
+
+	@Override
+	protected byte[] decodeChunk(RawMessage chunk, int index, boolean last) throws IOException {
+		return decrypt(chunk.rawMessage);
+	}
+
+	@Override
+	protected byte[] encodeControl(byte[] control) {
+		return encrypt(control, control.length);
+	}
+
+	@Override
+	protected byte[] decodeControl(ByteBuffer control) throws IOException {
+		return decrypt(control);
+	}
 
-		sendRaw(message.getClass(), rawMessage);
+	@Override
+	protected byte[] encodeChannelControl(byte[] control) {
+		return encrypt(control, control.length);
+	}
+
+	@Override
+	protected byte[] decodeChannelControl(RawMessage control) throws IOException {
+		return decrypt(control.rawMessage);
+	}
+
+	@Override
+	protected byte[] encodeIdAnnouncement(byte[] announcement) {
+		return encrypt(announcement, announcement.length);
 	}
 
 	@Override
-	public Message receive() throws IOException {
+	protected byte[] decodeIdAnnouncement(RawMessage announcement) throws IOException {
+		return decrypt(announcement.rawMessage);
+	}
+
+	@Override
+	protected byte[] encodeDescriptors(byte[] announcement) {
+		return encrypt(announcement, announcement.length);
+	}
+
+	@Override
+	protected byte[] decodeDescriptors(RawMessage announcement) throws IOException {
+		return decrypt(announcement.rawMessage);
+	}
+
+	@Override
+	protected Message receiveNext() throws IOException {
 		RawMessage rawMessage = receiveRaw();
+		if(rawMessage.hasMore()){
+			return deserializeStreamed(rawMessage);
+		}
 
-		final byte[] decryptedMessage;
+		ByteBuffer decrypted = null;
+		ByteBuffer decompressed = null;
+		try {
+			decrypted = decryptToBuffer(rawMessage.rawMessage);
+			decompressed = decompress(rawMessage, decrypted);
 
-		synchronized (decryptCipher) {
-			try {
-				decryptedMessage = decryptCipher.doFinal(rawMessage.rawMessage);
-			} catch (Exception e) {
-				throw new IllegalStateException(e);
+			if(isBatch(rawMessage)){
+				unpackBatch(decompressed);
+				return deserializeBatched();
 			}
-		}
 
-		return deserialize(rawMessage.messageId, decryptedMessage);
+			return deserialize(rawMessage, decompressed);
+		} finally {
+			rawMessage.release();
+			BufferPool.DEFAULT.releaseAll(decrypted, decompressed == decrypted ? null : decompressed);
+		}
 	}
 }
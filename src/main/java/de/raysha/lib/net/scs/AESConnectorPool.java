@@ -0,0 +1,652 @@
+package de.raysha.lib.net.scs;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.InvalidKeyException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.crypto.SecretKey;
+
+/**
+ * A thread-safe pool of connected {@link AbstractAESConnector}s for clients. The connectors are pooled per endpoint and key.
+ * A borrowed connector is ready to use: the TCP connection is established and the ciphers are initialised. It must
+ * be given back (see {@link #release(AbstractAESConnector)}) or thrown away if it is broken (see {@link #invalidate(AbstractAESConnector)}).
+ * <p>
+ * A connector which was idle for a while will be validated by a ping (see {@link Connector#ping(long, TimeUnit)})
+ * before it is borrowed. So the server must receive the messages of his connections all the time (which he
+ * usually does). Idle connectors will be closed after the idle timeout, but at least the minimal number of idle
+ * connectors is kept for each endpoint. If the leak detection is enabled (see {@link #setLeakDetection(long, TimeUnit, LeakListener)}),
+ * connectors which are borrowed too long will be reported together with the stack of their borrower.
+ * <p>
+ * The settings should be done before the first connector is borrowed.
+ *
+ * @author rainu
+ */
+public class AESConnectorPool {
+	public static final int DEFAULT_MAX_TOTAL = 8;
+	public static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+	public static final long DEFAULT_BORROW_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+	public static final long DEFAULT_CONNECT_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+	public static final long DEFAULT_VALIDATION_TIMEOUT = TimeUnit.SECONDS.toMillis(1);
+	public static final long DEFAULT_VALIDATION_INTERVAL = 500;
+
+	/**
+	 * How often the idle connectors are checked (and the leaks are searched).
+	 */
+	private static final long MAINTENANCE_INTERVAL = 100;
+
+	private static final ScheduledExecutorService MAINTENANCE = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			final Thread thread = new Thread(r, "Connector-Pool-Maintenance");
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	});
+
+	/**
+	 * Creates the connectors of a pool. It can be used for registering the serializers or for creating {@link AESGCMConnector}s.
+	 */
+	public static interface ConnectorFactory {
+		/**
+		 * Creates a connector for the given (connected) socket.
+		 *
+		 * @param socket The connected socket.
+		 * @param key The secret key for the AES-Encryption.
+		 * @return The new connector.
+		 * @throws IOException If the connector could not be created.
+		 * @throws InvalidKeyException If the given key is invalid.
+		 */
+		public AbstractAESConnector create(Socket socket, SecretKey key) throws IOException, InvalidKeyException;
+	}
+
+	/**
+	 * This listener will be informed if a connector is borrowed longer than the leak timeout.
+	 */
+	public static interface LeakListener {
+		/**
+		 * The given connector is borrowed too long.
+		 *
+		 * @param connector The borrowed connector.
+		 * @param borrower The stack of the borrowing thread at the time of borrowing.
+		 */
+		public void onLeak(AbstractAESConnector connector, Throwable borrower);
+	}
+
+	private static final ConnectorFactory DEFAULT_FACTORY = new ConnectorFactory() {
+		@Override
+		public AbstractAESConnector create(Socket socket, SecretKey key) throws InvalidKeyException {
+			return new AESConnector(socket, key);
+		}
+	};
+
+	private final ConcurrentMap<Endpoint, Partition> partitions = new ConcurrentHashMap<Endpoint, Partition>();
+	private final ConcurrentMap<AbstractAESConnector, Pooled> borrowed = new ConcurrentHashMap<AbstractAESConnector, Pooled>();
+	private final ScheduledFuture<?> maintenance;
+
+	private volatile ConnectorFactory factory = DEFAULT_FACTORY;
+	private volatile int maxTotal = DEFAULT_MAX_TOTAL;
+	private volatile int minIdle = 0;
+	private volatile long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+	private volatile long borrowTimeout = DEFAULT_BORROW_TIMEOUT;
+	private volatile int connectTimeout = (int) DEFAULT_CONNECT_TIMEOUT;
+	private volatile long validationTimeout = DEFAULT_VALIDATION_TIMEOUT;
+	private volatile long validationInterval = DEFAULT_VALIDATION_INTERVAL;
+	private volatile long leakTimeout = 0;
+	private volatile LeakListener leakListener;
+	private volatile boolean closed = false;
+
+	public AESConnectorPool() {
+		this.maintenance = MAINTENANCE.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				maintain();
+			}
+		}, MAINTENANCE_INTERVAL, MAINTENANCE_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	public AESConnectorPool(ConnectorFactory factory) {
+		this();
+
+		setConnectorFactory(factory);
+	}
+
+	/**
+	 * Set the factory of the new connectors.
+	 *
+	 * @param factory The factory or <b>null</b> for creating usual (CBC-based) {@link AESConnector}s.
+	 */
+	public void setConnectorFactory(ConnectorFactory factory) {
+		this.factory = factory == null ? DEFAULT_FACTORY : factory;
+	}
+
+	/**
+	 * Set the maximal number of connectors (idle and borrowed) per endpoint. If all of them are borrowed,
+	 * the next borrower waits (see {@link #setBorrowTimeout(long, TimeUnit)}).
+	 *
+	 * @param maxTotal The maximal number of connectors. By default {@value #DEFAULT_MAX_TOTAL}.
+	 */
+	public void setMaxTotal(int maxTotal) {
+		if(maxTotal <= 0){
+			throw new IllegalArgumentException("The maximal number of connectors must be positive!");
+		}
+
+		this.maxTotal = maxTotal;
+	}
+
+	/**
+	 * Set the minimal number of idle connectors per endpoint. They are kept even if their idle timeout
+	 * is over. If less connectors are idle, new connectors will be created in the background.
+	 *
+	 * @param minIdle The minimal number of idle connectors. By default 0.
+	 */
+	public void setMinIdle(int minIdle) {
+		if(minIdle < 0){
+			throw new IllegalArgumentException("The minimal number of idle connectors must not be negative!");
+		}
+
+		this.minIdle = minIdle;
+	}
+
+	/**
+	 * Set the time after which an idle connector will be closed.
+	 *
+	 * @param timeout The idle timeout or 0 for never.
+	 * @param unit The unit of the timeout.
+	 */
+	public void setIdleTimeout(long timeout, TimeUnit unit) {
+		this.idleTimeout = unit.toMillis(timeout);
+	}
+
+	/**
+	 * Set the maximal time to wait for a connector if all connectors of an endpoint are borrowed.
+	 *
+	 * @param timeout The maximal time to wait.
+	 * @param unit The unit of the timeout.
+	 */
+	public void setBorrowTimeout(long timeout, TimeUnit unit) {
+		this.borrowTimeout = unit.toMillis(timeout);
+	}
+
+	/**
+	 * Set the maximal time to wait for the establishing of a new connection.
+	 *
+	 * @param timeout The maximal time to wait or 0 for no timeout.
+	 * @param unit The unit of the timeout.
+	 */
+	public void setConnectTimeout(long timeout, TimeUnit unit) {
+		this.connectTimeout = (int) Math.min(Integer.MAX_VALUE, unit.toMillis(timeout));
+	}
+
+	/**
+	 * Set how an idle connector is validated before it is borrowed.
+	 *
+	 * @param timeout The maximal time to wait for the pong of the server or 0 for no validation.
+	 * @param interval A connector which was used within this interval is not validated.
+	 * @param unit The unit of the timeout and the interval.
+	 */
+	public void setValidation(long timeout, long interval, TimeUnit unit) {
+		this.validationTimeout = unit.toMillis(timeout);
+		this.validationInterval = unit.toMillis(interval);
+	}
+
+	/**
+	 * Enable the leak detection. Each borrowing remembers the stack of his thread. Therefore the
+	 * borrowing is more expensive.
+	 *
+	 * @param timeout A connector which is borrowed longer than this time is reported as leak (once). 0 disables the leak detection.
+	 * @param unit The unit of the timeout.
+	 * @param listener The listener for the leaks or <b>null</b> to print them on the standard error.
+	 */
+	public void setLeakDetection(long timeout, TimeUnit unit, LeakListener listener) {
+		this.leakListener = listener;
+		this.leakTimeout = unit.toMillis(timeout);
+	}
+
+	/**
+	 * Borrow a connector to the given endpoint. The password is derived only once (see {@link AESKeyProvider#getDefault()}).
+	 *
+	 * @param host The host name of the server.
+	 * @param port The port of the server.
+	 * @param password The secret password for the AES-Encryption.
+	 * @return The connected connector.
+	 * @throws IOException If no connection could be established or no connector was available in time.
+	 */
+	public AbstractAESConnector borrow(String host, int port, String password) throws IOException {
+		return borrow(new InetSocketAddress(host, port), AESConnector.initialiseKey(password));
+	}
+
+	/**
+	 * Borrow a connector to the given endpoint.
+	 *
+	 * @param host The host name of the server.
+	 * @param port The port of the server.
+	 * @param key The secret key for the AES-Encryption.
+	 * @return The connected connector.
+	 * @throws IOException If no connection could be established or no connector was available in time.
+	 */
+	public AbstractAESConnector borrow(String host, int port, SecretKey key) throws IOException {
+		return borrow(new InetSocketAddress(host, port), key);
+	}
+
+	/**
+	 * Borrow a connector to the given endpoint. An idle connector will be reused (and maybe validated before).
+	 * If no connector is idle, a new connection will be established. If the maximal number of connectors of this
+	 * endpoint is reached, the calling thread waits until a connector is given back.
+	 *
+	 * @param endpoint The address of the server.
+	 * @param key The secret key for the AES-Encryption.
+	 * @return The connected connector.
+	 * @throws IOException If no connection could be established or no connector was available in time.
+	 * @throws IllegalArgumentException If the key is invalid.
+	 * @throws IllegalStateException If the pool is closed.
+	 */
+	public AbstractAESConnector borrow(InetSocketAddress endpoint, SecretKey key) throws IOException {
+		final Partition partition = partitionOf(new Endpoint(endpoint, key));
+		final long deadline = System.currentTimeMillis() + borrowTimeout;
+
+		while(true){
+			if(closed){
+				throw new IllegalStateException("The pool is closed!");
+			}
+
+			Pooled pooled = partition.take(deadline);
+			if(pooled == null){
+				pooled = partition.create();
+			}else if(!isValid(pooled)){
+				partition.destroy(pooled);
+				continue;
+			}
+
+			pooled.borrowedAt = System.currentTimeMillis();
+			pooled.borrower = leakTimeout > 0 ? new Throwable("The connector was borrowed here.") : null;
+			pooled.leakReported = false;
+			borrowed.put(pooled.connector, pooled);
+
+			return pooled.connector;
+		}
+	}
+
+	private Partition partitionOf(Endpoint endpoint) {
+		Partition partition = partitions.get(endpoint);
+		if(partition == null){
+			partition = new Partition(endpoint);
+
+			final Partition existing = partitions.putIfAbsent(endpoint, partition);
+			if(existing != null){
+				partition = existing;
+			}
+		}
+
+		return partition;
+	}
+
+	private boolean isValid(Pooled pooled) {
+		final long timeout = validationTimeout;
+		if(timeout <= 0 || System.currentTimeMillis() - pooled.idleSince < validationInterval){
+			return true;
+		}
+
+		try {
+			return pooled.connector.ping(timeout, TimeUnit.MILLISECONDS);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Give back the given connector, so it can be borrowed again. If the dispatching of the connector is
+	 * started, it will be stopped. A broken connector should be invalidated instead (see {@link #invalidate(AbstractAESConnector)}).
+	 *
+	 * @param connector The borrowed connector.
+	 * @throws IllegalArgumentException If the connector is not borrowed from this pool.
+	 */
+	public void release(AbstractAESConnector connector) {
+		final Pooled pooled = removeBorrowed(connector);
+		if(connector.isDispatching()){
+			connector.stopDispatching();
+		}
+
+		if(closed){
+			pooled.partition.destroy(pooled);
+		}else{
+			pooled.partition.giveBack(pooled);
+		}
+	}
+
+	/**
+	 * Close the given borrowed connector. The pool will create a new connector instead.
+	 *
+	 * @param connector The borrowed connector.
+	 * @throws IllegalArgumentException If the connector is not borrowed from this pool.
+	 */
+	public void invalidate(AbstractAESConnector connector) {
+		final Pooled pooled = removeBorrowed(connector);
+		pooled.partition.destroy(pooled);
+	}
+
+	private Pooled removeBorrowed(AbstractAESConnector connector) {
+		final Pooled pooled = borrowed.remove(connector);
+		if(pooled == null){
+			throw new IllegalArgumentException("The connector is not borrowed from this pool!");
+		}
+
+		return pooled;
+	}
+
+	/**
+	 * Get the number of idle connectors of all endpoints.
+	 *
+	 * @return The number of idle connectors.
+	 */
+	public int getIdleCount() {
+		int count = 0;
+		for(Partition partition : partitions.values()){
+			count += partition.idleCount();
+		}
+
+		return count;
+	}
+
+	/**
+	 * Get the number of borrowed connectors of all endpoints.
+	 *
+	 * @return The number of borrowed connectors.
+	 */
+	public int getBorrowedCount() {
+		return borrowed.size();
+	}
+
+	/**
+	 * Close all idle connectors. The borrowed connectors will be closed when they are given back.
+	 */
+	public void close() {
+		closed = true;
+		maintenance.cancel(false);
+
+		for(Partition partition : partitions.values()){
+			partition.clear();
+		}
+	}
+
+	private void maintain() {
+		for(Partition partition : partitions.values()){
+			partition.evict();
+			partition.fill();
+		}
+
+		final long timeout = leakTimeout;
+		if(timeout > 0){
+			final long now = System.currentTimeMillis();
+			for(Pooled pooled : borrowed.values()){
+				if(!pooled.leakReported && pooled.borrower != null && now - pooled.borrowedAt > timeout){
+					pooled.leakReported = true;
+					reportLeak(pooled);
+				}
+			}
+		}
+	}
+
+	private void reportLeak(Pooled pooled) {
+		final LeakListener listener = leakListener;
+		if(listener != null){
+			listener.onLeak(pooled.connector, pooled.borrower);
+		}else{
+			System.err.println("A connector to " + pooled.partition.endpoint.address + " is borrowed since "
+					+ (System.currentTimeMillis() - pooled.borrowedAt) + "ms. Maybe it is not given back!");
+			pooled.borrower.printStackTrace();
+		}
+	}
+
+	/**
+	 * The pooled connectors of one endpoint.
+	 */
+	private class Partition {
+		private final Endpoint endpoint;
+
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition available = lock.newCondition();
+		/**
+		 * The most recently used connector is the first. So the connectors at the end can become idle.
+		 */
+		private final Deque<Pooled> idle = new ArrayDeque<Pooled>();
+		private int total = 0;
+
+		public Partition(Endpoint endpoint) {
+			this.endpoint = endpoint;
+		}
+
+		/**
+		 * Take an idle connector or the permission for a new one.
+		 *
+		 * @param deadline The time until the calling thread waits.
+		 * @return An idle connector or <b>null</b> if a new connector should be created.
+		 * @throws IOException If the time is over.
+		 */
+		public Pooled take(long deadline) throws IOException {
+			lock.lock();
+			try {
+				while(true){
+					final Pooled pooled = idle.pollFirst();
+					if(pooled != null){
+						return pooled;
+					}
+					if(total < maxTotal){
+						total++;
+						return null;
+					}
+
+					final long remaining = deadline - System.currentTimeMillis();
+					if(remaining <= 0){
+						throw new IOException("No connector to " + endpoint.address + " is available. All "
+								+ total + " connectors are borrowed!");
+					}
+					available.await(remaining, TimeUnit.MILLISECONDS);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("The borrowing was interrupted!", e);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Creates a new connector. The calling thread must have the permission for it (see {@link #take(long)}).
+		 */
+		public Pooled create() throws IOException {
+			boolean created = false;
+			try {
+				final Pooled pooled = new Pooled(this, connect());
+				created = true;
+
+				return pooled;
+			} finally {
+				if(!created){
+					release();
+				}
+			}
+		}
+
+		private AbstractAESConnector connect() throws IOException {
+			final Socket socket = new Socket();
+			boolean connected = false;
+			try {
+				socket.connect(endpoint.address, connectTimeout);
+				final AbstractAESConnector connector = factory.create(socket, endpoint.key);
+				connected = true;
+
+				return connector;
+			} catch (InvalidKeyException e) {
+				throw new IllegalArgumentException("The key is invalid!", e);
+			} finally {
+				if(!connected){
+					try { socket.close(); } catch (IOException e) { }
+				}
+			}
+		}
+
+		public void giveBack(Pooled pooled) {
+			pooled.idleSince = System.currentTimeMillis();
+
+			lock.lock();
+			try {
+				idle.addFirst(pooled);
+				available.signal();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		public void destroy(Pooled pooled) {
+			try {
+				pooled.connector.disconnect();
+			} catch (IOException e) { }
+
+			release();
+		}
+
+		/**
+		 * Give back the permission of a connector.
+		 */
+		private void release() {
+			lock.lock();
+			try {
+				total--;
+				available.signal();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		public int idleCount() {
+			lock.lock();
+			try {
+				return idle.size();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Close the connectors which are idle too long.
+		 */
+		public void evict() {
+			final long timeout = idleTimeout;
+			if(timeout <= 0){
+				return;
+			}
+
+			final List<Pooled> evicted = new ArrayList<Pooled>();
+			final long now = System.currentTimeMillis();
+
+			lock.lock();
+			try {
+				while(idle.size() > minIdle && now - idle.peekLast().idleSince > timeout){
+					evicted.add(idle.pollLast());
+				}
+			} finally {
+				lock.unlock();
+			}
+
+			for(Pooled pooled : evicted){
+				destroy(pooled);
+			}
+		}
+
+		/**
+		 * Creates new idle connectors until the minimal number is reached.
+		 */
+		public void fill() {
+			while(!closed){
+				lock.lock();
+				try {
+					if(idle.size() >= minIdle || total >= maxTotal){
+						return;
+					}
+					total++;
+				} finally {
+					lock.unlock();
+				}
+
+				try {
+					giveBack(create());
+				} catch (IOException e) {
+					return;	//try again later
+				} catch (RuntimeException e) {
+					return;
+				}
+			}
+		}
+
+		public void clear() {
+			final List<Pooled> cleared;
+
+			lock.lock();
+			try {
+				cleared = new ArrayList<Pooled>(idle);
+				idle.clear();
+			} finally {
+				lock.unlock();
+			}
+
+			for(Pooled pooled : cleared){
+				destroy(pooled);
+			}
+		}
+	}
+
+	private static class Pooled {
+		private final Partition partition;
+		private final AbstractAESConnector connector;
+		private volatile long idleSince;
+		private volatile long borrowedAt;
+		private volatile Throwable borrower;
+		private volatile boolean leakReported;
+
+		public Pooled(Partition partition, AbstractAESConnector connector) {
+			this.partition = partition;
+			this.connector = connector;
+			this.idleSince = System.currentTimeMillis();
+		}
+	}
+
+	private static class Endpoint {
+		private final InetSocketAddress address;
+		private final SecretKey key;
+
+		public Endpoint(InetSocketAddress address, SecretKey key) {
+			this.address = address;
+			this.key = key;
+		}
+
+		@Override
+		public int hashCode() {
+			return address.hashCode() * 31 + key.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof Endpoint)){
+				return false;
+			}
+
+			final Endpoint other = (Endpoint) obj;
+			return address.equals(other.address) && key.equals(other.key);
+		}
+	}
+}
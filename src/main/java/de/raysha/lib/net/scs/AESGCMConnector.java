@@ -0,0 +1,567 @@
+package de.raysha.lib.net.scs;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.SecureRandom;
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+import de.raysha.lib.net.scs.model.Message;
+import de.raysha.lib.net.scs.utils.BufferPool;
+
+/**
+ * This is a variant of the {@link AESConnector} which uses the AES-Cipher in the Galois/Counter Mode (GCM).
+ * Each message gets his own nonce, which is derived from a random connection prefix and a sequence counter.
+ * The nonce is sent in front of the encrypted message. Because of that each message can be encrypted
+ * and decrypted independently (and in parallel by several threads). The authentication tag of each
+ * message will be checked before the message is deserialized. So corrupt or manipulated messages will
+ * be rejected. The normalized message id, the compression flag and the correlation of requests are authenticated too.
+ * <p>
+ * The direction of a message (from the client or from the server) is authenticated and the nonces of my partner
+ * are checked (see {@link NonceWindow}). So a message can not be replayed within a connection, reflected back to his
+ * sender or mixed into a running connection from an other one with the same key.
+ * <p>
+ * <b>Attention:</b> there is no handshake, so the connection is not bound to a fresh value of both sides. Someone who
+ * has recorded a whole session can replay it (from his first message on) into a new connection with the same key.
+ * If this matters, the application must check the freshness by itself (for example by a random challenge which has to be
+ * answered by the partner) or use an own key for each session.
+ * <p>
+ * Both sides of a connection must use this connector: one of them as the server side, the other one as the
+ * client side. It needs a JRE which provides AES/GCM (Java 8 or later).
+ *
+ * @author rainu
+ */
+public class AESGCMConnector extends AbstractAESConnector {
+	private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+	private static final int NONCE_LENGTH = 12;
+	private static final int PREFIX_LENGTH = 8;
+	private static final int TAG_LENGTH = 128;
+	/**
+	 * The additional authenticated data of the class descriptor announcements. It differs from the
+	 * data of all messages (see {@link #aad(String, boolean)}), so an announcement can not be passed off as a message.
+	 */
+	private static final byte[] DESCRIPTORS_AAD = "descriptors".getBytes();
+	/**
+	 * The additional authenticated data of the compact message id announcements (see {@link #DESCRIPTORS_AAD}).
+	 */
+	private static final byte[] ID_ANNOUNCEMENT_AAD = "compact ids".getBytes();
+	/**
+	 * The additional authenticated data of the pings and pongs (see {@link #DESCRIPTORS_AAD}).
+	 */
+	private static final byte[] CONTROL_AAD = "control".getBytes();
+	/**
+	 * The additional authenticated data of the control frames of the channels (see {@link #DESCRIPTORS_AAD}).
+	 */
+	private static final byte[] CHANNEL_CONTROL_AAD = "channel control".getBytes();
+	/**
+	 * The prefix of the additional authenticated data of the channel chunks (see {@link #channelAad(int, String, int, boolean)}).
+	 */
+	private static final byte[] CHANNEL_AAD = "channel".getBytes();
+	private static final byte FROM_CLIENT = 0;
+	private static final byte FROM_SERVER = 1;
+
+	private static final SecureRandom random = new SecureRandom();
+
+	/**
+	 * The first part of each nonce. It is unique (random) for each connector, because all connectors of a server
+	 * share the same key.
+	 */
+	private final byte[] noncePrefix = new byte[PREFIX_LENGTH];
+	private final AtomicInteger sequence = new AtomicInteger();
+	private final NonceWindow nonces = new NonceWindow(PREFIX_LENGTH);
+	/**
+	 * The direction of my messages and of the messages of my partner. They are authenticated in front of
+	 * the additional authenticated data of each message.
+	 */
+	private final byte[] sendDirection;
+	private final byte[] receiveDirection;
+
+	/**
+	 * A {@link Cipher} is not thread-safe. So each encryption/decryption borrows a cipher from this pool.
+	 */
+	private final Queue<Cipher> ciphers = new ConcurrentLinkedQueue<Cipher>();
+
+	/**
+	 * Creates an secure connector for the client side of a client- server- communication.
+	 *
+	 * @param socket The socket over which should be communicate.
+	 * @param key The secret key for the AES-Encryption.
+	 * @throws InvalidKeyException If the given key is invalid.
+	 */
+	public AESGCMConnector(Socket socket, SecretKey key) throws InvalidKeyException {
+		this(socket, key, false);
+	}
+
+	/**
+	 * Creates an secure connector for client- server- communication.
+	 *
+	 * @param socket The socket over which should be communicate.
+	 * @param key The secret key for the AES-Encryption.
+	 * @param serverSide True if this connector is the server side of the connection (see {@link AESServer}).
+	 * The connector of my partner must be the other side.
+	 * @throws InvalidKeyException If the given key is invalid.
+	 */
+	public AESGCMConnector(Socket socket, SecretKey key, boolean serverSide) throws InvalidKeyException {
+		super(socket, key);
+
+		this.sendDirection = new byte[]{ serverSide ? FROM_SERVER : FROM_CLIENT };
+		this.receiveDirection = new byte[]{ serverSide ? FROM_CLIENT : FROM_SERVER };
+		random.nextBytes(noncePrefix);
+		giveBack(checkKey(borrowCipher()));
+	}
+
+	/**
+	 * Creates an secure connector for the client side of a client- server- communication.
+	 *
+	 * @param socket The socket over which should be communicate.
+	 * @param password The secret password for the AES-Encryption.
+	 * @throws InvalidKeyException If the given key is invalid.
+	 */
+	public AESGCMConnector(Socket socket, String password) throws InvalidKeyException {
+		this(socket, initialiseKey(password));
+	}
+
+	/**
+	 * Creates an secure connector for client- server- communication.
+	 *
+	 * @param socket The socket over which should be communicate.
+	 * @param password The secret password for the AES-Encryption.
+	 * @param serverSide True if this connector is the server side of the connection.
+	 * @throws InvalidKeyException If the given key is invalid.
+	 */
+	public AESGCMConnector(Socket socket, String password, boolean serverSide) throws InvalidKeyException {
+		this(socket, initialiseKey(password), serverSide);
+	}
+
+	private Cipher checkKey(Cipher cipher) throws InvalidKeyException {
+		try {
+			cipher.init(Cipher.DECRYPT_MODE, getSecretKey(), new GCMParameterSpec(TAG_LENGTH, new byte[NONCE_LENGTH]));
+		} catch (GeneralSecurityException e) {
+			if(e instanceof InvalidKeyException) throw (InvalidKeyException)e;
+			throw new IllegalStateException(e);
+		}
+
+		return cipher;
+	}
+
+	private Cipher borrowCipher() {
+		Cipher cipher = ciphers.poll();
+		if(cipher != null){
+			return cipher;
+		}
+
+		try {
+			return Cipher.getInstance(TRANSFORMATION);
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void giveBack(Cipher cipher) {
+		ciphers.add(cipher);
+	}
+
+	private byte[] nextNonce() {
+		int counter;
+		do {
+			counter = sequence.get();
+			if(counter == -1){
+				throw new IllegalStateException("All nonces of this connection are used. Please reconnect!");
+			}
+		} while(!sequence.compareAndSet(counter, counter + 1));
+
+		return ByteBuffer.allocate(NONCE_LENGTH).put(noncePrefix).putInt(counter).array();
+	}
+
+	/**
+	 * Creates the additional authenticated data of a message.
+	 *
+	 * @param messageId The normalized message id. Or <b>null</b> for a batch.
+	 * @param compressed Is the raw message compressed?
+	 * @return The additional authenticated data.
+	 */
+	private static byte[] aad(String messageId, boolean compressed) {
+		final byte[] rawMessageId = messageId == null ? new byte[0] : messageId.getBytes();
+		if(!compressed){
+			return rawMessageId;
+		}
+
+		return ByteBuffer.allocate(rawMessageId.length + 1).put(rawMessageId).put((byte) 1).array();
+	}
+
+	/**
+	 * Creates the additional authenticated data of a request or a response. The correlation tag is authenticated
+	 * too, so a response can not be passed to an other request.
+	 *
+	 * @param messageId The normalized message id.
+	 * @param compressed Is the raw message compressed?
+	 * @param correlation The correlation tag (see {@link Connector#send(Message, int)}) or 0 for a usual message.
+	 * @return The additional authenticated data.
+	 */
+	private static byte[] aad(String messageId, boolean compressed, int correlation) {
+		final byte[] aad = aad(messageId, compressed);
+		if(correlation == PendingRequests.NO_CORRELATION){
+			return aad;
+		}
+
+		return ByteBuffer.allocate(aad.length + 4).put(aad).putInt(correlation).array();
+	}
+
+	/**
+	 * Creates the additional authenticated data of a chunk. A message with only one chunk is authenticated
+	 * like a usual message. Otherwise the position of the chunk is authenticated too. So the chunks
+	 * can not be reordered, dropped or truncated unnoticed.
+	 *
+	 * @param messageId The normalized message id.
+	 * @param index The index of the chunk.
+	 * @param last Is this the last chunk of the message?
+	 * @return The additional authenticated data.
+	 */
+	private static byte[] chunkAad(String messageId, int index, boolean last) {
+		if(index == 0 && last){
+			return aad(messageId, false);
+		}
+
+		final byte[] rawMessageId = messageId.getBytes();
+		return ByteBuffer.allocate(rawMessageId.length + 5)
+				.put(rawMessageId).putInt(index).put((byte) (last ? 1 : 0)).array();
+	}
+
+	/**
+	 * Creates the additional authenticated data of a chunk of a channel. The channel id is authenticated too,
+	 * so a chunk can not be moved into an other channel.
+	 *
+	 * @param channelId The id of the channel.
+	 * @param messageId The normalized message id.
+	 * @param index The index of the chunk.
+	 * @param last Is this the last chunk of the message?
+	 * @return The additional authenticated data.
+	 */
+	private static byte[] channelAad(int channelId, String messageId, int index, boolean last) {
+		final byte[] rawMessageId = messageId.getBytes();
+		return ByteBuffer.allocate(CHANNEL_AAD.length + 4 + rawMessageId.length + 5)
+				.put(CHANNEL_AAD).putInt(channelId).put(rawMessageId).putInt(index).put((byte) (last ? 1 : 0)).array();
+	}
+
+	/**
+	 * Encrypt the given raw message.
+	 *
+	 * @param aad The additional authenticated data (see {@link #aad(String, boolean)}).
+	 * @param rawMessage The raw message.
+	 * @param length The number of bytes of the raw message.
+	 * @return The nonce followed by the encrypted message (including the authentication tag).
+	 */
+	private byte[] encrypt(byte[] aad, byte[] rawMessage, int length) {
+		final byte[] nonce = nextNonce();
+		final Cipher cipher = borrowCipher();
+		final long start = stageStart();
+
+		try {
+			cipher.init(Cipher.ENCRYPT_MODE, getSecretKey(), new GCMParameterSpec(TAG_LENGTH, nonce));
+			cipher.updateAAD(sendDirection);
+			cipher.updateAAD(aad);
+
+			byte[] encrypted = new byte[NONCE_LENGTH + cipher.getOutputSize(length)];
+			System.arraycopy(nonce, 0, encrypted, 0, NONCE_LENGTH);
+			cipher.doFinal(rawMessage, 0, length, encrypted, NONCE_LENGTH);
+
+			return encrypted;
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			giveBack(cipher);
+			stageDone(MetricStage.ENCRYPT, null, start);
+		}
+	}
+
+	/**
+	 * Encrypt the given raw message into a pooled buffer.
+	 *
+	 * @param aad The additional authenticated data (see {@link #aad(String, boolean)}).
+	 * @param rawMessage The raw message. His position will not be changed.
+	 * @return The pooled buffer which contains the nonce followed by the encrypted message.
+	 */
+	private ByteBuffer encrypt(byte[] aad, ByteBuffer rawMessage) {
+		final byte[] nonce = nextNonce();
+		final Cipher cipher = borrowCipher();
+		final long start = stageStart();
+		ByteBuffer encrypted = null;
+
+		try {
+			cipher.init(Cipher.ENCRYPT_MODE, getSecretKey(), new GCMParameterSpec(TAG_LENGTH, nonce));
+			cipher.updateAAD(sendDirection);
+			cipher.updateAAD(aad);
+
+			encrypted = BufferPool.DEFAULT.acquire(NONCE_LENGTH + cipher.getOutputSize(rawMessage.remaining()));
+			encrypted.limit(encrypted.capacity());
+			encrypted.put(nonce);
+			cipher.doFinal(rawMessage.duplicate(), encrypted);
+			encrypted.flip();
+
+			return encrypted;
+		} catch (GeneralSecurityException e) {
+			BufferPool.DEFAULT.releaseAll(encrypted);
+			throw new IllegalStateException(e);
+		} finally {
+			giveBack(cipher);
+			stageDone(MetricStage.ENCRYPT, null, start);
+		}
+	}
+
+	/**
+	 * Check the nonce of an authenticated message (see {@link NonceWindow}).
+	 *
+	 * @throws IOException If the nonce was already used or does not belong to the pinned prefix of my partner.
+	 */
+	private void checkNonce(byte[] nonce, int offset) throws IOException {
+		if(!nonces.accept(nonce, offset)){
+			throw new IOException("The message was replayed or does not belong to this session!");
+		}
+	}
+
+	/**
+	 * Decrypt and authenticate the given received content into a pooled buffer.
+	 *
+	 * @param aad The additional authenticated data (see {@link #aad(String, boolean)}).
+	 * @param content The nonce followed by the encrypted message. His position will not be changed.
+	 * @return The pooled buffer which contains the decrypted message.
+	 * @throws IOException If the message could not be authenticated.
+	 */
+	private ByteBuffer decryptToBuffer(byte[] aad, ByteBuffer content) throws IOException {
+		if(content.remaining() < NONCE_LENGTH){
+			throw new IOException("The protocol was not followed. No nonce is given!");
+		}
+
+		final ByteBuffer input = content.duplicate();
+		final Cipher cipher = borrowCipher();
+		final long start = stageStart();
+		ByteBuffer decrypted = null;
+		boolean done = false;
+
+		try {
+			final int nonceOffset = input.arrayOffset() + input.position();
+			cipher.init(Cipher.DECRYPT_MODE, getSecretKey(), new GCMParameterSpec(TAG_LENGTH, input.array(), nonceOffset, NONCE_LENGTH));
+			cipher.updateAAD(receiveDirection);
+			cipher.updateAAD(aad);
+			input.position(input.position() + NONCE_LENGTH);
+
+			decrypted = BufferPool.DEFAULT.acquire(cipher.getOutputSize(input.remaining()));
+			decrypted.limit(decrypted.capacity());
+			cipher.doFinal(input, decrypted);
+			decrypted.flip();
+			checkNonce(input.array(), nonceOffset);
+			done = true;
+
+			return decrypted;
+		} catch (AEADBadTagException e) {
+			throw new IOException("The message could not be authenticated!", e);
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			if(!done){
+				BufferPool.DEFAULT.releaseAll(decrypted);
+			}
+			giveBack(cipher);
+			stageDone(MetricStage.DECRYPT, null, start);
+		}
+	}
+
+	/**
+	 * Decrypt and authenticate the given received content.
+	 *
+	 * @param aad The additional authenticated data (see {@link #aad(String, boolean)}).
+	 * @param content The nonce followed by the encrypted message.
+	 * @return The decrypted message.
+	 * @throws IOException If the message could not be authenticated.
+	 */
+	private byte[] decrypt(byte[] aad, ByteBuffer content) throws IOException {
+		if(content.remaining() < NONCE_LENGTH){
+			throw new IOException("The protocol was not followed. No nonce is given!");
+		}
+
+		final int offset = content.arrayOffset() + content.position();
+		final Cipher cipher = borrowCipher();
+		final long start = stageStart();
+
+		try {
+			cipher.init(Cipher.DECRYPT_MODE, getSecretKey(),
+					new GCMParameterSpec(TAG_LENGTH, content.array(), offset, NONCE_LENGTH));
+			cipher.updateAAD(receiveDirection);
+			cipher.updateAAD(aad);
+
+			final byte[] decrypted = cipher.doFinal(content.array(), offset + NONCE_LENGTH, content.remaining() - NONCE_LENGTH);
+			checkNonce(content.array(), offset);
+
+			return decrypted;
+		} catch (AEADBadTagException e) {
+			throw new IOException("The message could not be authenticated!", e);
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			giveBack(cipher);
+			stageDone(MetricStage.DECRYPT, null, start);
+		}
+	}
+
+	@Override
+	protected void send(Message message, int correlation) throws IOException {
+		final ByteBuffer rawMessage = serializeToBuffer(message);
+		ByteBuffer compressed = null;
+		ByteBuffer encrypted = null;
+
+		try {
+			if(correlation == PendingRequests.NO_CORRELATION && rawMessage.remaining() > STREAM_THRESHOLD){
+				sendChunked(message.getClass(), rawMessage);
+				return;
+			}
+
+			compressed = compress(message.getClass(), rawMessage);
+			encrypted = encrypt(aad(classToMessageId.get(message.getClass()), compressed != null, correlation),
+					compressed != null ? compressed : rawMessage);
+
+			sendRaw(message.getClass(), encrypted, compressed != null, correlation);
+		} finally {
+			BufferPool.DEFAULT.releaseAll(rawMessage, compressed, encrypted);
+		}
+	}
+
+	/**
+	 * Send all given {@link Message}s in one frame. The whole batch will be encrypted only once.
+	 */
+	@Override
+	public void send(Collection<? extends Message> messages) throws IOException {
+		if(messages.isEmpty()){
+			return;
+		}
+
+		final ByteBuffer rawBatch = serializeBatchToBuffer(messages);
+		ByteBuffer compressed = null;
+		ByteBuffer encrypted = null;
+
+		try {
+			compressed = compress(null, rawBatch);
+			encrypted = encrypt(aad(null, compressed != null), compressed != null ? compressed : rawBatch);
+
+			sendRawBatch(encrypted, compressed != null);
+		} finally {
+			BufferPool.DEFAULT.releaseAll(rawBatch, compressed, encrypted);
+		}
+	}
+
+	/**
+	 * A message for many connectors gets his own nonce like any other message.
+	 */
+	@Override
+	protected byte[] encodeShared(Class<? extends Message> messageClass, byte[] rawMessage) {
+		return encrypt(aad(classToMessageId.get(messageClass), false), rawMessage, rawMessage.length);
+	}
+
+	/**
+	 * The nonce of an encrypted message is bound to this connection (see {@link NonceWindow}). So each connector
+	 * must encrypt the message by himself.
+	 */
+	@Override
+	protected boolean isSharedEncoding() {
+		return false;
+	}
+
+	/**
+	 * Each chunk of a streamed message will be encrypted (and authenticated) separately.
+	 */
+	@Override
+	protected byte[] encodeChunk(Class<? extends Message> messageClass, int index, boolean last, byte[] chunk, int length) {
+		return encrypt(chunkAad(classToMessageId.get(messageClass), index, last), chunk, length);
+	}
+
+	@Override
+	protected byte[] decodeChunk(RawMessage chunk, int index, boolean last) throws IOException {
+		return decrypt(chunkAad(chunk.messageId, index, last), chunk.rawMessage);
+	}
+
+	@Override
+	protected byte[] encodeChannelChunk(int channelId, Class<? extends Message> messageClass, int index, boolean last, byte[] chunk, int length) {
+		return encrypt(channelAad(channelId, classToMessageId.get(messageClass), index, last), chunk, length);
+	}
+
+	@Override
+	protected byte[] decodeChannelChunk(int channelId, RawMessage chunk, int index, boolean last) throws IOException {
+		return decrypt(channelAad(channelId, chunk.messageId, index, last), chunk.rawMessage);
+	}
+
+	@Override
+	protected byte[] encodeControl(byte[] control) {
+		return encrypt(CONTROL_AAD, control, control.length);
+	}
+
+	@Override
+	protected byte[] decodeControl(ByteBuffer control) throws IOException {
+		return decrypt(CONTROL_AAD, control);
+	}
+
+	@Override
+	protected byte[] encodeChannelControl(byte[] control) {
+		return encrypt(CHANNEL_CONTROL_AAD, control, control.length);
+	}
+
+	@Override
+	protected byte[] decodeChannelControl(RawMessage control) throws IOException {
+		return decrypt(CHANNEL_CONTROL_AAD, control.rawMessage);
+	}
+
+	@Override
+	protected byte[] encodeIdAnnouncement(byte[] announcement) {
+		return encrypt(ID_ANNOUNCEMENT_AAD, announcement, announcement.length);
+	}
+
+	@Override
+	protected byte[] decodeIdAnnouncement(RawMessage announcement) throws IOException {
+		return decrypt(ID_ANNOUNCEMENT_AAD, announcement.rawMessage);
+	}
+
+	@Override
+	protected byte[] encodeDescriptors(byte[] announcement) {
+		return encrypt(DESCRIPTORS_AAD, announcement, announcement.length);
+	}
+
+	@Override
+	protected byte[] decodeDescriptors(RawMessage announcement) throws IOException {
+		return decrypt(DESCRIPTORS_AAD, announcement.rawMessage);
+	}
+
+	@Override
+	protected Message receiveNext() throws IOException {
+		RawMessage rawMessage = receiveRaw();
+		if(rawMessage.hasMore()){
+			return deserializeStreamed(rawMessage);
+		}
+
+		ByteBuffer decrypted = null;
+		ByteBuffer decompressed = null;
+		try {
+			final boolean batch = isBatch(rawMessage);
+			decrypted = decryptToBuffer(aad(batch ? null : rawMessage.messageId, rawMessage.isCompressed(), rawMessage.getCorrelation()),
+					rawMessage.rawMessage);
+			decompressed = decompress(rawMessage, decrypted);
+
+			if(batch){
+				unpackBatch(decompressed);
+				return deserializeBatched();
+			}
+
+			return deserialize(rawMessage, decompressed);
+		} finally {
+			rawMessage.release();
+			BufferPool.DEFAULT.releaseAll(decrypted, decompressed == decrypted ? null : decompressed);
+		}
+	}
+}
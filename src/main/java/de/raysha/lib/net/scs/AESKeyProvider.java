@@ -0,0 +1,213 @@
+package de.raysha.lib.net.scs;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.KeySpec;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * This class derives {@link SecretKey}s for the AES-Encryption from passwords (PBKDF2WithHmacSHA1).
+ * The derivation is expensive (by design). So each password will be derived only once, the
+ * derived keys are cached. The derivation can be started in the background (see {@link #prewarm(String, Executor)})
+ * so that it not slows down the first connection.
+ * <p>
+ * The cache does not keep the passwords: the keys are cached by a hash (SHA-256) of the password, the salt and the
+ * iteration count. The cache is bounded (see {@link #DEFAULT_MAX_KEYS}), the least recently used key will be evicted.
+ * A key can be evicted explicitly too (see {@link #evict(String)}).
+ *
+ * @author rainu
+ */
+public class AESKeyProvider {
+	public static final byte[] DEFAULT_SALT = "Secure-Client-Server-Salt".getBytes();
+	public static final int DEFAULT_ITERATIONS = 65536;
+	public static final int DEFAULT_MAX_KEYS = 64;
+
+	private static final int KEY_LENGTH = 256;
+
+	private static final AESKeyProvider DEFAULT = new AESKeyProvider();
+
+	private final byte[] salt;
+	private final int iterations;
+
+	/**
+	 * The cached keys by the hash of their password (see {@link #hash(String)}). All accesses are synchronized on the map.
+	 */
+	private final Map<ByteBuffer, FutureTask<SecretKey>> keys;
+
+	/**
+	 * Creates a provider with the default salt and iteration count.
+	 */
+	public AESKeyProvider() {
+		this(DEFAULT_SALT, DEFAULT_ITERATIONS);
+	}
+
+	/**
+	 * Creates a provider with the given salt and iteration count. Both sides of a connection
+	 * must use the same values!
+	 *
+	 * @param salt The salt for the key derivation.
+	 * @param iterations The iteration count for the key derivation.
+	 */
+	public AESKeyProvider(byte[] salt, int iterations) {
+		this(salt, iterations, DEFAULT_MAX_KEYS);
+	}
+
+	/**
+	 * Creates a provider with the given salt and iteration count. Both sides of a connection
+	 * must use the same values!
+	 *
+	 * @param salt The salt for the key derivation.
+	 * @param iterations The iteration count for the key derivation.
+	 * @param maxKeys The maximal number of cached keys.
+	 */
+	public AESKeyProvider(byte[] salt, int iterations, final int maxKeys) {
+		if(iterations <= 0){
+			throw new IllegalArgumentException("The iteration count must be positive!");
+		}
+		if(maxKeys <= 0){
+			throw new IllegalArgumentException("The maximal number of keys must be positive!");
+		}
+
+		this.salt = salt.clone();
+		this.iterations = iterations;
+		this.keys = new LinkedHashMap<ByteBuffer, FutureTask<SecretKey>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ByteBuffer, FutureTask<SecretKey>> eldest) {
+				return size() > maxKeys;
+			}
+		};
+	}
+
+	/**
+	 * Get the provider which is used by the connectors and servers which are created with a password.
+	 *
+	 * @return The default provider.
+	 */
+	public static AESKeyProvider getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Get the {@link SecretKey} of the given password. If the key is not derived yet,
+	 * it will be derived by the calling thread. If an other thread derives it at the moment,
+	 * the calling thread waits for it.
+	 *
+	 * @param password The plain text password.
+	 * @return The {@link SecretKey} that can used for secure connection.
+	 */
+	public SecretKey getKey(String password) {
+		final ByteBuffer hash = hash(password);
+		FutureTask<SecretKey> task = taskFor(hash, password);
+		task.run();	//no-op if already done (or running)
+
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			synchronized (keys) {
+				if(keys.get(hash) == task){
+					keys.remove(hash);
+				}
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Start the derivation of the given password on the given executor. So the key is ready
+	 * (see {@link #getKey(String)}) before it is needed.
+	 *
+	 * @param password The plain text password.
+	 * @param executor The executor on which the derivation should run.
+	 * @return The {@link Future} of the derivation.
+	 */
+	public Future<SecretKey> prewarm(String password, Executor executor) {
+		FutureTask<SecretKey> task = taskFor(hash(password), password);
+		if(!task.isDone()){
+			executor.execute(task);
+		}
+
+		return task;
+	}
+
+	/**
+	 * Remove the cached key of the given password.
+	 *
+	 * @param password The plain text password.
+	 */
+	public void evict(String password) {
+		final ByteBuffer hash = hash(password);
+		synchronized (keys) {
+			keys.remove(hash);
+		}
+	}
+
+	/**
+	 * Remove all cached keys.
+	 */
+	public void clear() {
+		synchronized (keys) {
+			keys.clear();
+		}
+	}
+
+	private FutureTask<SecretKey> taskFor(ByteBuffer hash, final String password) {
+		synchronized (keys) {
+			FutureTask<SecretKey> task = keys.get(hash);
+			if(task == null){
+				task = new FutureTask<SecretKey>(new Callable<SecretKey>() {
+					@Override
+					public SecretKey call() throws Exception {
+						return derive(password);
+					}
+				});
+				keys.put(hash, task);
+			}
+
+			return task;
+		}
+	}
+
+	/**
+	 * Hash the given password together with the salt and the iteration count of this provider.
+	 */
+	private ByteBuffer hash(String password) {
+		try {
+			final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(salt);
+			digest.update(ByteBuffer.allocate(4).putInt(iterations).array());
+			digest.update(password.getBytes("UTF-8"));
+
+			return ByteBuffer.wrap(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private SecretKey derive(String password) throws Exception {
+		SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
+		KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, KEY_LENGTH);
+		SecretKey tmp = factory.generateSecret(spec);
+
+		return new SecretKeySpec(tmp.getEncoded(), "AES");
+	}
+}
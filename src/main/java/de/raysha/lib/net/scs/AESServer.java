@@ -3,24 +3,45 @@ package de.raysha.lib.net.scs;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
 import java.security.InvalidKeyException;
 
 import javax.crypto.SecretKey;
 
+import de.raysha.lib.net.scs.exception.NoSerializerFoundException;
+import de.raysha.lib.net.scs.model.Message;
+
 /**
  * This {@link Server} establish a {@link AESConnector} for each incoming connections.
+ * If a connection executor is set (see {@link #setConnectionExecutor(java.util.concurrent.Executor)}),
+ * the creation of the connector and {@link #handleNewConnetion(AESConnector)} will run on it.
+ * In GCM mode (see {@link #setGCMMode(boolean)}) the connectors are {@link AESGCMConnector}s (on the server side),
+ * which are given to {@link #handleNewGCMConnection(AESGCMConnector)} instead.
+ * A password will be derived only once by the server (see {@link AESKeyProvider#getDefault()}). For an other
+ * salt or iteration count use an own {@link AESKeyProvider} and give the derived {@link SecretKey} to the server.
+ * If the metrics are enabled (see {@link #enableMetrics()}), each connector is measured by them. A connector
+ * counts as live connection (see {@link #setMaxConnections(int)}) until he is disconnected. A connector is disconnected
+ * automatically if his connection is broken (a read fails or the partner closes it) or if the handling of the new
+ * connection fails with an exception. The heartbeat and
+ * the idle timeout of the server (see {@link #setHeartbeat(long, long, java.util.concurrent.TimeUnit)}) are started
+ * for each connector.
+ * <p>
+ * The connectors can subscribe to topics (see {@link #subscribe(String, AbstractAESConnector)}). A message which is published
+ * to a topic (see {@link #publish(String, Message)}) is serialized only once (by each serializer). In CBC mode it is encrypted only once too,
+ * because all connectors of the server share the same key. So the costs of a fan-out grow with the writes only, not
+ * with the cryptography.
  *
  * @author rainu
  */
 public abstract class AESServer extends Server {
 	private final SecretKey secretKey;
-	private final String stringKey;
+	private volatile boolean gcmMode = false;
+	private final Topics topics = new Topics();
 
 	public AESServer(SecretKey key, int port) throws IOException, InvalidKeyException {
 		super(port);
 
 		this.secretKey = key;
-		this.stringKey = null;
 		checkKey();
 	}
 
@@ -28,23 +49,50 @@ public abstract class AESServer extends Server {
 		super(socket);
 
 		this.secretKey = key;
-		this.stringKey = null;
 		checkKey();
 	}
 
 	public AESServer(String key, int port) throws IOException, InvalidKeyException {
 		super(port);
 
-		this.secretKey = null;
-		this.stringKey = key;
+		this.secretKey = AESConnector.initialiseKey(key);
 		checkKey();
 	}
 
 	public AESServer(String key, ServerSocket socket) throws InvalidKeyException {
 		super(socket);
 
-		this.secretKey = null;
-		this.stringKey = key;
+		this.secretKey = AESConnector.initialiseKey(key);
+		checkKey();
+	}
+
+	/**
+	 * Creates a {@link AESServer} in selector mode (see {@link Server}).
+	 *
+	 * @param key The secret key for the AES-Encryption.
+	 * @param channel The bound server channel.
+	 * @throws IOException If the event loops could not be created.
+	 * @throws InvalidKeyException If the given key is invalid.
+	 */
+	public AESServer(SecretKey key, ServerSocketChannel channel) throws IOException, InvalidKeyException {
+		super(channel);
+
+		this.secretKey = key;
+		checkKey();
+	}
+
+	/**
+	 * Creates a {@link AESServer} in selector mode (see {@link Server}).
+	 *
+	 * @param key The secret password for the AES-Encryption.
+	 * @param channel The bound server channel.
+	 * @throws IOException If the event loops could not be created.
+	 * @throws InvalidKeyException If the given key is invalid.
+	 */
+	public AESServer(String key, ServerSocketChannel channel) throws IOException, InvalidKeyException {
+		super(channel);
+
+		this.secretKey = AESConnector.initialiseKey(key);
 		checkKey();
 	}
 
@@ -54,27 +102,155 @@ public abstract class AESServer extends Server {
 
 	@Override
 	protected void handleNewSocket(Socket newSocket) {
-		AESConnector connector;
+		AbstractAESConnector connector;
 		try {
 			connector = createConnector(newSocket);
 		} catch (InvalidKeyException e) {
 			throw new IllegalStateException("The key should be never changed!", e);
 		}
 
-		handleNewConnetion(connector);
+		final ServerMetrics metrics = getMetrics();
+		if(metrics != null){
+			connector.setMetrics(metrics.newConnectorMetrics());
+		}
+		final AbstractAESConnector disconnected = connector;
+		connector.onDisconnect(new Runnable() {
+			@Override
+			public void run() {
+				topics.unsubscribeAll(disconnected);
+				releaseConnection();
+			}
+		});
+		boolean handled = false;
+		try {
+			connector.setMaxFrameSize(getMaxFrameSize());
+			startHeartbeat(connector);
+
+			if(connector instanceof AESGCMConnector){
+				handleNewGCMConnection((AESGCMConnector)connector);
+			}else{
+				handleNewConnetion((AESConnector)connector);
+			}
+			handled = true;
+		} finally {
+			if(!handled){
+				//nobody else knows the connector, so he would never be released
+				try {
+					connector.disconnect();
+				} catch (IOException e) { }
+			}
+		}
 	}
 
-	private AESConnector createConnector(Socket socket) throws InvalidKeyException {
-		AESConnector connector;
-		if(secretKey != null){
-			connector = new AESConnector(socket, secretKey);
+	private AbstractAESConnector createConnector(Socket socket) throws InvalidKeyException {
+		AbstractAESConnector connector;
+		if(gcmMode){
+			connector = new AESGCMConnector(socket, secretKey, true);
 		}else{
-			connector = new AESConnector(socket, stringKey);
+			connector = new AESConnector(socket, secretKey);
 		}
 
 		return connector;
 	}
 
+	/**
+	 * Choose which kind of connectors should be created for the incoming connections. The clients must use
+	 * the same kind of connector.
+	 *
+	 * @param gcmMode True for {@link AESGCMConnector}s. False for (CBC-based) {@link AESConnector}s.
+	 */
+	public void setGCMMode(boolean gcmMode) {
+		this.gcmMode = gcmMode;
+	}
+
+	/**
+	 * Checks which kind of connectors will be created for the incoming connections.
+	 *
+	 * @return True if {@link AESGCMConnector}s will be created. Otherwise false.
+	 */
+	public boolean isGCMMode() {
+		return gcmMode;
+	}
+
+	/**
+	 * Subscribe the given connector to the given topic. The connector will be unsubscribed from all topics
+	 * when he is disconnected.
+	 *
+	 * @param topic The topic.
+	 * @param connector A connector of this server.
+	 * @return False if the connector was already subscribed. Otherwise true.
+	 */
+	public boolean subscribe(String topic, AbstractAESConnector connector) {
+		return topics.subscribe(topic, connector);
+	}
+
+	/**
+	 * Unsubscribe the given connector from the given topic.
+	 *
+	 * @param topic The topic.
+	 * @param connector The connector.
+	 * @return False if the connector was not subscribed. Otherwise true.
+	 */
+	public boolean unsubscribe(String topic, AbstractAESConnector connector) {
+		return topics.unsubscribe(topic, connector);
+	}
+
+	/**
+	 * Get the number of subscribers of the given topic (see {@link #subscribe(String, AbstractAESConnector)}).
+	 *
+	 * @param topic The topic.
+	 * @return The number of subscribed connectors.
+	 */
+	public int getSubscriberCount(String topic) {
+		return topics.getSubscriberCount(topic);
+	}
+
+	/**
+	 * Send the given message to all subscribers of the given topic. The message is serialized (by the
+	 * {@link de.raysha.lib.net.scs.model.serialize.MessageSerializer} of a subscriber, without shared class
+	 * descriptors and without compression) only once for each serializer instance. So the subscribers should share their
+	 * serializer. In CBC mode it is encrypted only once (for each serializer) too and each subscriber
+	 * writes the same encrypted bytes, only the message id in front of them depends on the subscriber (see
+	 * {@link Connector#enableCompactMessageIds()}). The encrypted bytes get a fresh initialisation vector for each
+	 * published message, like every other message. In GCM mode each subscriber encrypts the message with his own
+	 * nonce like every other message, because the nonces are bound to the connection.
+	 * <p>
+	 * The message is queued into the send queue of each subscriber (see {@link Connector#sendAsync(Message)}), so this
+	 * method never waits for a slow subscriber. If the send queue of a subscriber is full, he misses the message
+	 * (or drops his oldest message, see {@link OverflowPolicy#DROP_OLDEST}). He misses the message too while his
+	 * send queue is above his high watermark (see {@link Connector#setSendQueueWatermarks(int, int, SendQueueListener)}),
+	 * so a stalled subscriber is skipped early. Subscribers which are disconnected or do not know the type of
+	 * message are skipped.
+	 * <p>
+	 * A subscriber whose write hangs occupies one thread of his writer executor (see
+	 * {@link Connector#setSendExecutor(java.util.concurrent.Executor)}) until he is disconnected by the idle
+	 * timeout (see {@link #setHeartbeat(long, long, java.util.concurrent.TimeUnit)}). So the subscribers should get
+	 * watermarks and the server a heartbeat, if many of them may stall.
+	 *
+	 * @param topic The topic.
+	 * @param message The message.
+	 * @return The number of subscribers for which the message is queued.
+	 * @throws NoSerializerFoundException if no subscriber has a serialiser for this type of message.
+	 */
+	public int publish(String topic, Message message) {
+		return topics.publish(topic, message);
+	}
+
 	protected abstract void handleNewConnetion(AESConnector connector);
 
+	/**
+	 * Handle a new connection in GCM mode (see {@link #setGCMMode(boolean)}). Servers which use the GCM mode
+	 * must override this method. By default the connector will be disconnected, because the server does not
+	 * know what to do with him.
+	 *
+	 * @param connector The connector of the new connection.
+	 */
+	protected void handleNewGCMConnection(AESGCMConnector connector) {
+		try {
+			connector.disconnect();
+		} catch (IOException e) {
+			//the connection is already lost
+		}
+	}
+
 }
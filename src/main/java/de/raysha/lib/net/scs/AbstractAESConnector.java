@@ -0,0 +1,128 @@
+package de.raysha.lib.net.scs;
+
+import java.io.IOException;
+import java.net.Socket;
+
+import javax.crypto.SecretKey;
+
+import de.raysha.lib.net.scs.exception.NoSerializerFoundException;
+import de.raysha.lib.net.scs.model.Message;
+import de.raysha.lib.net.scs.model.serialize.MessageSerializer;
+
+/**
+ * This is the base of all {@link Connector}s which encrypt their messages by the AES-Cipher. It holds the secret
+ * key and the receive loop. The mode of the cipher depends on the implementation: {@link AESConnector} (CBC) or
+ * {@link AESGCMConnector} (GCM). Both sides of a connection must use the same kind of connector.
+ *
+ * @author rainu
+ */
+public abstract class AbstractAESConnector extends Connector {
+	private final SecretKey secretKey;
+
+	/**
+	 * Creates an secure connector for client- server- communication.
+	 *
+	 * @param socket The socket over which should be communicate.
+	 * @param key The secret key for the AES-Encryption.
+	 */
+	protected AbstractAESConnector(Socket socket, SecretKey key) {
+		super(socket);
+
+		this.secretKey = key;
+	}
+
+	/**
+	 * Create from string password a {@link SecretKey} that can be used for the secure
+	 * connection. The key is derived only once per password (see {@link AESKeyProvider#getDefault()}).
+	 *
+	 * @param password The plain text password.
+	 * @return The {@link SecretKey} that can used for secure connection.
+	 */
+	public static SecretKey initialiseKey(String password){
+		return AESKeyProvider.getDefault().getKey(password);
+	}
+
+	/**
+	 * Get the secret key of this connector.
+	 *
+	 * @return The {@link SecretKey} for the AES-Encryption.
+	 */
+	protected final SecretKey getSecretKey() {
+		return secretKey;
+	}
+
+	@Override
+	public void send(Message message) throws IOException {
+		send(message, PendingRequests.NO_CORRELATION);
+	}
+
+	@Override
+	public Message receive() throws IOException {
+		Message message = deserializeBatched();
+		while(message == null){
+			message = receiveNext();
+		}
+
+		return message;
+	}
+
+	/**
+	 * Receive, decrypt and deserialize the next frame.
+	 *
+	 * @return The received message or <b>null</b> if the frame contains no message for the caller
+	 * (see {@link #deserializeBatched()}).
+	 * @throws IOException If an error occurs while receiving.
+	 */
+	protected abstract Message receiveNext() throws IOException;
+
+	/**
+	 * Serialize the given message once, so that it can be sent by many connectors (see {@link AESServer#publish(String, Message)}).
+	 * The message is serialized by his plain {@link MessageSerializer} (without shared class descriptors) and it is
+	 * not compressed. So each partner can read it.
+	 *
+	 * @param message The message.
+	 * @return The serialized message.
+	 * @throws NoSerializerFoundException if no serialiser is registered for this type of message.
+	 */
+	final byte[] serializeShared(Message message) {
+		final MessageSerializer<?> serializer = getSerializerFor(message.getClass());
+		if(serializer == null){
+			throw new NoSerializerFoundException(message.getClass());
+		}
+
+		return serializeShared(serializer, message);
+	}
+
+	/**
+	 * Serialize the given message once by the given serializer (see {@link #serializeShared(Message)}).
+	 *
+	 * @param serializer The serializer of this connector for the type of message.
+	 * @param message The message.
+	 * @return The serialized message.
+	 */
+	@SuppressWarnings("unchecked")
+	final byte[] serializeShared(MessageSerializer<?> serializer, Message message) {
+		final long start = stageStart();
+		final byte[] rawMessage = ((MessageSerializer<Message>) serializer).serialize(message);
+		stageDone(MetricStage.SERIALIZE, message.getClass(), start);
+
+		return rawMessage;
+	}
+
+	/**
+	 * Encrypt a message which is sent by many connectors (see {@link #serializeShared(Message)}).
+	 *
+	 * @param messageClass The class of the message.
+	 * @param rawMessage The serialized message.
+	 * @return The encrypted message.
+	 */
+	protected abstract byte[] encodeShared(Class<? extends Message> messageClass, byte[] rawMessage);
+
+	/**
+	 * Checks if an encrypted message of this connector (see {@link #encodeShared(Class, byte[])}) can be sent by
+	 * all other connectors of the same kind and with the same key too.
+	 *
+	 * @return True if the encrypted message is not bound to this connection.
+	 */
+	protected abstract boolean isSharedEncoding();
+}
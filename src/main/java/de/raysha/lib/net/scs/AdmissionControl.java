@@ -0,0 +1,191 @@
+package de.raysha.lib.net.scs;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The admission control of a {@link Server}. It decides if an incoming connection may be handed over: the number
+ * of live connections, the number of pending handshakes (connections which are handed over but not handled yet)
+ * and the accept rate (a token bucket) can be limited. A limit of 0 means unlimited. The connections are admitted
+ * by the accepting thread only. They can be released by any thread.
+ *
+ * @author rainu
+ */
+class AdmissionControl {
+	/**
+	 * The limits which can reject a connection.
+	 */
+	static enum Limit {
+		CONNECTIONS,
+		PENDING_HANDSHAKES,
+		ACCEPT_RATE
+	}
+
+	/**
+	 * How long a delayed connection waits at most before the limits of the connections are checked again.
+	 */
+	static final long RECHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private final AtomicInteger live = new AtomicInteger();
+	private final AtomicInteger pending = new AtomicInteger();
+	private final Object releaseMonitor = new Object();
+
+	private volatile int maxConnections = 0;
+	private volatile int maxPending = 0;
+	private volatile AdmissionPolicy policy = AdmissionPolicy.REJECT;
+	private volatile long maxDelayNanos = TimeUnit.SECONDS.toNanos(5);
+
+	//the token bucket (guarded by this)
+	private double permitsPerNano = 0;
+	private double burst = 0;
+	private double tokens = 0;
+	private long lastRefill = 0;
+
+	public void setMaxConnections(int maxConnections) {
+		this.maxConnections = Math.max(0, maxConnections);
+	}
+
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	public void setMaxPending(int maxPending) {
+		this.maxPending = Math.max(0, maxPending);
+	}
+
+	public int getMaxPending() {
+		return maxPending;
+	}
+
+	public synchronized void setAcceptRate(double permitsPerSecond, int burst) {
+		if(permitsPerSecond > 0 && burst < 1){
+			throw new IllegalArgumentException("The burst must be at least one!");
+		}
+
+		this.permitsPerNano = Math.max(0, permitsPerSecond) / TimeUnit.SECONDS.toNanos(1);
+		this.burst = burst;
+		this.tokens = burst;
+		this.lastRefill = System.nanoTime();
+	}
+
+	public void setPolicy(AdmissionPolicy policy, long maxDelay, TimeUnit unit) {
+		if(policy == null){
+			throw new NullPointerException("The policy must not be null!");
+		}
+
+		this.policy = policy;
+		this.maxDelayNanos = unit.toNanos(maxDelay);
+	}
+
+	public AdmissionPolicy getPolicy() {
+		return policy;
+	}
+
+	public long getMaxDelayNanos() {
+		return maxDelayNanos;
+	}
+
+	public int getLive() {
+		return live.get();
+	}
+
+	public int getPending() {
+		return pending.get();
+	}
+
+	/**
+	 * Try to admit a connection. If he is admitted, he counts as live and pending connection until
+	 * {@link #handshakeDone()} and {@link #release()} are called.
+	 *
+	 * @return <b>null</b> if the connection is admitted. Otherwise the exceeded limit.
+	 */
+	public Limit tryAdmit() {
+		final int maxConnections = this.maxConnections;
+		if(maxConnections > 0 && live.get() >= maxConnections){
+			return Limit.CONNECTIONS;
+		}
+		final int maxPending = this.maxPending;
+		if(maxPending > 0 && pending.get() >= maxPending){
+			return Limit.PENDING_HANDSHAKES;
+		}
+		if(!tryAcquireToken()){
+			return Limit.ACCEPT_RATE;
+		}
+
+		live.incrementAndGet();
+		pending.incrementAndGet();
+		return null;
+	}
+
+	private synchronized boolean tryAcquireToken() {
+		if(permitsPerNano <= 0){
+			return true;
+		}
+
+		refill();
+		if(tokens < 1){
+			return false;
+		}
+
+		tokens--;
+		return true;
+	}
+
+	private void refill() {
+		final long now = System.nanoTime();
+		tokens = Math.min(burst, tokens + (now - lastRefill) * permitsPerNano);
+		lastRefill = now;
+	}
+
+	/**
+	 * Get the time after which the given limit should be checked again.
+	 *
+	 * @param limit The exceeded limit.
+	 * @return The time in nanoseconds.
+	 */
+	public long recheckNanos(Limit limit) {
+		if(limit == Limit.ACCEPT_RATE){
+			synchronized (this) {
+				if(permitsPerNano > 0){
+					refill();
+					return Math.max(1, (long) ((1 - tokens) / permitsPerNano));
+				}
+			}
+		}
+
+		return RECHECK_NANOS;
+	}
+
+	/**
+	 * Wait until a connection is released or the given time is over.
+	 *
+	 * @param nanos The maximum time to wait.
+	 */
+	public void await(long nanos) throws InterruptedException {
+		synchronized (releaseMonitor) {
+			TimeUnit.NANOSECONDS.timedWait(releaseMonitor, nanos);
+		}
+	}
+
+	/**
+	 * The handling of an admitted connection is done.
+	 */
+	public void handshakeDone() {
+		pending.decrementAndGet();
+		signal();
+	}
+
+	/**
+	 * An admitted connection is closed.
+	 */
+	public void release() {
+		live.decrementAndGet();
+		signal();
+	}
+
+	private void signal() {
+		synchronized (releaseMonitor) {
+			releaseMonitor.notifyAll();
+		}
+	}
+}
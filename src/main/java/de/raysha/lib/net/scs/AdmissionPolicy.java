@@ -0,0 +1,23 @@
+package de.raysha.lib.net.scs;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What should happen with an incoming connection which exceeds a limit of the admission control of a
+ * {@link Server} (see {@link Server#setMaxConnections(int)}, {@link Server#setAcceptRate(double, int)} and
+ * {@link Server#setMaxPendingHandshakes(int)}).
+ *
+ * @author rainu
+ */
+public enum AdmissionPolicy {
+	/**
+	 * The connection is closed immediately.
+	 */
+	REJECT,
+	/**
+	 * The connection is held until the limits allow it (see {@link Server#setAdmissionPolicy(AdmissionPolicy, long, TimeUnit)}).
+	 * Meanwhile no further connection is accepted, so they wait in the backlog of the operating system. If the
+	 * connection could not be admitted in time, it is closed.
+	 */
+	DELAY
+}
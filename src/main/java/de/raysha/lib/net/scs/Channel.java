@@ -0,0 +1,394 @@
+package de.raysha.lib.net.scs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import de.raysha.lib.net.scs.Connector.ReceiveCondition;
+import de.raysha.lib.net.scs.exception.NoSerializerFoundException;
+import de.raysha.lib.net.scs.exception.UnknownMessageException;
+import de.raysha.lib.net.scs.model.Message;
+import de.raysha.lib.net.scs.model.serialize.MessageSerializer;
+import de.raysha.lib.net.scs.model.serialize.StreamingMessageSerializer;
+import de.raysha.lib.net.scs.utils.BufferPool;
+
+/**
+ * A logical channel of a {@link Connector} (see {@link Connector#getChannel(int)}). All channels are multiplexed
+ * over the one connection of the connector: each message of a channel is sent in chunks
+ * (see {@link Connector#setChunkSize(int)}) and the chunks of the different channels are interleaved. So a
+ * large message on one channel does not block the messages of the other channels.
+ * <p>
+ * Each channel has his own credit based flow control: the sender may only send {@link #WINDOW_SIZE} bytes
+ * which are not yet consumed by the receiver of the channel. So a slow receiver of one channel does not
+ * stall the other channels. A partner who sends more than his credit breaks the connection.
+ * <p>
+ * The messages of a channel can only be received by {@link #receive()} of the same channel (not by
+ * {@link Connector#receive()}). Channel messages are not compressed.
+ *
+ * @author rainu
+ */
+public class Channel {
+	/**
+	 * The number of (raw) bytes which can be sent before the receiver gives new credit.
+	 */
+	public static final int WINDOW_SIZE = 256 * 1024;
+	/**
+	 * The maximal number of channels which can be opened by my partner (see {@link Connector#getChannel(int)}).
+	 */
+	public static final int MAX_PARTNER_CHANNELS = 256;
+
+	private final Connector connector;
+	private final int id;
+
+	private final ReentrantLock sendLock = new ReentrantLock();
+	private final AtomicInteger sendCredit = new AtomicInteger(WINDOW_SIZE);
+
+	private final ReentrantLock receiveLock = new ReentrantLock();
+	private final Queue<Chunk> receivedChunks = new ConcurrentLinkedQueue<Chunk>();
+	private final AtomicInteger unconsumed = new AtomicInteger();
+	//only used by the receiving thread of the connector
+	private int receiveIndex = 0;
+
+	Channel(Connector connector, int id) {
+		this.connector = connector;
+		this.id = id;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public Connector getConnector() {
+		return connector;
+	}
+
+	/**
+	 * Send the given message on this channel. This call blocks while the channel has no credit.
+	 * Messages with a {@link StreamingMessageSerializer} are serialized directly into the chunks.
+	 *
+	 * @param message The message to be send.
+	 * @throws IOException If an error occurs while sending the message.
+	 * @throws NoSerializerFoundException if no serialiser is registered for this type of message.
+	 */
+	@SuppressWarnings("unchecked")
+	public void send(Message message) throws IOException {
+		final MessageSerializer<?> serializer = connector.getSerializerFor(message.getClass());
+
+		sendLock.lock();
+		try {
+			final ChannelOutputStream out = new ChannelOutputStream(message.getClass());
+			try {
+				if(serializer instanceof StreamingMessageSerializer){
+					((StreamingMessageSerializer<? super Message>) serializer).serialize(message, out);
+				}else{
+					final ByteBuffer raw = connector.serializeToBuffer(message);
+					try {
+						out.write(raw.array(), raw.arrayOffset() + raw.position(), raw.remaining());
+					} finally {
+						BufferPool.DEFAULT.release(raw);
+					}
+				}
+				out.close();
+			} finally {
+				out.release();
+			}
+		} finally {
+			sendLock.unlock();
+		}
+	}
+
+	/**
+	 * Receive the next message of this channel. This is a blocking call! The consumed bytes are credited
+	 * to the sender while the message is read.
+	 *
+	 * @return The received {@link Message}.
+	 * @throws IOException If an error occurs while receiving the message.
+	 * @throws UnknownMessageException if the message id is unknown (no class is mapped for it).
+	 * @throws NoSerializerFoundException if no serialiser is registered for this type of message.
+	 */
+	@SuppressWarnings("unchecked")
+	public Message receive() throws IOException {
+		receiveLock.lock();
+		try {
+			final ChannelInputStream in = new ChannelInputStream();
+			boolean success = false;
+			try {
+				final Chunk firstChunk = in.first();
+				if(firstChunk.messageClass == null){
+					throw new UnknownMessageException(firstChunk.messageId);
+				}
+
+				final MessageSerializer<?> serializer = connector.getSerializerFor(firstChunk.messageClass);
+				final Message message;
+				if(serializer instanceof StreamingMessageSerializer){
+					message = ((StreamingMessageSerializer<? super Message>) serializer).deserialize(in);
+				}else{
+					final ByteArrayOutputStream raw = new ByteArrayOutputStream(Math.max(in.available(), 32));
+					final byte[] buffer = new byte[Connector.BUFFER_SIZE];
+					int read;
+					while((read = in.read(buffer)) != -1){
+						raw.write(buffer, 0, read);
+					}
+					message = connector.deserialize(firstChunk.messageId, raw.toByteArray());
+				}
+				success = true;
+
+				return message;
+			} finally {
+				if(success){
+					in.close();
+				}else{
+					try { in.close(); } catch (IOException e) { }	//do not hide the original exception
+				}
+			}
+		} finally {
+			receiveLock.unlock();
+		}
+	}
+
+	/**
+	 * The index of the next chunk which will be received (see {@link Connector#decodeChannelChunk(int, Connector.RawMessage, int, boolean)}).
+	 */
+	int getReceiveIndex() {
+		return receiveIndex;
+	}
+
+	/**
+	 * A (decoded) chunk of this channel was received (by any receiving thread of the connector).
+	 *
+	 * @throws IOException If my partner has sent more than his credit.
+	 */
+	void received(String messageId, Class<? extends Message> messageClass, byte[] content, boolean last) throws IOException {
+		if(unconsumed.addAndGet(content.length) > WINDOW_SIZE){
+			throw new IOException("The protocol was not followed. The channel " + id + " has no credit!");
+		}
+
+		receiveIndex = last ? 0 : receiveIndex + 1;
+		receivedChunks.add(new Chunk(messageId, messageClass, content, last));
+	}
+
+	/**
+	 * My partner has consumed the given number of bytes.
+	 *
+	 * @throws IOException If my partner gives more credit than I have used.
+	 */
+	void credited(int credit) throws IOException {
+		while(true){
+			final int current = sendCredit.get();
+			if(credit <= 0 || credit > WINDOW_SIZE - current){
+				throw new IOException("The protocol was not followed. The channel " + id + " gets too much credit!");
+			}
+			if(sendCredit.compareAndSet(current, current + credit)){
+				return;
+			}
+		}
+	}
+
+	private Chunk takeChunk() throws IOException {
+		connector.awaitReceived(new ReceiveCondition() {
+			@Override
+			public boolean isSatisfied() {
+				return !receivedChunks.isEmpty();
+			}
+		}, -1);
+
+		return receivedChunks.poll();
+	}
+
+	private void awaitCredit(final int length) throws IOException {
+		connector.awaitReceived(new ReceiveCondition() {
+			@Override
+			public boolean isSatisfied() {
+				return sendCredit.get() >= length;
+			}
+		}, -1);
+
+		sendCredit.addAndGet(-length);
+	}
+
+	/**
+	 * Collects the written bytes and sends them chunk by chunk. Each chunk waits for enough credit.
+	 */
+	private class ChannelOutputStream extends OutputStream {
+		private final Class<? extends Message> messageClass;
+		private final int chunkSize;
+		private final ByteBuffer buffer;
+		private int index = 0;
+		private boolean closed = false;
+
+		public ChannelOutputStream(Class<? extends Message> messageClass) {
+			this.messageClass = messageClass;
+			this.chunkSize = Math.min(connector.getChunkSize(), WINDOW_SIZE);
+			this.buffer = BufferPool.DEFAULT.acquire(chunkSize);
+			this.buffer.limit(chunkSize);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if(!buffer.hasRemaining()){
+				sendChunk(false);
+			}
+			buffer.put((byte) b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while(len > 0){
+				if(!buffer.hasRemaining()){
+					sendChunk(false);
+				}
+
+				final int count = Math.min(len, buffer.remaining());
+				buffer.put(b, off, count);
+				off += count;
+				len -= count;
+			}
+		}
+
+		private void sendChunk(boolean last) throws IOException {
+			final int length = buffer.position();
+			awaitCredit(length);
+
+			connector.writeChannelChunk(id, messageClass, index++, last, buffer.array(), length);
+			buffer.clear();
+			buffer.limit(chunkSize);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if(closed) return;
+
+			closed = true;
+			sendChunk(true);
+		}
+
+		public void release() {
+			BufferPool.DEFAULT.release(buffer);
+		}
+	}
+
+	/**
+	 * Reads the chunks of one message. If the stream will be closed before the last chunk was read,
+	 * the remaining chunks will be skipped. The consumed bytes are credited to the sender.
+	 */
+	private class ChannelInputStream extends InputStream {
+		private String messageId;
+		private Chunk pending;
+		private byte[] content = new byte[0];
+		private int position = 0;
+		private boolean last = false;
+		private int consumed = 0;
+
+		public Chunk first() throws IOException {
+			pending = takeChunk();
+			messageId = pending.messageId;
+
+			return pending;
+		}
+
+		private boolean nextChunk() throws IOException {
+			while(position >= content.length){
+				Chunk chunk = pending;
+				pending = null;
+
+				if(chunk == null){
+					if(last){
+						return false;
+					}
+
+					chunk = takeChunk();
+					if(!messageId.equals(chunk.messageId)){
+						last = chunk.last;
+						throw new IOException("The protocol was not followed. The chunk belongs to an other message!");
+					}
+				}
+
+				last = chunk.last;
+				content = chunk.content;
+				position = 0;
+
+				credit(content.length, false);
+			}
+
+			return true;
+		}
+
+		/**
+		 * The credit is given in parts, so that not every chunk needs an extra frame.
+		 */
+		private void credit(int length, boolean force) throws IOException {
+			consumed += length;
+			if(consumed > 0 && (force || consumed >= WINDOW_SIZE / 4)){
+				//my partner may send again as soon as he gets the credit
+				unconsumed.addAndGet(-consumed);
+				connector.writeChannelCredit(id, consumed);
+				consumed = 0;
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			if(!nextChunk()){
+				return -1;
+			}
+
+			return content[position++] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if(len == 0){
+				return 0;
+			}
+			if(!nextChunk()){
+				return -1;
+			}
+
+			final int count = Math.min(len, content.length - position);
+			System.arraycopy(content, position, b, off, count);
+			position += count;
+
+			return count;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return content.length - position;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				//skip the rest of the message
+				while(messageId != null && nextChunk()){
+					position = content.length;
+				}
+			} finally {
+				credit(0, true);
+			}
+		}
+	}
+
+	/**
+	 * A received and decoded chunk of a message.
+	 */
+	private static class Chunk {
+		final String messageId;
+		final Class<? extends Message> messageClass;
+		final byte[] content;
+		final boolean last;
+
+		Chunk(String messageId, Class<? extends Message> messageClass, byte[] content, boolean last) {
+			this.messageId = messageId;
+			this.messageClass = messageClass;
+			this.content = content;
+			this.last = last;
+		}
+	}
+}
@@ -0,0 +1,418 @@
+package de.raysha.lib.net.scs;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import de.raysha.lib.net.scs.utils.BufferPool;
+
+/**
+ * This {@link FrameTransport} works on a non-blocking {@link SocketChannel} which is served by
+ * an {@link EventLoop}. The loop-thread reads and decodes the incoming frames and puts them into
+ * a queue. There they wait for a {@link #readFrame()}. The {@link FrameInspector} sees them on the loop-thread already. Outgoing frames will be written directly
+ * by one gathering write if the socket can take them. Otherwise the loop-thread will write them as soon as the socket
+ * is writable again. The received frames will be read into buffers of the {@link BufferPool}.
+ * <p>
+ * The loop-thread must never wait for the network: a frame which he waits for would be read by himself. Therefore
+ * {@link #readFrame()} fails fast if it is called by the loop-thread.
+ *
+ * @author rainu
+ */
+class ChannelTransport implements FrameTransport, EventLoop.Handler {
+	/**
+	 * If so many frames are received but not read, the loop stops reading from this connection.
+	 */
+	private static final int MAX_PENDING_FRAMES = 64;
+	/**
+	 * If so many bytes are waiting for writing, the writer will be blocked. The loop-thread itself is never
+	 * blocked, because only he can write the waiting bytes.
+	 */
+	private static final int MAX_PENDING_BYTES = 1024 * 1024;
+
+	private static final ByteBuffer CLOSED = ByteBuffer.allocate(0);
+
+	private static final ConcurrentMap<Socket, ChannelTransport> transports =
+			new ConcurrentHashMap<Socket, ChannelTransport>();
+
+	private final SocketChannel channel;
+	private final EventLoop loop;
+	private final BufferPool bufferPool;
+
+	//only accessed by the loop-thread
+	private SelectionKey key;
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(Connector.BUFFER_SIZE);
+	private final ByteBuffer header = ByteBuffer.allocate(4);
+	private ByteBuffer frame;
+
+	private final BlockingQueue<ByteBuffer> received = new LinkedBlockingQueue<ByteBuffer>();
+	private volatile boolean readSuspended = false;
+	private volatile Runnable receiveListener;
+	private volatile FrameInspector inspector;
+
+	private final Object writeMonitor = new Object();
+	private final ByteBuffer writeHeader = ByteBuffer.allocate(4);
+	private final Queue<ByteBuffer> pendingWrites = new LinkedList<ByteBuffer>();
+	private int pendingBytes = 0;
+
+	private volatile boolean closed = false;
+	private volatile int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+
+	private ChannelTransport(SocketChannel channel, EventLoop loop, BufferPool bufferPool) {
+		this.channel = channel;
+		this.loop = loop;
+		this.bufferPool = bufferPool;
+	}
+
+	/**
+	 * Make the given channel non-blocking and register it at the given loop.
+	 *
+	 * @param channel The new connection.
+	 * @param loop The loop which should serve the connection.
+	 * @param bufferPool The pool for the received frames.
+	 * @param maxFrameSize The maximal size of the received frames (see {@link #setMaxFrameSize(int)}). It is applied
+	 * before the first frame is read.
+	 * @return The transport for the connection.
+	 * @throws IOException If the channel could not be configured.
+	 */
+	public static ChannelTransport open(SocketChannel channel, EventLoop loop, BufferPool bufferPool, int maxFrameSize) throws IOException {
+		channel.configureBlocking(false);
+
+		ChannelTransport transport = new ChannelTransport(channel, loop, bufferPool);
+		transport.setMaxFrameSize(maxFrameSize);
+		transports.put(channel.socket(), transport);
+		loop.register(channel, SelectionKey.OP_READ, transport);
+
+		return transport;
+	}
+
+	/**
+	 * Get the transport for the given socket.
+	 *
+	 * @param socket The socket.
+	 * @return The transport or <b>null</b> if the socket is not served by an {@link EventLoop}.
+	 */
+	public static ChannelTransport lookup(Socket socket) {
+		if(socket.getChannel() == null){
+			return null;
+		}
+
+		return transports.get(socket);
+	}
+
+	@Override
+	public void handle(SelectionKey key) throws IOException {
+		this.key = key;
+
+		if(key.isReadable()){
+			onReadable();
+		}
+		if(key.isValid() && key.isWritable()){
+			onWritable();
+		}
+	}
+
+	private void onReadable() throws IOException {
+		int read;
+		while(!readSuspended && (read = channel.read(readBuffer)) != 0){
+			if(read < 0){
+				close();
+				return;
+			}
+
+			readBuffer.flip();
+			final boolean decoded = decodeFrames();
+			readBuffer.compact();
+
+			if(decoded){
+				notifyReceiveListener();
+			}
+		}
+	}
+
+	private void notifyReceiveListener() {
+		final Runnable listener = receiveListener;
+		if(listener != null){
+			listener.run();
+		}
+	}
+
+	/**
+	 * @return <b>true</b> if at least one frame was completely received.
+	 */
+	private boolean decodeFrames() throws IOException {
+		boolean decoded = false;
+
+		while(readBuffer.hasRemaining()){
+			if(frame == null){
+				transfer(readBuffer, header);
+				if(header.hasRemaining()){
+					return decoded;
+				}
+
+				header.flip();
+				final int length = header.getInt(0) & LENGTH_MASK;
+
+				if(length > maxFrameSize){
+					throw new IOException("The protocol was not followed. Invalid length: " + length);
+				}
+				frame = bufferPool.acquire(4 + length);
+				frame.put(header);
+				header.clear();
+			}
+
+			transfer(readBuffer, frame);
+			if(frame.hasRemaining()){
+				return decoded;
+			}
+
+			frame.flip();
+			frame.position(4);
+			if(isConsumed(frame)){
+				bufferPool.release(frame);
+				frame = null;
+				continue;
+			}
+			received.add(frame);
+			frame = null;
+			decoded = true;
+
+			if(received.size() >= MAX_PENDING_FRAMES){
+				readSuspended = true;
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+			}
+		}
+
+		return decoded;
+	}
+
+	private boolean isConsumed(ByteBuffer frame) {
+		final FrameInspector inspector = this.inspector;
+		return inspector != null && inspector.inspect(frame);
+	}
+
+	private static void transfer(ByteBuffer src, ByteBuffer dst) {
+		final int count = Math.min(src.remaining(), dst.remaining());
+
+		ByteBuffer part = src.duplicate();
+		part.limit(part.position() + count);
+		dst.put(part);
+		src.position(src.position() + count);
+	}
+
+	private void onWritable() throws IOException {
+		synchronized (writeMonitor) {
+			flushPendingWrites();
+
+			if(pendingWrites.isEmpty()){
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+			}
+			writeMonitor.notifyAll();
+		}
+	}
+
+	private void flushPendingWrites() throws IOException {
+		while(!pendingWrites.isEmpty()){
+			ByteBuffer buffer = pendingWrites.peek();
+
+			final int before = buffer.remaining();
+			channel.write(buffer);
+			pendingBytes -= before - buffer.remaining();
+
+			if(buffer.hasRemaining()){
+				return;
+			}
+			bufferPool.release(pendingWrites.poll());
+		}
+	}
+
+	@Override
+	public void writeFrame(int flags, ByteBuffer... parts) throws IOException {
+		int length = 0;
+		for(ByteBuffer part : parts){
+			length += part.remaining();
+		}
+		if(length > MAX_FRAME_SIZE){
+			throw new IOException("The frame is too big: " + length);
+		}
+
+		synchronized (writeMonitor) {
+			while(!closed && pendingBytes > MAX_PENDING_BYTES && !loop.inEventLoop()){
+				try {
+					writeMonitor.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+			}
+			if(closed){
+				throw new IOException("The connection is already closed!");
+			}
+
+			writeHeader.clear();
+			writeHeader.putInt(length);
+			writeHeader.flip();
+
+			final ByteBuffer[] frame = new ByteBuffer[parts.length + 1];
+			frame[0] = writeHeader;
+			for(int i=0; i < parts.length; i++){
+				frame[i + 1] = parts[i].duplicate();
+			}
+
+			long remaining = 4 + length;
+			if(pendingWrites.isEmpty()){
+				remaining -= channel.write(frame);
+			}
+			if(remaining > 0){
+				final boolean first = pendingWrites.isEmpty();
+
+				pendingWrites.add(copyRemaining(frame, (int) remaining));
+				pendingBytes += remaining;
+
+				if(first){
+					loop.execute(enableWrite);
+				}
+			}
+		}
+	}
+
+	private ByteBuffer copyRemaining(ByteBuffer[] frame, int remaining) {
+		ByteBuffer buffer = bufferPool.acquire(remaining);
+		for(ByteBuffer part : frame){
+			buffer.put(part);
+		}
+		buffer.flip();
+
+		return buffer;
+	}
+
+	private final Runnable enableWrite = new Runnable() {
+		@Override
+		public void run() {
+			SelectionKey key = channel.keyFor(loop.getSelector());
+			if(key != null && key.isValid()){
+				key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+			}
+		}
+	};
+
+	private final Runnable resumeRead = new Runnable() {
+		@Override
+		public void run() {
+			SelectionKey key = channel.keyFor(loop.getSelector());
+			if(key != null && key.isValid() && readSuspended){
+				readSuspended = false;
+				key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+			}
+		}
+	};
+
+	/**
+	 * The loop-thread must not wait for a frame, because nobody else would read it.
+	 */
+	private void checkNotInEventLoop() {
+		if(loop.inEventLoop()){
+			throw new IllegalStateException("A connector must not receive on the thread of his event loop! "
+					+ "Hand the work over to an executor (see Server#setConnectionExecutor(Executor)).");
+		}
+	}
+
+	@Override
+	public ByteBuffer readFrame() throws IOException {
+		checkNotInEventLoop();
+
+		final ByteBuffer frame;
+		try {
+			frame = received.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+
+		return taken(frame);
+	}
+
+	@Override
+	public ByteBuffer readFrame(long timeout, TimeUnit unit) throws IOException {
+		checkNotInEventLoop();
+
+		final ByteBuffer frame;
+		try {
+			frame = received.poll(timeout, unit);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+
+		return frame == null ? null : taken(frame);
+	}
+
+	private ByteBuffer taken(ByteBuffer frame) throws IOException {
+		if(frame == CLOSED){
+			received.add(CLOSED);	//for all other readers
+			throw new IOException("The connection is already closed!");
+		}
+
+		if(readSuspended && received.size() < MAX_PENDING_FRAMES / 2){
+			loop.execute(resumeRead);
+		}
+
+		return frame;
+	}
+
+	@Override
+	public boolean hasReceivedFrames() {
+		return !received.isEmpty();
+	}
+
+	@Override
+	public boolean setReceiveListener(Runnable listener) {
+		this.receiveListener = listener;
+		if(listener != null && !received.isEmpty()){
+			listener.run();	//the frames which are received before
+		}
+
+		return true;
+	}
+
+	@Override
+	public void setFrameInspector(FrameInspector inspector) {
+		this.inspector = inspector;
+	}
+
+	@Override
+	public void setMaxFrameSize(int maxFrameSize) {
+		this.maxFrameSize = Math.min(maxFrameSize, MAX_FRAME_SIZE);
+	}
+
+	@Override
+	public void close() {
+		if(closed) return;
+
+		closed = true;
+		transports.remove(channel.socket());
+		try {
+			channel.close();
+		} catch (IOException e) { }
+
+		received.add(CLOSED);
+		synchronized (writeMonitor) {
+			writeMonitor.notifyAll();
+		}
+		notifyReceiveListener();
+
+		final FrameInspector inspector = this.inspector;
+		if(inspector != null){
+			inspector.closed();
+		}
+	}
+}
@@ -0,0 +1,229 @@
+package de.raysha.lib.net.scs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A table of the class descriptors ({@link ObjectStreamClass}) which are shared between the two sides
+ * of a connection. The java serialization writes the full descriptor of each class into each stream. With
+ * this table a descriptor is announced only once per connection, after that it is referred by a handle
+ * (varint). The announcements are sent in their own frames before the first message which uses them
+ * (like the compact message ids, see {@link CompactMessageIds}). So they are known by the receiving side
+ * even if a message is skipped.
+ * <p>
+ * The streams of the shared form (see {@link #newOutputStream(OutputStream)}) have no stream header. So
+ * the first byte of a serialized message tells if the descriptors are shared or not: a usual
+ * java serialization stream begins with {@link #STREAM_MAGIC_BYTE}.
+ *
+ * @author rainu
+ */
+class ClassDescriptors {
+	static final byte STREAM_MAGIC_BYTE = (byte) 0xAC;
+
+	private volatile boolean enabled = false;
+
+	//sending side
+	private final Map<Class<?>, Integer> handles = new HashMap<Class<?>, Integer>();
+	private final List<ObjectStreamClass> unannounced = new ArrayList<ObjectStreamClass>();
+
+	//receiving side
+	private ObjectStreamClass[] descriptors = new ObjectStreamClass[16];
+	private final Map<Integer, String> unresolved = new HashMap<Integer, String>();
+
+	/**
+	 * Share the descriptors of all messages which are serialized from now on.
+	 */
+	public void enable() {
+		enabled = true;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Get the handle of the given descriptor. If the descriptor has no handle yet, a new handle
+	 * will be assigned. It must be announced (see {@link #drainAnnouncements()}) before it is used.
+	 *
+	 * @param descriptor The local class descriptor.
+	 * @return The handle.
+	 */
+	public synchronized int handleOf(ObjectStreamClass descriptor) {
+		final Class<?> cls = descriptor.forClass();
+
+		Integer handle = handles.get(cls);
+		if(handle == null){
+			handle = handles.size();
+			handles.put(cls, handle);
+			unannounced.add(descriptor);
+		}
+
+		return handle;
+	}
+
+	public synchronized boolean hasUnannounced() {
+		return !unannounced.isEmpty();
+	}
+
+	/**
+	 * Creates an announcement of all descriptors which are not announced yet.
+	 *
+	 * @return The announcement. It is a java serialization stream which contains the handle (int)
+	 * and the full descriptor of each new descriptor.
+	 */
+	public synchronized byte[] drainAnnouncements() {
+		final ByteArrayOutputStream announcement = new ByteArrayOutputStream();
+		try {
+			final ObjectOutputStream out = new ObjectOutputStream(announcement);
+			for(ObjectStreamClass descriptor : unannounced){
+				out.writeInt(handles.get(descriptor.forClass()));
+				out.writeObject(descriptor);
+			}
+			out.close();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);	//can not happen in memory
+		}
+		unannounced.clear();
+
+		return announcement.toByteArray();
+	}
+
+	/**
+	 * Take over all descriptors of the given announcement (see {@link #drainAnnouncements()}). The descriptors
+	 * of classes which are unknown on this side are remembered, so that a message which uses them fails
+	 * with a {@link ClassNotFoundException}.
+	 *
+	 * @param announcement The received announcement.
+	 * @throws IOException If the announcement is corrupt.
+	 */
+	public synchronized void announced(byte[] announcement) throws IOException {
+		final ByteArrayInputStream bytes = new ByteArrayInputStream(announcement);
+		final ObjectInputStream in = new ObjectInputStream(bytes);
+
+		while(bytes.available() > 0){
+			final int handle = in.readInt();
+			if(handle < 0){
+				throw new StreamCorruptedException("Invalid class descriptor handle: " + handle);
+			}
+			if(handle >= descriptors.length){
+				grow(handle + 1);
+			}
+
+			final Object read;
+			try {
+				read = in.readObject();
+			} catch (ClassNotFoundException e) {
+				descriptors[handle] = null;
+				unresolved.put(handle, e.getMessage());
+				continue;
+			}
+			if(!(read instanceof ObjectStreamClass)){
+				throw new StreamCorruptedException("The announcement contains no class descriptor!");
+			}
+
+			final ObjectStreamClass descriptor = (ObjectStreamClass) read;
+			if(descriptor.forClass() == null){
+				//the class is unknown on this side
+				descriptors[handle] = null;
+				unresolved.put(handle, descriptor.getName());
+			}else{
+				descriptors[handle] = descriptor;
+				unresolved.remove(handle);
+			}
+		}
+	}
+
+	private void grow(int minLength) {
+		final ObjectStreamClass[] grown = new ObjectStreamClass[Math.max(minLength, descriptors.length * 2)];
+		System.arraycopy(descriptors, 0, grown, 0, descriptors.length);
+		descriptors = grown;
+	}
+
+	/**
+	 * Get the announced descriptor of the given handle.
+	 *
+	 * @param handle The received handle.
+	 * @return The descriptor.
+	 * @throws StreamCorruptedException If the handle was never announced.
+	 * @throws ClassNotFoundException If the class of the descriptor is unknown on this side.
+	 */
+	public synchronized ObjectStreamClass descriptorOf(int handle) throws StreamCorruptedException, ClassNotFoundException {
+		final ObjectStreamClass descriptor = handle >= 0 && handle < descriptors.length ? descriptors[handle] : null;
+		if(descriptor == null){
+			if(unresolved.containsKey(handle)){
+				throw new ClassNotFoundException(unresolved.get(handle));
+			}
+
+			throw new StreamCorruptedException("The class descriptor was not announced: " + handle);
+		}
+
+		return descriptor;
+	}
+
+	/**
+	 * Creates a stream which writes the shared form: no stream header and handles instead of class descriptors.
+	 *
+	 * @param out The underlying stream.
+	 * @return The object stream.
+	 * @throws IOException If an error occurs while writing into the underlying stream.
+	 */
+	public ObjectOutputStream newOutputStream(OutputStream out) throws IOException {
+		return new ObjectOutputStream(out) {
+			@Override
+			protected void writeStreamHeader() {
+			}
+
+			@Override
+			protected void writeClassDescriptor(ObjectStreamClass descriptor) throws IOException {
+				int handle = handleOf(descriptor);
+				while((handle & ~0x7F) != 0){
+					write((handle & 0x7F) | 0x80);
+					handle >>>= 7;
+				}
+				write(handle);
+			}
+		};
+	}
+
+	/**
+	 * Creates a stream which reads the shared form (see {@link #newOutputStream(OutputStream)}).
+	 *
+	 * @param in The underlying stream.
+	 * @return The object stream.
+	 * @throws IOException If an error occurs while reading from the underlying stream.
+	 */
+	public ObjectInputStream newInputStream(InputStream in) throws IOException {
+		return new ObjectInputStream(in) {
+			@Override
+			protected void readStreamHeader() {
+			}
+
+			@Override
+			protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+				int handle = 0;
+				for(int shift = 0; ; shift += 7){
+					final int b = read();
+					if(b < 0 || shift > 28){
+						throw new StreamCorruptedException("Invalid class descriptor handle!");
+					}
+
+					handle |= (b & 0x7F) << shift;
+					if((b & 0x80) == 0){
+						return descriptorOf(handle);
+					}
+				}
+			}
+		};
+	}
+}
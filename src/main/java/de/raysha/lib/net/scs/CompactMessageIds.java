@@ -0,0 +1,170 @@
+package de.raysha.lib.net.scs;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.raysha.lib.net.scs.model.Message;
+import de.raysha.lib.net.scs.utils.VarInt;
+
+/**
+ * A table which maps the (normalized) message ids to small integers. This integers are transferred as
+ * varints instead of the normalized message ids. Each direction of a connection has his own table: the
+ * sending side assigns the integers and announces them to the receiving side before they are used.
+ * The integers are assigned in ascending order. So the receiving side accepts only the next integer (or an already
+ * announced one) and his table can not be blown up by a corrupt announcement.
+ *
+ * @author rainu
+ */
+class CompactMessageIds {
+	/**
+	 * The frames with this id contains announcements.
+	 */
+	static final int ANNOUNCEMENT_ID = 0;
+	/**
+	 * The frames with this id contains a batch of messages.
+	 */
+	static final int BATCH_ID = 1;
+	/**
+	 * The frames with this id contains class descriptor announcements (see {@link ClassDescriptors}).
+	 */
+	static final int DESCRIPTORS_ID = 2;
+	/**
+	 * The frames with this id contains a ping or a pong.
+	 */
+	static final int CONTROL_ID = 3;
+	/**
+	 * The frames with this id contains a chunk or a credit of a logical channel.
+	 */
+	static final int CHANNEL_ID = 4;
+	private static final int FIRST_MESSAGE_ID = 5;
+
+	private static final int MESSAGE_ID_LENGTH = 32; //length of md5 string
+	private static final int ANNOUNCEMENT_ENTRY_SIZE = 5 + MESSAGE_ID_LENGTH;
+
+	//sending side
+	private final Map<String, byte[]> encoded = new HashMap<String, byte[]>();
+	private final List<String> unannounced = new ArrayList<String>();
+	private int nextId = FIRST_MESSAGE_ID;
+
+	//receiving side
+	private int lastAnnounced = FIRST_MESSAGE_ID - 1;
+	private String[] messageIds = new String[16];
+	private Class<?>[] messageClasses = new Class<?>[16];
+
+	/**
+	 * Assign an integer to the given message id. The assignment must be announced
+	 * (see {@link #drainAnnouncements()}) before it is used.
+	 *
+	 * @param messageId The normalized message id.
+	 */
+	public void assign(String messageId) {
+		if(encoded.containsKey(messageId)){
+			return;
+		}
+
+		encoded.put(messageId, VarInt.toBytes(nextId++));
+		unannounced.add(messageId);
+	}
+
+	/**
+	 * Get the encoded integer of the given message id.
+	 *
+	 * @param messageId The normalized message id.
+	 * @return The varint or <b>null</b> if no integer was assigned to the message id.
+	 */
+	public byte[] encode(String messageId) {
+		return encoded.get(messageId);
+	}
+
+	public boolean hasUnannounced() {
+		return !unannounced.isEmpty();
+	}
+
+	/**
+	 * Creates an announcement of all assignments which are not announced yet.
+	 *
+	 * @return The announcement. It contains a varint and the normalized message id for each assignment.
+	 */
+	public byte[] drainAnnouncements() {
+		ByteBuffer announcement = ByteBuffer.allocate(unannounced.size() * ANNOUNCEMENT_ENTRY_SIZE);
+		for(String messageId : unannounced){
+			announcement.put(encoded.get(messageId));
+			announcement.put(messageId.getBytes());
+		}
+		unannounced.clear();
+
+		return Arrays.copyOf(announcement.array(), announcement.position());
+	}
+
+	/**
+	 * Take over all assignments of the given announcement (see {@link #drainAnnouncements()}).
+	 *
+	 * @param announcement The received announcement.
+	 * @param messageIdToClass The known message classes.
+	 * @throws IllegalArgumentException If the announcement is corrupt or an integer is not the next one.
+	 */
+	public void announced(ByteBuffer announcement, Map<String, Class<? extends Message>> messageIdToClass) {
+		while(announcement.hasRemaining()){
+			final int id = VarInt.read(announcement);
+			if(id < FIRST_MESSAGE_ID || id > lastAnnounced + 1){
+				throw new IllegalArgumentException("The announced id is not the next one: " + id);
+			}
+
+			byte[] rawMessageId = new byte[MESSAGE_ID_LENGTH];
+			announcement.get(rawMessageId);
+			final String messageId = new String(rawMessageId);
+
+			if(id >= messageIds.length){
+				grow(id + 1);
+			}
+			messageIds[id] = messageId;
+			messageClasses[id] = messageIdToClass.get(messageId);
+			lastAnnounced = Math.max(lastAnnounced, id);
+		}
+	}
+
+	private void grow(int minLength) {
+		final int length = Math.max(minLength, messageIds.length * 2);
+
+		String[] ids = new String[length];
+		System.arraycopy(messageIds, 0, ids, 0, messageIds.length);
+		messageIds = ids;
+
+		Class<?>[] classes = new Class<?>[length];
+		System.arraycopy(messageClasses, 0, classes, 0, messageClasses.length);
+		messageClasses = classes;
+	}
+
+	/**
+	 * Get the normalized message id of the given integer.
+	 *
+	 * @param id The received integer.
+	 * @return The normalized message id or <b>null</b> if the integer was never announced.
+	 */
+	public String messageIdOf(int id) {
+		return id >= 0 && id < messageIds.length ? messageIds[id] : null;
+	}
+
+	/**
+	 * Get the message class of the given integer.
+	 *
+	 * @param id The received integer.
+	 * @param messageIdToClass The known message classes.
+	 * @return The message class or <b>null</b> if it is unknown.
+	 */
+	@SuppressWarnings("unchecked")
+	public Class<? extends Message> messageClassOf(int id, Map<String, Class<? extends Message>> messageIdToClass) {
+		Class<?> messageClass = messageClasses[id];
+		if(messageClass == null){
+			//maybe the class was registered after the announcement
+			messageClass = messageIdToClass.get(messageIds[id]);
+			messageClasses[id] = messageClass;
+		}
+
+		return (Class<? extends Message>) messageClass;
+	}
+}
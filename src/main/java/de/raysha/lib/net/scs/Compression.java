@@ -0,0 +1,277 @@
+package de.raysha.lib.net.scs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import de.raysha.lib.net.scs.model.Message;
+import de.raysha.lib.net.scs.utils.BufferPool;
+import de.raysha.lib.net.scs.utils.VarInt;
+
+/**
+ * The compression stage of a {@link Connector}. It compresses the serialized messages (zlib) before
+ * they are encrypted. A compressed message consists of his original length (varint) followed by
+ * the zlib stream. A preset dictionary can be set for each message class. The {@link Deflater}s and
+ * {@link Inflater}s are expensive, so they are pooled and shared by all connectors. The messages will be
+ * de-/compressed into pooled buffers.
+ *
+ * @author rainu
+ */
+class Compression {
+	/**
+	 * The threshold if the compression is disabled.
+	 */
+	static final int DISABLED = -1;
+	/**
+	 * Deflate can not compress better than this ratio. A message which announces a bigger
+	 * original length is corrupt (or hostile).
+	 */
+	private static final int MAX_RATIO = 1032;
+	/**
+	 * Smaller messages are never compressed.
+	 */
+	private static final int MIN_LENGTH = 16;
+	private static final int MAX_POOLED = 32;
+
+	private static final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+	private static final AtomicInteger pooledDeflaters = new AtomicInteger();
+	private static final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<Inflater>();
+	private static final AtomicInteger pooledInflaters = new AtomicInteger();
+
+	private volatile int threshold = DISABLED;
+	private final ConcurrentMap<Class<?>, Boolean> disabledClasses = new ConcurrentHashMap<Class<?>, Boolean>();
+	private final ConcurrentMap<Class<?>, byte[]> dictionaries = new ConcurrentHashMap<Class<?>, byte[]>();
+
+	public void setThreshold(int threshold) {
+		this.threshold = threshold;
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	public void setEnabled(Class<? extends Message> messageClass, boolean enabled) {
+		if(enabled){
+			disabledClasses.remove(messageClass);
+		}else{
+			disabledClasses.put(messageClass, Boolean.TRUE);
+		}
+	}
+
+	public void setDictionary(Class<? extends Message> messageClass, byte[] dictionary) {
+		if(dictionary == null){
+			dictionaries.remove(messageClass);
+		}else{
+			dictionaries.put(messageClass, dictionary.clone());
+		}
+	}
+
+	/**
+	 * Compress the given serialized message if it is worth it.
+	 *
+	 * @param messageClass The class of the message or <b>null</b> for a batch. Batches are compressed without dictionary.
+	 * @param raw The serialized message.
+	 * @return The compressed message or <b>null</b> if the message should not (or could not) be compressed.
+	 */
+	public byte[] compress(Class<?> messageClass, byte[] raw) {
+		final ByteBuffer compressed = compress(messageClass, ByteBuffer.wrap(raw));
+		if(compressed == null){
+			return null;
+		}
+
+		try {
+			return toArray(compressed);
+		} finally {
+			BufferPool.DEFAULT.release(compressed);
+		}
+	}
+
+	/**
+	 * Compress the given serialized message if it is worth it.
+	 *
+	 * @param messageClass The class of the message or <b>null</b> for a batch. Batches are compressed without dictionary.
+	 * @param raw A heap buffer which contains the serialized message. His position will not be changed.
+	 * @return A pooled buffer which contains the compressed message or <b>null</b> if the message should
+	 * not (or could not) be compressed.
+	 */
+	public ByteBuffer compress(Class<?> messageClass, ByteBuffer raw) {
+		final int threshold = this.threshold;
+		final int rawLength = raw.remaining();
+		if(threshold == DISABLED || rawLength < Math.max(threshold, MIN_LENGTH)){
+			return null;
+		}
+		if(messageClass != null && disabledClasses.containsKey(messageClass)){
+			return null;
+		}
+
+		final Deflater deflater = borrowDeflater();
+		final ByteBuffer buffer = BufferPool.DEFAULT.acquire(rawLength);
+		boolean compressed = false;
+		try {
+			final byte[] dictionary = messageClass == null ? null : dictionaries.get(messageClass);
+			if(dictionary != null){
+				deflater.setDictionary(dictionary);
+			}
+			deflater.setInput(raw.array(), raw.arrayOffset() + raw.position(), rawLength);
+			deflater.finish();
+
+			final byte[] output = buffer.array();
+			VarInt.write(buffer, rawLength);
+
+			int length = buffer.position();
+			while(!deflater.finished() && length < rawLength){
+				length += deflater.deflate(output, length, rawLength - length);
+			}
+
+			if(!deflater.finished()){
+				return null;	//not smaller than the original
+			}
+
+			buffer.position(0);
+			buffer.limit(length);
+			compressed = true;
+
+			return buffer;
+		} finally {
+			if(!compressed){
+				BufferPool.DEFAULT.release(buffer);
+			}
+			giveBack(deflater);
+		}
+	}
+
+	/**
+	 * Decompress the given message (see {@link #compress(Class, byte[])}).
+	 *
+	 * @param messageClass The class of the message or <b>null</b> for a batch (or if the message id is unknown).
+	 * @param compressed The compressed message.
+	 * @return The serialized message.
+	 * @throws IOException If the compressed message is corrupt or the needed dictionary is unknown.
+	 */
+	public byte[] decompress(Class<?> messageClass, byte[] compressed) throws IOException {
+		final ByteBuffer raw = decompress(messageClass, ByteBuffer.wrap(compressed));
+		try {
+			return toArray(raw);
+		} finally {
+			BufferPool.DEFAULT.release(raw);
+		}
+	}
+
+	/**
+	 * Decompress the given message (see {@link #compress(Class, ByteBuffer)}).
+	 *
+	 * @param messageClass The class of the message or <b>null</b> for a batch (or if the message id is unknown).
+	 * @param compressed A heap buffer which contains the compressed message. His position will not be changed.
+	 * @return A pooled buffer which contains the serialized message.
+	 * @throws IOException If the compressed message is corrupt or the needed dictionary is unknown.
+	 */
+	public ByteBuffer decompress(Class<?> messageClass, ByteBuffer compressed) throws IOException {
+		final ByteBuffer input = compressed.duplicate();
+		final int length;
+		try {
+			length = VarInt.read(input);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("The protocol was not followed. The compressed message is corrupt!", e);
+		}
+		if(length < 0 || (long)length > (long)input.remaining() * MAX_RATIO){
+			throw new IOException("The protocol was not followed. Invalid length of compressed message: " + length);
+		}
+
+		final ByteBuffer buffer = BufferPool.DEFAULT.acquire(length);
+		final byte[] raw = buffer.array();
+		final Inflater inflater = borrowInflater();
+		boolean decompressed = false;
+		try {
+			inflater.setInput(input.array(), input.arrayOffset() + input.position(), input.remaining());
+
+			int read = inflater.inflate(raw, 0, length);
+			if(read == 0 && inflater.needsDictionary()){
+				final byte[] dictionary = messageClass == null ? null : dictionaries.get(messageClass);
+				if(dictionary == null){
+					throw new IOException("The compressed message needs a dictionary which is unknown!");
+				}
+				inflater.setDictionary(dictionary);
+			}
+			while(!inflater.finished() && read < length){
+				final int count = inflater.inflate(raw, read, length - read);
+				if(count == 0 && (inflater.needsInput() || inflater.needsDictionary())){
+					break;
+				}
+				read += count;
+			}
+
+			if(!inflater.finished() || read != length){
+				throw new IOException("The protocol was not followed. The compressed message is corrupt!");
+			}
+
+			decompressed = true;
+			return buffer;
+		} catch (DataFormatException e) {
+			throw new IOException("The protocol was not followed. The compressed message is corrupt!", e);
+		} catch (IllegalArgumentException e) {
+			//wrong dictionary
+			throw new IOException("The compressed message needs an other dictionary!", e);
+		} finally {
+			if(!decompressed){
+				BufferPool.DEFAULT.release(buffer);
+			}
+			giveBack(inflater);
+		}
+	}
+
+	private static byte[] toArray(ByteBuffer buffer) {
+		final byte[] array = new byte[buffer.remaining()];
+		buffer.duplicate().get(array);
+
+		return array;
+	}
+
+	private static Deflater borrowDeflater() {
+		final Deflater deflater = deflaters.poll();
+		if(deflater == null){
+			return new Deflater();
+		}
+
+		pooledDeflaters.decrementAndGet();
+		return deflater;
+	}
+
+	private static void giveBack(Deflater deflater) {
+		deflater.reset();
+		if(pooledDeflaters.incrementAndGet() > MAX_POOLED){
+			pooledDeflaters.decrementAndGet();
+			deflater.end();
+			return;
+		}
+
+		deflaters.add(deflater);
+	}
+
+	private static Inflater borrowInflater() {
+		final Inflater inflater = inflaters.poll();
+		if(inflater == null){
+			return new Inflater();
+		}
+
+		pooledInflaters.decrementAndGet();
+		return inflater;
+	}
+
+	private static void giveBack(Inflater inflater) {
+		inflater.reset();
+		if(pooledInflaters.incrementAndGet() > MAX_POOLED){
+			pooledInflaters.decrementAndGet();
+			inflater.end();
+			return;
+		}
+
+		inflaters.add(inflater);
+	}
+}
@@ -1,39 +1,243 @@
 package de.raysha.lib.net.scs;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
+import de.raysha.lib.net.scs.FrameTransport.FrameInspector;
 import de.raysha.lib.net.scs.exception.NoSerializerFoundException;
 import de.raysha.lib.net.scs.exception.UnknownMessageException;
 import de.raysha.lib.net.scs.model.Message;
+import de.raysha.lib.net.scs.model.serialize.BufferMessageSerializer;
+import de.raysha.lib.net.scs.model.serialize.BufferSerializerAdapter;
 import de.raysha.lib.net.scs.model.serialize.MessageSerializer;
+import de.raysha.lib.net.scs.model.serialize.ObjectSerializer;
+import de.raysha.lib.net.scs.model.serialize.StreamingMessageSerializer;
+import de.raysha.lib.net.scs.utils.BufferPool;
 import de.raysha.lib.net.scs.utils.HashGenerator;
+import de.raysha.lib.net.scs.utils.HashedWheelTimer;
+import de.raysha.lib.net.scs.utils.VarInt;
 
 /**
  * This class is an abstraction level for make it easy to communicate between server and client over {@link Socket}s.
+ * <p>
+ * Each frame carries the normalized (md5) message id of his message. If both sides are able to understand it,
+ * a connector can switch to compact message ids (see {@link #enableCompactMessageIds()}). Then the message types
+ * are represented by small integers which are announced to the other side before they are used.
+ * <p>
+ * The serialized messages can be compressed before they are sent (see {@link #enableCompression(int)}).
+ * Compressed frames are marked by a flag in the frame header, so the receiver always knows what to do.
+ * <p>
+ * Very large messages can be streamed (see {@link #sendStreamed(Message)}). Then they are sent in chunks
+ * of a bounded size, each chunk in his own frame. So neither side needs the whole message in memory.
+ * The size of the received frames is limited (see {@link #setMaxFrameSize(int)}), so bigger messages are
+ * sent in chunks automatically (see {@link #STREAM_THRESHOLD}).
+ * <p>
+ * Requests (see {@link #request(Message)}) carry a correlation id which is given back with the response.
+ * So many requests can be in flight on one connection and the responses can arrive in any order.
+ * <p>
+ * Messages can be sent asynchronously (see {@link #sendAsync(Message)}). They go through a bounded send queue
+ * which is drained by a writer task. So the producer does not wait for serialization, encryption and network.
+ * <p>
+ * The messages of an {@link ObjectSerializer} contain the class descriptors of all their classes. A connector
+ * can share these descriptors with his partner (see {@link #enableClassDescriptorSharing()}). Then each descriptor
+ * is sent only once per connection.
+ * <p>
+ * Internally each {@link MessageSerializer} is used as {@link BufferMessageSerializer} (see {@link BufferSerializerAdapter}).
+ * So the connectors can serialize the messages directly into pooled buffers and deserialize them from pooled buffers.
  *
  * @author rainu
  */
 public abstract class Connector {
 	protected static final int BUFFER_SIZE = 8096;
+	public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+	/**
+	 * A message whose serialized form is bigger than this size is sent in chunks (like {@link #sendStreamed(Message)}).
+	 * So it never exceeds the maximal frame size of my partner (see {@link FrameTransport#DEFAULT_MAX_FRAME_SIZE}).
+	 * Requests and responses are always sent in one frame.
+	 */
+	public static final int STREAM_THRESHOLD = 1024 * 1024;
 	private static final int NORMALIZED_MESSAGE_ID_LENGTH = 32; //length of md5 string
+	/**
+	 * The frames with this (reserved) id contains a batch of messages (see {@link #send(Collection)}).
+	 */
+	private static final String BATCH_MESSAGE_ID = normalizeMessageId("de.raysha.lib.net.scs.Connector$Batch");
+	/**
+	 * The frames with this (reserved) id contains compact message id announcements (see {@link #enableCompactMessageIds()}).
+	 */
+	private static final String COMPACT_IDS_MESSAGE_ID = normalizeMessageId("de.raysha.lib.net.scs.Connector$CompactIds");
+	private static final byte[] RAW_COMPACT_IDS_MESSAGE_ID = COMPACT_IDS_MESSAGE_ID.getBytes();
+	/**
+	 * The frames with this (reserved) id contains class descriptor announcements (see {@link #enableClassDescriptorSharing()}).
+	 */
+	private static final String DESCRIPTORS_MESSAGE_ID = normalizeMessageId("de.raysha.lib.net.scs.Connector$Descriptors");
+	private static final byte[] COMPACT_BATCH_ID = VarInt.toBytes(CompactMessageIds.BATCH_ID);
+	private static final byte[] COMPACT_ANNOUNCEMENT_ID = VarInt.toBytes(CompactMessageIds.ANNOUNCEMENT_ID);
+	private static final byte[] COMPACT_DESCRIPTORS_ID = VarInt.toBytes(CompactMessageIds.DESCRIPTORS_ID);
+	/**
+	 * The frames with this (reserved) id contains a ping or a pong (see {@link #ping(long, TimeUnit)}). The type
+	 * of the control frame is followed by the encoded type and number (see {@link #encodeControl(byte[])}).
+	 */
+	private static final String CONTROL_MESSAGE_ID = normalizeMessageId("de.raysha.lib.net.scs.Connector$Control");
+	private static final byte[] RAW_CONTROL_MESSAGE_ID = CONTROL_MESSAGE_ID.getBytes();
+	private static final byte[] COMPACT_CONTROL_ID = VarInt.toBytes(CompactMessageIds.CONTROL_ID);
+	private static final byte PING = 0;
+	private static final byte PONG = 1;
+	/**
+	 * The frames with this (reserved) id contains a chunk or a credit of a logical channel (see {@link Channel}).
+	 */
+	private static final String CHANNEL_MESSAGE_ID = normalizeMessageId("de.raysha.lib.net.scs.Connector$Channel");
+	private static final byte[] COMPACT_CHANNEL_ID = VarInt.toBytes(CompactMessageIds.CHANNEL_ID);
+	private static final byte CHUNK = 0;
+	private static final byte LAST_CHUNK = 1;
+	private static final byte CREDIT = 2;
 
 	private final Object sendMonitor = new Object();
-	private final Object receiveMonitor = new Object();
+	/**
+	 * The lock will be hold from the first until the last chunk of a streamed message is received.
+	 * So no other receiver can steal a chunk.
+	 */
+	private final ReentrantLock receiveLock = new ReentrantLock();
+	private boolean receivingStream = false;
+	/**
+	 * The messages which are received by a ping (see {@link #ping(long, TimeUnit)}), but not by {@link #receive()} yet.
+	 */
+	private final Queue<RawMessage> unreadMessages = new ConcurrentLinkedQueue<RawMessage>();
+	/**
+	 * While a message is received without waiting (see {@link #receiveNow()}), the chunks of a streamed message are
+	 * collected here until the last chunk is received. The fields are guarded by the receive lock.
+	 */
+	private final Queue<RawMessage> stagedChunks = new ArrayDeque<RawMessage>();
+	private volatile boolean stagedComplete = false;
+	private boolean polling = false;
+	/**
+	 * Will be notified if a pong, a chunk or a credit of a channel was received or if the receive lock was released
+	 * (see {@link #awaitReceived(ReceiveCondition, long)}).
+	 */
+	private final Object receivedMonitor = new Object();
+	private final AtomicInteger lastPing = new AtomicInteger();
+	private volatile int lastPong = 0;
+	//the last ping of my partner and if his pong is written at the moment (see #answerPing(int))
+	private volatile int pingToAnswer;
+	private final AtomicBoolean answeringPing = new AtomicBoolean();
+	//are the frames of my partner sent with compact ids? Only used by the inspecting thread (see #inspectFrame(ByteBuffer))
+	private volatile boolean compactFrames = false;
+	private final ConcurrentMap<Integer, Channel> channels = new ConcurrentHashMap<Integer, Channel>();
+	private final AtomicInteger partnerChannels = new AtomicInteger();
 
 	private final Socket socket;
+	private final FrameTransport transport;
 
-	protected final Map<String, Class<? extends Message>> messageIdToClass = new HashMap<String, Class<? extends Message>>();
-	protected final Map<Class<? extends Message>, String> classToMessageId = new HashMap<Class<? extends Message>, String>();
+	//the registrations are read by the receiving and sending threads while an other thread may register a serializer
+	protected final Map<String, Class<? extends Message>> messageIdToClass = new ConcurrentHashMap<String, Class<? extends Message>>();
+	protected final Map<Class<? extends Message>, String> classToMessageId = new ConcurrentHashMap<Class<? extends Message>, String>();
 	protected final Map<Class<? extends Message>, MessageSerializer<? extends Message>> messageSerializer =
-			new HashMap<Class<? extends Message>, MessageSerializer<? extends Message>>();
+			new ConcurrentHashMap<Class<? extends Message>, MessageSerializer<? extends Message>>();
+	private final Map<Class<? extends Message>, BufferMessageSerializer<? extends Message>> bufferSerializer =
+			new ConcurrentHashMap<Class<? extends Message>, BufferMessageSerializer<? extends Message>>();
+	/**
+	 * The size of the last serialized message of each class. It is used for choosing the size of the next buffer.
+	 */
+	private final ConcurrentMap<Class<? extends Message>, Integer> serializedSizes =
+			new ConcurrentHashMap<Class<? extends Message>, Integer>();
+	/**
+	 * The keys are the raw (byte) representation of the normalized message ids. So a received id can be
+	 * looked up without creating a string for it.
+	 */
+	private final Map<ByteBuffer, String> rawMessageIds = new ConcurrentHashMap<ByteBuffer, String>();
+	/**
+	 * Contains the received messages of a batch which are not yet picked up by {@link #receive()}.
+	 */
+	private final Queue<RawMessage> batchedMessages = new ConcurrentLinkedQueue<RawMessage>();
+	/**
+	 * The compact ids of my sent messages. This is <b>null</b> as long as the normalized ids are used.
+	 */
+	private volatile CompactMessageIds sendIds;
+	/**
+	 * The compact ids of my received messages. This is <b>null</b> as long as my partner uses the normalized ids.
+	 */
+	private volatile CompactMessageIds receiveIds;
+	/**
+	 * The class descriptors which are shared with my partner (in both directions).
+	 */
+	private final ClassDescriptors descriptors = new ClassDescriptors();
+	private final Compression compression = new Compression();
+	private final SendQueue sendQueue = new SendQueue(this);
+	private final PendingRequests requests = new PendingRequests();
+	private final Dispatcher dispatcher;
+	private volatile int chunkSize = DEFAULT_CHUNK_SIZE;
+	/**
+	 * The metrics or <b>null</b> if nothing should be measured.
+	 */
+	private volatile ConnectorMetrics metrics;
+	/**
+	 * Will be run by the first {@link #disconnect()} (see {@link #onDisconnect(Runnable)}).
+	 */
+	private final AtomicReference<Runnable> disconnectTask = new AtomicReference<Runnable>();
+	private final AtomicBoolean disconnected = new AtomicBoolean(false);
+	/**
+	 * The heartbeat and idle timeout or <b>null</b> if they are disabled (see {@link #startHeartbeat(HashedWheelTimer, long, long, TimeUnit)}).
+	 */
+	private volatile IdleMonitor idleMonitor;
 
 	public Connector(Socket socket) {
 		this.socket = socket;
+		this.transport = openTransport(socket);
+		this.dispatcher = new Dispatcher(this, transport);
+		if(transport != null){
+			transport.setFrameInspector(new FrameInspector() {
+				@Override
+				public boolean inspect(ByteBuffer frame) {
+					return inspectFrame(frame);
+				}
+
+				@Override
+				public void closed() {
+					connectionLost();
+				}
+			});
+		}
+
+		rawMessageIds.put(ByteBuffer.wrap(BATCH_MESSAGE_ID.getBytes()), BATCH_MESSAGE_ID);
+		rawMessageIds.put(ByteBuffer.wrap(COMPACT_IDS_MESSAGE_ID.getBytes()), COMPACT_IDS_MESSAGE_ID);
+		rawMessageIds.put(ByteBuffer.wrap(DESCRIPTORS_MESSAGE_ID.getBytes()), DESCRIPTORS_MESSAGE_ID);
+		rawMessageIds.put(ByteBuffer.wrap(CONTROL_MESSAGE_ID.getBytes()), CONTROL_MESSAGE_ID);
+		rawMessageIds.put(ByteBuffer.wrap(CHANNEL_MESSAGE_ID.getBytes()), CHANNEL_MESSAGE_ID);
+	}
+
+	private static FrameTransport openTransport(Socket socket) {
+		if(socket == null){
+			return null;
+		}
+
+		FrameTransport transport = ChannelTransport.lookup(socket);
+		if(transport == null){
+			transport = new SocketTransport(socket, BufferPool.DEFAULT);
+		}
+
+		return transport;
 	}
 
 	/**
@@ -66,190 +270,2323 @@ public abstract class Connector {
 
 		messageIdToClass.put(normalizedMessageId, messageClass);
 		classToMessageId.put(messageClass, normalizedMessageId);
-		messageSerializer.put(messageClass, serializer);
-	}
+		rawMessageIds.put(ByteBuffer.wrap(normalizedMessageId.getBytes()), normalizedMessageId);
+		if(serializer == null){
+			//only the message id is registered (for raw messages)
+			messageSerializer.remove(messageClass);
+			bufferSerializer.remove(messageClass);
+		}else{
+			messageSerializer.put(messageClass, serializer);
+			bufferSerializer.put(messageClass, adapt(serializer));
+		}
 
-	private String normalizeMessageId(String messageId) {
-		final String md5 = HashGenerator.toMD5(messageId);
+		if(sendIds != null){
+			synchronized (sendMonitor) {
+				sendIds.assign(normalizedMessageId);
+			}
+		}
+	}
 
-		assert md5.length() == NORMALIZED_MESSAGE_ID_LENGTH;
+	/**
+	 * Register a {@link MessageHandler} for a message-class. While the dispatching is started (see
+	 * {@link #startDispatching(Executor, DispatchErrorHandler)}) each received message of that class will be
+	 * passed to this handler. A handler which is registered for {@link Message} receives all messages
+	 * which have no own handler.
+	 *
+	 * @param messageClass For which class is the given handler responsible for.
+	 * @param handler The handler for the given message class or <b>null</b> to remove the current handler.
+	 */
+	public <M extends Message> void registerHandler(
+			Class<M> messageClass, MessageHandler<? super M> handler){
 
-		return md5;
+		dispatcher.register(messageClass, handler);
 	}
 
 	/**
-	 * Get the {@link MessageSerializer} that is responsible for the given class. If no serializer was
-	 * registered before, null will be returned.
+	 * Start the dispatching of the received messages to the registered {@link MessageHandler}s (see
+	 * {@link #registerHandler(Class, MessageHandler)}). From now on the messages are received by the
+	 * library, so {@link #receive()} must not be called anymore. The handlers are called on the given
+	 * executor, but never concurrently for this connector. So the messages are handled in the order of their
+	 * receiving. The messages of different connectors can be handled at the same time.
+	 * <p>
+	 * If the connector is based on a {@link java.nio.channels.SocketChannel} (see {@link EventLoop}) no thread is
+	 * occupied while no message is waiting. Otherwise one reader thread per connector receives the messages.
 	 *
-	 * @param messageClass The message class.
-	 * @return The corresponding {@link MessageSerializer} or <b>null</b> if there is no serializer for that message class.
+	 * @param executor The executor which calls the handlers or <b>null</b> for a shared pool of daemon threads.
+	 * @param errorHandler The handler for the errors of the receiving and the handlers
+	 * or <b>null</b> to disconnect the connector (quietly) on each error.
+	 * @throws IllegalStateException If the dispatching is already started.
 	 */
-	@SuppressWarnings("unchecked")
-	public final <M extends Message> MessageSerializer<M> getSerializerFor(Class<M> messageClass) {
-		return (MessageSerializer<M>) messageSerializer.get(messageClass);
+	public void startDispatching(Executor executor, DispatchErrorHandler errorHandler) {
+		dispatcher.start(executor, errorHandler);
+	}
+
+	/**
+	 * Stop the dispatching (see {@link #startDispatching(Executor, DispatchErrorHandler)}). The message
+	 * which is currently handled will be finished.
+	 */
+	public void stopDispatching() {
+		dispatcher.stop();
 	}
 
 	/**
-	 * Disconnect from my partner.
+	 * Checks if the received messages are dispatched (see {@link #startDispatching(Executor, DispatchErrorHandler)}).
+	 * The dispatching stops if the connection is broken.
 	 *
-	 * @throws IOException if an I/O error occurs when closing my socket.
+	 * @return <b>true</b> if the dispatching is running.
 	 */
-	public void disconnect() throws IOException {
-		socket.close();
+	public boolean isDispatching() {
+		return dispatcher.isDispatching();
 	}
 
 	/**
-	 * Use the registered {@link MessageSerializer} to serialize the given message. If there was no serializer
-	 * found, an {@link NoSerializerFoundException} will be thrown!
+	 * Checks if a message (or a frame) is already received, so that {@link #receiveNow()} will (most likely) find
+	 * something to do.
+	 */
+	boolean hasReceivable() {
+		return !batchedMessages.isEmpty() || stagedComplete || !unreadMessages.isEmpty() || transport.hasReceivedFrames();
+	}
+
+	/**
+	 * Receive a message only if it is already received: this method never waits for the network. The protocol
+	 * frames (pings, announcements, responses...) which are already received are handled on the way. A streamed
+	 * message is handed out only if all his chunks are received.
 	 *
-	 * @param message The message which should be serialize.
-	 * @return The raw byte-array that contains the serialiesed message.
-	 * @throws NoSerializerFoundException if no serialiser is registered for this type of message.
+	 * @return The received message or <b>null</b> if no (whole) message is received yet or an other thread
+	 * receives at the moment.
+	 * @throws IOException If an error occurs while receiving a message.
 	 */
-	protected final byte[] serialize(Message message) {
-		@SuppressWarnings("unchecked")
-		MessageSerializer<? super Message> serializer =
-				(MessageSerializer<? super Message>) getSerializerFor(message.getClass());
+	final Message receiveNow() throws IOException {
+		if(!receiveLock.tryLock()){
+			return null;
+		}
+
+		polling = true;
+		try {
+			return receive();
+		} catch (NothingReceived e) {
+			return null;
+		} finally {
+			polling = false;
+			receiveLock.unlock();
+		}
+	}
+
+	/**
+	 * Thrown by {@link Connector#receiveRaw()} if the receiving would wait for the network, but the
+	 * caller must not wait (see {@link Connector#receiveNow()}).
+	 */
+	private static final class NothingReceived extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+			return this;
+		}
+	}
 
+	private static final NothingReceived NOTHING_RECEIVED = new NothingReceived();
+
+	private <M extends Message> BufferMessageSerializer<M> adapt(MessageSerializer<M> serializer) {
 		if(serializer == null){
-			throw new NoSerializerFoundException(message.getClass());
+			return null;
+		}
+		if(serializer instanceof ObjectSerializer){
+			return new SharedDescriptorSerializer<M>((ObjectSerializer<M>) serializer, descriptors);
 		}
 
-		return serializer.serialize(message);
+		return BufferSerializerAdapter.adapt(serializer);
 	}
 
 	/**
-	 * Use the registered {@link MessageSerializer} to deserialize the given raw message. If there was no serializer
-	 * found, an {@link NoSerializerFoundException} will be thrown!
+	 * Switch to compact message ids for all messages which are sent by me. Instead of the normalized message id each
+	 * frame carries a small integer (varint). The integers will be assigned now (and for each later registered
+	 * message class) and will be announced to my partner before they are used. This method must be called before
+	 * the first message is sent and my partner must be able to understand compact message ids. Messages which
+	 * are sent by my partner are not affected.
 	 *
-	 * @param messageId The received uniqe message-type-id.
-	 * @param raw The serialized raw message, which should be deserialise.
-	 * @return The deserialized {@link Message}-instance.
-	 * @throws UnknownMessageException if the message id is unknown (no class is mapped for it).
-	 * @throws NoSerializerFoundException if no serialiser is registered for this type of message.
+	 * @throws IOException If an error occurs while sending the announcement.
 	 */
-	@SuppressWarnings("unchecked")
-	protected final <M extends Message> M deserialize(String messageId, byte[] raw){
-		Class<? extends Message> messageClass = messageIdToClass.get(messageId);
+	public void enableCompactMessageIds() throws IOException {
+		synchronized (sendMonitor) {
+			if(sendIds != null){
+				return;
+			}
 
-		if(messageClass == null){
-			throw new UnknownMessageException(messageId);
+			CompactMessageIds ids = new CompactMessageIds();
+			for(String messageId : classToMessageId.values()){
+				ids.assign(messageId);
+			}
+
+			writeFrame(0, ByteBuffer.wrap(COMPACT_IDS_MESSAGE_ID.getBytes()), ByteBuffer.wrap(encodeIdAnnouncement(ids.drainAnnouncements())));
+			sendIds = ids;
 		}
+	}
 
-		MessageSerializer<? super Message> serializer =
-				(MessageSerializer<? super Message>) getSerializerFor(messageClass);
+	/**
+	 * Checks if my messages are sent with compact message ids (see {@link #enableCompactMessageIds()}).
+	 *
+	 * @return True if compact message ids are used. Otherwise false.
+	 */
+	public boolean isCompactMessageIds() {
+		return sendIds != null;
+	}
 
-		if(serializer == null){
-			throw new NoSerializerFoundException(messageClass);
+	private byte[] encodeMessageId(String messageId) {
+		final CompactMessageIds ids = sendIds;
+		if(ids != null){
+			return ids.encode(messageId);
+		}
+
+		return messageId.getBytes();
+	}
+
+	private void writeAnnouncements() throws IOException {
+		if(sendIds != null && sendIds.hasUnannounced()){
+			writeFrame(0, ByteBuffer.wrap(COMPACT_ANNOUNCEMENT_ID), ByteBuffer.wrap(encodeIdAnnouncement(sendIds.drainAnnouncements())));
 		}
+		if(descriptors.hasUnannounced()){
+			final byte[] descriptorsId = sendIds != null ? COMPACT_DESCRIPTORS_ID : DESCRIPTORS_MESSAGE_ID.getBytes();
+			final byte[] announcement = encodeDescriptors(descriptors.drainAnnouncements());
 
-		return (M) serializer.deserialize(raw);
+			writeFrame(0, ByteBuffer.wrap(descriptorsId), ByteBuffer.wrap(announcement));
+		}
 	}
 
 	/**
-	 * Send a {@link Message} through my {@link Socket}.
+	 * Encode (encrypt) an announcement of compact message ids (see {@link #enableCompactMessageIds()}). This default
+	 * implementation returns the announcement as it is.
 	 *
-	 * @param message The message to be send.
-	 * @throws IOException If an error occurs while sending the message.
+	 * @param announcement The raw announcement.
+	 * @return The encoded announcement.
 	 */
-	public abstract void send(Message message) throws IOException;
+	protected byte[] encodeIdAnnouncement(byte[] announcement) {
+		return announcement;
+	}
 
 	/**
-	 * Sends a the given raw message.
+	 * Decode (decrypt) a received announcement of compact message ids (see {@link #encodeIdAnnouncement(byte[])}).
+	 * This default implementation only copies the announcement.
 	 *
-	 * @param messageType Which type of message are the raw-content?
-	 * @param message The raw message.
-	 * @throws IOException If an error occurs while sending a message.
+	 * @param announcement The received announcement. His content will not be released.
+	 * @return The raw announcement.
+	 * @throws IOException If the announcement is corrupt.
 	 */
-	protected final void sendRaw(Class<? extends Message> messageType, byte[] message) throws IOException{
-		final String messageId = classToMessageId.get(messageType);
-		byte[] rawMessageId = messageId.getBytes();
-		byte[] length = ByteBuffer.allocate(4).putInt(message.length + rawMessageId.length).array();
+	protected byte[] decodeIdAnnouncement(RawMessage announcement) throws IOException {
+		return copyContent(announcement);
+	}
 
-		synchronized (sendMonitor) {
-			socket.getOutputStream().write(length);
-			socket.getOutputStream().write(rawMessageId);
-			socket.getOutputStream().write(message);
-			socket.getOutputStream().flush();
-		}
+	private static byte[] copyContent(RawMessage rawMessage) {
+		final ByteBuffer content = rawMessage.rawMessage;
+		final int offset = content.arrayOffset() + content.position();
+
+		return Arrays.copyOfRange(content.array(), offset, offset + content.remaining());
 	}
 
 	/**
-	 * Receive a message from my {@link Socket}. This is a blocking call! That
-	 * means that this method blocks until a message was received or a {@link IOException} was
-	 * thrown.
+	 * Share the class descriptors of all messages which are sent by me and serialized by an {@link ObjectSerializer}.
+	 * Normally each of these messages contains the descriptors of all his classes. From now on a descriptor will be
+	 * announced to my partner only once (in his own frame, see {@link #encodeDescriptors(byte[])}), after that the
+	 * messages refer to it by a small handle. The descriptors belong to this connection: after a reconnect they
+	 * will be announced again. My partner must be able to read shared descriptors. Streamed messages (see
+	 * {@link #sendStreamed(Message)}) and messages which are sent by my partner are not affected.
+	 */
+	public void enableClassDescriptorSharing() {
+		descriptors.enable();
+	}
+
+	/**
+	 * Checks if the class descriptors of my messages are shared (see {@link #enableClassDescriptorSharing()}).
 	 *
-	 * @return The received {@link Message}.
-	 * @throws IOException If an error occurs while receiving a message.
+	 * @return True if the class descriptors are shared. Otherwise false.
 	 */
-	public abstract Message receive() throws IOException;
+	public boolean isClassDescriptorSharing() {
+		return descriptors.isEnabled();
+	}
 
 	/**
-	 * Receive the next raw message. This is a blocking call! That
-	 * means that this method blocks until a message was received or a {@link IOException} was
-	 * thrown.
+	 * Encode (encrypt) an announcement of class descriptors (see {@link #enableClassDescriptorSharing()}). The
+	 * announcement contains the names of the classes and their fields. This default implementation returns
+	 * the announcement as it is.
 	 *
-	 * @return The received {@link RawMessage}.
-	 * @throws IOException If an error occurs while receiving a message.
+	 * @param announcement The raw announcement.
+	 * @return The encoded announcement.
 	 */
-	protected final RawMessage receiveRaw() throws IOException{
-		final ByteBuffer builder;
-		final int length;
+	protected byte[] encodeDescriptors(byte[] announcement) {
+		return announcement;
+	}
 
-		synchronized (receiveMonitor) {
-			InputStream in = socket.getInputStream();
-			length = receiveLength(in);
-			int totalRead = 0;
+	/**
+	 * Decode (decrypt) a received announcement of class descriptors (see {@link #encodeDescriptors(byte[])}).
+	 * This default implementation only copies the announcement.
+	 *
+	 * @param announcement The received announcement. His content will not be released.
+	 * @return The raw announcement.
+	 * @throws IOException If the announcement is corrupt.
+	 */
+	protected byte[] decodeDescriptors(RawMessage announcement) throws IOException {
+		return copyContent(announcement);
+	}
 
-			builder = ByteBuffer.allocate(length);
+	/**
+	 * Compress all messages (and batches) which are sent by me if their serialized form has at least the given size.
+	 * The compression can be switched off for single message classes (see {@link #setCompression(Class, boolean)}).
+	 * My partner can always decompress them, he needs only the same dictionaries
+	 * (see {@link #setCompressionDictionary(Class, byte[])}).
+	 *
+	 * @param threshold The minimal size (in bytes) of a serialized message which should be compressed.
+	 */
+	public void enableCompression(int threshold) {
+		if(threshold < 0){
+			throw new IllegalArgumentException("The threshold must not be negative!");
+		}
 
-			while(length > totalRead){
-				byte[] buffer = new byte[length - totalRead];
+		compression.setThreshold(threshold);
+	}
 
-				int read = in.read(buffer);
-				if(read < 0) {
-					break;
-				}
+	/**
+	 * Send all following messages uncompressed.
+	 */
+	public void disableCompression() {
+		compression.setThreshold(Compression.DISABLED);
+	}
 
-				totalRead += read;
+	/**
+	 * Checks if my messages are compressed (see {@link #enableCompression(int)}).
+	 *
+	 * @return True if the compression is enabled. Otherwise false.
+	 */
+	public boolean isCompressionEnabled() {
+		return compression.getThreshold() != Compression.DISABLED;
+	}
 
-				builder.put(buffer, 0, read);
-			}
+	/**
+	 * Switch the compression on/off for the given message class. For example messages which contains
+	 * already compressed data should not be compressed again. The compression is on for all message classes
+	 * by default (if it is enabled at all). This switch does not affect batches (see {@link #send(Collection)}).
+	 *
+	 * @param messageClass The message class.
+	 * @param enabled False if the messages of this class should never be compressed.
+	 */
+	public void setCompression(Class<? extends Message> messageClass, boolean enabled) {
+		compression.setEnabled(messageClass, enabled);
+	}
+
+	/**
+	 * Set a preset dictionary for compressing the messages of the given class. A good dictionary contains
+	 * byte sequences which are common in the serialized messages (see {@link de.raysha.lib.net.scs.utils.DictionaryTrainer}).
+	 * Both sides must use the same dictionary for a message class!
+	 *
+	 * @param messageClass The message class.
+	 * @param dictionary The dictionary or <b>null</b> for removing it.
+	 */
+	public void setCompressionDictionary(Class<? extends Message> messageClass, byte[] dictionary) {
+		compression.setDictionary(messageClass, dictionary);
+	}
 
-			builder.flip();
+	/**
+	 * Compress the given serialized message if the compression is enabled for it.
+	 *
+	 * @param messageClass The class of the message or <b>null</b> for a batch (see {@link #serializeBatch(Collection)}).
+	 * @param raw The serialized message.
+	 * @return The compressed message or <b>null</b> if the message should be sent uncompressed.
+	 */
+	protected final byte[] compress(Class<? extends Message> messageClass, byte[] raw) {
+		return compression.compress(messageClass, raw);
+	}
 
-			return parseRawMessage(builder, length);
+	/**
+	 * Decompress the content of the given raw message if it was compressed.
+	 *
+	 * @param rawMessage The received raw message. His content will not be used.
+	 * @param content The (decrypted) content of the raw message.
+	 * @return The decompressed content or the given content if the message was not compressed.
+	 * @throws IOException If the compressed content is corrupt.
+	 */
+	protected final byte[] decompress(RawMessage rawMessage, byte[] content) throws IOException {
+		if(!rawMessage.isCompressed()){
+			return content;
 		}
+
+		return compression.decompress(rawMessage.messageClass, content);
 	}
 
-	private int receiveLength(InputStream in) throws IOException {
-		byte[] length = new byte[4];
+	/**
+	 * Compress the given serialized message if the compression is enabled for it.
+	 *
+	 * @param messageClass The class of the message or <b>null</b> for a batch (see {@link #serializeBatch(Collection)}).
+	 * @param raw A heap buffer which contains the serialized message.
+	 * @return A pooled buffer with the compressed message or <b>null</b> if the message should be sent uncompressed.
+	 */
+	protected final ByteBuffer compress(Class<? extends Message> messageClass, ByteBuffer raw) {
+		return compression.compress(messageClass, raw);
+	}
 
-		int read = in.read(length);
-		if(read != 4){
-			throw new IOException("The protocol was not followed. No length is given!");
+	/**
+	 * Decompress the content of the given raw message if it was compressed.
+	 *
+	 * @param rawMessage The received raw message. His content will not be used.
+	 * @param content A heap buffer with the (decrypted) content of the raw message.
+	 * @return A pooled buffer with the decompressed content or the given buffer if the message was not compressed.
+	 * @throws IOException If the compressed content is corrupt.
+	 */
+	protected final ByteBuffer decompress(RawMessage rawMessage, ByteBuffer content) throws IOException {
+		if(!rawMessage.isCompressed()){
+			return content;
 		}
 
-		return ByteBuffer.wrap(length).getInt();
+		return compression.decompress(rawMessage.messageClass, content);
 	}
 
-	private RawMessage parseRawMessage(final ByteBuffer builder, final int totalLength) {
-		byte[] rawMessageId = new byte[NORMALIZED_MESSAGE_ID_LENGTH];
-		builder.get(rawMessageId, 0, NORMALIZED_MESSAGE_ID_LENGTH);
+	/**
+	 * Limit the size of the frames which can be received. If my partner sends a bigger frame, {@link #receive()}
+	 * fails and the connection can not be used anymore. Messages which are bigger than this size must be
+	 * streamed (see {@link #sendStreamed(Message)}).
+	 *
+	 * @param maxFrameSize The maximal size of a frame in bytes (default {@link FrameTransport#DEFAULT_MAX_FRAME_SIZE}).
+	 */
+	public void setMaxFrameSize(int maxFrameSize) {
+		if(maxFrameSize <= 0){
+			throw new IllegalArgumentException("The maximal frame size must be positive!");
+		}
+
+		transport.setMaxFrameSize(maxFrameSize);
+	}
 
-		byte[] rawMessage = new byte[totalLength - NORMALIZED_MESSAGE_ID_LENGTH];
-		builder.get(rawMessage, 0, rawMessage.length);
+	/**
+	 * Set the size of the chunks in which streamed messages are sent (see {@link #sendStreamed(Message)}).
+	 * The frames of the chunks are a little bit bigger (message id, encryption), so the chunk size should be
+	 * clearly smaller than the maximal frame size of my partner (see {@link #setMaxFrameSize(int)}).
+	 *
+	 * @param chunkSize The chunk size in bytes.
+	 */
+	public void setChunkSize(int chunkSize) {
+		if(chunkSize <= 0){
+			throw new IllegalArgumentException("The chunk size must be positive!");
+		}
 
-		return new RawMessage(new String(rawMessageId), rawMessage);
+		this.chunkSize = chunkSize;
 	}
 
-	protected static class RawMessage {
-		protected final String messageId;
-		protected final byte[] rawMessage;
+	public int getChunkSize() {
+		return chunkSize;
+	}
 
-		public RawMessage(String messageId, byte[] rawMessage) {
-			this.messageId = messageId;
-			this.rawMessage = rawMessage;
+	private static String normalizeMessageId(String messageId) {
+		final String md5 = HashGenerator.toMD5(messageId);
+
+		assert md5.length() == NORMALIZED_MESSAGE_ID_LENGTH;
+
+		return md5;
+	}
+
+	/**
+	 * Get the {@link MessageSerializer} that is responsible for the given class. If no serializer was
+	 * registered before, null will be returned.
+	 *
+	 * @param messageClass The message class.
+	 * @return The corresponding {@link MessageSerializer} or <b>null</b> if there is no serializer for that message class.
+	 */
+	@SuppressWarnings("unchecked")
+	public final <M extends Message> MessageSerializer<M> getSerializerFor(Class<M> messageClass) {
+		if(messageClass == null){
+			return null;
+		}
+
+		return (MessageSerializer<M>) messageSerializer.get(messageClass);
+	}
+
+	/**
+	 * Disconnect from my partner. If my connection is broken (a read failed or my partner has closed it), I am
+	 * disconnected automatically. Only the first call has an effect.
+	 *
+	 * @throws IOException if an I/O error occurs when closing my socket.
+	 */
+	public void disconnect() throws IOException {
+		disconnect(true);
+	}
+
+	/**
+	 * @param stopDispatching Should the dispatching be stopped? A dispatcher stops by himself when he has
+	 * reported a broken connection to his error handler (see {@link #startDispatching(Executor, DispatchErrorHandler)}).
+	 */
+	private void disconnect(boolean stopDispatching) throws IOException {
+		if(!disconnected.compareAndSet(false, true)){
+			return;
+		}
+
+		stopHeartbeat();
+		if(stopDispatching){
+			dispatcher.stop();
+		}
+		sendQueue.close();
+		requests.failAll(new IOException("The connector is disconnected!"));
+		transport.close();
+
+		final ConnectorMetrics metrics = this.metrics;
+		if(metrics != null){
+			metrics.disconnected();
+		}
+
+		final Runnable task = disconnectTask.getAndSet(null);
+		if(task != null){
+			task.run();
+		}
+	}
+
+	/**
+	 * My connection is broken, so I will be disconnected. Otherwise nobody would release my resources
+	 * (and my admission of the server, see {@link #onDisconnect(Runnable)}) if my owner does not call {@link #disconnect()}.
+	 * The disconnecting may block, so it is handed over (see {@link IdleMonitor#executeBlocking(Runnable)}).
+	 */
+	private void connectionLost() {
+		if(disconnected.get()){
+			return;
+		}
+
+		final Runnable disconnecting = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					disconnect(false);
+				} catch (IOException e) {
+					//the connection is already lost
+				}
+			}
+		};
+		if(!IdleMonitor.executeBlocking(disconnecting)){
+			disconnecting.run();
+		}
+	}
+
+	/**
+	 * Set the task which should be run once if this connector is disconnected.
+	 *
+	 * @param task The task.
+	 */
+	void onDisconnect(Runnable task) {
+		disconnectTask.set(task);
+	}
+
+	/**
+	 * Set the metrics which should measure this connector (see {@link ConnectorMetrics}). By default a connector
+	 * has no metrics and measures nothing.
+	 *
+	 * @param metrics The metrics or <b>null</b> for stopping the measuring.
+	 */
+	public void setMetrics(ConnectorMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Get the metrics of this connector (see {@link #setMetrics(ConnectorMetrics)}).
+	 *
+	 * @return The metrics or <b>null</b> if nothing is measured.
+	 */
+	public ConnectorMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Start the measuring of a stage (see {@link #stageDone(MetricStage, Class, long)}).
+	 *
+	 * @return The start time or 0 if nothing is measured.
+	 */
+	protected final long stageStart() {
+		return metrics == null ? 0 : System.nanoTime();
+	}
+
+	/**
+	 * Finish the measuring of a stage.
+	 *
+	 * @param stage The passed stage.
+	 * @param messageClass The class of the message or <b>null</b> if the stage does not belong to one message.
+	 * @param start The start time (see {@link #stageStart()}).
+	 */
+	protected final void stageDone(MetricStage stage, Class<? extends Message> messageClass, long start) {
+		final ConnectorMetrics metrics = this.metrics;
+		if(metrics != null && start != 0){
+			metrics.recordStage(stage, messageClass, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Use the registered {@link MessageSerializer} to serialize the given message. If there was no serializer
+	 * found, an {@link NoSerializerFoundException} will be thrown!
+	 *
+	 * @param message The message which should be serialize.
+	 * @return The raw byte-array that contains the serialiesed message.
+	 * @throws NoSerializerFoundException if no serialiser is registered for this type of message.
+	 */
+	protected final byte[] serialize(Message message) {
+		@SuppressWarnings("unchecked")
+		MessageSerializer<? super Message> serializer =
+				(MessageSerializer<? super Message>) getSerializerFor(message.getClass());
+
+		if(serializer == null){
+			throw new NoSerializerFoundException(message.getClass());
+		}
+
+		return serializer.serialize(message);
+	}
+
+	/**
+	 * Use the registered {@link MessageSerializer} to deserialize the given raw message. If there was no serializer
+	 * found, an {@link NoSerializerFoundException} will be thrown!
+	 *
+	 * @param messageId The received uniqe message-type-id.
+	 * @param raw The serialized raw message, which should be deserialise.
+	 * @return The deserialized {@link Message}-instance.
+	 * @throws UnknownMessageException if the message id is unknown (no class is mapped for it).
+	 * @throws NoSerializerFoundException if no serialiser is registered for this type of message.
+	 */
+	protected final <M extends Message> M deserialize(String messageId, byte[] raw){
+		Class<? extends Message> messageClass = messageIdToClass.get(messageId);
+
+		if(messageClass == null){
+			throw new UnknownMessageException(messageId);
+		}
+
+		return deserialize(messageClass, raw);
+	}
+
+	/**
+	 * Use the registered {@link MessageSerializer} to deserialize the given raw message. If there was no serializer
+	 * found, an {@link NoSerializerFoundException} will be thrown!
+	 *
+	 * @param rawMessage The received raw message. His content will not be used.
+	 * @param raw The serialized raw message, which should be deserialise.
+	 * @return The deserialized {@link Message}-instance or <b>null</b> if the message was a response
+	 * of a request (see {@link #request(Message)}). Such a message is passed to his request.
+	 * @throws UnknownMessageException if the message id is unknown (no class is mapped for it).
+	 * @throws NoSerializerFoundException if no serialiser is registered for this type of message.
+	 */
+	protected final <M extends Message> M deserialize(RawMessage rawMessage, byte[] raw){
+		if(rawMessage.messageClass == null){
+			throw new UnknownMessageException(rawMessage.messageId);
+		}
+
+		return correlate(rawMessage, this.<M>deserialize(rawMessage.messageClass, raw));
+	}
+
+	/**
+	 * Handle the correlation of a received request or response (see {@link #request(Message)}).
+	 *
+	 * @return The given message or <b>null</b> if it was a response. The response is passed to his request.
+	 */
+	private <M extends Message> M correlate(RawMessage rawMessage, M message) {
+		final int correlation = rawMessage.correlation;
+		if(correlation == PendingRequests.NO_CORRELATION){
+			return message;
+		}
+
+		if(PendingRequests.isResponse(correlation)){
+			requests.complete(PendingRequests.idOf(correlation), message);
+			return null;
+		}
+
+		requests.received(message, PendingRequests.idOf(correlation));
+		return message;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <M extends Message> M deserialize(Class<? extends Message> messageClass, byte[] raw){
+		MessageSerializer<? super Message> serializer =
+				(MessageSerializer<? super Message>) getSerializerFor(messageClass);
+
+		if(serializer == null){
+			throw new NoSerializerFoundException(messageClass);
+		}
+
+		final long start = stageStart();
+		final M message = (M) serializer.deserialize(raw);
+		stageDone(MetricStage.DESERIALIZE, messageClass, start);
+
+		return message;
+	}
+
+	/**
+	 * Use the registered {@link MessageSerializer} to serialize the given message into a pooled buffer. If there was
+	 * no serializer found, an {@link NoSerializerFoundException} will be thrown!
+	 *
+	 * @param message The message which should be serialize.
+	 * @return A pooled buffer that contains the serialiesed message. It should be given back to the {@link BufferPool#DEFAULT}.
+	 * @throws NoSerializerFoundException if no serialiser is registered for this type of message.
+	 */
+	protected final ByteBuffer serializeToBuffer(Message message) {
+		final long start = stageStart();
+		final ByteBuffer buffer = doSerializeToBuffer(message);
+		stageDone(MetricStage.SERIALIZE, message.getClass(), start);
+
+		return buffer;
+	}
+
+	@SuppressWarnings("unchecked")
+	private ByteBuffer doSerializeToBuffer(Message message) {
+		final BufferMessageSerializer<? super Message> serializer =
+				(BufferMessageSerializer<? super Message>) bufferSerializer.get(message.getClass());
+
+		if(serializer == null){
+			throw new NoSerializerFoundException(message.getClass());
+		}
+
+		if(serializer instanceof BufferSerializerAdapter){
+			//the array is already there, so copy it only once
+			final byte[] raw = ((BufferSerializerAdapter<? super Message>) serializer).getDelegate().serialize(message);
+			final ByteBuffer buffer = BufferPool.DEFAULT.acquire(raw.length);
+			buffer.put(raw);
+			buffer.flip();
+
+			return buffer;
+		}
+
+		final Integer lastSize = serializedSizes.get(message.getClass());
+		int size = lastSize == null ? 256 : lastSize;
+		while(true){
+			final ByteBuffer buffer = BufferPool.DEFAULT.acquire(size);
+			buffer.limit(buffer.capacity());
+			try {
+				serializer.serialize(message, buffer);
+			} catch (BufferOverflowException e) {
+				BufferPool.DEFAULT.release(buffer);
+				size = grow(buffer.capacity());
+				continue;
+			}
+
+			buffer.flip();
+			if(lastSize == null || lastSize < buffer.remaining()){
+				serializedSizes.put(message.getClass(), buffer.remaining());
+			}
+
+			return buffer;
+		}
+	}
+
+	private static int grow(int capacity) {
+		if(capacity >= FrameTransport.MAX_FRAME_SIZE){
+			throw new BufferOverflowException();
+		}
+
+		return (int) Math.min((long) capacity * 2, FrameTransport.MAX_FRAME_SIZE);
+	}
+
+	/**
+	 * Use the registered {@link MessageSerializer} to deserialize the given raw message. If there was no serializer
+	 * found, an {@link NoSerializerFoundException} will be thrown!
+	 *
+	 * @param rawMessage The received raw message. His content will not be used.
+	 * @param raw A buffer which contains the serialized raw message (between his position and limit).
+	 * @return The deserialized {@link Message}-instance or <b>null</b> if the message was a response
+	 * of a request (see {@link #request(Message)}). Such a message is passed to his request.
+	 * @throws UnknownMessageException if the message id is unknown (no class is mapped for it).
+	 * @throws NoSerializerFoundException if no serialiser is registered for this type of message.
+	 */
+	@SuppressWarnings("unchecked")
+	protected final <M extends Message> M deserialize(RawMessage rawMessage, ByteBuffer raw){
+		if(rawMessage.messageClass == null){
+			throw new UnknownMessageException(rawMessage.messageId);
+		}
+
+		final BufferMessageSerializer<? super Message> serializer =
+				(BufferMessageSerializer<? super Message>) bufferSerializer.get(rawMessage.messageClass);
+
+		if(serializer == null){
+			throw new NoSerializerFoundException(rawMessage.messageClass);
+		}
+
+		final long start = stageStart();
+		final M message = (M) serializer.deserialize(raw.slice().asReadOnlyBuffer());
+		stageDone(MetricStage.DESERIALIZE, rawMessage.messageClass, start);
+
+		return correlate(rawMessage, message);
+	}
+
+	/**
+	 * Send a {@link Message} through my {@link Socket}.
+	 *
+	 * @param message The message to be send.
+	 * @throws IOException If an error occurs while sending the message.
+	 */
+	public abstract void send(Message message) throws IOException;
+
+	/**
+	 * Send a {@link Message} which is marked with the given correlation tag (see {@link #request(Message)}).
+	 * Child classes which support requests must override this method and pass the tag to
+	 * {@link #sendRaw(Class, ByteBuffer, boolean, int)}. This default implementation can only send
+	 * uncorrelated messages.
+	 *
+	 * @param message The message to be send.
+	 * @param correlation The correlation tag or 0 for a usual message.
+	 * @throws IOException If an error occurs while sending the message.
+	 * @throws UnsupportedOperationException If the correlation is not supported.
+	 */
+	protected void send(Message message, int correlation) throws IOException {
+		if(correlation != PendingRequests.NO_CORRELATION){
+			throw new UnsupportedOperationException(getClass().getName() + " does not support requests!");
+		}
+
+		send(message);
+	}
+
+	/**
+	 * Send a request and get the future of his response. The request carries a correlation id which my partner
+	 * gives back with his response (see {@link #respond(Message, Message)}). So many requests can be in flight
+	 * at the same time and the responses can arrive in any order.
+	 * <p>
+	 * The responses are received by {@link #receive()} (or the dispatching, see
+	 * {@link #startDispatching(Executor, DispatchErrorHandler)}), so somebody has to receive. The responses
+	 * are never returned by {@link #receive()}, they complete their futures instead.
+	 *
+	 * @param request The request to be send.
+	 * @return The future of the response. It fails if the connection breaks before the response is received.
+	 * @throws IOException If an error occurs while sending the request.
+	 */
+	public <R extends Message> Future<R> request(Message request) throws IOException {
+		return request(request, 0, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Send a request and get the future of his response (see {@link #request(Message)}).
+	 *
+	 * @param request The request to be send.
+	 * @param timeout The time to wait for the response or 0 for no timeout. After that the future fails
+	 * with a {@link java.util.concurrent.TimeoutException}. A late response will be ignored.
+	 * @param unit The unit of the timeout.
+	 * @return The future of the response.
+	 * @throws IOException If an error occurs while sending the request.
+	 */
+	public <R extends Message> Future<R> request(Message request, long timeout, TimeUnit unit) throws IOException {
+		final PendingRequests.Request<R> pending = requests.register(timeout, unit);
+		try {
+			send(request, PendingRequests.requestTag(pending.getId()));
+		} catch (IOException e) {
+			pending.cancel(false);
+			throw e;
+		} catch (RuntimeException e) {
+			pending.cancel(false);
+			throw e;
+		}
+
+		return pending;
+	}
+
+	/**
+	 * Send the response of a received request (see {@link #request(Message)}). Each request can be answered once.
+	 * Only the last 1024 requests which are not answered yet can be answered, the older ones are forgotten.
+	 *
+	 * @param request The received request.
+	 * @param response The response to be send.
+	 * @throws IOException If an error occurs while sending the response.
+	 * @throws IllegalArgumentException If the given message is no received request or it is already answered.
+	 */
+	public void respond(Message request, Message response) throws IOException {
+		final Integer id = requests.answer(request);
+		if(id == null){
+			throw new IllegalArgumentException("The message is no request or it is already answered!");
+		}
+
+		send(response, PendingRequests.responseTag(id));
+	}
+
+	/**
+	 * Checks if the given message is a received request which is not answered yet (see {@link #respond(Message, Message)}).
+	 *
+	 * @param message The received message.
+	 * @return True if it is a request.
+	 */
+	public boolean isRequest(Message message) {
+		return requests.isReceived(message);
+	}
+
+	/**
+	 * Send a {@link Message} asynchronously. The message will be queued and sent (see {@link #send(Message)})
+	 * by a writer task. The asynchronous messages are sent in the order of their queuing. If the send queue
+	 * is full, the {@link OverflowPolicy} decides (see {@link #setSendQueue(int, OverflowPolicy)}).
+	 *
+	 * @param message The message to be send.
+	 * @return A future which completes when the message is written to my socket. If the message could
+	 * not be sent, the future fails with the cause.
+	 * @throws IOException If I am disconnected or the thread was interrupted while it waits for space in the queue.
+	 * @throws RejectedExecutionException If the send queue is full and the policy is {@link OverflowPolicy#FAIL}.
+	 */
+	public Future<Void> sendAsync(Message message) throws IOException {
+		return sendQueue.offer(message);
+	}
+
+	/**
+	 * Send an already encoded message asynchronously (see {@link #sendAsync(Message)}). The calling thread never
+	 * waits for space in the send queue. While the send queue is above his high watermark
+	 * (see {@link #setSendQueueWatermarks(int, int, SendQueueListener)}) the message is rejected, so a stalled
+	 * connector does not collect more and more messages.
+	 *
+	 * @param messageType Which type of message are the raw-content?
+	 * @param message A buffer which contains the encoded message. It must not be changed until the future is done.
+	 * @return The future of the sending.
+	 * @throws IOException If I am disconnected.
+	 * @throws RejectedExecutionException If the send queue is full or above his high watermark.
+	 * @throws NoSerializerFoundException If the message type is not registered.
+	 */
+	Future<Void> sendRawAsync(final Class<? extends Message> messageType, final ByteBuffer message) throws IOException {
+		if(classToMessageId.get(messageType) == null){
+			throw new NoSerializerFoundException(messageType);
+		}
+
+		return sendQueue.offer(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				sendRaw(messageType, message, false);
+				return null;
+			}
+		}, false);
+	}
+
+	/**
+	 * Set the capacity of the send queue (see {@link #sendAsync(Message)}) and what should happen if it is full.
+	 * By default the queue can take 1024 messages and the sending thread waits if it is full ({@link OverflowPolicy#BLOCK}).
+	 *
+	 * @param capacity The maximal number of waiting messages.
+	 * @param policy What should happen if the queue is full.
+	 */
+	public void setSendQueue(int capacity, OverflowPolicy policy) {
+		sendQueue.setCapacity(capacity, policy);
+	}
+
+	/**
+	 * Set the watermarks of the send queue (see {@link #sendAsync(Message)}). If the number of waiting messages reaches the
+	 * high watermark, the listener will be informed. When it falls to the low watermark again, the listener will be
+	 * informed too. So the producers can pause before the queue overflows.
+	 *
+	 * @param lowWatermark The low watermark (0 &lt;= low &lt; high).
+	 * @param highWatermark The high watermark.
+	 * @param listener The listener.
+	 */
+	public void setSendQueueWatermarks(int lowWatermark, int highWatermark, SendQueueListener listener) {
+		sendQueue.setWatermarks(lowWatermark, highWatermark, listener);
+	}
+
+	/**
+	 * Set the {@link Executor} which runs the writer task of the send queue (see {@link #sendAsync(Message)}). The
+	 * task only runs while messages are waiting. By default a shared pool of at most 64 daemon threads is used. A writer
+	 * occupies his thread while the socket of a slow partner is full, so for many slow partners an own executor
+	 * should be used.
+	 *
+	 * @param executor The executor or <b>null</b> for the default.
+	 */
+	public void setSendExecutor(Executor executor) {
+		sendQueue.setExecutor(executor);
+	}
+
+	/**
+	 * Get the number of asynchronous messages which are waiting for sending (see {@link #sendAsync(Message)}).
+	 *
+	 * @return The number of waiting messages.
+	 */
+	public int getSendQueueSize() {
+		return sendQueue.size();
+	}
+
+	/**
+	 * Send all given {@link Message}s in the given order through my {@link Socket}. On the other side
+	 * they will be received one by one by {@link #receive()}. This default implementation sends each
+	 * message separately. Child classes can pack them into one frame (see {@link #serializeBatch(Collection)}).
+	 *
+	 * @param messages The messages to be send.
+	 * @throws IOException If an error occurs while sending the messages.
+	 */
+	public void send(Collection<? extends Message> messages) throws IOException {
+		for(Message message : messages){
+			send(message);
+		}
+	}
+
+	/**
+	 * Serialize all given messages into one batch. A batch consists of one entry for each message. An entry
+	 * has the same layout as a frame (4-byte length, (compact) message id, serialized message).
+	 *
+	 * @param messages The messages which should be serialize.
+	 * @return The raw byte-array that contains the batch.
+	 * @throws NoSerializerFoundException if no serialiser is registered for a type of message.
+	 */
+	protected final byte[] serializeBatch(Collection<? extends Message> messages) {
+		final byte[][] serialized = new byte[messages.size()][];
+		final byte[][] messageIds = new byte[messages.size()][];
+
+		int i = 0;
+		int length = 0;
+		for(Message message : messages){
+			serialized[i] = serialize(message);
+			messageIds[i] = encodeMessageId(classToMessageId.get(message.getClass()));
+			length += 4 + messageIds[i].length + serialized[i].length;
+			i++;
+		}
+
+		final ByteBuffer batch = ByteBuffer.allocate(length);
+		for(i=0; i < serialized.length; i++){
+			batch.putInt(messageIds[i].length + serialized[i].length);
+			batch.put(messageIds[i]);
+			batch.put(serialized[i]);
+		}
+
+		return batch.array();
+	}
+
+	/**
+	 * Serialize all given messages into one batch (see {@link #serializeBatch(Collection)}).
+	 *
+	 * @param messages The messages which should be serialize.
+	 * @return A pooled buffer that contains the batch. It should be given back to the {@link BufferPool#DEFAULT}.
+	 * @throws NoSerializerFoundException if no serialiser is registered for a type of message.
+	 */
+	protected final ByteBuffer serializeBatchToBuffer(Collection<? extends Message> messages) {
+		final ByteBuffer[] serialized = new ByteBuffer[messages.size()];
+		final byte[][] messageIds = new byte[messages.size()][];
+
+		try {
+			int i = 0;
+			int length = 0;
+			for(Message message : messages){
+				serialized[i] = serializeToBuffer(message);
+				messageIds[i] = encodeMessageId(classToMessageId.get(message.getClass()));
+				length += 4 + messageIds[i].length + serialized[i].remaining();
+				i++;
+			}
+
+			final ByteBuffer batch = BufferPool.DEFAULT.acquire(length);
+			for(i=0; i < serialized.length; i++){
+				batch.putInt(messageIds[i].length + serialized[i].remaining());
+				batch.put(messageIds[i]);
+				batch.put(serialized[i]);
+			}
+			batch.flip();
+
+			return batch;
+		} finally {
+			BufferPool.DEFAULT.releaseAll(serialized);
+		}
+	}
+
+	/**
+	 * Sends the given raw batch (see {@link #serializeBatch(Collection)}).
+	 *
+	 * @param batch The raw batch.
+	 * @throws IOException If an error occurs while sending the batch.
+	 */
+	protected final void sendRawBatch(byte[] batch) throws IOException{
+		sendRawBatch(batch, false);
+	}
+
+	/**
+	 * Sends the given raw batch (see {@link #serializeBatch(Collection)}).
+	 *
+	 * @param batch The raw batch.
+	 * @param compressed Is the raw batch compressed (see {@link #compress(Class, byte[])})?
+	 * @throws IOException If an error occurs while sending the batch.
+	 */
+	protected final void sendRawBatch(byte[] batch, boolean compressed) throws IOException{
+		sendRawBatch(ByteBuffer.wrap(batch), compressed);
+	}
+
+	/**
+	 * Sends the given raw batch (see {@link #serializeBatchToBuffer(Collection)}).
+	 *
+	 * @param batch A buffer which contains the raw batch. His position will not be changed.
+	 * @param compressed Is the raw batch compressed (see {@link #compress(Class, ByteBuffer)})?
+	 * @throws IOException If an error occurs while sending the batch.
+	 */
+	protected final void sendRawBatch(ByteBuffer batch, boolean compressed) throws IOException{
+		synchronized (sendMonitor) {
+			writeAnnouncements();
+
+			final byte[] batchId = sendIds != null ? COMPACT_BATCH_ID : BATCH_MESSAGE_ID.getBytes();
+			writeFrame(flags(compressed), ByteBuffer.wrap(batchId), batch.duplicate());
+		}
+	}
+
+	/**
+	 * Sends a the given raw message.
+	 *
+	 * @param messageType Which type of message are the raw-content?
+	 * @param message The raw message.
+	 * @throws IOException If an error occurs while sending a message.
+	 */
+	protected final void sendRaw(Class<? extends Message> messageType, byte[] message) throws IOException{
+		sendRaw(messageType, message, false);
+	}
+
+	/**
+	 * Sends a the given raw message.
+	 *
+	 * @param messageType Which type of message are the raw-content?
+	 * @param message The raw message.
+	 * @param compressed Is the raw message compressed (see {@link #compress(Class, byte[])})?
+	 * @throws IOException If an error occurs while sending a message.
+	 */
+	protected final void sendRaw(Class<? extends Message> messageType, byte[] message, boolean compressed) throws IOException{
+		sendRaw(messageType, ByteBuffer.wrap(message), compressed);
+	}
+
+	/**
+	 * Sends a the given raw message.
+	 *
+	 * @param messageType Which type of message are the raw-content?
+	 * @param message A buffer which contains the raw message. His position will not be changed.
+	 * @param compressed Is the raw message compressed (see {@link #compress(Class, ByteBuffer)})?
+	 * @throws IOException If an error occurs while sending a message.
+	 */
+	protected final void sendRaw(Class<? extends Message> messageType, ByteBuffer message, boolean compressed) throws IOException{
+		sendRaw(messageType, message, compressed, PendingRequests.NO_CORRELATION);
+	}
+
+	/**
+	 * Sends a the given raw message.
+	 *
+	 * @param messageType Which type of message are the raw-content?
+	 * @param message A buffer which contains the raw message. His position will not be changed.
+	 * @param compressed Is the raw message compressed (see {@link #compress(Class, ByteBuffer)})?
+	 * @param correlation The correlation tag of a request or a response (see {@link #send(Message, int)}) or 0.
+	 * @throws IOException If an error occurs while sending a message.
+	 */
+	protected final void sendRaw(Class<? extends Message> messageType, ByteBuffer message, boolean compressed, int correlation) throws IOException{
+		final String messageId = classToMessageId.get(messageType);
+
+		synchronized (sendMonitor) {
+			writeAnnouncements();
+
+			byte[] rawMessageId = encodeMessageId(messageId);
+			if(correlation == PendingRequests.NO_CORRELATION){
+				writeFrame(flags(compressed), ByteBuffer.wrap(rawMessageId), message.duplicate());
+			}else{
+				writeFrame(flags(compressed) | FrameTransport.FLAG_CORRELATED,
+						ByteBuffer.wrap(VarInt.toBytes(correlation)), ByteBuffer.wrap(rawMessageId), message.duplicate());
+			}
+		}
+	}
+
+	private static int flags(boolean compressed) {
+		return compressed ? FrameTransport.FLAG_COMPRESSED : 0;
+	}
+
+	/**
+	 * Send a (very large) {@link Message} in chunks through my {@link Socket}. The message will be serialized
+	 * directly into the chunks, so the whole serialized message is never in memory. Each chunk will be encoded
+	 * (encrypted) separately (see {@link #encodeChunk(Class, int, boolean, byte[], int)}). The message must
+	 * have a {@link StreamingMessageSerializer}. Streamed messages are not compressed. No other message can be sent
+	 * while a message is streamed. On the other side the message will be received by {@link #receive()} as usual.
+	 *
+	 * @param message The message to be send.
+	 * @throws IOException If an error occurs while sending the message.
+	 * @throws NoSerializerFoundException if no streaming serialiser is registered for this type of message.
+	 */
+	@SuppressWarnings("unchecked")
+	public void sendStreamed(Message message) throws IOException {
+		final MessageSerializer<?> serializer = getSerializerFor(message.getClass());
+		if(!(serializer instanceof StreamingMessageSerializer)){
+			throw new NoSerializerFoundException(message.getClass());
+		}
+
+		synchronized (sendMonitor) {
+			writeAnnouncements();
+
+			final ChunkOutputStream out = new ChunkOutputStream(message.getClass());
+			try {
+				final long start = stageStart();
+				((StreamingMessageSerializer<? super Message>) serializer).serialize(message, out);
+				out.close();
+				stageDone(MetricStage.SERIALIZE, message.getClass(), start);
+			} finally {
+				out.release();
+			}
+		}
+	}
+
+	/**
+	 * Send an already serialized message in chunks (see {@link #STREAM_THRESHOLD}). Each chunk will be encoded
+	 * (see {@link #encodeChunk(Class, int, boolean, byte[], int)}). My partner receives it like a streamed message.
+	 *
+	 * @param messageClass The class of the message.
+	 * @param rawMessage A heap buffer which contains the serialized message. His position will not be changed.
+	 * @throws IOException If an error occurs while sending the chunks.
+	 */
+	protected final void sendChunked(Class<? extends Message> messageClass, ByteBuffer rawMessage) throws IOException {
+		synchronized (sendMonitor) {
+			writeAnnouncements();
+
+			final ChunkOutputStream out = new ChunkOutputStream(messageClass);
+			try {
+				out.write(rawMessage.array(), rawMessage.arrayOffset() + rawMessage.position(), rawMessage.remaining());
+				out.close();
+			} finally {
+				out.release();
+			}
+		}
+	}
+
+	/**
+	 * Encode (encrypt) one chunk of a streamed message (see {@link #sendStreamed(Message)}). If a message consists
+	 * of only one chunk, the chunk must be encoded like a usual message. This default implementation only copies the chunk.
+	 *
+	 * @param messageClass The class of the streamed message.
+	 * @param index The index of the chunk (beginning with 0).
+	 * @param last Is this the last chunk of the message?
+	 * @param chunk The raw chunk.
+	 * @param length The number of bytes of the chunk.
+	 * @return The encoded chunk.
+	 */
+	protected byte[] encodeChunk(Class<? extends Message> messageClass, int index, boolean last, byte[] chunk, int length) {
+		return Arrays.copyOf(chunk, length);
+	}
+
+	/**
+	 * Decode (decrypt) one received chunk of a streamed message (see {@link #encodeChunk(Class, int, boolean, byte[], int)}).
+	 * This default implementation only copies the chunk.
+	 *
+	 * @param chunk The received chunk. His content will not be released.
+	 * @param index The index of the chunk (beginning with 0).
+	 * @param last Is this the last chunk of the message?
+	 * @return The raw chunk.
+	 * @throws IOException If the chunk is corrupt.
+	 */
+	protected byte[] decodeChunk(RawMessage chunk, int index, boolean last) throws IOException {
+		return copyContent(chunk);
+	}
+
+	/**
+	 * Deserialize a streamed message (see {@link #sendStreamed(Message)}). The following chunks will be received
+	 * while the message is deserialized.
+	 *
+	 * @param firstChunk The received first chunk of the message (see {@link RawMessage#hasMore()}). It will be released.
+	 * @return The deserialized {@link Message}-instance.
+	 * @throws IOException If an error occurs while receiving the chunks.
+	 * @throws UnknownMessageException if the message id is unknown (no class is mapped for it).
+	 * @throws NoSerializerFoundException if no serialiser is registered for this type of message.
+	 */
+	@SuppressWarnings("unchecked")
+	protected final <M extends Message> M deserializeStreamed(RawMessage firstChunk) throws IOException {
+		final Class<? extends Message> messageClass = firstChunk.messageClass;
+		final ChunkInputStream in = new ChunkInputStream(firstChunk);
+
+		boolean success = false;
+		try {
+			if(messageClass == null){
+				throw new UnknownMessageException(firstChunk.messageId);
+			}
+
+			final MessageSerializer<?> serializer = getSerializerFor(messageClass);
+			final M message;
+			if(serializer instanceof StreamingMessageSerializer){
+				final long start = stageStart();
+				message = (M) ((StreamingMessageSerializer<? super Message>) serializer).deserialize(in);
+				stageDone(MetricStage.DESERIALIZE, messageClass, start);
+			}else{
+				//a big message which was sent in chunks (see STREAM_THRESHOLD)
+				final ByteArrayOutputStream raw = new ByteArrayOutputStream(BUFFER_SIZE);
+				final byte[] buffer = new byte[BUFFER_SIZE];
+				int read;
+				while((read = in.read(buffer)) != -1){
+					raw.write(buffer, 0, read);
+				}
+				message = deserialize(messageClass, raw.toByteArray());
+			}
+			success = true;
+
+			return message;
+		} finally {
+			if(success){
+				in.close();
+			}else{
+				try { in.close(); } catch (IOException e) { }	//do not hide the original exception
+			}
+		}
+	}
+
+	/**
+	 * Collects the written bytes and sends them chunk by chunk. The caller must hold the send monitor.
+	 */
+	private class ChunkOutputStream extends OutputStream {
+		private final Class<? extends Message> messageClass;
+		private final byte[] rawMessageId;
+		private final ByteBuffer buffer;
+		private int index = 0;
+		private boolean closed = false;
+
+		public ChunkOutputStream(Class<? extends Message> messageClass) {
+			this.messageClass = messageClass;
+			this.rawMessageId = encodeMessageId(classToMessageId.get(messageClass));
+			this.buffer = BufferPool.DEFAULT.acquire(chunkSize);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if(!buffer.hasRemaining()){
+				sendChunk(false);
+			}
+			buffer.put((byte) b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while(len > 0){
+				if(!buffer.hasRemaining()){
+					sendChunk(false);
+				}
+
+				final int count = Math.min(len, buffer.remaining());
+				buffer.put(b, off, count);
+				off += count;
+				len -= count;
+			}
+		}
+
+		private void sendChunk(boolean last) throws IOException {
+			final byte[] chunk = encodeChunk(messageClass, index++, last, buffer.array(), buffer.position());
+			buffer.clear();
+			buffer.limit(chunkSize);
+
+			writeFrame(last ? 0 : FrameTransport.FLAG_MORE, ByteBuffer.wrap(rawMessageId), ByteBuffer.wrap(chunk));
+		}
+
+		@Override
+		public void close() throws IOException {
+			if(closed) return;
+
+			closed = true;
+			sendChunk(true);
+		}
+
+		public void release() {
+			BufferPool.DEFAULT.release(buffer);
+		}
+	}
+
+	/**
+	 * Reads the chunks of a streamed message. If the stream will be closed before the last chunk was read,
+	 * the remaining chunks will be skipped.
+	 */
+	private class ChunkInputStream extends InputStream {
+		private final String messageId;
+		private RawMessage pending;
+		private byte[] content = new byte[0];
+		private int position = 0;
+		private int index = 0;
+		private boolean last = false;
+
+		public ChunkInputStream(RawMessage firstChunk) {
+			this.messageId = firstChunk.messageId;
+			this.pending = firstChunk;
+		}
+
+		private boolean nextChunk() throws IOException {
+			while(position >= content.length){
+				RawMessage chunk = pending;
+				pending = null;
+
+				if(chunk == null){
+					if(last){
+						return false;
+					}
+
+					chunk = receiveRaw();
+					if(!messageId.equals(chunk.messageId)){
+						last = !chunk.more;
+						chunk.release();
+						throw new IOException("The protocol was not followed. The chunk belongs to an other message!");
+					}
+				}
+
+				try {
+					last = !chunk.more;
+					content = decodeChunk(chunk, index++, last);
+					position = 0;
+				} finally {
+					chunk.release();
+				}
+			}
+
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if(!nextChunk()){
+				return -1;
+			}
+
+			return content[position++] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if(len == 0){
+				return 0;
+			}
+			if(!nextChunk()){
+				return -1;
+			}
+
+			final int count = Math.min(len, content.length - position);
+			System.arraycopy(content, position, b, off, count);
+			position += count;
+
+			return count;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return content.length - position;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if(pending != null){
+				last = !pending.more;
+				pending.release();
+				pending = null;
+			}
+
+			//skip the rest of the message
+			while(!last){
+				final RawMessage chunk = receiveRaw();
+				last = !chunk.more;
+				chunk.release();
+			}
+		}
+	}
+
+	/**
+	 * Receive a message from my {@link Socket}. This is a blocking call! That
+	 * means that this method blocks until a message was received or a {@link IOException} was
+	 * thrown.
+	 *
+	 * @return The received {@link Message}.
+	 * @throws IOException If an error occurs while receiving a message.
+	 */
+	public abstract Message receive() throws IOException;
+
+	/**
+	 * Receive the next raw message. This is a blocking call! That
+	 * means that this method blocks until a message was received or a {@link IOException} was
+	 * thrown. The content of the returned message lives in a pooled buffer. So the message must be
+	 * released (see {@link RawMessage#release()}) if the content is no longer needed.
+	 *
+	 * @return The received {@link RawMessage}.
+	 * @throws IOException If an error occurs while receiving a message.
+	 */
+	protected final RawMessage receiveRaw() throws IOException{
+		receiveLock.lock();
+
+		RawMessage rawMessage = null;
+		try {
+			while(rawMessage == null){
+				rawMessage = nextRawMessage();
+			}
+
+			return rawMessage;
+		} finally {
+			final boolean more = rawMessage != null && rawMessage.more;
+			if(more && !receivingStream){
+				//the first chunk of a streamed message: hold the lock until the last chunk
+				receivingStream = true;
+			}else{
+				receiveLock.unlock();
+
+				if(!more && receivingStream){
+					receivingStream = false;
+					receiveLock.unlock();
+				}
+				signalReceived();
+			}
+		}
+	}
+
+	/**
+	 * Take the next raw message. The caller must hold the receive lock.
+	 *
+	 * @return The raw message or <b>null</b> if a frame was handled (or staged) only.
+	 * @throws NothingReceived If the caller must not wait (see {@link #receiveNow()}), but nothing is received.
+	 */
+	private RawMessage nextRawMessage() throws IOException {
+		if(!stagedChunks.isEmpty() && (stagedComplete || !polling)){
+			final RawMessage chunk = stagedChunks.poll();
+			if(stagedChunks.isEmpty()){
+				stagedComplete = false;
+			}
+
+			return chunk;
+		}
+
+		RawMessage rawMessage = unreadMessages.poll();
+		if(rawMessage == null){
+			if(polling && !transport.hasReceivedFrames()){
+				throw NOTHING_RECEIVED;
+			}
+			rawMessage = handleFrame(readFrame());
+		}
+
+		if(polling && !receivingStream && rawMessage != null && (rawMessage.more || !stagedChunks.isEmpty())){
+			//a streamed message is handed out only if all his chunks are received
+			stagedChunks.add(rawMessage);
+			stagedComplete = !rawMessage.more;
+
+			return null;
+		}
+
+		return rawMessage;
+	}
+
+	/**
+	 * Parse the given frame. The frames which belong to the protocol (announcements, pings and pongs) are handled at once.
+	 *
+	 * @return The raw message or <b>null</b> if the frame is already handled.
+	 */
+	private RawMessage handleFrame(ByteBuffer frame) throws IOException {
+		final int flags = frame.getInt(frame.position() - 4) & ~FrameTransport.LENGTH_MASK;
+		final int correlation = (flags & FrameTransport.FLAG_CORRELATED) != 0 ?
+				readCorrelation(frame) : PendingRequests.NO_CORRELATION;
+
+		final RawMessage rawMessage = parseRawMessage(frame);
+		rawMessage.compressed = (flags & FrameTransport.FLAG_COMPRESSED) != 0;
+		rawMessage.more = (flags & FrameTransport.FLAG_MORE) != 0;
+		rawMessage.correlation = correlation;
+
+		if(COMPACT_IDS_MESSAGE_ID.equals(rawMessage.messageId)){
+			handleAnnouncement(rawMessage);
+			return null;
+		}
+		if(DESCRIPTORS_MESSAGE_ID.equals(rawMessage.messageId)){
+			handleDescriptors(rawMessage);
+			return null;
+		}
+		if(CONTROL_MESSAGE_ID.equals(rawMessage.messageId)){
+			handleControl(rawMessage);
+			return null;
+		}
+		if(CHANNEL_MESSAGE_ID.equals(rawMessage.messageId)){
+			handleChannel(rawMessage);
+			return null;
+		}
+
+		return rawMessage;
+	}
+
+	private ByteBuffer readFrame() throws IOException {
+		try {
+			final long start = stageStart();
+			return frameRead(transport.readFrame(), start);
+		} catch (IOException e) {
+			//the connection is broken: no response will come
+			requests.failAll(e);
+			readFailed(e);
+			throw e;
+		}
+	}
+
+	private ByteBuffer readFrame(long timeout, TimeUnit unit) throws IOException {
+		try {
+			final long start = stageStart();
+			return frameRead(transport.readFrame(timeout, unit), start);
+		} catch (IOException e) {
+			requests.failAll(e);
+			readFailed(e);
+			throw e;
+		}
+	}
+
+	/**
+	 * An interrupted read does not break the connection. Every other failed read does.
+	 */
+	private void readFailed(IOException e) {
+		if(!(e instanceof InterruptedIOException)){
+			connectionLost();
+		}
+	}
+
+	private ByteBuffer frameRead(ByteBuffer frame, long start) {
+		final ConnectorMetrics metrics = this.metrics;
+		if(metrics != null && frame != null){
+			stageDone(MetricStage.READ, null, start);
+			metrics.recordFrameReceived(frame.remaining());
+		}
+
+		return frame;
+	}
+
+	private void writeFrame(int flags, ByteBuffer... parts) throws IOException {
+		final IdleMonitor idleMonitor = this.idleMonitor;
+		if(idleMonitor == null){
+			writeFrame(metrics, flags, parts);
+			return;
+		}
+
+		idleMonitor.writeStarted();
+		try {
+			writeFrame(metrics, flags, parts);
+		} finally {
+			idleMonitor.writeDone();
+		}
+	}
+
+	private void writeFrame(ConnectorMetrics metrics, int flags, ByteBuffer... parts) throws IOException {
+		if(metrics == null){
+			transport.writeFrame(flags, parts);
+			return;
+		}
+
+		int length = 0;
+		for(ByteBuffer part : parts){
+			length += part.remaining();
+		}
+
+		final long start = System.nanoTime();
+		transport.writeFrame(flags, parts);
+		metrics.recordStage(MetricStage.WRITE, null, System.nanoTime() - start);
+		metrics.recordFrameSent(length);
+	}
+
+	/**
+	 * Checks if my partner is alive: a ping is sent and his pong is awaited. My partner answers the ping
+	 * as soon as he reads it from the network. If nobody else receives my messages at the moment, the
+	 * calling thread receives until the pong arrives. The messages which are received in the meantime are
+	 * kept for {@link #receive()}.
+	 *
+	 * @param timeout The maximal time to wait for the pong.
+	 * @param unit The unit of the timeout.
+	 * @return <b>true</b> if the pong was received in time. Otherwise <b>false</b>.
+	 * @throws IOException If an error occurs while sending the ping or receiving.
+	 */
+	public boolean ping(long timeout, TimeUnit unit) throws IOException {
+		final int number = lastPing.incrementAndGet();
+		writeControl(PING, number);
+
+		return awaitReceived(new ReceiveCondition() {
+			@Override
+			public boolean isSatisfied() {
+				return lastPong - number >= 0;
+			}
+		}, unit.toNanos(timeout));
+	}
+
+	/**
+	 * Start the heartbeat and the idle timeout of this connector. They are checked by the given timer, which should be
+	 * shared by many connectors (for example all connectors of a server, see {@link Server#setHeartbeat(long, long, TimeUnit)}).
+	 * <ul>
+	 * <li>If nothing was sent for the heartbeat interval, a ping is sent (see {@link #ping(long, TimeUnit)}). My partner
+	 * answers it as soon as he reads it. So the heartbeat of one side keeps both directions busy.</li>
+	 * <li>If nothing was received for the idle timeout or a sending hangs for the idle timeout, my partner is considered as
+	 * dead and this connector will be disconnected. A thread which waits in {@link #receive()} gets an {@link IOException}
+	 * then.</li>
+	 * </ul>
+	 * Each frame counts as soon as it is read from the network. A connector of an {@link EventLoop} reads continuously,
+	 * even while a handler is busy. Otherwise the connector must be received continuously (for example by
+	 * {@link #startDispatching(Executor, DispatchErrorHandler)}). The idle timeout should be a multiple
+	 * of the heartbeat interval of my partner.
+	 *
+	 * @param timer The timer which checks this connector.
+	 * @param heartbeatInterval The heartbeat interval or 0 for no heartbeat.
+	 * @param idleTimeout The idle timeout or 0 for no timeout.
+	 * @param unit The unit of the interval and the timeout.
+	 */
+	public synchronized void startHeartbeat(HashedWheelTimer timer, long heartbeatInterval, long idleTimeout, TimeUnit unit) {
+		if(heartbeatInterval < 0 || idleTimeout < 0){
+			throw new IllegalArgumentException("The heartbeat interval and the idle timeout must not be negative!");
+		}
+
+		stopHeartbeat();
+		if(heartbeatInterval == 0 && idleTimeout == 0){
+			return;
+		}
+
+		final IdleMonitor monitor = new IdleMonitor(this, timer, unit.toNanos(heartbeatInterval), unit.toNanos(idleTimeout));
+		idleMonitor = monitor;
+		monitor.start();
+	}
+
+	/**
+	 * Stop the heartbeat and the idle timeout of this connector (see {@link #startHeartbeat(HashedWheelTimer, long, long, TimeUnit)}).
+	 */
+	public synchronized void stopHeartbeat() {
+		final IdleMonitor monitor = idleMonitor;
+		if(monitor != null){
+			monitor.stop();
+			idleMonitor = null;
+		}
+	}
+
+	/**
+	 * Send a ping without waiting for the pong (see {@link #startHeartbeat(HashedWheelTimer, long, long, TimeUnit)}).
+	 */
+	void sendHeartbeat() throws IOException {
+		writeControl(PING, lastPing.incrementAndGet());
+	}
+
+	/**
+	 * A condition which is satisfied by a received frame (see {@link Connector#awaitReceived(ReceiveCondition, long)}).
+	 */
+	interface ReceiveCondition {
+		public boolean isSatisfied();
+	}
+
+	/**
+	 * Wait until the given condition is satisfied. If nobody else receives my messages at the moment, the
+	 * calling thread receives until the condition is satisfied. The messages which are received in the meantime
+	 * are kept for {@link #receive()}. Otherwise the receiving thread will signal each handled frame.
+	 *
+	 * @param condition The awaited condition.
+	 * @param timeout The maximal time to wait in nanoseconds or a negative value for no timeout.
+	 * @return <b>true</b> if the condition is satisfied. Otherwise <b>false</b> (the time is out).
+	 * @throws IOException If an error occurs while receiving.
+	 */
+	boolean awaitReceived(ReceiveCondition condition, long timeout) throws IOException {
+		final long deadline = System.nanoTime() + timeout;
+
+		while(!condition.isSatisfied()){
+			final long remaining = timeout < 0 ? -1 : deadline - System.nanoTime();
+			if(timeout >= 0 && remaining <= 0){
+				return false;
+			}
+
+			//a waiting receiver must not be starved
+			if(!receiveLock.hasQueuedThreads() && receiveLock.tryLock()){
+				try {
+					final ByteBuffer frame = remaining < 0 ? readFrame() : readFrame(remaining, TimeUnit.NANOSECONDS);
+					final RawMessage rawMessage = frame == null ? null : handleFrame(frame);
+					if(rawMessage != null){
+						unreadMessages.add(rawMessage);
+					}
+				} finally {
+					receiveLock.unlock();
+					signalReceived();
+					dispatcher.schedule();	//the dispatcher could not receive in the meantime
+				}
+			}else{
+				//an other thread receives: he will signal the handled frames
+				synchronized (receivedMonitor) {
+					if(!condition.isSatisfied() && receiveLock.isLocked()){
+						try {
+							if(remaining < 0){
+								receivedMonitor.wait();
+							}else{
+								TimeUnit.NANOSECONDS.timedWait(receivedMonitor, remaining);
+							}
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new InterruptedIOException();
+						}
+					}
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Wake up all threads which waits in {@link #awaitReceived(ReceiveCondition, long)}.
+	 */
+	void signalReceived() {
+		synchronized (receivedMonitor) {
+			receivedMonitor.notifyAll();
+		}
+	}
+
+	private void writeControl(byte type, int number) throws IOException {
+		final ByteBuffer control = ByteBuffer.allocate(1 + VarInt.size(number));
+		control.put(type);
+		VarInt.write(control, number);
+		final byte[] encoded = encodeControl(control.array());
+
+		//the type is readable without decoding, so the inspecting thread decodes only the pings
+		synchronized (sendMonitor) {
+			final byte[] controlId = sendIds != null ? COMPACT_CONTROL_ID : CONTROL_MESSAGE_ID.getBytes();
+			writeFrame(0, ByteBuffer.wrap(controlId), ByteBuffer.wrap(new byte[]{ type }), ByteBuffer.wrap(encoded));
+		}
+	}
+
+	/**
+	 * Encode (encrypt) a ping or a pong (see {@link #ping(long, TimeUnit)}). This default implementation returns the
+	 * control frame as it is.
+	 *
+	 * @param control The raw control frame (his type followed by his number).
+	 * @return The encoded control frame.
+	 */
+	protected byte[] encodeControl(byte[] control) {
+		return control;
+	}
+
+	/**
+	 * Decode (decrypt) a received ping or pong (see {@link #encodeControl(byte[])}). It may be called by the thread
+	 * which reads the frames from the network (see {@link FrameInspector}), so it must not block. This default
+	 * implementation only copies the control frame.
+	 *
+	 * @param control The received control frame. His position will not be changed.
+	 * @return The raw control frame.
+	 * @throws IOException If the control frame is corrupt.
+	 */
+	protected byte[] decodeControl(ByteBuffer control) throws IOException {
+		final byte[] copy = new byte[control.remaining()];
+		control.duplicate().get(copy);
+
+		return copy;
+	}
+
+	/**
+	 * Decode the given control frame (see {@link #decodeControl(ByteBuffer)}) and check his type.
+	 *
+	 * @param type The type in front of the encoded control frame.
+	 * @param control The encoded control frame. His position will not be changed.
+	 * @return The number of the ping or the pong.
+	 * @throws IOException If the control frame is corrupt.
+	 */
+	private int decodeControl(byte type, ByteBuffer control) throws IOException {
+		try {
+			final ByteBuffer decoded = ByteBuffer.wrap(decodeControl(control));
+			if(decoded.get() != type){
+				throw new IOException("The protocol was not followed. The type of the control frame was changed!");
+			}
+
+			return VarInt.read(decoded);
+		} catch (RuntimeException e) {
+			throw new IOException("The protocol was not followed. The control frame is corrupt!", e);
+		}
+	}
+
+	/**
+	 * Inspect a received frame on the thread which reads it from the network (see {@link FrameInspector}). Each frame
+	 * counts for the idle timeout and the pings of my partner are answered at once. So my partner gets his pongs even
+	 * if nobody receives my messages for a while (for example a handler is busy). A ping is answered only if it
+	 * can be decoded (see {@link #decodeControl(ByteBuffer)}).
+	 *
+	 * @return <b>true</b> if the frame is a ping which is answered.
+	 */
+	private boolean inspectFrame(ByteBuffer frame) {
+		final IdleMonitor idleMonitor = this.idleMonitor;
+		if(idleMonitor != null){
+			idleMonitor.read();
+		}
+
+		//a control frame has no flags
+		if((frame.getInt(frame.position() - 4) & ~FrameTransport.LENGTH_MASK) != 0){
+			return false;
+		}
+
+		final ByteBuffer content = frame.duplicate();
+		try {
+			if(compactFrames){
+				if(VarInt.read(content) != CompactMessageIds.CONTROL_ID){
+					return false;
+				}
+			}else if(startsWith(content, RAW_COMPACT_IDS_MESSAGE_ID)){
+				//all following frames have compact ids
+				compactFrames = true;
+				return false;
+			}else if(!startsWith(content, RAW_CONTROL_MESSAGE_ID)){
+				return false;
+			}
+
+			if(content.get() != PING){
+				return false;	//the pongs are handled by the receiving thread
+			}
+			answerPing(decodeControl(PING, content));
+		} catch (IOException e) {
+			return false;	//the receiving thread will notice the corrupt frame
+		} catch (RuntimeException e) {
+			return false;
+		}
+
+		return true;
+	}
+
+	private static boolean startsWith(ByteBuffer content, byte[] prefix) {
+		if(content.remaining() < prefix.length){
+			return false;
+		}
+		for(int i=0; i < prefix.length; i++){
+			if(content.get(content.position() + i) != prefix[i]){
+				return false;
+			}
+		}
+
+		content.position(content.position() + prefix.length);
+		return true;
+	}
+
+	/**
+	 * Answer the given ping of my partner. The pong is written by a heartbeat thread, because the inspecting
+	 * thread must not block. If many pings wait, only the last one is answered (it covers all pings before).
+	 */
+	private void answerPing(int number) {
+		pingToAnswer = number;
+		if(answeringPing.compareAndSet(false, true) && !IdleMonitor.executeBlocking(pongWriter)){
+			answeringPing.set(false);
+		}
+	}
+
+	private final Runnable pongWriter = new Runnable() {
+		@Override
+		public void run() {
+			try {
+				while(true){
+					final int number = pingToAnswer;
+					writeControl(PONG, number);
+
+					answeringPing.set(false);
+					if(pingToAnswer == number || !answeringPing.compareAndSet(false, true)){
+						return;
+					}
+				}
+			} catch (IOException e) {
+				//the receiving side will notice the broken connection
+				answeringPing.set(false);
+			}
+		}
+	};
+
+	private void handleControl(RawMessage control) throws IOException {
+		final byte type;
+		final int number;
+		try {
+			type = control.rawMessage.get();
+			number = decodeControl(type, control.rawMessage);
+		} catch (RuntimeException e) {
+			throw new IOException("The protocol was not followed. The control frame is corrupt!", e);
+		} finally {
+			control.release();
+		}
+
+		switch(type){
+		case PING:
+			writeControl(PONG, number);
+			break;
+		case PONG:
+			//only the holder of the receive lock handles the pongs
+			if(number - lastPong > 0){
+				lastPong = number;
+			}
+			signalReceived();
+			break;
+		default:
+			throw new IOException("The protocol was not followed. Unknown control frame: " + type);
+		}
+	}
+
+	/**
+	 * Get the logical channel with the given id (see {@link Channel}). The channel will be created by the
+	 * first call. My partner gets the other end of the channel by the same id. My partner opens a channel by
+	 * his first (authenticated) chunk, but he can open only {@link Channel#MAX_PARTNER_CHANNELS} channels.
+	 *
+	 * @param id The id of the channel. It must not be negative.
+	 * @return The channel.
+	 */
+	public Channel getChannel(int id) {
+		if(id < 0){
+			throw new IllegalArgumentException("The channel id must not be negative!");
+		}
+
+		Channel channel = channels.get(id);
+		if(channel == null){
+			final Channel created = new Channel(this, id);
+			channel = channels.putIfAbsent(id, created);
+			if(channel == null){
+				channel = created;
+			}
+		}
+
+		return channel;
+	}
+
+	/**
+	 * Send one chunk of a message of the given channel. The chunks of the other channels (and the usual messages)
+	 * can be sent between the chunks of a message.
+	 */
+	void writeChannelChunk(int channelId, Class<? extends Message> messageClass, int index, boolean last, byte[] chunk, int length) throws IOException {
+		final byte[] encoded = encodeChannelChunk(channelId, messageClass, index, last, chunk, length);
+
+		final ByteBuffer header = ByteBuffer.allocate(VarInt.size(channelId) + 1);
+		VarInt.write(header, channelId);
+		header.put(last ? LAST_CHUNK : CHUNK);
+		header.flip();
+
+		synchronized (sendMonitor) {
+			writeAnnouncements();
+
+			final byte[] channelFrameId = sendIds != null ? COMPACT_CHANNEL_ID : CHANNEL_MESSAGE_ID.getBytes();
+			final byte[] rawMessageId = encodeMessageId(classToMessageId.get(messageClass));
+			writeFrame(0, ByteBuffer.wrap(channelFrameId), header, ByteBuffer.wrap(rawMessageId), ByteBuffer.wrap(encoded));
+		}
+	}
+
+	/**
+	 * Give my partner the credit for sending the given number of bytes on the given channel.
+	 */
+	void writeChannelCredit(int channelId, int credit) throws IOException {
+		final ByteBuffer control = ByteBuffer.allocate(VarInt.size(channelId) + VarInt.size(credit));
+		VarInt.write(control, channelId);
+		VarInt.write(control, credit);
+		final byte[] encoded = encodeChannelControl(control.array());
+
+		final ByteBuffer header = ByteBuffer.allocate(VarInt.size(channelId) + 1);
+		VarInt.write(header, channelId);
+		header.put(CREDIT);
+		header.flip();
+
+		synchronized (sendMonitor) {
+			final byte[] channelFrameId = sendIds != null ? COMPACT_CHANNEL_ID : CHANNEL_MESSAGE_ID.getBytes();
+			writeFrame(0, ByteBuffer.wrap(channelFrameId), header, ByteBuffer.wrap(encoded));
+		}
+	}
+
+	/**
+	 * Encode (encrypt) one chunk of a message of the given channel (see {@link Channel}). This default
+	 * implementation encodes the chunk like a chunk of a streamed message (see {@link #encodeChunk(Class, int, boolean, byte[], int)}).
+	 *
+	 * @param channelId The id of the channel.
+	 * @param messageClass The class of the message.
+	 * @param index The index of the chunk (beginning with 0).
+	 * @param last Is this the last chunk of the message?
+	 * @param chunk The raw chunk.
+	 * @param length The number of bytes of the chunk.
+	 * @return The encoded chunk.
+	 */
+	protected byte[] encodeChannelChunk(int channelId, Class<? extends Message> messageClass, int index, boolean last, byte[] chunk, int length) {
+		return encodeChunk(messageClass, index, last, chunk, length);
+	}
+
+	/**
+	 * Decode (decrypt) one received chunk of the given channel (see {@link #encodeChannelChunk(int, Class, int, boolean, byte[], int)}).
+	 * The chunk is decoded as soon as it is received, so a channel is never opened by a corrupt chunk.
+	 *
+	 * @param channelId The id of the channel.
+	 * @param chunk The received chunk. His content will not be released.
+	 * @param index The index of the chunk (beginning with 0).
+	 * @param last Is this the last chunk of the message?
+	 * @return The raw chunk.
+	 * @throws IOException If the chunk is corrupt.
+	 */
+	protected byte[] decodeChannelChunk(int channelId, RawMessage chunk, int index, boolean last) throws IOException {
+		return decodeChunk(chunk, index, last);
+	}
+
+	/**
+	 * Encode (encrypt) a control frame of a channel (the credit). This default implementation returns the
+	 * control frame as it is.
+	 *
+	 * @param control The raw control frame.
+	 * @return The encoded control frame.
+	 */
+	protected byte[] encodeChannelControl(byte[] control) {
+		return control;
+	}
+
+	/**
+	 * Decode (decrypt) a received control frame of a channel (see {@link #encodeChannelControl(byte[])}).
+	 * This default implementation only copies the control frame.
+	 *
+	 * @param control The received control frame. His content will not be released.
+	 * @return The raw control frame.
+	 * @throws IOException If the control frame is corrupt.
+	 */
+	protected byte[] decodeChannelControl(RawMessage control) throws IOException {
+		return copyContent(control);
+	}
+
+	private void handleChannel(RawMessage frame) throws IOException {
+		final int channelId;
+		final byte kind;
+		try {
+			channelId = VarInt.read(frame.rawMessage);
+			kind = frame.rawMessage.get();
+		} catch (RuntimeException e) {
+			frame.release();
+			throw new IOException("The protocol was not followed. The channel frame is corrupt!", e);
+		}
+
+		switch(kind){
+		case CHUNK:
+		case LAST_CHUNK:
+			//the chunk owns the frame now
+			handleChannelChunk(channelId, parseRawMessage(frame.rawMessage, frame.pool), kind == LAST_CHUNK);
+			break;
+		case CREDIT:
+			handleChannelCredit(channelId, frame);
+			break;
+		default:
+			frame.release();
+			throw new IOException("The protocol was not followed. Unknown channel frame: " + kind);
+		}
+
+		signalReceived();
+	}
+
+	private void handleChannelChunk(int channelId, RawMessage chunk, boolean last) throws IOException {
+		Channel channel = channels.get(channelId);
+
+		final byte[] content;
+		try {
+			content = decodeChannelChunk(channelId, chunk, channel == null ? 0 : channel.getReceiveIndex(), last);
+		} catch (RuntimeException e) {
+			throw new IOException("The protocol was not followed. The channel chunk is corrupt!", e);
+		} finally {
+			chunk.release();
+		}
+
+		if(channel == null){
+			//my partner opens a new channel
+			if(partnerChannels.incrementAndGet() > Channel.MAX_PARTNER_CHANNELS){
+				throw new IOException("The protocol was not followed. Too many channels are opened!");
+			}
+			channel = getChannel(channelId);
+		}
+		channel.received(chunk.messageId, chunk.messageClass, content, last);
+	}
+
+	private void handleChannelCredit(int channelId, RawMessage frame) throws IOException {
+		final int credit;
+		try {
+			final ByteBuffer control = ByteBuffer.wrap(decodeChannelControl(frame));
+			if(VarInt.read(control) != channelId){
+				throw new IOException("The protocol was not followed. The channel credit belongs to an other channel!");
+			}
+			credit = VarInt.read(control);
+		} catch (RuntimeException e) {
+			throw new IOException("The protocol was not followed. The channel credit is corrupt!", e);
+		} finally {
+			frame.release();
+		}
+
+		//only a channel on which I have sent can get credit
+		final Channel channel = channels.get(channelId);
+		if(channel == null){
+			throw new IOException("The protocol was not followed. The channel " + channelId + " is not opened!");
+		}
+		channel.credited(credit);
+	}
+
+	private int readCorrelation(ByteBuffer frame) throws IOException {
+		try {
+			return VarInt.read(frame);
+		} catch (IllegalArgumentException e) {
+			BufferPool.DEFAULT.release(frame);
+			throw new IOException("The protocol was not followed. The correlation is corrupt!", e);
+		}
+	}
+
+	private void handleAnnouncement(RawMessage announcement) throws IOException {
+		try {
+			final ByteBuffer decoded = ByteBuffer.wrap(decodeIdAnnouncement(announcement));
+			if(receiveIds == null){
+				receiveIds = new CompactMessageIds();
+			}
+			receiveIds.announced(decoded, messageIdToClass);
+		} catch (RuntimeException e) {
+			throw new IOException("The protocol was not followed. The announcement is corrupt!", e);
+		} finally {
+			announcement.release();
+		}
+	}
+
+	private void handleDescriptors(RawMessage announcement) throws IOException {
+		try {
+			descriptors.announced(decodeDescriptors(announcement));
+		} catch (RuntimeException e) {
+			throw new IOException("The protocol was not followed. The class descriptor announcement is corrupt!", e);
+		} finally {
+			announcement.release();
+		}
+	}
+
+	/**
+	 * Checks if the given raw message contains a batch of messages.
+	 *
+	 * @param rawMessage The received raw message.
+	 * @return True if it is a batch. Otherwise false.
+	 */
+	protected final boolean isBatch(RawMessage rawMessage) {
+		return BATCH_MESSAGE_ID.equals(rawMessage.messageId);
+	}
+
+	/**
+	 * Split the given raw batch into his messages. These messages can be picked up in the original order
+	 * by {@link #deserializeBatched()}.
+	 *
+	 * @param batch The raw batch (see {@link #serializeBatch(Collection)}).
+	 * @throws IOException If the batch is corrupt.
+	 */
+	protected final void unpackBatch(byte[] batch) throws IOException {
+		splitBatch(ByteBuffer.wrap(batch));
+	}
+
+	/**
+	 * Split the given raw batch into his messages (see {@link #unpackBatch(byte[])}).
+	 *
+	 * @param batch A buffer which contains the raw batch. It can be released after this call.
+	 * @throws IOException If the batch is corrupt.
+	 */
+	protected final void unpackBatch(ByteBuffer batch) throws IOException {
+		//the messages will be picked up later, so they need their own memory
+		final ByteBuffer buffer = ByteBuffer.allocate(batch.remaining());
+		buffer.put(batch.duplicate());
+		buffer.flip();
+
+		splitBatch(buffer);
+	}
+
+	private void splitBatch(ByteBuffer buffer) throws IOException {
+		while(buffer.hasRemaining()){
+			if(buffer.remaining() < 4){
+				throw new IOException("The protocol was not followed. The batch is corrupt!");
+			}
+
+			final int length = buffer.getInt();
+			if(length < 0 || length > buffer.remaining()){
+				throw new IOException("The protocol was not followed. The batch is corrupt!");
+			}
+
+			final ByteBuffer entry = buffer.slice();
+			entry.limit(length);
+			buffer.position(buffer.position() + length);
+
+			batchedMessages.add(parseRawMessage(entry, null));
+		}
+	}
+
+	/**
+	 * Deserialize the next message of the last received batch (see {@link #unpackBatch(byte[])}).
+	 *
+	 * @return The deserialized {@link Message}-instance or <b>null</b> if there is no batched message left.
+	 * @throws UnknownMessageException if the message id is unknown (no class is mapped for it).
+	 * @throws NoSerializerFoundException if no serialiser is registered for this type of message.
+	 */
+	protected final <M extends Message> M deserializeBatched() {
+		final RawMessage rawMessage = batchedMessages.poll();
+		if(rawMessage == null){
+			return null;
+		}
+
+		return deserialize(rawMessage, rawMessage.rawMessage);
+	}
+
+	private RawMessage parseRawMessage(final ByteBuffer frame) throws IOException {
+		return parseRawMessage(frame, BufferPool.DEFAULT);
+	}
+
+	private RawMessage parseRawMessage(final ByteBuffer frame, final BufferPool pool) throws IOException {
+		if(receiveIds != null){
+			return parseCompactRawMessage(frame, pool);
+		}
+
+		if(frame.remaining() < NORMALIZED_MESSAGE_ID_LENGTH){
+			if(pool != null) pool.release(frame);
+			throw new IOException("The protocol was not followed. No message id is given!");
+		}
+
+		final int limit = frame.limit();
+		frame.limit(frame.position() + NORMALIZED_MESSAGE_ID_LENGTH);
+
+		String messageId = rawMessageIds.get(frame);
+		if(messageId == null){
+			byte[] rawMessageId = new byte[NORMALIZED_MESSAGE_ID_LENGTH];
+			frame.get(rawMessageId);
+			messageId = new String(rawMessageId);
+		}
+
+		frame.position(frame.limit());
+		frame.limit(limit);
+
+		return new RawMessage(messageId, messageIdToClass.get(messageId), frame, pool);
+	}
+
+	private RawMessage parseCompactRawMessage(final ByteBuffer frame, final BufferPool pool) throws IOException {
+		final int id;
+		try {
+			id = VarInt.read(frame);
+		} catch (IllegalArgumentException e) {
+			if(pool != null) pool.release(frame);
+			throw new IOException("The protocol was not followed. No message id is given!", e);
+		}
+
+		switch(id){
+		case CompactMessageIds.ANNOUNCEMENT_ID:
+			return new RawMessage(COMPACT_IDS_MESSAGE_ID, null, frame, pool);
+		case CompactMessageIds.BATCH_ID:
+			return new RawMessage(BATCH_MESSAGE_ID, null, frame, pool);
+		case CompactMessageIds.DESCRIPTORS_ID:
+			return new RawMessage(DESCRIPTORS_MESSAGE_ID, null, frame, pool);
+		case CompactMessageIds.CONTROL_ID:
+			return new RawMessage(CONTROL_MESSAGE_ID, null, frame, pool);
+		case CompactMessageIds.CHANNEL_ID:
+			return new RawMessage(CHANNEL_MESSAGE_ID, null, frame, pool);
+		}
+
+		final String messageId = receiveIds.messageIdOf(id);
+		if(messageId == null){
+			if(pool != null) pool.release(frame);
+			throw new IOException("The protocol was not followed. The message id was not announced: " + id);
+		}
+
+		return new RawMessage(messageId, receiveIds.messageClassOf(id, messageIdToClass), frame, pool);
+	}
+
+	protected static class RawMessage {
+		protected final String messageId;
+		/**
+		 * The class which is registered for the message id or <b>null</b> if the message id is unknown.
+		 */
+		protected final Class<? extends Message> messageClass;
+		/**
+		 * The content of the message. It is backed by a heap buffer which may be pooled. So it is only
+		 * valid until {@link #release()} is called.
+		 */
+		protected final ByteBuffer rawMessage;
+		private final BufferPool pool;
+		private boolean compressed = false;
+		private boolean more = false;
+		private int correlation = PendingRequests.NO_CORRELATION;
+
+		public RawMessage(String messageId, Class<? extends Message> messageClass, ByteBuffer rawMessage) {
+			this(messageId, messageClass, rawMessage, null);
+		}
+
+		RawMessage(String messageId, Class<? extends Message> messageClass, ByteBuffer rawMessage, BufferPool pool) {
+			this.messageId = messageId;
+			this.messageClass = messageClass;
+			this.rawMessage = rawMessage;
+			this.pool = pool;
+		}
+
+		/**
+		 * Checks if the content of this message is compressed (see {@link Connector#decompress(RawMessage, byte[])}).
+		 *
+		 * @return True if the content is compressed. Otherwise false.
+		 */
+		public boolean isCompressed() {
+			return compressed;
+		}
+
+		/**
+		 * Checks if this is a chunk of a streamed message and further chunks will follow
+		 * (see {@link Connector#deserializeStreamed(RawMessage)}).
+		 *
+		 * @return True if further chunks will follow. Otherwise false.
+		 */
+		public boolean hasMore() {
+			return more;
+		}
+
+		/**
+		 * Get the correlation tag of this message (see {@link Connector#send(Message, int)}).
+		 *
+		 * @return The correlation tag or 0 if this is a usual message.
+		 */
+		public int getCorrelation() {
+			return correlation;
+		}
+
+		/**
+		 * Give back the buffer of this message to the pool. After that the content must not be used anymore!
+		 */
+		public void release() {
+			if(pool != null){
+				pool.release(rawMessage);
+			}
 		}
 	}
 
@@ -0,0 +1,345 @@
+package de.raysha.lib.net.scs;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import de.raysha.lib.net.scs.model.Message;
+import de.raysha.lib.net.scs.utils.LatencyHistogram;
+
+/**
+ * The metrics of a {@link Connector} (see {@link Connector#setMetrics(ConnectorMetrics)}). They count the sent and
+ * received bytes, frames and messages and measure the duration of each {@link MetricStage} of the hot path. The
+ * messages are also counted and measured per message type. All counters are lock-free.
+ * <p>
+ * A connector without metrics measures nothing (not even the time). The metrics of the connectors of a
+ * {@link Server} are also summed up by the {@link ServerMetrics}.
+ * <p>
+ * The metrics can be published as JMX MBean (see {@link #registerMBean(String)}) or observed by
+ * {@link MetricsListener}s.
+ *
+ * @author rainu
+ */
+public class ConnectorMetrics implements ConnectorMetricsMBean {
+	static final String JMX_DOMAIN = "de.raysha.lib.net.scs";
+
+	/**
+	 * The aggregated metrics of the server or <b>null</b>.
+	 */
+	private final ConnectorMetrics parent;
+	private final ServerMetrics server;
+	private final AtomicBoolean disconnected = new AtomicBoolean();
+
+	private final AtomicLong bytesSent = new AtomicLong();
+	private final AtomicLong bytesReceived = new AtomicLong();
+	private final AtomicLong framesSent = new AtomicLong();
+	private final AtomicLong framesReceived = new AtomicLong();
+	private final AtomicLong messagesSent = new AtomicLong();
+	private final AtomicLong messagesReceived = new AtomicLong();
+	private final LatencyHistogram[] stages = new LatencyHistogram[MetricStage.values().length];
+	private final ConcurrentMap<Class<? extends Message>, TypeMetrics> types =
+			new ConcurrentHashMap<Class<? extends Message>, TypeMetrics>();
+
+	private final List<MetricsListener> listeners = new CopyOnWriteArrayList<MetricsListener>();
+	private volatile ObjectName objectName;
+
+	public ConnectorMetrics() {
+		this(null, null);
+	}
+
+	ConnectorMetrics(ConnectorMetrics parent, ServerMetrics server) {
+		this.parent = parent;
+		this.server = server;
+
+		for(int i=0; i < stages.length; i++){
+			stages[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * The metrics of one message type.
+	 */
+	public static class TypeMetrics {
+		private final AtomicLong sent = new AtomicLong();
+		private final AtomicLong received = new AtomicLong();
+		private final LatencyHistogram serializeLatency = new LatencyHistogram();
+		private final LatencyHistogram deserializeLatency = new LatencyHistogram();
+
+		public long getSent() {
+			return sent.get();
+		}
+
+		public long getReceived() {
+			return received.get();
+		}
+
+		public LatencyHistogram getSerializeLatency() {
+			return serializeLatency;
+		}
+
+		public LatencyHistogram getDeserializeLatency() {
+			return deserializeLatency;
+		}
+	}
+
+	void recordStage(MetricStage stage, Class<? extends Message> messageClass, long nanos) {
+		recordStage(this, stage, messageClass, nanos);
+	}
+
+	private void recordStage(ConnectorMetrics source, MetricStage stage, Class<? extends Message> messageClass, long nanos) {
+		stages[stage.ordinal()].record(nanos);
+
+		if(messageClass != null){
+			if(stage == MetricStage.SERIALIZE){
+				final TypeMetrics type = typeMetrics(messageClass);
+				type.sent.incrementAndGet();
+				type.serializeLatency.record(nanos);
+				messagesSent.incrementAndGet();
+			}else if(stage == MetricStage.DESERIALIZE){
+				final TypeMetrics type = typeMetrics(messageClass);
+				type.received.incrementAndGet();
+				type.deserializeLatency.record(nanos);
+				messagesReceived.incrementAndGet();
+			}
+		}
+
+		for(MetricsListener listener : listeners){
+			listener.onStage(source, stage, messageClass, nanos);
+		}
+		if(parent != null){
+			parent.recordStage(source, stage, messageClass, nanos);
+		}
+	}
+
+	void recordFrameSent(int bytes) {
+		recordFrameSent(this, bytes);
+	}
+
+	private void recordFrameSent(ConnectorMetrics source, int bytes) {
+		framesSent.incrementAndGet();
+		bytesSent.addAndGet(bytes);
+
+		for(MetricsListener listener : listeners){
+			listener.onFrameSent(source, bytes);
+		}
+		if(parent != null){
+			parent.recordFrameSent(source, bytes);
+		}
+	}
+
+	void recordFrameReceived(int bytes) {
+		recordFrameReceived(this, bytes);
+	}
+
+	private void recordFrameReceived(ConnectorMetrics source, int bytes) {
+		framesReceived.incrementAndGet();
+		bytesReceived.addAndGet(bytes);
+
+		for(MetricsListener listener : listeners){
+			listener.onFrameReceived(source, bytes);
+		}
+		if(parent != null){
+			parent.recordFrameReceived(source, bytes);
+		}
+	}
+
+	/**
+	 * The connector of these metrics is disconnected: it is not live anymore and his MBean is unregistered.
+	 */
+	void disconnected() {
+		if(!disconnected.compareAndSet(false, true)){
+			return;
+		}
+
+		if(server != null){
+			server.disconnected();
+		}
+		unregisterMBean();
+	}
+
+	private TypeMetrics typeMetrics(Class<? extends Message> messageClass) {
+		TypeMetrics type = types.get(messageClass);
+		if(type == null){
+			final TypeMetrics created = new TypeMetrics();
+			type = types.putIfAbsent(messageClass, created);
+			if(type == null){
+				type = created;
+			}
+		}
+
+		return type;
+	}
+
+	/**
+	 * Add a listener which will be informed about each measurement.
+	 *
+	 * @param listener The listener.
+	 */
+	public void addListener(MetricsListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(MetricsListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Get the latencies of the given stage.
+	 *
+	 * @param stage The stage.
+	 * @return The histogram of the latencies.
+	 */
+	public LatencyHistogram getLatency(MetricStage stage) {
+		return stages[stage.ordinal()];
+	}
+
+	/**
+	 * Get the metrics of the given message type.
+	 *
+	 * @param messageClass The class of the messages.
+	 * @return The metrics or <b>null</b> if no message of this type was sent or received yet.
+	 */
+	public TypeMetrics getTypeMetrics(Class<? extends Message> messageClass) {
+		return types.get(messageClass);
+	}
+
+	private TypeMetrics getTypeMetrics(String messageType) {
+		for(Entry<Class<? extends Message>, TypeMetrics> type : types.entrySet()){
+			if(type.getKey().getName().equals(messageType)){
+				return type.getValue();
+			}
+		}
+
+		return null;
+	}
+
+	@Override
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	@Override
+	public long getBytesReceived() {
+		return bytesReceived.get();
+	}
+
+	@Override
+	public long getFramesSent() {
+		return framesSent.get();
+	}
+
+	@Override
+	public long getFramesReceived() {
+		return framesReceived.get();
+	}
+
+	@Override
+	public long getMessagesSent() {
+		return messagesSent.get();
+	}
+
+	@Override
+	public long getMessagesReceived() {
+		return messagesReceived.get();
+	}
+
+	@Override
+	public String[] getMessageTypes() {
+		final List<String> names = new ArrayList<String>();
+		for(Class<? extends Message> type : types.keySet()){
+			names.add(type.getName());
+		}
+
+		return names.toArray(new String[names.size()]);
+	}
+
+	@Override
+	public long getMessagesSentOf(String messageType) {
+		final TypeMetrics type = getTypeMetrics(messageType);
+		return type == null ? 0 : type.getSent();
+	}
+
+	@Override
+	public long getMessagesReceivedOf(String messageType) {
+		final TypeMetrics type = getTypeMetrics(messageType);
+		return type == null ? 0 : type.getReceived();
+	}
+
+	@Override
+	public long getStageCount(String stage) {
+		return getLatency(MetricStage.valueOf(stage)).getCount();
+	}
+
+	@Override
+	public double getStageMeanMicros(String stage) {
+		return getLatency(MetricStage.valueOf(stage)).getMean() / 1000d;
+	}
+
+	@Override
+	public double getStagePercentileMicros(String stage, double percentile) {
+		return getLatency(MetricStage.valueOf(stage)).getPercentile(percentile, TimeUnit.MICROSECONDS);
+	}
+
+	@Override
+	public void reset() {
+		bytesSent.set(0);
+		bytesReceived.set(0);
+		framesSent.set(0);
+		framesReceived.set(0);
+		messagesSent.set(0);
+		messagesReceived.set(0);
+		for(LatencyHistogram stage : stages){
+			stage.reset();
+		}
+		types.clear();
+	}
+
+	/**
+	 * Publish these metrics as MBean of the platform MBean server. The MBean will be unregistered if the
+	 * connector is disconnected.
+	 *
+	 * @param name The name of the MBean (for example the address of the partner).
+	 * @return The name under which the MBean is registered.
+	 * @throws JMException If the MBean could not be registered.
+	 */
+	public ObjectName registerMBean(String name) throws JMException {
+		return objectName = registerMBean(this, "Connector", name);
+	}
+
+	static ObjectName registerMBean(Object mbean, String type, String name) throws JMException {
+		final ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, objectName);
+
+		return objectName;
+	}
+
+	/**
+	 * Remove the MBean of these metrics (see {@link #registerMBean(String)}).
+	 */
+	public void unregisterMBean() {
+		final ObjectName objectName = this.objectName;
+		this.objectName = null;
+
+		unregisterMBean(objectName);
+	}
+
+	static void unregisterMBean(ObjectName objectName) {
+		if(objectName == null){
+			return;
+		}
+
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		} catch (JMException e) { }	//it is already unregistered
+	}
+}
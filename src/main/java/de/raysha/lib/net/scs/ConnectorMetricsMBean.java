@@ -0,0 +1,42 @@
+package de.raysha.lib.net.scs;
+
+/**
+ * The JMX view of the {@link ConnectorMetrics}. The stages are given by the names of the {@link MetricStage}s
+ * and the message types by their class names.
+ *
+ * @author rainu
+ */
+public interface ConnectorMetricsMBean {
+
+	public long getBytesSent();
+
+	public long getBytesReceived();
+
+	public long getFramesSent();
+
+	public long getFramesReceived();
+
+	public long getMessagesSent();
+
+	public long getMessagesReceived();
+
+	/**
+	 * @return The class names of all messages which are sent or received.
+	 */
+	public String[] getMessageTypes();
+
+	public long getMessagesSentOf(String messageType);
+
+	public long getMessagesReceivedOf(String messageType);
+
+	public long getStageCount(String stage);
+
+	public double getStageMeanMicros(String stage);
+
+	public double getStagePercentileMicros(String stage, double percentile);
+
+	/**
+	 * Forget all measurements.
+	 */
+	public void reset();
+}
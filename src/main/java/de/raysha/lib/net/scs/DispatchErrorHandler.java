@@ -0,0 +1,18 @@
+package de.raysha.lib.net.scs;
+
+/**
+ * This handler will be informed about the errors of the message dispatching (see {@link Connector#startDispatching(java.util.concurrent.Executor, DispatchErrorHandler)}).
+ *
+ * @author rainu
+ */
+public interface DispatchErrorHandler {
+
+	/**
+	 * An error occurs while a message was received or handled. If the error is an {@link java.io.IOException}
+	 * of the receiving, the connection is broken and the dispatching has stopped.
+	 *
+	 * @param connector The connector.
+	 * @param error The error.
+	 */
+	public void onError(Connector connector, Throwable error);
+}
@@ -0,0 +1,258 @@
+package de.raysha.lib.net.scs;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.raysha.lib.net.scs.model.Message;
+
+/**
+ * The push-style receiving of a {@link Connector} (see {@link Connector#startDispatching(Executor, DispatchErrorHandler)}).
+ * The received messages are passed to the {@link MessageHandler} of their class. The handlers are called by one
+ * drain task on an {@link Executor}, so the messages of one connection are handled in the order of their receiving.
+ * The task is only running while messages are waiting. Therefore an idle connection occupies no thread of the executor.
+ * <p>
+ * If the transport has an own receiving thread (the event loop of a {@link ChannelTransport}), the drain task is
+ * started each time when new frames are received. It takes only the messages which are already received (see
+ * {@link Connector#receiveNow()}), so it never blocks a thread of the executor. Otherwise a reader thread receives
+ * the messages into a bounded queue.
+ *
+ * @author rainu
+ */
+class Dispatcher {
+	/**
+	 * The drain task gives his thread back after so many messages. So the other connections of the
+	 * same executor are not starved.
+	 */
+	private static final int MAX_MESSAGES_PER_RUN = 64;
+	/**
+	 * If so many messages are received but not handled, the reader thread waits.
+	 */
+	private static final int MAX_PENDING_MESSAGES = 256;
+
+	private static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(new DispatcherThreadFactory("Connector-Dispatcher-"));
+	private static final ThreadFactory READER_FACTORY = new DispatcherThreadFactory("Connector-Reader-");
+	/**
+	 * Without an own error handler the connector will be disconnected (quietly) on each error.
+	 */
+	private static final DispatchErrorHandler DEFAULT_ERROR_HANDLER = new DispatchErrorHandler() {
+		@Override
+		public void onError(Connector connector, Throwable error) {
+			try {
+				connector.disconnect();
+			} catch (IOException e) { }
+		}
+	};
+
+	private final Connector connector;
+	private final FrameTransport transport;
+	private final ConcurrentMap<Class<?>, MessageHandler<?>> handlers = new ConcurrentHashMap<Class<?>, MessageHandler<?>>();
+
+	private volatile Executor executor;
+	private volatile DispatchErrorHandler errorHandler;
+	private volatile boolean dispatching = false;
+	private final AtomicBoolean draining = new AtomicBoolean(false);
+
+	//only used if the transport has no own receiving thread
+	private volatile BlockingQueue<Object> received;
+	private Thread reader;
+
+	public Dispatcher(Connector connector, FrameTransport transport) {
+		this.connector = connector;
+		this.transport = transport;
+	}
+
+	public void register(Class<? extends Message> messageClass, MessageHandler<?> handler) {
+		if(handler == null){
+			handlers.remove(messageClass);
+		}else{
+			handlers.put(messageClass, handler);
+		}
+	}
+
+	public synchronized void start(Executor executor, DispatchErrorHandler errorHandler) {
+		if(dispatching){
+			throw new IllegalStateException("The dispatching is already started!");
+		}
+
+		this.executor = executor == null ? DEFAULT_EXECUTOR : executor;
+		this.errorHandler = errorHandler == null ? DEFAULT_ERROR_HANDLER : errorHandler;
+		this.dispatching = true;
+
+		if(!transport.setReceiveListener(scheduler)){
+			received = new LinkedBlockingQueue<Object>(MAX_PENDING_MESSAGES);
+			reader = READER_FACTORY.newThread(readerLoop);
+			reader.start();
+		}
+		scheduler.run();	//the messages which are received before
+	}
+
+	/**
+	 * Stop the dispatching. A reader thread stops after his current receiving. Messages which are received
+	 * but not handled yet will be discarded.
+	 */
+	public synchronized void stop() {
+		dispatching = false;
+		transport.setReceiveListener(null);
+		if(reader != null){
+			reader.interrupt();
+			reader = null;
+		}
+	}
+
+	public boolean isDispatching() {
+		return dispatching;
+	}
+
+	/**
+	 * Start the drain task if messages are waiting. For example if an other thread has received them.
+	 */
+	public void schedule() {
+		scheduler.run();
+	}
+
+	private final Runnable scheduler = new Runnable() {
+		@Override
+		public void run() {
+			if(dispatching && hasWaiting() && draining.compareAndSet(false, true)){
+				try {
+					executor.execute(drainer);
+				} catch (RejectedExecutionException e) {
+					draining.set(false);
+					stop();
+					errorHandler.onError(connector, e);
+				}
+			}
+		}
+	};
+
+	private boolean hasWaiting() {
+		return received == null ? connector.hasReceivable() : !received.isEmpty();
+	}
+
+	private final Runnable drainer = new Runnable() {
+		@Override
+		public void run() {
+			try {
+				for(int i = 0; i < MAX_MESSAGES_PER_RUN && dispatching && hasWaiting(); i++){
+					if(!dispatchNext()){
+						break;
+					}
+				}
+			} finally {
+				draining.set(false);
+			}
+
+			//messages which are received since the last check
+			scheduler.run();
+		}
+	};
+
+	/**
+	 * Dispatch the next waiting message.
+	 *
+	 * @return <b>false</b> if no message was waiting (only protocol frames for example) or the connection is broken.
+	 */
+	private boolean dispatchNext() {
+		final Object next;
+		if(received == null){
+			try {
+				next = connector.receiveNow();
+			} catch (IOException e) {
+				stop();
+				errorHandler.onError(connector, e);
+				return false;
+			} catch (RuntimeException e) {
+				errorHandler.onError(connector, e);
+				return true;
+			}
+		}else{
+			next = received.poll();
+		}
+
+		if(next instanceof Message){
+			dispatch((Message) next);
+		}else if(next instanceof Throwable){
+			if(next instanceof IOException){
+				stop();
+			}
+			errorHandler.onError(connector, (Throwable) next);
+		}
+
+		return next != null;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void dispatch(Message message) {
+		MessageHandler<Message> handler = (MessageHandler<Message>) handlers.get(message.getClass());
+		if(handler == null){
+			handler = (MessageHandler<Message>) handlers.get(Message.class);
+		}
+		if(handler == null){
+			errorHandler.onError(connector, new IllegalStateException(
+					"There is no handler registered for message class " + message.getClass().getName()));
+			return;
+		}
+
+		try {
+			handler.handle(connector, message);
+		} catch (Exception e) {
+			errorHandler.onError(connector, e);
+		}
+	}
+
+	private final Runnable readerLoop = new Runnable() {
+		@Override
+		public void run() {
+			final BlockingQueue<Object> queue = received;
+
+			while(dispatching){
+				Object next;
+				try {
+					next = connector.receive();
+				} catch (IOException e) {
+					next = e;
+				} catch (RuntimeException e) {
+					next = e;
+				}
+
+				try {
+					queue.put(next);
+				} catch (InterruptedException e) {
+					return;
+				}
+				scheduler.run();
+
+				if(next instanceof IOException){
+					return;	//the connection is broken
+				}
+			}
+		}
+	};
+
+	private static class DispatcherThreadFactory implements ThreadFactory {
+		private final AtomicInteger counter = new AtomicInteger();
+		private final String prefix;
+
+		public DispatcherThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			final Thread thread = new Thread(r, prefix + counter.incrementAndGet());
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,240 @@
+package de.raysha.lib.net.scs;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A event loop owns one {@link Selector} and one thread. All channels which are registered
+ * at this loop will be served by this thread only. Other threads can hand over work to the
+ * loop by {@link #execute(Runnable)} and {@link #schedule(Runnable, long, TimeUnit)}.
+ *
+ * @author rainu
+ */
+class EventLoop implements Runnable {
+
+	/**
+	 * A handler is attached to each registered channel. He will be called by the loop-thread
+	 * if his channel is ready.
+	 */
+	static interface Handler {
+		/**
+		 * The channel of the given key is ready for at least one of his interest operations.
+		 *
+		 * @param key The selection key.
+		 * @throws IOException If an error occurs. The channel will be closed in that case.
+		 */
+		public void handle(SelectionKey key) throws IOException;
+
+		/**
+		 * The channel was closed or the loop is shutting down.
+		 */
+		public void close();
+	}
+
+	private final Selector selector;
+	private final Thread thread;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	//will be accessed by the loop-thread only
+	private final PriorityQueue<ScheduledTask> scheduledTasks = new PriorityQueue<ScheduledTask>();
+	private volatile boolean running = false;
+
+	public EventLoop(String name) throws IOException {
+		this.selector = Selector.open();
+		this.thread = new Thread(this, name);
+	}
+
+	/**
+	 * Register the given channel at this loop. The registration itself will be done by the loop-thread.
+	 *
+	 * @param channel The (non-blocking) channel.
+	 * @param ops The interest operations.
+	 * @param handler The handler which is responsible for this channel.
+	 */
+	public void register(final SelectableChannel channel, final int ops, final Handler handler) {
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					channel.register(selector, ops, handler);
+				} catch (ClosedChannelException e) {
+					handler.close();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Execute the given task on the loop-thread.
+	 *
+	 * @param task The task.
+	 */
+	public void execute(Runnable task) {
+		tasks.add(task);
+
+		if(!inEventLoop()){
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Execute the given task on the loop-thread after the given delay.
+	 *
+	 * @param task The task.
+	 * @param delay The delay.
+	 * @param unit The unit of the delay.
+	 */
+	public void schedule(Runnable task, long delay, TimeUnit unit) {
+		final ScheduledTask scheduled = new ScheduledTask(System.nanoTime() + unit.toNanos(delay), task);
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				scheduledTasks.add(scheduled);
+			}
+		});
+	}
+
+	private static class ScheduledTask implements Comparable<ScheduledTask> {
+		private final long deadline;
+		private final Runnable task;
+
+		public ScheduledTask(long deadline, Runnable task) {
+			this.deadline = deadline;
+			this.task = task;
+		}
+
+		@Override
+		public int compareTo(ScheduledTask o) {
+			final long diff = deadline - o.deadline;
+			return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+		}
+	}
+
+	/**
+	 * Checks if the current thread is the loop-thread.
+	 *
+	 * @return True if the current thread is my thread. Otherwise false.
+	 */
+	public boolean inEventLoop() {
+		return Thread.currentThread() == thread;
+	}
+
+	public void start() {
+		running = true;
+		thread.start();
+	}
+
+	public boolean isAlive() {
+		return thread.isAlive();
+	}
+
+	Selector getSelector() {
+		return selector;
+	}
+
+	/**
+	 * Stops the loop and close all registered channels. This method blocks until the loop
+	 * is stopped or the given timeout exceeds.
+	 *
+	 * @param timeout The maximum time in milliseconds to wait for the loop.
+	 */
+	public void shutdown(long timeout) {
+		running = false;
+		selector.wakeup();
+
+		try {
+			thread.join(timeout);
+		} catch (InterruptedException e) { }
+	}
+
+	@Override
+	public void run() {
+		try {
+			while(running){
+				runTasks();
+				final long timeout = runScheduledTasks();
+
+				try {
+					if(!tasks.isEmpty()){
+						selector.selectNow();
+					}else if(timeout > 0){
+						selector.select(timeout);
+					}else{
+						selector.select();
+					}
+				} catch (IOException e) {
+					break;
+				}
+
+				processSelectedKeys();
+			}
+		} finally {
+			closeAll();
+		}
+	}
+
+	private void runTasks() {
+		Runnable task;
+		while((task = tasks.poll()) != null){
+			task.run();
+		}
+	}
+
+	/**
+	 * Run all scheduled tasks which are due.
+	 *
+	 * @return The milliseconds until the next scheduled task is due or 0 if there is no one.
+	 */
+	private long runScheduledTasks() {
+		ScheduledTask next;
+		while((next = scheduledTasks.peek()) != null){
+			final long remaining = next.deadline - System.nanoTime();
+			if(remaining > 0){
+				return Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining));
+			}
+
+			scheduledTasks.poll();
+			next.task.run();
+		}
+
+		return 0;
+	}
+
+	private void processSelectedKeys() {
+		Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+		while(iter.hasNext()){
+			SelectionKey key = iter.next();
+			iter.remove();
+
+			Handler handler = (Handler) key.attachment();
+			try {
+				if(key.isValid()){
+					handler.handle(key);
+				}
+			} catch (IOException e) {
+				key.cancel();
+				handler.close();
+			} catch (RuntimeException e) {
+				key.cancel();
+				handler.close();
+			}
+		}
+	}
+
+	private void closeAll() {
+		for(SelectionKey key : selector.keys()){
+			((Handler) key.attachment()).close();
+		}
+
+		try {
+			selector.close();
+		} catch (IOException e) { }
+	}
+}
@@ -0,0 +1,70 @@
+package de.raysha.lib.net.scs;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed set of {@link EventLoop}s. The connections will be distributed over the loops by
+ * round-robin.
+ *
+ * @author rainu
+ */
+class EventLoopGroup {
+	private final EventLoop[] loops;
+	private final AtomicInteger next = new AtomicInteger();
+
+	/**
+	 * Creates a group with one loop for each available processor.
+	 *
+	 * @param name The base name of the loop-threads.
+	 * @throws IOException If a selector could not be opened.
+	 */
+	public EventLoopGroup(String name) throws IOException {
+		this(Runtime.getRuntime().availableProcessors(), name);
+	}
+
+	public EventLoopGroup(int size, String name) throws IOException {
+		if(size < 1){
+			throw new IllegalArgumentException("At least one event loop is needed!");
+		}
+
+		this.loops = new EventLoop[size];
+		for(int i=0; i < size; i++){
+			loops[i] = new EventLoop(name + "-" + i);
+		}
+	}
+
+	/**
+	 * Get the next loop (round-robin).
+	 *
+	 * @return The next loop.
+	 */
+	public EventLoop next() {
+		return loops[(next.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+	}
+
+	public void start() {
+		for(EventLoop loop : loops){
+			loop.start();
+		}
+	}
+
+	/**
+	 * Checks if at least one loop is alive.
+	 *
+	 * @return True if at least one loop is alive. Otherwise false.
+	 */
+	public boolean isAlive() {
+		for(EventLoop loop : loops){
+			if(loop.isAlive()) return true;
+		}
+
+		return false;
+	}
+
+	public void shutdown(long timeout) {
+		for(EventLoop loop : loops){
+			loop.shutdown(timeout);
+		}
+	}
+}
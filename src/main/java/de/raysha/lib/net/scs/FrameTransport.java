@@ -0,0 +1,130 @@
+package de.raysha.lib.net.scs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A transport is responsible for moving whole frames between two {@link Connector}s. A frame
+ * is a 4-byte header followed by so many bytes of content. The header contains the length of the
+ * content and some flags (see {@link #LENGTH_MASK}). The transport only knows about
+ * that framing. What the content (and the flags) means is the business of the {@link Connector}.
+ *
+ * @author rainu
+ */
+interface FrameTransport {
+	/**
+	 * The bits of the header which contains the length of the frame content. All other bits are flags.
+	 */
+	public static final int LENGTH_MASK = 0x1FFFFFFF;
+	/**
+	 * This flag says that the frame content is compressed.
+	 */
+	public static final int FLAG_COMPRESSED = 0x80000000;
+	/**
+	 * This flag says that the frame content is a chunk of a message and further chunks will follow.
+	 */
+	public static final int FLAG_MORE = 0x40000000;
+	/**
+	 * This flag says that the frame content begins with a correlation tag (varint) of a request or a response.
+	 */
+	public static final int FLAG_CORRELATED = 0x20000000;
+	/**
+	 * The maximal size of a frame content.
+	 */
+	public static final int MAX_FRAME_SIZE = LENGTH_MASK - 4;
+	/**
+	 * The maximal size of a received frame content if nothing else is set (see {@link #setMaxFrameSize(int)}).
+	 * The buffer of a frame is allocated as soon as his header is read, so the default is small. Bigger messages
+	 * are sent in chunks (see {@link Connector#STREAM_THRESHOLD}).
+	 */
+	public static final int DEFAULT_MAX_FRAME_SIZE = 4 * 1024 * 1024;
+
+	/**
+	 * Writes one frame. The content of the frame is the concatenation of all given parts.
+	 *
+	 * @param flags The flags of the frame (or 0).
+	 * @param parts The parts of the frame content.
+	 * @throws IOException If an error occurs while writing the frame or the frame is too big (see {@link #MAX_FRAME_SIZE}).
+	 */
+	public void writeFrame(int flags, ByteBuffer...parts) throws IOException;
+
+	/**
+	 * Reads the next frame. This is a blocking call!
+	 *
+	 * @return A buffer which starts with the 4-byte header of the frame. The position of the buffer is
+	 * behind the header. So the remaining bytes are the frame content.
+	 * @throws IOException If an error occurs while reading the frame or the frame is too big (see {@link #setMaxFrameSize(int)}).
+	 */
+	public ByteBuffer readFrame() throws IOException;
+
+	/**
+	 * Reads the next frame, but waits at most the given time for it (see {@link #readFrame()}).
+	 *
+	 * @param timeout The maximal time to wait.
+	 * @param unit The unit of the timeout.
+	 * @return The frame or <b>null</b> if no frame was received in time.
+	 * @throws IOException If an error occurs while reading the frame. If the time is over while a frame is
+	 * read partly, the transport can not be used anymore.
+	 */
+	public ByteBuffer readFrame(long timeout, TimeUnit unit) throws IOException;
+
+	/**
+	 * Checks if a frame can be read without waiting for the network.
+	 *
+	 * @return <b>true</b> if the next {@link #readFrame()} will (most likely) not block.
+	 */
+	public boolean hasReceivedFrames();
+
+	/**
+	 * Set the listener which will be called each time when new frames are received (or the transport is closed).
+	 * The listener is called by the thread which receives the frames, so it must not block!
+	 *
+	 * @param listener The listener or <b>null</b> to remove the current listener.
+	 * @return <b>false</b> if this transport has no own receiving thread and so it can not inform a listener.
+	 * In that case somebody has to call {@link #readFrame()}.
+	 */
+	public boolean setReceiveListener(Runnable listener);
+
+	/**
+	 * Set the inspector which sees each received frame at once (before it can be read by {@link #readFrame()}).
+	 *
+	 * @param inspector The inspector or <b>null</b> to remove the current inspector.
+	 */
+	public void setFrameInspector(FrameInspector inspector);
+
+	/**
+	 * Set the maximal content size of the received frames. A bigger frame will not be read (and allocated),
+	 * instead {@link #readFrame()} fails.
+	 *
+	 * @param maxFrameSize The maximal size in bytes (at most {@link #MAX_FRAME_SIZE}).
+	 */
+	public void setMaxFrameSize(int maxFrameSize);
+
+	/**
+	 * Close this transport and the underlying connection.
+	 *
+	 * @throws IOException if an I/O error occurs when closing the connection.
+	 */
+	public void close() throws IOException;
+
+	/**
+	 * Inspects the received frames (see {@link FrameTransport#setFrameInspector(FrameInspector)}). The inspector is
+	 * called by the thread which receives the frames, so it must not block!
+	 */
+	public static interface FrameInspector {
+		/**
+		 * Inspect the given frame.
+		 *
+		 * @param frame The received frame (see {@link FrameTransport#readFrame()}). The position of the buffer must not be changed.
+		 * @return <b>true</b> if the frame is consumed by the inspector. Then the transport releases the frame and
+		 * it will never be read. Otherwise <b>false</b>.
+		 */
+		public boolean inspect(ByteBuffer frame);
+
+		/**
+		 * The transport is closed: by {@link FrameTransport#close()}, by the partner or because of an error.
+		 */
+		public void closed();
+	}
+}
@@ -0,0 +1,188 @@
+package de.raysha.lib.net.scs;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.raysha.lib.net.scs.utils.HashedWheelTimer;
+import de.raysha.lib.net.scs.utils.HashedWheelTimer.Timeout;
+
+/**
+ * The heartbeat and the idle timeout of a {@link Connector} (see {@link Connector#startHeartbeat(HashedWheelTimer, long, long, TimeUnit)}).
+ * The monitor is checked by a {@link HashedWheelTimer} which can be shared by many connectors. If nothing was written
+ * for the heartbeat interval, a ping is sent. My partner answers it with a pong. If nothing was read for the idle timeout
+ * or a write hangs for the idle timeout, the partner is considered as dead and the connector will be disconnected.
+ * <p>
+ * The checks run on the thread of the timer. The pings and the disconnecting may block, so they are handed over to
+ * an own thread pool. The pongs of all connectors are written by this pool too (see {@link #executeBlocking(Runnable)}).
+ *
+ * @author rainu
+ */
+class IdleMonitor implements Runnable {
+	private static final ExecutorService IO_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+		private final AtomicInteger counter = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			final Thread thread = new Thread(r, "Connector-Heartbeat-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final Connector connector;
+	private final HashedWheelTimer timer;
+	private final long heartbeatNanos;
+	private final long idleTimeoutNanos;
+
+	private volatile long lastRead;
+	private volatile long lastWrite;
+	//the start of the current write or 0 if nothing is written at the moment
+	private volatile long writeStart = 0;
+
+	private final AtomicBoolean pinging = new AtomicBoolean();
+	private volatile boolean stopped = false;
+	private volatile Timeout timeout;
+
+	/**
+	 * @param heartbeatNanos The heartbeat interval or 0 for no heartbeat.
+	 * @param idleTimeoutNanos The idle timeout or 0 for no timeout.
+	 */
+	public IdleMonitor(Connector connector, HashedWheelTimer timer, long heartbeatNanos, long idleTimeoutNanos) {
+		this.connector = connector;
+		this.timer = timer;
+		this.heartbeatNanos = heartbeatNanos;
+		this.idleTimeoutNanos = idleTimeoutNanos;
+
+		final long now = System.nanoTime();
+		this.lastRead = now;
+		this.lastWrite = now;
+	}
+
+	public void start() {
+		schedule(System.nanoTime());
+	}
+
+	public void stop() {
+		stopped = true;
+
+		final Timeout timeout = this.timeout;
+		if(timeout != null){
+			timeout.cancel();
+		}
+	}
+
+	public void read() {
+		lastRead = System.nanoTime();
+	}
+
+	public void writeStarted() {
+		writeStart = System.nanoTime();
+	}
+
+	public void writeDone() {
+		lastWrite = System.nanoTime();
+		writeStart = 0;
+	}
+
+	@Override
+	public void run() {
+		if(stopped){
+			return;
+		}
+
+		final long now = System.nanoTime();
+		final long writeStart = this.writeStart;
+		if(idleTimeoutNanos > 0 && (now - lastRead >= idleTimeoutNanos ||
+				(writeStart != 0 && now - writeStart >= idleTimeoutNanos))){
+
+			stopped = true;
+			execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						connector.disconnect();
+					} catch (IOException e) { }
+				}
+			});
+			return;
+		}
+
+		if(heartbeatNanos > 0 && writeStart == 0 && now - lastWrite >= heartbeatNanos && pinging.compareAndSet(false, true)){
+			execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						connector.sendHeartbeat();
+					} catch (IOException e) {
+						//the receiving side will notice the broken connection
+					} finally {
+						pinging.set(false);
+					}
+				}
+			});
+		}
+
+		schedule(now);
+	}
+
+	/**
+	 * Hand over a blocking heartbeat task to the heartbeat threads.
+	 *
+	 * @param task The task.
+	 * @return <b>false</b> if the task was rejected.
+	 */
+	static boolean executeBlocking(Runnable task) {
+		try {
+			IO_EXECUTOR.execute(task);
+			return true;
+		} catch (RejectedExecutionException e) {
+			return false;
+		}
+	}
+
+	private void execute(Runnable task) {
+		try {
+			IO_EXECUTOR.execute(task);
+		} catch (RejectedExecutionException e) {
+			pinging.set(false);
+		}
+	}
+
+	/**
+	 * Schedule the next check at the nearest deadline.
+	 */
+	private void schedule(long now) {
+		long delay = Long.MAX_VALUE;
+		if(heartbeatNanos > 0){
+			if(pinging.get() || writeStart != 0){
+				//the heartbeat is due already, but a write is running: look again after one interval
+				delay = Math.min(delay, heartbeatNanos);
+			}else{
+				delay = Math.min(delay, lastWrite + heartbeatNanos - now);
+			}
+		}
+		if(idleTimeoutNanos > 0){
+			delay = Math.min(delay, lastRead + idleTimeoutNanos - now);
+			if(writeStart != 0){
+				delay = Math.min(delay, writeStart + idleTimeoutNanos - now);
+			}
+		}
+
+		try {
+			timeout = timer.schedule(this, Math.max(0, delay), TimeUnit.NANOSECONDS);
+		} catch (IllegalStateException e) {
+			//the timer is stopped
+			stopped = true;
+			return;
+		}
+		if(stopped){
+			timeout.cancel();
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package de.raysha.lib.net.scs;
+
+import de.raysha.lib.net.scs.model.Message;
+
+/**
+ * A handler for the received messages of one message class (see {@link Connector#registerHandler(Class, MessageHandler)}).
+ * The messages of one connection are handled one after an other in the order of their receiving. The messages of
+ * different connections can be handled at the same time.
+ *
+ * @author rainu
+ *
+ * @param <M>
+ */
+public interface MessageHandler <M extends Message> {
+
+	/**
+	 * Handle the given received message.
+	 *
+	 * @param connector The connector which has received the message.
+	 * @param message The received message.
+	 * @throws Exception If the message could not be handled. The exception will be passed to the {@link DispatchErrorHandler}.
+	 */
+	public void handle(Connector connector, M message) throws Exception;
+}
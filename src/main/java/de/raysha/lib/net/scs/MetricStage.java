@@ -0,0 +1,33 @@
+package de.raysha.lib.net.scs;
+
+/**
+ * The stages of the hot path of a {@link Connector} which are timed by his metrics (see {@link ConnectorMetrics}).
+ *
+ * @author rainu
+ */
+public enum MetricStage {
+	/**
+	 * Serialize a message (see {@link de.raysha.lib.net.scs.model.serialize.MessageSerializer}).
+	 */
+	SERIALIZE,
+	/**
+	 * Encrypt a message, a batch or a chunk.
+	 */
+	ENCRYPT,
+	/**
+	 * Write one frame into the connection.
+	 */
+	WRITE,
+	/**
+	 * Read one frame from the connection. This includes the waiting for the frame!
+	 */
+	READ,
+	/**
+	 * Decrypt a message, a batch or a chunk.
+	 */
+	DECRYPT,
+	/**
+	 * Deserialize a message.
+	 */
+	DESERIALIZE
+}
@@ -0,0 +1,39 @@
+package de.raysha.lib.net.scs;
+
+import de.raysha.lib.net.scs.model.Message;
+
+/**
+ * This listener will be informed about each measurement of the metrics of a {@link Connector}
+ * (see {@link ConnectorMetrics#addListener(MetricsListener)} and {@link ServerMetrics#addListener(MetricsListener)}).
+ * The listener is called by the measuring thread in the hot path, so it must be fast and must not block!
+ *
+ * @author rainu
+ */
+public interface MetricsListener {
+
+	/**
+	 * A stage was passed.
+	 *
+	 * @param metrics The metrics of the measuring connector.
+	 * @param stage The passed stage.
+	 * @param messageClass The class of the message or <b>null</b> if the stage does not belong to one message (for example a batch).
+	 * @param nanos The duration of the stage in nanoseconds.
+	 */
+	public void onStage(ConnectorMetrics metrics, MetricStage stage, Class<? extends Message> messageClass, long nanos);
+
+	/**
+	 * A frame was written.
+	 *
+	 * @param metrics The metrics of the measuring connector.
+	 * @param bytes The size of the frame content.
+	 */
+	public void onFrameSent(ConnectorMetrics metrics, int bytes);
+
+	/**
+	 * A frame was read.
+	 *
+	 * @param metrics The metrics of the measuring connector.
+	 * @param bytes The size of the frame content.
+	 */
+	public void onFrameReceived(ConnectorMetrics metrics, int bytes);
+}
@@ -0,0 +1,83 @@
+package de.raysha.lib.net.scs;
+
+import java.util.Arrays;
+
+/**
+ * Checks the nonces of the messages which are received by an {@link AESGCMConnector}. Each nonce consists of the
+ * (random) prefix of my partner and his counter. The prefix is pinned by the first authenticated message, after that
+ * each counter is accepted only once. So a message can not be replayed within this connection or mixed into it from an
+ * other one. A whole recorded session can still be replayed into a new connection, because the prefix is pinned by
+ * the first message of the session (see {@link AESGCMConnector}).
+ * <p>
+ * My partner encrypts his messages in parallel, so they may be written (and decrypted) a bit out of the order of their
+ * counters. Because of that a counter must not be the highest so far, it only must be one of the last {@link #SIZE}
+ * counters which are not seen yet.
+ *
+ * @author rainu
+ */
+class NonceWindow {
+	static final int SIZE = 1024;
+
+	private final int prefixLength;
+	private byte[] prefix;
+	private long highest = -1;
+	private final long[] seen = new long[SIZE / 64];
+
+	public NonceWindow(int prefixLength) {
+		this.prefixLength = prefixLength;
+	}
+
+	/**
+	 * Check the given nonce of an authenticated message and remember his counter.
+	 *
+	 * @param nonce The array which contains the nonce.
+	 * @param offset The offset of the nonce.
+	 * @return True if the nonce is fresh. False if it does not belong to the pinned prefix or if it was already seen.
+	 */
+	public synchronized boolean accept(byte[] nonce, int offset) {
+		if(prefix == null){
+			prefix = Arrays.copyOfRange(nonce, offset, offset + prefixLength);
+		}else{
+			for(int i=0; i < prefixLength; i++){
+				if(prefix[i] != nonce[offset + i]){
+					return false;
+				}
+			}
+		}
+
+		final int position = offset + prefixLength;
+		final long counter = ((nonce[position] & 0xFFL) << 24) | ((nonce[position + 1] & 0xFFL) << 16)
+				| ((nonce[position + 2] & 0xFFL) << 8) | (nonce[position + 3] & 0xFFL);
+
+		if(counter > highest){
+			//the counters which fall out of the window free their bits
+			for(long free = Math.max(highest + 1, counter - SIZE + 1); free < counter; free++){
+				clear(free);
+			}
+			highest = counter;
+			mark(counter);
+			return true;
+		}
+		if(highest - counter >= SIZE || isMarked(counter)){
+			return false;
+		}
+
+		mark(counter);
+		return true;
+	}
+
+	private void mark(long counter) {
+		final int bit = (int) (counter % SIZE);
+		seen[bit / 64] |= 1L << (bit % 64);
+	}
+
+	private void clear(long counter) {
+		final int bit = (int) (counter % SIZE);
+		seen[bit / 64] &= ~(1L << (bit % 64));
+	}
+
+	private boolean isMarked(long counter) {
+		final int bit = (int) (counter % SIZE);
+		return (seen[bit / 64] & (1L << (bit % 64))) != 0;
+	}
+}
@@ -0,0 +1,23 @@
+package de.raysha.lib.net.scs;
+
+/**
+ * What should happen if an asynchronous message (see {@link Connector#sendAsync(de.raysha.lib.net.scs.model.Message)})
+ * is sent while the send queue of the connector is full.
+ *
+ * @author rainu
+ */
+public enum OverflowPolicy {
+	/**
+	 * The sending thread waits until the queue has space again.
+	 */
+	BLOCK,
+	/**
+	 * The message is rejected immediately ({@link java.util.concurrent.RejectedExecutionException}).
+	 */
+	FAIL,
+	/**
+	 * The oldest waiting message is dropped (his future fails with a
+	 * {@link java.util.concurrent.RejectedExecutionException}) and the new message is queued.
+	 */
+	DROP_OLDEST
+}
@@ -0,0 +1,266 @@
+package de.raysha.lib.net.scs;
+
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.raysha.lib.net.scs.model.Message;
+
+/**
+ * The bookkeeping of the requests of a {@link Connector} (see {@link Connector#request(Message)}). Each request
+ * gets a correlation id, which is sent with the request and echoed by the response. So many requests can be in
+ * flight on one connection and their responses can arrive in any order.
+ * <p>
+ * The correlation id and the direction are combined into one tag (see {@link #requestTag(int)} and {@link #responseTag(int)}).
+ * The tag {@link #NO_CORRELATION} marks a usual message.
+ * <p>
+ * The received requests are remembered until they are answered, but only the last {@link #MAX_UNANSWERED} ones.
+ * And a request is forgotten if nobody references it anymore. So a partner can not flood the bookkeeping with
+ * requests which are never answered.
+ *
+ * @author rainu
+ */
+class PendingRequests {
+	static final int NO_CORRELATION = 0;
+	static final int MAX_UNANSWERED = 1024;
+
+	private static final int MAX_ID = 0x3FFFFFFF;
+
+	private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			final Thread thread = new Thread(r, "Connector-Request-Timer");
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	});
+	static {
+		//most requests are answered in time: their timeouts should not stay in the queue
+		TIMER.setRemoveOnCancelPolicy(true);
+	}
+
+	//outgoing requests
+	private final AtomicInteger lastId = new AtomicInteger();
+	private final ConcurrentMap<Integer, Request<?>> pending = new ConcurrentHashMap<Integer, Request<?>>();
+	private volatile IOException failure;
+
+	//incoming requests which are not answered yet (guarded by the map)
+	private final ReferenceQueue<Message> collected = new ReferenceQueue<Message>();
+	private final Map<ReceivedKey, Integer> received = new LinkedHashMap<ReceivedKey, Integer>() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<ReceivedKey, Integer> eldest) {
+			return size() > MAX_UNANSWERED;
+		}
+	};
+
+	static int requestTag(int id) {
+		return id << 1;
+	}
+
+	static int responseTag(int id) {
+		return (id << 1) | 1;
+	}
+
+	static boolean isResponse(int tag) {
+		return (tag & 1) != 0;
+	}
+
+	static int idOf(int tag) {
+		return tag >>> 1;
+	}
+
+	/**
+	 * Register a new request.
+	 *
+	 * @param timeout The time to wait for the response or 0 for no timeout.
+	 * @param unit The unit of the timeout.
+	 * @return The future of the response. The correlation id is {@link Request#getId()}.
+	 * @throws IOException If the connection is already broken.
+	 */
+	public <R extends Message> Request<R> register(long timeout, TimeUnit unit) throws IOException {
+		Request<R> request;
+		do {
+			request = new Request<R>(nextId());
+		} while(pending.putIfAbsent(request.getId(), request) != null);
+
+		if(failure != null){
+			request.fail(failure);
+			throw failure;
+		}
+		if(timeout > 0){
+			request.timeout = TIMER.schedule(request.timeoutTask, timeout, unit);
+		}
+
+		return request;
+	}
+
+	private int nextId() {
+		while(true){
+			final int current = lastId.get();
+			final int next = current >= MAX_ID ? 1 : current + 1;
+			if(lastId.compareAndSet(current, next)){
+				return next;
+			}
+		}
+	}
+
+	/**
+	 * Complete the request of the given id. A response of an unknown request (maybe it is timed out
+	 * or cancelled) will be ignored.
+	 *
+	 * @param id The correlation id.
+	 * @param response The received response.
+	 */
+	public void complete(int id, Message response) {
+		final Request<?> request = pending.get(id);
+		if(request != null){
+			request.complete(response);
+		}
+	}
+
+	/**
+	 * Fail all pending and all further requests.
+	 *
+	 * @param cause Why the requests fail.
+	 */
+	public void failAll(IOException cause) {
+		failure = cause;
+
+		final List<Request<?>> requests = new ArrayList<Request<?>>(pending.values());
+		for(Request<?> request : requests){
+			request.fail(cause);
+		}
+	}
+
+	/**
+	 * Remember the correlation id of a received request, so that it can be answered.
+	 */
+	public void received(Message request, int id) {
+		synchronized (received) {
+			expungeCollected();
+			received.put(new ReceivedKey(request, collected), id);
+		}
+	}
+
+	public boolean isReceived(Message request) {
+		synchronized (received) {
+			return received.containsKey(new ReceivedKey(request, null));
+		}
+	}
+
+	/**
+	 * Get (and forget) the correlation id of the given received request.
+	 *
+	 * @return The correlation id or <b>null</b> if the message is no request (or it was already answered or forgotten).
+	 */
+	public Integer answer(Message request) {
+		synchronized (received) {
+			return received.remove(new ReceivedKey(request, null));
+		}
+	}
+
+	private void expungeCollected() {
+		Reference<? extends Message> key;
+		while((key = collected.poll()) != null){
+			received.remove(key);
+		}
+	}
+
+	/**
+	 * The key of a received request: the identity of the message. It does not keep the message alive.
+	 */
+	private static class ReceivedKey extends WeakReference<Message> {
+		private final int hash;
+
+		public ReceivedKey(Message request, ReferenceQueue<Message> queue) {
+			super(request, queue);
+
+			this.hash = System.identityHashCode(request);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(obj == this){
+				return true;
+			}
+			if(!(obj instanceof ReceivedKey)){
+				return false;
+			}
+
+			final Message request = get();
+			return request != null && request == ((ReceivedKey) obj).get();
+		}
+	}
+
+	/**
+	 * The future of a response. It will be removed from the pending requests when it is done (completed, failed or cancelled).
+	 */
+	class Request<R extends Message> extends FutureTask<R> {
+		private final int id;
+		private volatile ScheduledFuture<?> timeout;
+
+		private final Runnable timeoutTask = new Runnable() {
+			@Override
+			public void run() {
+				fail(new TimeoutException("No response was received for request " + id));
+			}
+		};
+
+		public Request(int id) {
+			super(new Callable<R>() {
+				@Override
+				public R call() throws Exception {
+					throw new IllegalStateException("A request is completed by his response!");
+				}
+			});
+
+			this.id = id;
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		@SuppressWarnings("unchecked")
+		void complete(Message response) {
+			set((R) response);
+		}
+
+		void fail(Throwable cause) {
+			setException(cause);
+		}
+
+		@Override
+		protected void done() {
+			pending.remove(id, this);
+
+			final ScheduledFuture<?> timeout = this.timeout;
+			if(timeout != null){
+				timeout.cancel(false);
+			}
+		}
+	}
+}
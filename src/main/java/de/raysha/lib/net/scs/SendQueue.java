@@ -0,0 +1,324 @@
+package de.raysha.lib.net.scs;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import de.raysha.lib.net.scs.model.Message;
+
+/**
+ * The bounded queue of the asynchronous messages of a {@link Connector} (see {@link Connector#sendAsync(Message)}).
+ * The queue is drained by one task on an {@link Executor}, so the messages are sent in the order of their arrival.
+ * The task is only running while the queue is not empty. Therefore an idle connection occupies no thread.
+ *
+ * @author rainu
+ */
+class SendQueue {
+	static final int DEFAULT_CAPACITY = 1024;
+	static final int DEFAULT_WRITER_THREADS = 64;
+
+	/**
+	 * The shared writers. The number of threads is bounded. The queue of the pool is not, but each connector
+	 * queues at most one drainer at a time.
+	 */
+	private static final ExecutorService DEFAULT_EXECUTOR = newDefaultExecutor();
+
+	private final Connector connector;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notFull = lock.newCondition();
+	private final Queue<SendTask> queue = new ArrayDeque<SendTask>();
+	private int capacity = DEFAULT_CAPACITY;
+	private OverflowPolicy policy = OverflowPolicy.BLOCK;
+	private int lowWatermark = -1;
+	private int highWatermark = -1;
+	private SendQueueListener listener;
+	private boolean aboveHighWatermark = false;
+	private boolean draining = false;
+	private boolean closed = false;
+
+	private volatile Executor executor = DEFAULT_EXECUTOR;
+
+	public SendQueue(Connector connector) {
+		this.connector = connector;
+	}
+
+	private static ExecutorService newDefaultExecutor() {
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor(DEFAULT_WRITER_THREADS, DEFAULT_WRITER_THREADS,
+				60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new WriterThreadFactory());
+		executor.allowCoreThreadTimeOut(true);
+
+		return executor;
+	}
+
+	public void setCapacity(int capacity, OverflowPolicy policy) {
+		if(capacity <= 0){
+			throw new IllegalArgumentException("The capacity must be positive!");
+		}
+
+		lock.lock();
+		try {
+			this.capacity = capacity;
+			this.policy = policy;
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void setWatermarks(int lowWatermark, int highWatermark, SendQueueListener listener) {
+		if(lowWatermark < 0 || highWatermark <= lowWatermark){
+			throw new IllegalArgumentException("The watermarks must be 0 <= low < high!");
+		}
+
+		lock.lock();
+		try {
+			this.lowWatermark = lowWatermark;
+			this.highWatermark = highWatermark;
+			this.listener = listener;
+			this.aboveHighWatermark = false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void setExecutor(Executor executor) {
+		this.executor = executor == null ? DEFAULT_EXECUTOR : executor;
+	}
+
+	public int size() {
+		lock.lock();
+		try {
+			return queue.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Queue the given message.
+	 *
+	 * @param message The message to be send.
+	 * @return The future of the sending.
+	 * @throws IOException If the connector is disconnected or the thread was interrupted while it waits for space.
+	 * @throws RejectedExecutionException If the queue is full and the policy is {@link OverflowPolicy#FAIL}.
+	 */
+	public Future<Void> offer(final Message message) throws IOException {
+		return offer(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				connector.send(message);
+				return null;
+			}
+		}, true);
+	}
+
+	/**
+	 * Queue the given sending.
+	 *
+	 * @param sending The sending.
+	 * @param mayWait May the calling thread wait for space if the policy is {@link OverflowPolicy#BLOCK}?
+	 * Otherwise the sending is rejected instead. It is rejected too while the queue is above his high watermark
+	 * (see {@link #setWatermarks(int, int, SendQueueListener)}), so a stalled connector takes no more of these sendings.
+	 * @return The future of the sending.
+	 * @throws IOException If the connector is disconnected or the thread was interrupted while it waits for space.
+	 * @throws RejectedExecutionException If the queue is full (or above the high watermark) and the sending can not wait.
+	 */
+	public Future<Void> offer(Callable<Void> sending, boolean mayWait) throws IOException {
+		final SendTask task = new SendTask(sending);
+		final List<SendTask> dropped = new ArrayList<SendTask>(0);
+		final SendQueueListener highListener;
+		final boolean start;
+
+		lock.lock();
+		try {
+			if(!mayWait && !closed && aboveHighWatermark){
+				throw new RejectedExecutionException("The send queue is above his high watermark!");
+			}
+			while(!closed && queue.size() >= capacity){
+				switch(policy){
+				case FAIL:
+					throw new RejectedExecutionException("The send queue is full!");
+				case DROP_OLDEST:
+					dropped.add(queue.poll());
+					break;
+				default:
+					if(!mayWait){
+						throw new RejectedExecutionException("The send queue is full!");
+					}
+					try {
+						notFull.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException();
+					}
+				}
+			}
+			if(closed){
+				throw new IOException("The connector is disconnected!");
+			}
+
+			queue.add(task);
+
+			highListener = crossedHighWatermark() ? listener : null;
+			start = !draining;
+			draining = true;
+		} finally {
+			lock.unlock();
+		}
+
+		for(SendTask droppedTask : dropped){
+			droppedTask.fail(new RejectedExecutionException("The message was dropped, because the send queue was full!"));
+		}
+		if(highListener != null){
+			highListener.onHighWatermark(connector);
+		}
+		if(start){
+			startDraining(task);
+		}
+
+		return task;
+	}
+
+	/**
+	 * Start the drainer. If the executor rejects him, nobody would send the waiting messages: the given task is
+	 * removed (his caller gets the exception) and all other waiting tasks fail.
+	 */
+	private void startDraining(SendTask task) {
+		try {
+			executor.execute(drainer);
+		} catch (RejectedExecutionException e) {
+			final List<SendTask> rejected;
+			final SendQueueListener lowListener;
+
+			lock.lock();
+			try {
+				draining = false;
+				queue.remove(task);
+				rejected = new ArrayList<SendTask>(queue);
+				queue.clear();
+				notFull.signalAll();
+				lowListener = crossedLowWatermark() ? listener : null;
+			} finally {
+				lock.unlock();
+			}
+
+			for(SendTask other : rejected){
+				other.fail(e);
+			}
+			if(lowListener != null){
+				lowListener.onLowWatermark(connector);
+			}
+			throw e;
+		}
+	}
+
+	private boolean crossedHighWatermark() {
+		if(highWatermark < 0 || aboveHighWatermark || queue.size() < highWatermark){
+			return false;
+		}
+
+		aboveHighWatermark = true;
+		return true;
+	}
+
+	private boolean crossedLowWatermark() {
+		if(!aboveHighWatermark || queue.size() > lowWatermark){
+			return false;
+		}
+
+		aboveHighWatermark = false;
+		return true;
+	}
+
+	private final Runnable drainer = new Runnable() {
+		@Override
+		public void run() {
+			while(true){
+				final SendTask task;
+				final SendQueueListener lowListener;
+
+				lock.lock();
+				try {
+					task = queue.poll();
+					if(task == null){
+						draining = false;
+						return;
+					}
+
+					notFull.signal();
+					lowListener = crossedLowWatermark() ? listener : null;
+				} finally {
+					lock.unlock();
+				}
+
+				if(lowListener != null){
+					lowListener.onLowWatermark(connector);
+				}
+				task.run();
+
+				//a cancelled task (see Future#cancel(boolean)) may interrupt me, but not the next task
+				Thread.interrupted();
+			}
+		}
+	};
+
+	/**
+	 * Reject all waiting and all further messages.
+	 */
+	public void close() {
+		final List<SendTask> pending;
+
+		lock.lock();
+		try {
+			closed = true;
+			pending = new ArrayList<SendTask>(queue);
+			queue.clear();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+
+		for(SendTask task : pending){
+			task.fail(new IOException("The connector is disconnected!"));
+		}
+	}
+
+	private class SendTask extends FutureTask<Void> {
+		public SendTask(Callable<Void> sending) {
+			super(sending);
+		}
+
+		public void fail(Throwable cause) {
+			setException(cause);
+		}
+	}
+
+	private static class WriterThreadFactory implements ThreadFactory {
+		private final AtomicInteger counter = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			final Thread thread = new Thread(r, "Connector-Writer-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	}
+}
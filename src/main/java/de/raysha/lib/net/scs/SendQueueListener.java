@@ -0,0 +1,25 @@
+package de.raysha.lib.net.scs;
+
+/**
+ * This listener will be informed if the send queue of a {@link Connector} fills up or drains
+ * (see {@link Connector#setSendQueueWatermarks(int, int, SendQueueListener)}). So the producers
+ * can slow down before the queue overflows.
+ *
+ * @author rainu
+ */
+public interface SendQueueListener {
+
+	/**
+	 * The number of waiting messages has reached the high watermark.
+	 *
+	 * @param connector The connector of the queue.
+	 */
+	public void onHighWatermark(Connector connector);
+
+	/**
+	 * The number of waiting messages has fallen to the low watermark (after the high watermark was reached).
+	 *
+	 * @param connector The connector of the queue.
+	 */
+	public void onLowWatermark(Connector connector);
+}
@@ -3,19 +3,79 @@ package de.raysha.lib.net.scs;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import de.raysha.lib.net.scs.utils.BufferPool;
+import de.raysha.lib.net.scs.utils.ConnectionExecutors;
+import de.raysha.lib.net.scs.utils.HashedWheelTimer;
 
 /**
  * This class represents a abstract server. This class is responsible for
  * listening for incoming connections. What happens to the incoming connection,
  * choose the child classes.
+ * <p>
+ * A server can work in two modes. In the default mode one thread accepts the incoming connections
+ * by a blocking {@link ServerSocket}. In the selector mode (a server which is created with a
+ * {@link ServerSocketChannel}) a small fixed set of event loops accept the connections and serve
+ * all reads and writes of them with non-blocking channels. So no thread will be parked for an idle
+ * connection. The sockets which are handed over to {@link #handleNewSocket(Socket)} in that mode
+ * are non-blocking. Therefore their streams can not be used directly. Instead a {@link Connector}
+ * should be created for them. The wire format is the same in both modes. The frames of a connection are
+ * read by his event loop. So an event loop thread must never wait for them: a {@link Connector} which
+ * receives on an event loop thread fails with an {@link IllegalStateException}. Receiving handlers must run
+ * on a connection executor (see {@link #setConnectionExecutor(Executor)}).
+ * <p>
+ * In the default mode {@link #handleNewSocket(Socket)} is called by the accepting thread. So one slow
+ * handling stalls all new connections. With {@link #setConnectionExecutor(Executor)} the handling
+ * can be moved to an {@link Executor} (see {@link ConnectionExecutors}). In selector mode the handling
+ * always runs on an executor: by default on an own one of the server (see {@link ConnectionExecutors#newConnectionExecutor()}),
+ * which is shut down with the server.
+ * <p>
+ * The incoming connections pass an admission control before they are handed over. The number of live
+ * connections ({@link #setMaxConnections(int)}), the accept rate ({@link #setAcceptRate(double, int)}) and the
+ * number of pending handshakes ({@link #setMaxPendingHandshakes(int)}) can be limited. A connection which exceeds
+ * a limit will be rejected or delayed (see {@link AdmissionPolicy}). So a reconnect storm is shed instead of
+ * swamping the server. By default nothing is limited.
+ * <p>
+ * Half-open connections can be detected by heartbeats and reaped by an idle timeout (see
+ * {@link #setHeartbeat(long, long, TimeUnit)}). All connections of a server are checked by one shared
+ * {@link HashedWheelTimer} (see {@link #getTimer()}).
+ * <p>
+ * The size of the received frames is limited before a connection reads his first frame (see {@link #setMaxFrameSize(int)}).
+ * <p>
+ * The accepted and rejected connections can be counted by {@link ServerMetrics} (see {@link #enableMetrics()}).
  *
  * @author rainu
  */
 public abstract class Server {
 	private final ServerSocket serverSocket;
+	private final ServerSocketChannel serverChannel;
+	private final EventLoopGroup eventLoops;
 
 	private final Thread acceptThread;
 	private boolean threadStatus = false;
+	private volatile Executor connectionExecutor;
+	/**
+	 * The connection executor of the selector mode which is used if no other executor is set. It belongs to this server.
+	 */
+	private final ExecutorService defaultExecutor;
+	private volatile ServerMetrics metrics;
+	private final AdmissionControl admission = new AdmissionControl();
+	private HashedWheelTimer timer;
+	private volatile long heartbeatNanos = 0;
+	private volatile long idleTimeoutNanos = 0;
+	private volatile int maxFrameSize = FrameTransport.DEFAULT_MAX_FRAME_SIZE;
+
+	//the delayed connection of the selector mode (will be accessed by the accepting event loop only)
+	private EventLoop acceptEventLoop;
+	private SocketChannel delayedChannel;
+	private long delayedSince;
 
 	public Server(int port) throws IOException {
 		this(new ServerSocket(port));
@@ -23,23 +83,462 @@ public abstract class Server {
 
 	public Server(ServerSocket socket) {
 		this.serverSocket = socket;
+		this.serverChannel = null;
+		this.eventLoops = null;
 		this.acceptThread = new Thread(acceptLoop, "AbstractServer-Connection-Accepter");
+		this.defaultExecutor = null;
+	}
+
+	/**
+	 * Creates a server in selector mode with one event loop per available processor.
+	 *
+	 * @param channel The bound server channel.
+	 * @throws IOException If the event loops could not be created.
+	 */
+	public Server(ServerSocketChannel channel) throws IOException {
+		this(channel, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a server in selector mode.
+	 *
+	 * @param channel The bound server channel.
+	 * @param eventLoops The number of event loops (threads) which serve all connections.
+	 * @throws IOException If the event loops could not be created.
+	 */
+	public Server(ServerSocketChannel channel, int eventLoops) throws IOException {
+		this.serverSocket = channel.socket();
+		this.serverChannel = channel;
+		this.eventLoops = new EventLoopGroup(eventLoops, "AbstractServer-EventLoop");
+		this.acceptThread = null;
+		this.defaultExecutor = ConnectionExecutors.newConnectionExecutor();
+		this.connectionExecutor = defaultExecutor;
 	}
 
 	private final Runnable acceptLoop = new Runnable() {
 		@Override
 		public void run() {
+			int failures = 0;
 			while(threadStatus){
+				Socket newSocket;
 				try {
-					Socket newSocket = serverSocket.accept();
-					handleNewSocket(newSocket);
-				} catch (IOException e) { }
+					newSocket = serverSocket.accept();
+					failures = 0;
+				} catch (IOException e) {
+					if(threadStatus){
+						acceptFailed(++failures);
+					}
+					continue;
+				}
+
+				admit(newSocket);
+			}
+		}
+	};
+
+	/**
+	 * The accepting failed (for example because there are too many open files). Wait a moment, so that
+	 * the accepting thread does not spin while the problem persists.
+	 */
+	private void acceptFailed(int failures) {
+		final ServerMetrics metrics = this.metrics;
+		if(metrics != null){
+			metrics.acceptFailed();
+		}
+
+		try {
+			Thread.sleep(Math.min(1000, 10L << Math.min(failures - 1, 7)));
+		} catch (InterruptedException e) { }
+	}
+
+	private void admit(Socket newSocket) {
+		final long since = System.nanoTime();
+		boolean delayed = false;
+		AdmissionControl.Limit limit;
+		while((limit = admission.tryAdmit()) != null){
+			final long delay = delayNanos(limit, since, !delayed);
+			if(delay <= 0){
+				reject(newSocket, limit);
+				return;
+			}
+
+			delayed = true;
+			try {
+				admission.await(delay);
+			} catch (InterruptedException e) {
+				reject(newSocket, limit);
+				return;
+			}
+		}
+
+		dispatchNewSocket(newSocket);
+	}
+
+	/**
+	 * Get how long a connection which exceeds the given limit should be delayed until the limits will be checked again.
+	 *
+	 * @param limit The exceeded limit.
+	 * @param since The time (nanoseconds) since the connection was accepted.
+	 * @param first True if the connection was not delayed before.
+	 * @return The delay in nanoseconds or 0 if the connection must be rejected.
+	 */
+	private long delayNanos(AdmissionControl.Limit limit, long since, boolean first) {
+		if(admission.getPolicy() != AdmissionPolicy.DELAY || !threadStatus){
+			return 0;
+		}
+
+		final long now = System.nanoTime();
+		final long remaining = since + admission.getMaxDelayNanos() - now;
+		if(remaining <= 0){
+			return 0;
+		}
+
+		final ServerMetrics metrics = this.metrics;
+		if(metrics != null && first){
+			metrics.delayed();
+		}
+
+		return Math.min(remaining, admission.recheckNanos(limit));
+	}
+
+	private void reject(Socket socket, AdmissionControl.Limit limit) {
+		final ServerMetrics metrics = this.metrics;
+		if(metrics != null){
+			metrics.rejected(limit);
+		}
+
+		try { socket.close(); } catch (IOException e) { }
+	}
+
+	private final EventLoop.Handler acceptHandler = new EventLoop.Handler() {
+		@Override
+		public void handle(SelectionKey key) throws IOException {
+			if(delayedChannel != null){
+				//the accepting is paused until the delayed connection is admitted
+				return;
+			}
+
+			SocketChannel newChannel;
+			while(threadStatus && (newChannel = serverChannel.accept()) != null){
+				if(!admit(key, newChannel, System.nanoTime(), true)){
+					return;
+				}
+			}
+		}
+
+		@Override
+		public void close() {
+			if(delayedChannel != null){
+				try { delayedChannel.close(); } catch (IOException e) { }
+				delayedChannel = null;
 			}
 		}
 	};
 
+	/**
+	 * Admit the given channel in selector mode. If the channel must be delayed, the accepting is paused and the
+	 * admission will be retried later by the event loop.
+	 *
+	 * @return False if the channel is delayed. Otherwise true.
+	 */
+	private boolean admit(final SelectionKey key, SocketChannel newChannel, long since, boolean first) {
+		final AdmissionControl.Limit limit = admission.tryAdmit();
+		if(limit == null){
+			try {
+				ChannelTransport.open(newChannel, eventLoops.next(), BufferPool.DEFAULT, maxFrameSize);
+			} catch (IOException e) {
+				try { newChannel.close(); } catch (IOException e1) { }
+				admission.handshakeDone();
+				admission.release();
+				return true;
+			}
+
+			dispatchNewSocket(newChannel.socket());
+			return true;
+		}
+
+		final long delay = delayNanos(limit, since, first);
+		if(delay <= 0){
+			reject(newChannel.socket(), limit);
+			return true;
+		}
+
+		delayedChannel = newChannel;
+		delayedSince = since;
+		key.interestOps(0);
+		acceptEventLoop.schedule(new Runnable() {
+			@Override
+			public void run() {
+				retryDelayed(key);
+			}
+		}, delay, TimeUnit.NANOSECONDS);
+
+		return false;
+	}
+
+	private void retryDelayed(SelectionKey key) {
+		final SocketChannel channel = delayedChannel;
+		delayedChannel = null;
+		if(channel == null){
+			return;
+		}
+		if(!key.isValid()){
+			try { channel.close(); } catch (IOException e) { }
+			return;
+		}
+
+		if(admit(key, channel, delayedSince, false)){
+			//go on with the connections which are waiting in the backlog
+			key.interestOps(SelectionKey.OP_ACCEPT);
+		}
+	}
+
+	private void dispatchNewSocket(final Socket newSocket) {
+		final Executor executor = connectionExecutor;
+		if(executor == null){
+			accepted();
+			try {
+				handleNewSocket(newSocket);
+			} finally {
+				admission.handshakeDone();
+			}
+			return;
+		}
+
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						handleNewSocket(newSocket);
+					} finally {
+						admission.handshakeDone();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			admission.handshakeDone();
+			admission.release();
+			reject(newSocket, AdmissionControl.Limit.PENDING_HANDSHAKES);
+			return;
+		}
+
+		accepted();
+	}
+
+	private void accepted() {
+		final ServerMetrics metrics = this.metrics;
+		if(metrics != null){
+			metrics.accepted();
+		}
+	}
+
 	protected abstract void handleNewSocket(Socket newSocket);
 
+	/**
+	 * A handed over connection (see {@link #handleNewSocket(Socket)}) is closed, so he does not count as live
+	 * connection anymore (see {@link #setMaxConnections(int)}). This must be called exactly once for each handed
+	 * over connection. The {@link AESServer} does it when his connectors are disconnected.
+	 */
+	protected final void releaseConnection(){
+		admission.release();
+	}
+
+	/**
+	 * Limit the number of live connections. A connection is live from his admission until
+	 * {@link #releaseConnection()} is called for him.
+	 *
+	 * @param maxConnections The maximum number of live connections or 0 for unlimited.
+	 */
+	public void setMaxConnections(int maxConnections){
+		admission.setMaxConnections(maxConnections);
+	}
+
+	public int getMaxConnections(){
+		return admission.getMaxConnections();
+	}
+
+	/**
+	 * Limit the number of pending handshakes. A handshake is pending from the admission of the connection until
+	 * {@link #handleNewSocket(Socket)} returns. So this limits the connections which wait for the connection
+	 * executor (see {@link #setConnectionExecutor(Executor)}).
+	 *
+	 * @param maxPending The maximum number of pending handshakes or 0 for unlimited.
+	 */
+	public void setMaxPendingHandshakes(int maxPending){
+		admission.setMaxPending(maxPending);
+	}
+
+	public int getMaxPendingHandshakes(){
+		return admission.getMaxPending();
+	}
+
+	/**
+	 * Limit the rate of the admitted connections by a token bucket.
+	 *
+	 * @param connectionsPerSecond The average number of admitted connections per second or 0 for unlimited.
+	 * @param burst The number of connections which can be admitted at once after a quiet period.
+	 */
+	public void setAcceptRate(double connectionsPerSecond, int burst){
+		admission.setAcceptRate(connectionsPerSecond, burst);
+	}
+
+	/**
+	 * Choose what should happen with connections which exceed a limit. A delayed connection waits at most
+	 * 5 seconds.
+	 *
+	 * @param policy The policy. By default {@link AdmissionPolicy#REJECT}.
+	 */
+	public void setAdmissionPolicy(AdmissionPolicy policy){
+		setAdmissionPolicy(policy, 5, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Choose what should happen with connections which exceed a limit.
+	 *
+	 * @param policy The policy. By default {@link AdmissionPolicy#REJECT}.
+	 * @param maxDelay How long a connection will be delayed at most ({@link AdmissionPolicy#DELAY}).
+	 * @param unit The unit of the delay.
+	 */
+	public void setAdmissionPolicy(AdmissionPolicy policy, long maxDelay, TimeUnit unit){
+		admission.setPolicy(policy, maxDelay, unit);
+	}
+
+	public AdmissionPolicy getAdmissionPolicy(){
+		return admission.getPolicy();
+	}
+
+	/**
+	 * Set the heartbeat and the idle timeout for the connections of this server (see
+	 * {@link Connector#startHeartbeat(HashedWheelTimer, long, long, TimeUnit)}). They are applied to the connections
+	 * which are accepted afterwards. The {@link AESServer} starts them for his connectors. Other child classes can
+	 * start them with {@link #startHeartbeat(Connector)}.
+	 *
+	 * @param heartbeatInterval The heartbeat interval or 0 for no heartbeat.
+	 * @param idleTimeout After which time without received frames a connection is considered as dead or 0 for never.
+	 * @param unit The unit of the interval and the timeout.
+	 */
+	public void setHeartbeat(long heartbeatInterval, long idleTimeout, TimeUnit unit){
+		if(heartbeatInterval < 0 || idleTimeout < 0){
+			throw new IllegalArgumentException("The heartbeat interval and the idle timeout must not be negative!");
+		}
+
+		this.heartbeatNanos = unit.toNanos(heartbeatInterval);
+		this.idleTimeoutNanos = unit.toNanos(idleTimeout);
+	}
+
+	/**
+	 * Start the heartbeat and the idle timeout of this server (see {@link #setHeartbeat(long, long, TimeUnit)})
+	 * for the given connector.
+	 *
+	 * @param connector The connector of a new connection.
+	 */
+	protected void startHeartbeat(Connector connector){
+		final long heartbeatNanos = this.heartbeatNanos;
+		final long idleTimeoutNanos = this.idleTimeoutNanos;
+		if(heartbeatNanos > 0 || idleTimeoutNanos > 0){
+			connector.startHeartbeat(getTimer(), heartbeatNanos, idleTimeoutNanos, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Limit the size of the frames which can be received by the connections of this server (see
+	 * {@link Connector#setMaxFrameSize(int)}). In selector mode the limit is applied before the event loop reads
+	 * the first frame, so a hostile header never causes a big allocation. The {@link AESServer} applies it to his
+	 * connectors. Other child classes should apply it by {@link Connector#setMaxFrameSize(int)} as soon as they
+	 * create a connector.
+	 *
+	 * @param maxFrameSize The maximal size of a frame in bytes (default {@link FrameTransport#DEFAULT_MAX_FRAME_SIZE}).
+	 */
+	public void setMaxFrameSize(int maxFrameSize){
+		if(maxFrameSize <= 0){
+			throw new IllegalArgumentException("The maximal frame size must be positive!");
+		}
+
+		this.maxFrameSize = Math.min(maxFrameSize, FrameTransport.MAX_FRAME_SIZE);
+	}
+
+	public int getMaxFrameSize(){
+		return maxFrameSize;
+	}
+
+	/**
+	 * Get the timer which is shared by all connections of this server. It will be created by the first call
+	 * and stopped by {@link #shutdown()}.
+	 *
+	 * @return The timer.
+	 */
+	public synchronized HashedWheelTimer getTimer(){
+		if(timer == null){
+			timer = new HashedWheelTimer("AbstractServer-Timer");
+		}
+
+		return timer;
+	}
+
+	/**
+	 * Get the number of live connections (see {@link #setMaxConnections(int)}).
+	 *
+	 * @return The number of admitted connections which are not released yet.
+	 */
+	public int getLiveConnections(){
+		return admission.getLive();
+	}
+
+	/**
+	 * Get the number of pending handshakes (see {@link #setMaxPendingHandshakes(int)}).
+	 *
+	 * @return The number of admitted connections which are not handled yet.
+	 */
+	public int getPendingHandshakes(){
+		return admission.getPending();
+	}
+
+	/**
+	 * Set the {@link Executor} which should call {@link #handleNewSocket(Socket)} for each incoming
+	 * connection. If the executor rejects a connection, the connection will be closed immediately.
+	 * The lifecycle of the executor is not managed by this server. In selector mode the executor must not
+	 * run the handling on the calling thread (an event loop, see {@link Server}).
+	 *
+	 * @param executor The executor or <b>null</b> for the default: in the default mode the accepting thread
+	 * handles the connections, in selector mode the own executor of the server.
+	 */
+	public void setConnectionExecutor(Executor executor){
+		this.connectionExecutor = executor == null ? defaultExecutor : executor;
+	}
+
+	/**
+	 * Get the {@link Executor} which handles the incoming connections.
+	 *
+	 * @return The executor or <b>null</b> if the accepting thread handles the connections.
+	 */
+	public Executor getConnectionExecutor(){
+		return connectionExecutor;
+	}
+
+	/**
+	 * Enable the metrics of this server. From now on the accepted and rejected connections are counted. The child classes
+	 * should measure their connectors with {@link ServerMetrics#newConnectorMetrics()}.
+	 *
+	 * @return The metrics of this server.
+	 */
+	public synchronized ServerMetrics enableMetrics(){
+		if(metrics == null){
+			metrics = new ServerMetrics();
+		}
+
+		return metrics;
+	}
+
+	/**
+	 * Get the metrics of this server (see {@link #enableMetrics()}).
+	 *
+	 * @return The metrics or <b>null</b> if the metrics are not enabled.
+	 */
+	public ServerMetrics getMetrics(){
+		return metrics;
+	}
+
 	/**
 	 * Starts the server and begins to listen for incoming connections.
 	 */
@@ -49,7 +548,18 @@ public abstract class Server {
 		}
 
 		threadStatus = true;
-		acceptThread.start();
+		if(isSelectorMode()){
+			try {
+				serverChannel.configureBlocking(false);
+			} catch (IOException e) {
+				throw new IllegalStateException("Could not configure the server channel!", e);
+			}
+			eventLoops.start();
+			acceptEventLoop = eventLoops.next();
+			acceptEventLoop.register(serverChannel, SelectionKey.OP_ACCEPT, acceptHandler);
+		}else{
+			acceptThread.start();
+		}
 	}
 
 	/**
@@ -58,9 +568,21 @@ public abstract class Server {
 	 * @return True if the server is running. Otherwise false.
 	 */
 	public boolean isStarted(){
+		if(isSelectorMode()){
+			return eventLoops.isAlive();
+		}
 		return acceptThread.isAlive();
 	}
 
+	/**
+	 * Checks if this server works with event loops and non-blocking channels.
+	 *
+	 * @return True if the server is in selector mode. Otherwise false.
+	 */
+	public boolean isSelectorMode(){
+		return eventLoops != null;
+	}
+
 	/**
 	 * Checks if the server is shutting down.
 	 *
@@ -73,7 +595,8 @@ public abstract class Server {
 	/**
 	 * Shutdown this server. That causes that the server connection is closed!
 	 * After this point all connection-tries to this server will fail. This is a blocking
-	 * method. That means that the methods blocks until the server is stopped.
+	 * method. That means that the methods blocks until the server is stopped. In selector
+	 * mode all connections which are served by the event loops will be closed too.
 	 */
 	public void shutdown(){
 		if(!isStarted()){
@@ -85,6 +608,19 @@ public abstract class Server {
 			serverSocket.close();
 		} catch (IOException e) { }
 
+		synchronized (this) {
+			if(timer != null){
+				timer.stop();
+				timer = null;
+			}
+		}
+
+		if(isSelectorMode()){
+			eventLoops.shutdown(2500);
+			defaultExecutor.shutdown();
+			return;
+		}
+
 		try {
 			acceptThread.join(2500);
 		} catch (InterruptedException e) { }
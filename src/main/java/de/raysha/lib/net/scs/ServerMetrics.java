@@ -0,0 +1,190 @@
+package de.raysha.lib.net.scs;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * The metrics of a {@link Server} (see {@link Server#enableMetrics()}). They count the accepted, the rejected
+ * (see {@link AdmissionPolicy}) and the live connections and sum up the metrics of all connectors of the server
+ * (see {@link #getConnectorMetrics()}).
+ *
+ * @author rainu
+ */
+public class ServerMetrics implements ServerMetricsMBean {
+	private final ConnectorMetrics connectors = new ConnectorMetrics();
+	private final AtomicLong accepted = new AtomicLong();
+	private final AtomicInteger live = new AtomicInteger();
+	private final AtomicLong[] rejected = new AtomicLong[AdmissionControl.Limit.values().length];
+	private final AtomicLong delayed = new AtomicLong();
+	private final AtomicLong acceptErrors = new AtomicLong();
+
+	//the accepts per second
+	private final Object rateMonitor = new Object();
+	private long currentSecond = 0;
+	private long currentAccepts = 0;
+	private long lastAccepts = 0;
+
+	private volatile ObjectName objectName;
+	private volatile ObjectName connectorsName;
+
+	public ServerMetrics() {
+		for(int i=0; i < rejected.length; i++){
+			rejected[i] = new AtomicLong();
+		}
+	}
+
+	/**
+	 * Create the metrics for a new connector of the server. The connector is live until he is disconnected.
+	 *
+	 * @return The metrics which are summed up by this server.
+	 */
+	public ConnectorMetrics newConnectorMetrics() {
+		live.incrementAndGet();
+
+		return new ConnectorMetrics(connectors, this);
+	}
+
+	void accepted() {
+		accepted.incrementAndGet();
+
+		final long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+		synchronized (rateMonitor) {
+			roll(second);
+			currentAccepts++;
+		}
+	}
+
+	private void roll(long second) {
+		if(second != currentSecond){
+			lastAccepts = second == currentSecond + 1 ? currentAccepts : 0;
+			currentAccepts = 0;
+			currentSecond = second;
+		}
+	}
+
+	void disconnected() {
+		live.decrementAndGet();
+	}
+
+	void rejected(AdmissionControl.Limit limit) {
+		rejected[limit.ordinal()].incrementAndGet();
+	}
+
+	void delayed() {
+		delayed.incrementAndGet();
+	}
+
+	void acceptFailed() {
+		acceptErrors.incrementAndGet();
+	}
+
+	/**
+	 * Get the sum of the metrics of all connectors of this server.
+	 *
+	 * @return The summed up metrics.
+	 */
+	public ConnectorMetrics getConnectorMetrics() {
+		return connectors;
+	}
+
+	/**
+	 * Add a listener which will be informed about each measurement of all connectors of this server.
+	 *
+	 * @param listener The listener.
+	 */
+	public void addListener(MetricsListener listener) {
+		connectors.addListener(listener);
+	}
+
+	public void removeListener(MetricsListener listener) {
+		connectors.removeListener(listener);
+	}
+
+	@Override
+	public long getAcceptedConnections() {
+		return accepted.get();
+	}
+
+	@Override
+	public int getLiveConnections() {
+		return live.get();
+	}
+
+	@Override
+	public long getRejectedConnections() {
+		long sum = 0;
+		for(AtomicLong count : rejected){
+			sum += count.get();
+		}
+
+		return sum;
+	}
+
+	@Override
+	public long getRejectedByConnectionLimit() {
+		return rejected[AdmissionControl.Limit.CONNECTIONS.ordinal()].get();
+	}
+
+	@Override
+	public long getRejectedByPendingHandshakes() {
+		return rejected[AdmissionControl.Limit.PENDING_HANDSHAKES.ordinal()].get();
+	}
+
+	@Override
+	public long getRejectedByAcceptRate() {
+		return rejected[AdmissionControl.Limit.ACCEPT_RATE.ordinal()].get();
+	}
+
+	@Override
+	public long getDelayedConnections() {
+		return delayed.get();
+	}
+
+	@Override
+	public long getAcceptErrors() {
+		return acceptErrors.get();
+	}
+
+	@Override
+	public long getAcceptRate() {
+		final long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+		synchronized (rateMonitor) {
+			roll(second);
+			return lastAccepts;
+		}
+	}
+
+	/**
+	 * Publish these metrics as MBean of the platform MBean server. The summed up metrics of the connectors
+	 * are published as an other MBean with the same name.
+	 *
+	 * @param name The name of the MBean (for example the port of the server).
+	 * @return The name under which the MBean is registered.
+	 * @throws JMException If the MBeans could not be registered.
+	 */
+	public ObjectName registerMBean(String name) throws JMException {
+		objectName = ConnectorMetrics.registerMBean(this, "Server", name);
+		try {
+			connectorsName = ConnectorMetrics.registerMBean(connectors, "ServerConnectors", name);
+		} catch (JMException e) {
+			unregisterMBean();
+			throw e;
+		}
+
+		return objectName;
+	}
+
+	/**
+	 * Remove the MBeans of these metrics (see {@link #registerMBean(String)}).
+	 */
+	public void unregisterMBean() {
+		ConnectorMetrics.unregisterMBean(objectName);
+		ConnectorMetrics.unregisterMBean(connectorsName);
+		objectName = null;
+		connectorsName = null;
+	}
+}
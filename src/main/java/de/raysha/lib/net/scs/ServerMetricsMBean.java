@@ -0,0 +1,42 @@
+package de.raysha.lib.net.scs;
+
+/**
+ * The JMX view of the {@link ServerMetrics}.
+ *
+ * @author rainu
+ */
+public interface ServerMetricsMBean {
+
+	public long getAcceptedConnections();
+
+	public int getLiveConnections();
+
+	/**
+	 * @return The number of connections which were closed by the admission control of the server.
+	 */
+	public long getRejectedConnections();
+
+	public long getRejectedByConnectionLimit();
+
+	/**
+	 * @return The rejected connections because of too many pending handshakes or a rejecting connection executor.
+	 */
+	public long getRejectedByPendingHandshakes();
+
+	public long getRejectedByAcceptRate();
+
+	/**
+	 * @return The number of connections which were delayed (and maybe rejected later) by the admission control.
+	 */
+	public long getDelayedConnections();
+
+	/**
+	 * @return The number of failed accepts (for example because there are too many open files).
+	 */
+	public long getAcceptErrors();
+
+	/**
+	 * @return The number of accepted connections in the last full second.
+	 */
+	public long getAcceptRate();
+}
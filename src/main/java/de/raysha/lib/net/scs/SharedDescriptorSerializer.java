@@ -0,0 +1,120 @@
+package de.raysha.lib.net.scs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import de.raysha.lib.net.scs.exception.SerializeException;
+import de.raysha.lib.net.scs.model.Message;
+import de.raysha.lib.net.scs.model.serialize.AbstractBufferMessageSerializer;
+import de.raysha.lib.net.scs.model.serialize.ObjectSerializer;
+
+/**
+ * The connector uses this serializer instead of an {@link ObjectSerializer}. If the class descriptors are shared with
+ * my partner (see {@link Connector#enableClassDescriptorSharing()}), the messages are written in the shared form
+ * (see {@link ClassDescriptors}). Otherwise the {@link ObjectSerializer} is used. Both forms can be read.
+ *
+ * @author rainu
+ *
+ * @param <M>
+ */
+class SharedDescriptorSerializer<M extends Message> extends AbstractBufferMessageSerializer<M> {
+	private final ObjectSerializer<M> delegate;
+	private final ClassDescriptors descriptors;
+
+	public SharedDescriptorSerializer(ObjectSerializer<M> delegate, ClassDescriptors descriptors) {
+		this.delegate = delegate;
+		this.descriptors = descriptors;
+	}
+
+	@Override
+	public void serialize(M message, ByteBuffer target) throws BufferOverflowException {
+		final OutputStream out = new BufferOutputStream(target);
+		try {
+			if(!descriptors.isEnabled()){
+				delegate.serialize(message, out);
+				return;
+			}
+
+			final ObjectOutputStream oos = descriptors.newOutputStream(out);
+			oos.writeObject(message);
+			oos.flush();
+		} catch (IOException e) {
+			throw new SerializeException("Could not serialize message!", e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public M deserialize(ByteBuffer source) {
+		if(!source.hasRemaining()){
+			throw new SerializeException("Could not deserialize message! The raw message is empty.");
+		}
+
+		final InputStream in = new BufferInputStream(source);
+		try {
+			if(source.get(source.position()) == ClassDescriptors.STREAM_MAGIC_BYTE){
+				return delegate.deserialize(in);
+			}
+
+			final ObjectInputStream ois = descriptors.newInputStream(in);
+			return (M) ois.readObject();
+		} catch (IOException e) {
+			throw new SerializeException("Could not deserialize message!", e);
+		} catch (ClassNotFoundException e) {
+			throw new SerializeException("Could not deserialize message!", e);
+		}
+	}
+
+	private static class BufferOutputStream extends OutputStream {
+		private final ByteBuffer target;
+
+		public BufferOutputStream(ByteBuffer target) {
+			this.target = target;
+		}
+
+		@Override
+		public void write(int b) {
+			target.put((byte) b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			target.put(b, off, len);
+		}
+	}
+
+	private static class BufferInputStream extends InputStream {
+		private final ByteBuffer source;
+
+		public BufferInputStream(ByteBuffer source) {
+			this.source = source;
+		}
+
+		@Override
+		public int read() {
+			return source.hasRemaining() ? source.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if(!source.hasRemaining()){
+				return len == 0 ? 0 : -1;
+			}
+
+			final int count = Math.min(len, source.remaining());
+			source.get(b, off, count);
+
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return source.remaining();
+		}
+	}
+}
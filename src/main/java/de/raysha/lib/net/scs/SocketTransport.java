@@ -0,0 +1,226 @@
+package de.raysha.lib.net.scs;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import de.raysha.lib.net.scs.utils.BufferPool;
+
+/**
+ * This {@link FrameTransport} works on the (blocking) streams of a {@link Socket}. The received
+ * frames will be read directly into buffers of the {@link BufferPool}. A outgoing frame will be
+ * assembled in a pooled buffer and written by one single write. Because of that small messages
+ * are not split into several TCP-segments anymore and Nagle's algorithm is disabled.
+ *
+ * @author rainu
+ */
+class SocketTransport implements FrameTransport {
+	private final Socket socket;
+	private final BufferPool bufferPool;
+	private final byte[] header = new byte[4];
+	private final ByteBuffer writeHeader = ByteBuffer.allocate(4);
+	private volatile int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+	private volatile FrameInspector inspector;
+
+	public SocketTransport(Socket socket, BufferPool bufferPool) {
+		this.socket = socket;
+		this.bufferPool = bufferPool;
+
+		try {
+			socket.setTcpNoDelay(true);
+		} catch (SocketException e) { }
+	}
+
+	@Override
+	public void writeFrame(int flags, ByteBuffer... parts) throws IOException {
+		int length = 0;
+		for(ByteBuffer part : parts){
+			length += part.remaining();
+		}
+		if(length > MAX_FRAME_SIZE){
+			throw new IOException("The frame is too big: " + length);
+		}
+
+		final OutputStream out = socket.getOutputStream();
+
+		if(4 + length > bufferPool.getMaxSize()){
+			//too big for copying it into one buffer
+			writeHeader.clear();
+			writeHeader.putInt(length | flags);
+			out.write(writeHeader.array(), 0, 4);
+			for(ByteBuffer part : parts){
+				write(out, part);
+			}
+		}else{
+			final ByteBuffer frame = bufferPool.acquire(4 + length);
+			try {
+				frame.putInt(length | flags);
+				for(ByteBuffer part : parts){
+					frame.put(part.duplicate());
+				}
+				frame.flip();
+
+				write(out, frame);
+			} finally {
+				bufferPool.release(frame);
+			}
+		}
+		out.flush();
+	}
+
+	private static void write(OutputStream out, ByteBuffer buffer) throws IOException {
+		if(buffer.hasArray()){
+			out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+		}else{
+			byte[] content = new byte[buffer.remaining()];
+			buffer.duplicate().get(content);
+			out.write(content);
+		}
+	}
+
+	@Override
+	public ByteBuffer readFrame() throws IOException {
+		ByteBuffer frame;
+		do {
+			frame = readFrame(socket.getInputStream(), 0);
+		} while(isConsumed(frame));
+
+		return frame;
+	}
+
+	@Override
+	public ByteBuffer readFrame(long timeout, TimeUnit unit) throws IOException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+		ByteBuffer frame = readFrameUntil(deadline);
+		while(frame != null && isConsumed(frame)){
+			final long remaining = deadline - System.nanoTime();
+			frame = remaining > 0 ? readFrameUntil(deadline) : null;
+		}
+
+		return frame;
+	}
+
+	/**
+	 * The inspector sees each frame which is read. A consumed frame is released at once.
+	 */
+	private boolean isConsumed(ByteBuffer frame) {
+		final FrameInspector inspector = this.inspector;
+		if(inspector == null || !inspector.inspect(frame)){
+			return false;
+		}
+
+		bufferPool.release(frame);
+		return true;
+	}
+
+	private ByteBuffer readFrameUntil(long deadline) throws IOException {
+		final InputStream in = socket.getInputStream();
+		final int read;
+
+		//the timeout of the user is restored afterwards
+		final int soTimeout = socket.getSoTimeout();
+		final long timeout = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+		socket.setSoTimeout((int) Math.max(1, Math.min(Integer.MAX_VALUE, timeout)));
+		try {
+			read = in.read(header);
+		} catch (SocketTimeoutException e) {
+			return null;	//nothing is read yet: the transport is still usable
+		} finally {
+			socket.setSoTimeout(soTimeout);
+		}
+
+		if(read < 0){
+			throw new IOException("The protocol was not followed. No length is given!");
+		}
+		return readFrame(in, read);
+	}
+
+	/**
+	 * @param headerRead So many bytes of the header are already read.
+	 */
+	private ByteBuffer readFrame(InputStream in, int headerRead) throws IOException {
+		receiveHeader(in, headerRead);
+
+		final int length = (((header[0] & 0xFF) << 24) | ((header[1] & 0xFF) << 16) | ((header[2] & 0xFF) << 8) | (header[3] & 0xFF)) & LENGTH_MASK;
+		if(length > maxFrameSize){
+			throw new IOException("The protocol was not followed. Invalid length: " + length);
+		}
+
+		final ByteBuffer frame = bufferPool.acquire(4 + length);
+		try {
+			frame.put(header);
+			readFully(in, frame.array(), frame.arrayOffset() + 4, length);
+		} catch (IOException e) {
+			bufferPool.release(frame);
+			throw e;
+		}
+
+		return frame;
+	}
+
+	private void receiveHeader(InputStream in, int read) throws IOException {
+		if(read == 0){
+			read = in.read(header);
+		}
+		if(read < 0){
+			throw new IOException("The protocol was not followed. No length is given!");
+		}
+		readFully(in, header, read, header.length - read);
+	}
+
+	private static void readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+		int totalRead = 0;
+
+		while(length > totalRead){
+			int read = in.read(buffer, offset + totalRead, length - totalRead);
+			if(read < 0) {
+				throw new EOFException("The connection was closed while receiving a message!");
+			}
+
+			totalRead += read;
+		}
+	}
+
+	@Override
+	public boolean hasReceivedFrames() {
+		try {
+			return socket.getInputStream().available() > 0;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public boolean setReceiveListener(Runnable listener) {
+		return false;	//the frames are only received while somebody reads
+	}
+
+	@Override
+	public void setFrameInspector(FrameInspector inspector) {
+		this.inspector = inspector;
+	}
+
+	@Override
+	public void setMaxFrameSize(int maxFrameSize) {
+		this.maxFrameSize = Math.min(maxFrameSize, MAX_FRAME_SIZE);
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			socket.close();
+		} finally {
+			final FrameInspector inspector = this.inspector;
+			if(inspector != null){
+				inspector.closed();
+			}
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package de.raysha.lib.net.scs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+
+import de.raysha.lib.net.scs.exception.NoSerializerFoundException;
+import de.raysha.lib.net.scs.model.Message;
+import de.raysha.lib.net.scs.model.serialize.MessageSerializer;
+
+/**
+ * The topics of an {@link AESServer} and their subscribed connectors (see {@link AESServer#publish(String, Message)}).
+ * A published message is serialized only once by each serializer instance, the subscribers which share a serializer
+ * share the serialized bytes too. The CBC subscribers encrypt it only once too and send the same
+ * encrypted bytes. The GCM subscribers must encrypt it by themselves, because their nonces are bound to their
+ * connections. The messages are queued into the send queue of each subscriber, so a slow subscriber does not hold
+ * up the others. A subscriber whose send queue is above his high watermark is skipped (see {@link Connector#sendRawAsync(Class, ByteBuffer)}).
+ *
+ * @author rainu
+ */
+class Topics {
+	private final ConcurrentMap<String, Set<AbstractAESConnector>> topics = new ConcurrentHashMap<String, Set<AbstractAESConnector>>();
+
+	public boolean subscribe(String topic, AbstractAESConnector connector) {
+		Set<AbstractAESConnector> subscribers = topics.get(topic);
+		if(subscribers == null){
+			final Set<AbstractAESConnector> created = Collections.newSetFromMap(new ConcurrentHashMap<AbstractAESConnector, Boolean>());
+			subscribers = topics.putIfAbsent(topic, created);
+			if(subscribers == null){
+				subscribers = created;
+			}
+		}
+
+		return subscribers.add(connector);
+	}
+
+	public boolean unsubscribe(String topic, AbstractAESConnector connector) {
+		final Set<AbstractAESConnector> subscribers = topics.get(topic);
+
+		return subscribers != null && subscribers.remove(connector);
+	}
+
+	public void unsubscribeAll(AbstractAESConnector connector) {
+		for(Set<AbstractAESConnector> subscribers : topics.values()){
+			subscribers.remove(connector);
+		}
+	}
+
+	public int getSubscriberCount(String topic) {
+		final Set<AbstractAESConnector> subscribers = topics.get(topic);
+
+		return subscribers == null ? 0 : subscribers.size();
+	}
+
+	/**
+	 * Queue the given message for all subscribers of the given topic.
+	 *
+	 * @return The number of subscribers for which the message is queued.
+	 * @throws NoSerializerFoundException if no subscriber has a serialiser for this type of message.
+	 */
+	public int publish(String topic, Message message) {
+		final Set<AbstractAESConnector> subscribers = topics.get(topic);
+		if(subscribers == null){
+			return 0;
+		}
+
+		//the subscribers may have different serializers for the same type of message
+		final Map<MessageSerializer<?>, byte[]> serialized = new IdentityHashMap<MessageSerializer<?>, byte[]>(2);
+		final Map<MessageSerializer<?>, ByteBuffer> shared = new IdentityHashMap<MessageSerializer<?>, ByteBuffer>(2);
+		NoSerializerFoundException unknown = null;
+		int queued = 0;
+		for(AbstractAESConnector subscriber : subscribers){
+			try {
+				final MessageSerializer<?> serializer = subscriber.getSerializerFor(message.getClass());
+				if(serializer == null){
+					throw new NoSerializerFoundException(message.getClass());
+				}
+				byte[] rawMessage = serialized.get(serializer);
+				if(rawMessage == null){
+					rawMessage = subscriber.serializeShared(serializer, message);
+					serialized.put(serializer, rawMessage);
+				}
+
+				ByteBuffer encoded = shared.get(serializer);
+				if(encoded == null || !subscriber.isSharedEncoding()){
+					encoded = ByteBuffer.wrap(subscriber.encodeShared(message.getClass(), rawMessage));
+					if(subscriber.isSharedEncoding()){
+						shared.put(serializer, encoded);
+					}
+				}
+
+				subscriber.sendRawAsync(message.getClass(), encoded);
+				queued++;
+			} catch (RejectedExecutionException e) {
+				//the subscriber is too slow: he misses this message
+			} catch (NoSerializerFoundException e) {
+				//the subscriber does not know this type of message
+				unknown = e;
+			} catch (IOException e) {
+				//the subscriber is disconnected
+				unsubscribeAll(subscriber);
+			}
+		}
+
+		if(serialized.isEmpty() && unknown != null){
+			throw unknown;
+		}
+
+		return queued;
+	}
+}
@@ -0,0 +1,37 @@
+package de.raysha.lib.net.scs.model.serialize;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import de.raysha.lib.net.scs.model.Message;
+
+/**
+ * A base class for {@link BufferMessageSerializer}s. It implements the array methods of
+ * {@link MessageSerializer} by the buffer methods.
+ *
+ * @author rainu
+ *
+ * @param <M>
+ */
+public abstract class AbstractBufferMessageSerializer <M extends Message> implements BufferMessageSerializer<M> {
+	private static final int INITIAL_SIZE = 256;
+
+	@Override
+	public byte[] serialize(M message) {
+		ByteBuffer buffer = ByteBuffer.allocate(INITIAL_SIZE);
+		while(true){
+			try {
+				serialize(message, buffer);
+				return Arrays.copyOf(buffer.array(), buffer.position());
+			} catch (BufferOverflowException e) {
+				buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+			}
+		}
+	}
+
+	@Override
+	public M deserialize(byte[] rawMessage) {
+		return deserialize(ByteBuffer.wrap(rawMessage).asReadOnlyBuffer());
+	}
+}
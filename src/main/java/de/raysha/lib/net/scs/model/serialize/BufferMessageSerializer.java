@@ -0,0 +1,39 @@
+package de.raysha.lib.net.scs.model.serialize;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import de.raysha.lib.net.scs.model.Message;
+
+/**
+ * A {@link MessageSerializer} which can de-/serialize a {@link Message} directly from/into a {@link ByteBuffer}.
+ * The connectors use this variant for avoiding intermediate arrays: the message will be serialized into a pooled
+ * buffer which goes directly into the cipher. Each other {@link MessageSerializer} will be used through a
+ * {@link BufferSerializerAdapter}. The {@link AbstractBufferMessageSerializer} implements the array methods.
+ *
+ * @author rainu
+ *
+ * @param <M>
+ */
+public interface BufferMessageSerializer <M extends Message> extends MessageSerializer<M> {
+
+	/**
+	 * Serialize the given message into the given buffer, beginning at his position. If the message
+	 * does not fit into the remaining space of the buffer, a {@link BufferOverflowException} must be thrown.
+	 * Then the caller will retry it with a bigger buffer.
+	 *
+	 * @param message The message
+	 * @param target The buffer (heap or direct) in which the serialized message should be written.
+	 * @throws BufferOverflowException If the buffer is too small.
+	 */
+	public void serialize(M message, ByteBuffer target) throws BufferOverflowException;
+
+	/**
+	 * Deserialize the given raw message to a instance of my type of message.
+	 *
+	 * @param source A read-only buffer which contains (only) the raw message. It is only valid while this
+	 * method is running.
+	 * @return The deserialized {@link Message} instance.
+	 */
+	public M deserialize(ByteBuffer source);
+}
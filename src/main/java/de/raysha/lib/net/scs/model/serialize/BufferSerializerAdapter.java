@@ -0,0 +1,63 @@
+package de.raysha.lib.net.scs.model.serialize;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import de.raysha.lib.net.scs.model.Message;
+
+/**
+ * Makes a {@link BufferMessageSerializer} from an usual {@link MessageSerializer}. The serialized message
+ * will be copied into/out of the buffer.
+ *
+ * @author rainu
+ *
+ * @param <M>
+ */
+public class BufferSerializerAdapter <M extends Message> implements BufferMessageSerializer<M> {
+	private final MessageSerializer<M> delegate;
+
+	public BufferSerializerAdapter(MessageSerializer<M> delegate) {
+		this.delegate = delegate;
+	}
+
+	/**
+	 * Get a {@link BufferMessageSerializer} for the given serializer.
+	 *
+	 * @param serializer The serializer.
+	 * @return The given serializer if it is already a {@link BufferMessageSerializer}. Otherwise an adapter for it.
+	 */
+	public static <M extends Message> BufferMessageSerializer<M> adapt(MessageSerializer<M> serializer) {
+		if(serializer instanceof BufferMessageSerializer){
+			return (BufferMessageSerializer<M>) serializer;
+		}
+
+		return new BufferSerializerAdapter<M>(serializer);
+	}
+
+	public MessageSerializer<M> getDelegate() {
+		return delegate;
+	}
+
+	@Override
+	public void serialize(M message, ByteBuffer target) throws BufferOverflowException {
+		target.put(delegate.serialize(message));
+	}
+
+	@Override
+	public M deserialize(ByteBuffer source) {
+		byte[] rawMessage = new byte[source.remaining()];
+		source.get(rawMessage);
+
+		return delegate.deserialize(rawMessage);
+	}
+
+	@Override
+	public byte[] serialize(M message) {
+		return delegate.serialize(message);
+	}
+
+	@Override
+	public M deserialize(byte[] rawMessage) {
+		return delegate.deserialize(rawMessage);
+	}
+}
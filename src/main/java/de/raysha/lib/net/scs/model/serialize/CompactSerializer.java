@@ -0,0 +1,460 @@
+package de.raysha.lib.net.scs.model.serialize;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import de.raysha.lib.net.scs.exception.SerializeException;
+import de.raysha.lib.net.scs.model.Message;
+import de.raysha.lib.net.scs.utils.VarInt;
+
+/**
+ * This {@link MessageSerializer} writes the fields of a {@link Message} in a fixed compact binary layout.
+ * It is much faster than the {@link ObjectSerializer} and the raw messages are much smaller, because no
+ * class descriptors are written. The layout (schema) of a message class will be built only once: all
+ * non-static and non-transient fields of the class (and his super classes) are ordered by their
+ * declaring class and name. Then the fields are written one after an other:
+ * <ul>
+ * <li>primitives are written unboxed with their fixed length (boolean as one byte)</li>
+ * <li>all other fields begin with one byte which says if the value is <b>null</b> (0) or not (1)</li>
+ * <li>boxed primitives are written like primitives</li>
+ * <li>strings are written as length (varint) followed by the UTF-8 bytes</li>
+ * <li>byte arrays are written as length (varint) followed by the bytes</li>
+ * <li>enums are written as ordinal (varint)</li>
+ * </ul>
+ * The message class needs a constructor without parameters (it can be private). Other field types are
+ * not supported, such messages should use the {@link ObjectSerializer}. There is no versioning: both sides
+ * of a connection must use the same version of the message class!
+ *
+ * @author rainu
+ *
+ * @param <M>
+ */
+public class CompactSerializer <M extends Message> extends AbstractBufferMessageSerializer<M> {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final ConcurrentMap<Class<?>, Schema> schemas = new ConcurrentHashMap<Class<?>, Schema>();
+
+	private final Class<M> messageClass;
+	private final Schema schema;
+
+	/**
+	 * Creates a serializer for the given message class.
+	 *
+	 * @param messageClass The class of the messages.
+	 * @throws IllegalArgumentException If the message class has no constructor without parameters
+	 * or a field with an unsupported type.
+	 */
+	public CompactSerializer(Class<M> messageClass) {
+		this.messageClass = messageClass;
+		this.schema = schemaOf(messageClass);
+	}
+
+	@Override
+	public void serialize(M message, ByteBuffer target) throws BufferOverflowException {
+		try {
+			for(FieldCodec codec : schema.fields){
+				codec.write(message, target);
+			}
+		} catch (IllegalAccessException e) {
+			throw new SerializeException("Could not serialize message!", e);
+		}
+	}
+
+	@Override
+	public M deserialize(ByteBuffer source) {
+		try {
+			final M message = messageClass.cast(schema.constructor.newInstance());
+			for(FieldCodec codec : schema.fields){
+				codec.read(message, source);
+			}
+
+			return message;
+		} catch (BufferUnderflowException e) {
+			throw new SerializeException("Could not deserialize message! The raw message is truncated.", e);
+		} catch (IllegalArgumentException e) {
+			throw new SerializeException("Could not deserialize message! The raw message is corrupt.", e);
+		} catch (Exception e) {
+			throw new SerializeException("Could not deserialize message!", e);
+		}
+	}
+
+	private static Schema schemaOf(Class<?> messageClass) {
+		Schema schema = schemas.get(messageClass);
+		if(schema == null){
+			schema = new Schema(messageClass);
+
+			final Schema existing = schemas.putIfAbsent(messageClass, schema);
+			if(existing != null){
+				schema = existing;
+			}
+		}
+
+		return schema;
+	}
+
+	/**
+	 * The layout of a message class.
+	 */
+	private static class Schema {
+		final Constructor<?> constructor;
+		final FieldCodec[] fields;
+
+		Schema(Class<?> messageClass) {
+			try {
+				constructor = messageClass.getDeclaredConstructor();
+				constructor.setAccessible(true);
+			} catch (NoSuchMethodException e) {
+				throw new IllegalArgumentException("The message class " + messageClass.getName() +
+						" has no constructor without parameters!", e);
+			}
+
+			final List<FieldCodec> codecs = new ArrayList<FieldCodec>();
+			for(Class<?> cls : hierarchyOf(messageClass)){
+				for(Field field : fieldsOf(cls)){
+					field.setAccessible(true);
+					codecs.add(codecFor(field));
+				}
+			}
+
+			fields = codecs.toArray(new FieldCodec[codecs.size()]);
+		}
+
+		/**
+		 * @return The class and all his super classes (without {@link Object}), beginning with the top most class.
+		 */
+		private static List<Class<?>> hierarchyOf(Class<?> messageClass) {
+			final List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+			for(Class<?> cls = messageClass; cls != null && cls != Object.class; cls = cls.getSuperclass()){
+				hierarchy.add(cls);
+			}
+			Collections.reverse(hierarchy);
+
+			return hierarchy;
+		}
+
+		/**
+		 * @return The serializable fields of the given class, ordered by their name. The order
+		 * of {@link Class#getDeclaredFields()} is not defined.
+		 */
+		private static List<Field> fieldsOf(Class<?> cls) {
+			final List<Field> fields = new ArrayList<Field>();
+			for(Field field : cls.getDeclaredFields()){
+				final int modifiers = field.getModifiers();
+				if(Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()){
+					continue;
+				}
+
+				fields.add(field);
+			}
+
+			Collections.sort(fields, new Comparator<Field>() {
+				@Override
+				public int compare(Field f1, Field f2) {
+					return f1.getName().compareTo(f2.getName());
+				}
+			});
+
+			return fields;
+		}
+	}
+
+	private static FieldCodec codecFor(Field field) {
+		final Class<?> type = field.getType();
+
+		if(type == boolean.class) return new BooleanFieldCodec(field);
+		if(type == byte.class) return new ByteFieldCodec(field);
+		if(type == short.class) return new ShortFieldCodec(field);
+		if(type == char.class) return new CharFieldCodec(field);
+		if(type == int.class) return new IntFieldCodec(field);
+		if(type == long.class) return new LongFieldCodec(field);
+		if(type == float.class) return new FloatFieldCodec(field);
+		if(type == double.class) return new DoubleFieldCodec(field);
+
+		final ValueCodec valueCodec = valueCodecFor(type);
+		if(valueCodec == null){
+			throw new IllegalArgumentException("The field " + field.getDeclaringClass().getName() + "." +
+					field.getName() + " has an unsupported type: " + type.getName());
+		}
+
+		return new ObjectFieldCodec(field, valueCodec);
+	}
+
+	/**
+	 * De-/Serializes one field of a message.
+	 */
+	private static abstract class FieldCodec {
+		protected final Field field;
+
+		FieldCodec(Field field) {
+			this.field = field;
+		}
+
+		abstract void write(Object message, ByteBuffer target) throws IllegalAccessException;
+
+		abstract void read(Object message, ByteBuffer source) throws IllegalAccessException;
+	}
+
+	private static class BooleanFieldCodec extends FieldCodec {
+		BooleanFieldCodec(Field field) { super(field); }
+
+		@Override
+		void write(Object message, ByteBuffer target) throws IllegalAccessException {
+			target.put((byte) (field.getBoolean(message) ? 1 : 0));
+		}
+
+		@Override
+		void read(Object message, ByteBuffer source) throws IllegalAccessException {
+			field.setBoolean(message, source.get() != 0);
+		}
+	}
+
+	private static class ByteFieldCodec extends FieldCodec {
+		ByteFieldCodec(Field field) { super(field); }
+
+		@Override
+		void write(Object message, ByteBuffer target) throws IllegalAccessException {
+			target.put(field.getByte(message));
+		}
+
+		@Override
+		void read(Object message, ByteBuffer source) throws IllegalAccessException {
+			field.setByte(message, source.get());
+		}
+	}
+
+	private static class ShortFieldCodec extends FieldCodec {
+		ShortFieldCodec(Field field) { super(field); }
+
+		@Override
+		void write(Object message, ByteBuffer target) throws IllegalAccessException {
+			target.putShort(field.getShort(message));
+		}
+
+		@Override
+		void read(Object message, ByteBuffer source) throws IllegalAccessException {
+			field.setShort(message, source.getShort());
+		}
+	}
+
+	private static class CharFieldCodec extends FieldCodec {
+		CharFieldCodec(Field field) { super(field); }
+
+		@Override
+		void write(Object message, ByteBuffer target) throws IllegalAccessException {
+			target.putChar(field.getChar(message));
+		}
+
+		@Override
+		void read(Object message, ByteBuffer source) throws IllegalAccessException {
+			field.setChar(message, source.getChar());
+		}
+	}
+
+	private static class IntFieldCodec extends FieldCodec {
+		IntFieldCodec(Field field) { super(field); }
+
+		@Override
+		void write(Object message, ByteBuffer target) throws IllegalAccessException {
+			target.putInt(field.getInt(message));
+		}
+
+		@Override
+		void read(Object message, ByteBuffer source) throws IllegalAccessException {
+			field.setInt(message, source.getInt());
+		}
+	}
+
+	private static class LongFieldCodec extends FieldCodec {
+		LongFieldCodec(Field field) { super(field); }
+
+		@Override
+		void write(Object message, ByteBuffer target) throws IllegalAccessException {
+			target.putLong(field.getLong(message));
+		}
+
+		@Override
+		void read(Object message, ByteBuffer source) throws IllegalAccessException {
+			field.setLong(message, source.getLong());
+		}
+	}
+
+	private static class FloatFieldCodec extends FieldCodec {
+		FloatFieldCodec(Field field) { super(field); }
+
+		@Override
+		void write(Object message, ByteBuffer target) throws IllegalAccessException {
+			target.putFloat(field.getFloat(message));
+		}
+
+		@Override
+		void read(Object message, ByteBuffer source) throws IllegalAccessException {
+			field.setFloat(message, source.getFloat());
+		}
+	}
+
+	private static class DoubleFieldCodec extends FieldCodec {
+		DoubleFieldCodec(Field field) { super(field); }
+
+		@Override
+		void write(Object message, ByteBuffer target) throws IllegalAccessException {
+			target.putDouble(field.getDouble(message));
+		}
+
+		@Override
+		void read(Object message, ByteBuffer source) throws IllegalAccessException {
+			field.setDouble(message, source.getDouble());
+		}
+	}
+
+	/**
+	 * A field which can be <b>null</b>. The value itself is de-/serialized by a {@link ValueCodec}.
+	 */
+	private static class ObjectFieldCodec extends FieldCodec {
+		private final ValueCodec valueCodec;
+
+		ObjectFieldCodec(Field field, ValueCodec valueCodec) {
+			super(field);
+			this.valueCodec = valueCodec;
+		}
+
+		@Override
+		void write(Object message, ByteBuffer target) throws IllegalAccessException {
+			final Object value = field.get(message);
+			if(value == null){
+				target.put((byte) 0);
+				return;
+			}
+
+			target.put((byte) 1);
+			valueCodec.write(value, target);
+		}
+
+		@Override
+		void read(Object message, ByteBuffer source) throws IllegalAccessException {
+			final byte present = source.get();
+			if(present == 0){
+				field.set(message, null);
+				return;
+			}
+			if(present != 1){
+				throw new IllegalArgumentException("Invalid null marker: " + present);
+			}
+
+			field.set(message, valueCodec.read(source));
+		}
+	}
+
+	/**
+	 * De-/Serializes a (non-null) value of an object field.
+	 */
+	private static abstract class ValueCodec {
+		abstract void write(Object value, ByteBuffer target);
+
+		abstract Object read(ByteBuffer source);
+	}
+
+	private static final Map<Class<?>, ValueCodec> valueCodecs = new HashMap<Class<?>, ValueCodec>();
+	static {
+		valueCodecs.put(Boolean.class, new ValueCodec() {
+			@Override void write(Object value, ByteBuffer target) { target.put((byte) ((Boolean) value ? 1 : 0)); }
+			@Override Object read(ByteBuffer source) { return source.get() != 0; }
+		});
+		valueCodecs.put(Byte.class, new ValueCodec() {
+			@Override void write(Object value, ByteBuffer target) { target.put((Byte) value); }
+			@Override Object read(ByteBuffer source) { return source.get(); }
+		});
+		valueCodecs.put(Short.class, new ValueCodec() {
+			@Override void write(Object value, ByteBuffer target) { target.putShort((Short) value); }
+			@Override Object read(ByteBuffer source) { return source.getShort(); }
+		});
+		valueCodecs.put(Character.class, new ValueCodec() {
+			@Override void write(Object value, ByteBuffer target) { target.putChar((Character) value); }
+			@Override Object read(ByteBuffer source) { return source.getChar(); }
+		});
+		valueCodecs.put(Integer.class, new ValueCodec() {
+			@Override void write(Object value, ByteBuffer target) { target.putInt((Integer) value); }
+			@Override Object read(ByteBuffer source) { return source.getInt(); }
+		});
+		valueCodecs.put(Long.class, new ValueCodec() {
+			@Override void write(Object value, ByteBuffer target) { target.putLong((Long) value); }
+			@Override Object read(ByteBuffer source) { return source.getLong(); }
+		});
+		valueCodecs.put(Float.class, new ValueCodec() {
+			@Override void write(Object value, ByteBuffer target) { target.putFloat((Float) value); }
+			@Override Object read(ByteBuffer source) { return source.getFloat(); }
+		});
+		valueCodecs.put(Double.class, new ValueCodec() {
+			@Override void write(Object value, ByteBuffer target) { target.putDouble((Double) value); }
+			@Override Object read(ByteBuffer source) { return source.getDouble(); }
+		});
+		valueCodecs.put(String.class, new ValueCodec() {
+			@Override void write(Object value, ByteBuffer target) { writeBytes(((String) value).getBytes(UTF8), target); }
+			@Override Object read(ByteBuffer source) { return new String(readBytes(source), UTF8); }
+		});
+		valueCodecs.put(byte[].class, new ValueCodec() {
+			@Override void write(Object value, ByteBuffer target) { writeBytes((byte[]) value, target); }
+			@Override Object read(ByteBuffer source) { return readBytes(source); }
+		});
+	}
+
+	private static ValueCodec valueCodecFor(Class<?> type) {
+		if(type.isEnum()){
+			return new EnumCodec(type.getEnumConstants());
+		}
+
+		return valueCodecs.get(type);
+	}
+
+	private static class EnumCodec extends ValueCodec {
+		private final Object[] constants;
+
+		EnumCodec(Object[] constants) {
+			this.constants = constants;
+		}
+
+		@Override
+		void write(Object value, ByteBuffer target) {
+			VarInt.write(target, ((Enum<?>) value).ordinal());
+		}
+
+		@Override
+		Object read(ByteBuffer source) {
+			final int ordinal = VarInt.read(source);
+			if(ordinal >= constants.length){
+				throw new IllegalArgumentException("Unknown enum ordinal: " + ordinal);
+			}
+
+			return constants[ordinal];
+		}
+	}
+
+	private static void writeBytes(byte[] bytes, ByteBuffer target) {
+		VarInt.write(target, bytes.length);
+		target.put(bytes);
+	}
+
+	private static byte[] readBytes(ByteBuffer source) {
+		final int length = VarInt.read(source);
+		if(length > source.remaining()){
+			throw new BufferUnderflowException();
+		}
+
+		final byte[] bytes = new byte[length];
+		source.get(bytes);
+
+		return bytes;
+	}
+}
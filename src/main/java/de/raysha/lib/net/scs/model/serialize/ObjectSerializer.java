@@ -3,8 +3,10 @@ package de.raysha.lib.net.scs.model.serialize;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 
 import de.raysha.lib.net.scs.exception.SerializeException;
@@ -12,13 +14,13 @@ import de.raysha.lib.net.scs.model.Message;
 
 /**
  * Normally this {@link MessageSerializer} can be used for every {@link Message} that
- * implements the {@link Serializable} interface.
+ * implements the {@link Serializable} interface. It can also be used for streamed messages.
  *
  * @author rainu
  *
  * @param <M>
  */
-public class ObjectSerializer <M extends Message> implements MessageSerializer<M> {
+public class ObjectSerializer <M extends Message> implements StreamingMessageSerializer<M> {
 
 	@SuppressWarnings("unchecked")
 	@Override
@@ -49,4 +51,21 @@ public class ObjectSerializer <M extends Message> implements MessageSerializer<M
 		return byteStream.toByteArray();
 	}
 
+	@SuppressWarnings("unchecked")
+	@Override
+	public M deserialize(InputStream in) throws IOException {
+		try {
+			return (M) new ObjectInputStream(in).readObject();
+		} catch (ClassNotFoundException e) {
+			throw new SerializeException("Could not deserialize message!", e);
+		}
+	}
+
+	@Override
+	public void serialize(M message, OutputStream out) throws IOException {
+		ObjectOutputStream oos = new ObjectOutputStream(out);
+
+		oos.writeObject(message);
+		oos.flush();
+	}
 }
@@ -0,0 +1,37 @@
+package de.raysha.lib.net.scs.model.serialize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import de.raysha.lib.net.scs.model.Message;
+
+/**
+ * A {@link MessageSerializer} which can also de-/serialize a {@link Message} from/into a stream. It is
+ * needed for sending very large messages in chunks (see {@link de.raysha.lib.net.scs.Connector#sendStreamed(Message)}).
+ * The streamed form of a message must be the same as the array form!
+ *
+ * @author rainu
+ *
+ * @param <M>
+ */
+public interface StreamingMessageSerializer <M extends Message> extends MessageSerializer<M> {
+
+	/**
+	 * Serialize the given message into the given stream.
+	 *
+	 * @param message The message
+	 * @param out The stream in which the serialized raw message should be written. It must not be closed.
+	 * @throws IOException If an error occurs while writing into the stream.
+	 */
+	public void serialize(M message, OutputStream out) throws IOException;
+
+	/**
+	 * Deserialize the raw message of the given stream to a instance of my type of message.
+	 *
+	 * @param in The stream which contains the raw message.
+	 * @return The deserialized {@link Message} instance.
+	 * @throws IOException If an error occurs while reading from the stream.
+	 */
+	public M deserialize(InputStream in) throws IOException;
+}
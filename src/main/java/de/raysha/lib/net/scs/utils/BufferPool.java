@@ -0,0 +1,133 @@
+package de.raysha.lib.net.scs.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread-safe pool of reusable heap {@link ByteBuffer}s. The buffers are divided in size
+ * classes (powers of two). A request will be served by the smallest class which is big enough.
+ * Requests which are bigger than the biggest class will be served by a new (unpooled) buffer.
+ *
+ * @author rainu
+ */
+public class BufferPool {
+	/**
+	 * The pool which is shared by all connectors.
+	 */
+	public static final BufferPool DEFAULT = new BufferPool(64, 1024 * 1024, 32);
+
+	private final int minSize;
+	private final int maxSize;
+	private final int maxBuffersPerClass;
+
+	private final SizeClass[] classes;
+
+	/**
+	 * The free buffers of one size.
+	 */
+	private static class SizeClass {
+		private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+		private final AtomicInteger count = new AtomicInteger();
+	}
+
+	/**
+	 * Creates a new pool.
+	 *
+	 * @param minSize The size of the smallest class. Will be rounded up to a power of two.
+	 * @param maxSize The size of the biggest class. Will be rounded up to a power of two.
+	 * @param maxBuffersPerClass How many free buffers will be kept for each class.
+	 */
+	public BufferPool(int minSize, int maxSize, int maxBuffersPerClass) {
+		this.minSize = roundUp(minSize);
+		this.maxSize = roundUp(maxSize);
+		this.maxBuffersPerClass = maxBuffersPerClass;
+
+		final int count = indexOf(this.maxSize) + 1;
+		this.classes = new SizeClass[count];
+		for(int i=0; i < count; i++){
+			classes[i] = new SizeClass();
+		}
+	}
+
+	private static int roundUp(int size) {
+		final int highest = Integer.highestOneBit(Math.max(size, 1));
+
+		return highest == size ? size : highest << 1;
+	}
+
+	private int indexOf(int capacity) {
+		return Integer.numberOfTrailingZeros(capacity) - Integer.numberOfTrailingZeros(minSize);
+	}
+
+	/**
+	 * Get the size of the biggest class. Bigger buffers will not be pooled.
+	 *
+	 * @return The size in bytes.
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Get a buffer which can hold at least the given number of bytes. The position of the buffer is zero
+	 * and the limit is the given size.
+	 *
+	 * @param size The needed size in bytes.
+	 * @return The buffer. It should be given back by {@link #release(ByteBuffer)} if it is no longer needed.
+	 */
+	public ByteBuffer acquire(int size) {
+		if(size > maxSize){
+			return ByteBuffer.allocate(size);
+		}
+
+		final int capacity = Math.max(roundUp(size), minSize);
+		final SizeClass sizeClass = classes[indexOf(capacity)];
+
+		ByteBuffer buffer = sizeClass.buffers.poll();
+		if(buffer == null){
+			buffer = ByteBuffer.allocate(capacity);
+		}else{
+			sizeClass.count.decrementAndGet();
+		}
+
+		buffer.limit(size);
+		return buffer;
+	}
+
+	/**
+	 * Give back a buffer which was acquired by {@link #acquire(int)}. After that the buffer must
+	 * not be used anymore!
+	 *
+	 * @param buffer The buffer.
+	 */
+	public void release(ByteBuffer buffer) {
+		final int capacity = buffer.capacity();
+		if(capacity > maxSize || capacity < minSize || Integer.bitCount(capacity) != 1){
+			return;	//not from me
+		}
+
+		final SizeClass sizeClass = classes[indexOf(capacity)];
+		if(sizeClass.count.incrementAndGet() > maxBuffersPerClass){
+			sizeClass.count.decrementAndGet();
+			return;
+		}
+
+		buffer.clear();
+		sizeClass.buffers.add(buffer);
+	}
+
+	/**
+	 * Give back all given buffers (see {@link #release(ByteBuffer)}).
+	 *
+	 * @param buffers The buffers. <b>null</b>-values will be skipped.
+	 */
+	public void releaseAll(ByteBuffer... buffers) {
+		for(ByteBuffer buffer : buffers){
+			if(buffer != null){
+				release(buffer);
+			}
+		}
+	}
+}
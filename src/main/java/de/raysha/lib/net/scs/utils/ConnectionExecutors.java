@@ -0,0 +1,81 @@
+package de.raysha.lib.net.scs.utils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This is a utility class for creating {@link ExecutorService}s which can handle the incoming
+ * connections of a server.
+ *
+ * @author rainu
+ */
+public class ConnectionExecutors {
+	public static final int DEFAULT_MAX_THREADS = 256;
+	public static final int DEFAULT_QUEUE_SIZE = 1024;
+
+	private static final long KEEP_ALIVE_SECONDS = 60;
+
+	/**
+	 * Creates an {@link ExecutorService} which starts a new virtual thread for each connection if the
+	 * running JVM supports virtual threads. Otherwise a bounded pool of platform threads will be
+	 * created (see {@link #newBoundedPool(int, int)}).
+	 *
+	 * @return The executor.
+	 */
+	public static ExecutorService newConnectionExecutor() {
+		ExecutorService executor = newVirtualThreadExecutor();
+		if(executor == null){
+			executor = newBoundedPool(DEFAULT_MAX_THREADS, DEFAULT_QUEUE_SIZE);
+		}
+
+		return executor;
+	}
+
+	/**
+	 * Creates an {@link ExecutorService} which starts a new virtual thread for each connection.
+	 *
+	 * @return The executor or <b>null</b> if the running JVM does not support virtual threads.
+	 */
+	public static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor")
+					.invoke(null);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Creates a pool of platform threads. If all threads are busy, the connections will be queued.
+	 * If the queue is full too, the connection will be rejected. Idle threads will be terminated
+	 * after a while.
+	 *
+	 * @param maxThreads The maximum number of threads.
+	 * @param queueSize The maximum number of waiting connections.
+	 * @return The executor.
+	 */
+	public static ExecutorService newBoundedPool(int maxThreads, int queueSize) {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads,
+				KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(queueSize),
+				new HandlerThreadFactory());
+		executor.allowCoreThreadTimeOut(true);
+
+		return executor;
+	}
+
+	private static class HandlerThreadFactory implements ThreadFactory {
+		private final AtomicInteger counter = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			return new Thread(r, "AbstractServer-Connection-Handler-" + counter.incrementAndGet());
+		}
+	}
+}
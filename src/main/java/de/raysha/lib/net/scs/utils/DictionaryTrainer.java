@@ -0,0 +1,90 @@
+package de.raysha.lib.net.scs.utils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * This is a utility class for building preset dictionaries for the compression of messages
+ * (see {@link de.raysha.lib.net.scs.Connector#setCompressionDictionary(Class, byte[])}). The dictionary is
+ * trained with some serialized sample messages of one message class. It consists of the byte sequences which
+ * occur in the most samples. The most common sequences are placed at the end of the dictionary, because
+ * deflate can reference them there with the shortest distances.
+ *
+ * @author rainu
+ */
+public class DictionaryTrainer {
+	/**
+	 * The length of the byte sequences which are counted.
+	 */
+	private static final int SEQUENCE_LENGTH = 8;
+
+	/**
+	 * Build a dictionary from the given samples.
+	 *
+	 * @param samples Some serialized messages of one message class.
+	 * @param maxSize The maximal size of the dictionary in bytes (deflate uses at most 32 KB).
+	 * @return The dictionary.
+	 */
+	public static byte[] train(Collection<byte[]> samples, int maxSize) {
+		final Map<ByteBuffer, Integer> occurrences = countOccurrences(samples);
+
+		List<Entry<ByteBuffer, Integer>> sequences = new ArrayList<Entry<ByteBuffer,Integer>>(occurrences.entrySet());
+		Collections.sort(sequences, new Comparator<Entry<ByteBuffer, Integer>>() {
+			@Override
+			public int compare(Entry<ByteBuffer, Integer> e1, Entry<ByteBuffer, Integer> e2) {
+				return e2.getValue().compareTo(e1.getValue());
+			}
+		});
+
+		//the most common sequences first, they will be placed at the end
+		final List<ByteBuffer> chosen = new ArrayList<ByteBuffer>();
+		int size = 0;
+		for(Entry<ByteBuffer, Integer> sequence : sequences){
+			if(sequence.getValue() < 2 || size + SEQUENCE_LENGTH > maxSize){
+				break;
+			}
+
+			chosen.add(sequence.getKey());
+			size += SEQUENCE_LENGTH;
+		}
+
+		final ByteBuffer dictionary = ByteBuffer.allocate(size);
+		for(int i = chosen.size() - 1; i >= 0; i--){
+			dictionary.put(chosen.get(i).duplicate());
+		}
+
+		return dictionary.array();
+	}
+
+	/**
+	 * Count in how many samples each sequence occurs.
+	 */
+	private static Map<ByteBuffer, Integer> countOccurrences(Collection<byte[]> samples) {
+		final Map<ByteBuffer, Integer> occurrences = new HashMap<ByteBuffer, Integer>();
+
+		for(byte[] sample : samples){
+			final Set<ByteBuffer> seen = new HashSet<ByteBuffer>();
+
+			for(int i=0; i + SEQUENCE_LENGTH <= sample.length; i++){
+				final ByteBuffer sequence = ByteBuffer.wrap(sample, i, SEQUENCE_LENGTH).slice();
+				if(!seen.add(sequence)){
+					continue;
+				}
+
+				final Integer count = occurrences.get(sequence);
+				occurrences.put(sequence, count == null ? 1 : count + 1);
+			}
+		}
+
+		return occurrences;
+	}
+}
@@ -0,0 +1,259 @@
+package de.raysha.lib.net.scs.utils;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A timer for a huge number of timeouts which need no exact timing (for example the idle timeouts of all connections
+ * of a server). The timeouts are hashed into the buckets of a wheel by their deadline. One thread moves over the wheel,
+ * one bucket per tick, and runs the expired tasks of the bucket. So scheduling and cancelling cost O(1) and a tick
+ * costs only the timeouts of his bucket, no matter how many timeouts are pending. A task runs at most one tick too late.
+ * <p>
+ * The tasks are run by the thread of the timer. Therefore they should be short and must not block. Longer work should be
+ * handed over to an other thread.
+ *
+ * @author rainu
+ */
+public class HashedWheelTimer {
+	public static final long DEFAULT_TICK_MILLIS = 100;
+	public static final int DEFAULT_TICKS_PER_WHEEL = 512;
+
+	/**
+	 * A scheduled task (see {@link HashedWheelTimer#schedule(Runnable, long, TimeUnit)}).
+	 */
+	public static final class Timeout {
+		private static final int WAITING = 0;
+		private static final int CANCELLED = 1;
+		private static final int EXPIRED = 2;
+
+		private final Runnable task;
+		//the deadline relative to the start of the timer
+		private final long deadline;
+		private final AtomicInteger state = new AtomicInteger(WAITING);
+
+		//will be accessed by the thread of the timer only
+		private long remainingRounds;
+		private Timeout next;
+
+		private Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Cancel this timeout. The task will not run anymore.
+		 *
+		 * @return False if the task has already run or the timeout was already cancelled. Otherwise true.
+		 */
+		public boolean cancel() {
+			return state.compareAndSet(WAITING, CANCELLED);
+		}
+
+		public boolean isCancelled() {
+			return state.get() == CANCELLED;
+		}
+
+		public boolean isExpired() {
+			return state.get() == EXPIRED;
+		}
+	}
+
+	/**
+	 * A single linked list of timeouts.
+	 */
+	private static class Bucket {
+		private Timeout head;
+
+		public void add(Timeout timeout) {
+			timeout.next = head;
+			head = timeout;
+		}
+
+		/**
+		 * Run all expired tasks and remove them and the cancelled ones. The other timeouts are one round nearer.
+		 */
+		public void expire(long deadline) {
+			Timeout previous = null;
+			Timeout current = head;
+			while(current != null){
+				final Timeout next = current.next;
+
+				boolean remove = true;
+				if(current.state.get() == Timeout.WAITING){
+					if(current.remainingRounds <= 0 && current.deadline <= deadline){
+						if(current.state.compareAndSet(Timeout.WAITING, Timeout.EXPIRED)){
+							run(current.task);
+						}
+					}else{
+						current.remainingRounds--;
+						remove = false;
+					}
+				}
+
+				if(remove){
+					if(previous == null){
+						head = next;
+					}else{
+						previous.next = next;
+					}
+					current.next = null;
+				}else{
+					previous = current;
+				}
+				current = next;
+			}
+		}
+
+		private static void run(Runnable task) {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				//a failed task must not stop the timer
+			}
+		}
+	}
+
+	private final long tickNanos;
+	private final Bucket[] wheel;
+	private final int mask;
+	private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<Timeout>();
+	private final Thread worker;
+	private final long startTime;
+	private volatile boolean running = true;
+
+	//will be accessed by the thread of the timer only
+	private long tick = 0;
+
+	/**
+	 * Creates a timer with a tick of 100 milliseconds and 512 buckets.
+	 *
+	 * @param name The name of the thread of the timer.
+	 */
+	public HashedWheelTimer(String name) {
+		this(name, DEFAULT_TICK_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_TICKS_PER_WHEEL);
+	}
+
+	/**
+	 * Creates a timer. The thread of the timer is started immediately.
+	 *
+	 * @param name The name of the thread of the timer.
+	 * @param tickDuration The duration of a tick. This is the accuracy of the timer.
+	 * @param unit The unit of the tick duration.
+	 * @param ticksPerWheel The number of buckets. It will be rounded up to the next power of two.
+	 */
+	public HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+		if(tickDuration <= 0){
+			throw new IllegalArgumentException("The tick duration must be positive!");
+		}
+		if(ticksPerWheel < 1 || ticksPerWheel > (1 << 30)){
+			throw new IllegalArgumentException("The ticks per wheel must be between 1 and 2^30!");
+		}
+
+		int size = 1;
+		while(size < ticksPerWheel){
+			size <<= 1;
+		}
+
+		this.tickNanos = unit.toNanos(tickDuration);
+		this.wheel = new Bucket[size];
+		for(int i=0; i < size; i++){
+			wheel[i] = new Bucket();
+		}
+		this.mask = size - 1;
+
+		this.startTime = System.nanoTime();
+		this.worker = new Thread(workerLoop, name);
+		this.worker.setDaemon(true);
+		this.worker.start();
+	}
+
+	/**
+	 * Run the given task after the given delay.
+	 *
+	 * @param task The task.
+	 * @param delay The delay.
+	 * @param unit The unit of the delay.
+	 * @return The timeout which can be cancelled.
+	 * @throws IllegalStateException If the timer is stopped.
+	 */
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		if(!running){
+			throw new IllegalStateException("The timer is stopped!");
+		}
+
+		final Timeout timeout = new Timeout(task, System.nanoTime() - startTime + unit.toNanos(Math.max(0, delay)));
+		newTimeouts.add(timeout);
+
+		return timeout;
+	}
+
+	/**
+	 * Stop the timer. The pending tasks will not run anymore.
+	 */
+	public void stop() {
+		running = false;
+		worker.interrupt();
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	private final Runnable workerLoop = new Runnable() {
+		@Override
+		public void run() {
+			while(running){
+				final long deadline = waitForNextTick();
+				if(deadline < 0){
+					break;
+				}
+
+				transferNewTimeouts();
+				wheel[(int) (tick & mask)].expire(deadline);
+				tick++;
+			}
+
+			newTimeouts.clear();
+		}
+	};
+
+	/**
+	 * Sleep until the end of the current tick.
+	 *
+	 * @return The end of the current tick (relative to the start of the timer) or -1 if the timer is stopped.
+	 */
+	private long waitForNextTick() {
+		final long deadline = tickNanos * (tick + 1);
+
+		while(true){
+			final long remaining = deadline - (System.nanoTime() - startTime);
+			if(remaining <= 0){
+				return deadline;
+			}
+
+			try {
+				TimeUnit.NANOSECONDS.sleep(remaining);
+			} catch (InterruptedException e) {
+				if(!running){
+					return -1;
+				}
+			}
+		}
+	}
+
+	private void transferNewTimeouts() {
+		Timeout timeout;
+		while((timeout = newTimeouts.poll()) != null){
+			if(timeout.isCancelled()){
+				continue;
+			}
+
+			//a timeout which is already due is run by the current tick
+			final long ticks = Math.max(timeout.deadline / tickNanos, tick);
+			timeout.remainingRounds = (ticks - tick) / wheel.length;
+			wheel[(int) (ticks & mask)].add(timeout);
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package de.raysha.lib.net.scs.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies in nanoseconds. The values are counted in exponential buckets (powers of two)
+ * and each bucket is divided into {@value #SUB_BUCKETS} linear sub buckets. So a recorded value costs only a few
+ * atomic increments and the percentiles are accurate to 1/{@value #SUB_BUCKETS} of the value. Values above
+ * {@link #MAX_VALUE} (about 18 minutes) are counted as {@link #MAX_VALUE}.
+ * <p>
+ * A histogram needs about 2.5 KB of memory.
+ *
+ * @author rainu
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 3;
+	public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	/**
+	 * The greatest value which can be distinguished.
+	 */
+	public static final long MAX_VALUE = (1L << 40) - 1;
+	private static final int BUCKETS = indexOf(MAX_VALUE) + 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	private static int indexOf(long value) {
+		if(value < SUB_BUCKETS){
+			return (int) value;
+		}
+
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * @return The smallest value which is counted in the bucket of the given index.
+	 */
+	private static long lowestValueOf(int index) {
+		if(index < SUB_BUCKETS){
+			return index;
+		}
+
+		final int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		final long subBucket = index % SUB_BUCKETS;
+
+		return (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+	}
+
+	/**
+	 * Record one latency.
+	 *
+	 * @param nanos The latency in nanoseconds. Negative values are counted as 0.
+	 */
+	public void record(long nanos) {
+		final long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+
+		counts.incrementAndGet(indexOf(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+
+		long currentMax;
+		while(value > (currentMax = max.get())){
+			if(max.compareAndSet(currentMax, value)){
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Add all values of the given histogram to this histogram.
+	 *
+	 * @param other The other histogram.
+	 */
+	public void add(LatencyHistogram other) {
+		for(int i=0; i < BUCKETS; i++){
+			final long otherCount = other.counts.get(i);
+			if(otherCount != 0){
+				counts.addAndGet(i, otherCount);
+			}
+		}
+		count.addAndGet(other.count.get());
+		sum.addAndGet(other.sum.get());
+
+		final long otherMax = other.max.get();
+		long currentMax;
+		while(otherMax > (currentMax = max.get())){
+			if(max.compareAndSet(currentMax, otherMax)){
+				break;
+			}
+		}
+	}
+
+	/**
+	 * @return The number of recorded values.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return The greatest recorded value in nanoseconds.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return The mean of all recorded values in nanoseconds or 0 if nothing is recorded.
+	 */
+	public double getMean() {
+		final long count = this.count.get();
+		return count == 0 ? 0 : (double) sum.get() / count;
+	}
+
+	/**
+	 * Get the value below which the given percentage of all recorded values falls.
+	 *
+	 * @param percentile The percentile (between 0 and 100).
+	 * @return The highest value of the bucket which contains the percentile (in nanoseconds) or 0 if nothing is recorded.
+	 */
+	public long getPercentile(double percentile) {
+		if(percentile < 0 || percentile > 100){
+			throw new IllegalArgumentException("The percentile must be between 0 and 100!");
+		}
+
+		final long count = this.count.get();
+		if(count == 0){
+			return 0;
+		}
+
+		final long rank = Math.max(1, (long) Math.ceil(count * percentile / 100d));
+		long seen = 0;
+		for(int i=0; i < BUCKETS; i++){
+			seen += counts.get(i);
+			if(seen >= rank){
+				return Math.min(lowestValueOf(i + 1) - 1, max.get());
+			}
+		}
+
+		return max.get();
+	}
+
+	/**
+	 * Get the percentile in an other unit (see {@link #getPercentile(double)}).
+	 */
+	public double getPercentile(double percentile, TimeUnit unit) {
+		return (double) getPercentile(percentile) / unit.toNanos(1);
+	}
+
+	/**
+	 * Forget all recorded values. Values which are recorded at the same time may be lost partly.
+	 */
+	public void reset() {
+		for(int i=0; i < BUCKETS; i++){
+			counts.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count=%d, mean=%.0fns, p50=%dns, p99=%dns, max=%dns",
+				getCount(), getMean(), getPercentile(50), getPercentile(99), getMax());
+	}
+}
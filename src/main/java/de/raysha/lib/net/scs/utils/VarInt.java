@@ -0,0 +1,82 @@
+package de.raysha.lib.net.scs.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This is a utility class for encoding non-negative integers as variable-length integers (varints).
+ * Each byte carries seven bits of the value, the highest bit says that more bytes follow. So small
+ * values need only one byte.
+ *
+ * @author rainu
+ */
+public class VarInt {
+
+	/**
+	 * Get the number of bytes which are needed for the given value.
+	 *
+	 * @param value The non-negative value.
+	 * @return The encoded size in bytes (1-5).
+	 */
+	public static int size(int value) {
+		int size = 1;
+		while((value & ~0x7F) != 0){
+			value >>>= 7;
+			size++;
+		}
+
+		return size;
+	}
+
+	/**
+	 * Write the given value into the given buffer.
+	 *
+	 * @param buffer The target buffer.
+	 * @param value The non-negative value.
+	 */
+	public static void write(ByteBuffer buffer, int value) {
+		while((value & ~0x7F) != 0){
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * Encode the given value.
+	 *
+	 * @param value The non-negative value.
+	 * @return The encoded value.
+	 */
+	public static byte[] toBytes(int value) {
+		ByteBuffer buffer = ByteBuffer.allocate(size(value));
+		write(buffer, value);
+
+		return buffer.array();
+	}
+
+	/**
+	 * Read a value from the given buffer.
+	 *
+	 * @param buffer The source buffer.
+	 * @return The decoded value.
+	 * @throws IllegalArgumentException If the buffer contains no valid varint.
+	 */
+	public static int read(ByteBuffer buffer) {
+		int value = 0;
+
+		for(int shift = 0; shift < 32; shift += 7){
+			if(!buffer.hasRemaining()){
+				throw new IllegalArgumentException("The varint is truncated!");
+			}
+
+			final byte b = buffer.get();
+			value |= (b & 0x7F) << shift;
+
+			if((b & 0x80) == 0){
+				return value;
+			}
+		}
+
+		throw new IllegalArgumentException("The varint is too long!");
+	}
+}
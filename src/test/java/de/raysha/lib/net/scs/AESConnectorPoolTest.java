@@ -0,0 +1,184 @@
+package de.raysha.lib.net.scs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.InvalidKeyException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.SecretKey;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.raysha.lib.net.scs.model.SimpleMessage;
+
+public class AESConnectorPoolTest {
+	private static final SecretKey KEY = AESConnector.initialiseKey("password");
+
+	private ServerSocket serverSocket;
+	private AESServer server;
+	private final List<AbstractAESConnector> serverConnectors = new CopyOnWriteArrayList<AbstractAESConnector>();
+	private final AtomicInteger created = new AtomicInteger();
+	private AESConnectorPool pool;
+
+	@Before
+	public void setup() throws Exception {
+		serverSocket = new ServerSocket(0);
+		server = new AESServer(KEY, serverSocket) {
+			@Override
+			protected void handleNewConnetion(final AESConnector connector) {
+				serverConnectors.add(connector);
+				connector.registerSerializer(SimpleMessage.class, new SimpleMessage.Serializer());
+
+				//echo
+				new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							while(true){
+								connector.send(connector.receive());
+							}
+						} catch (IOException e) { }
+					}
+				}).start();
+			}
+		};
+		server.start();
+
+		pool = new AESConnectorPool(new AESConnectorPool.ConnectorFactory() {
+			@Override
+			public AbstractAESConnector create(Socket socket, SecretKey key) throws InvalidKeyException {
+				created.incrementAndGet();
+
+				AESConnector connector = new AESConnector(socket, key);
+				connector.registerSerializer(SimpleMessage.class, new SimpleMessage.Serializer());
+				return connector;
+			}
+		});
+	}
+
+	@After
+	public void clean() {
+		pool.close();
+		server.shutdown();
+	}
+
+	private AbstractAESConnector borrow() throws IOException {
+		return pool.borrow("localhost", serverSocket.getLocalPort(), KEY);
+	}
+
+	@Test
+	public void reuse() throws Exception {
+		AbstractAESConnector connector = borrow();
+		connector.send(new SimpleMessage("Hello"));
+		assertEquals("Hello", ((SimpleMessage)connector.receive()).getMessage());
+		pool.release(connector);
+
+		AbstractAESConnector reused = borrow();
+		assertSame(connector, reused);
+		reused.send(new SimpleMessage("World"));
+		assertEquals("World", ((SimpleMessage)reused.receive()).getMessage());
+
+		assertEquals(1, created.get());
+		assertEquals(1, pool.getBorrowedCount());
+	}
+
+	@Test
+	public void maxTotal() throws Exception {
+		pool.setMaxTotal(2);
+		pool.setBorrowTimeout(100, TimeUnit.MILLISECONDS);
+
+		AbstractAESConnector first = borrow();
+		borrow();
+		try {
+			borrow();
+			fail("All connectors are borrowed!");
+		} catch (IOException e) {
+			//expected
+		}
+
+		pool.release(first);
+		assertSame(first, borrow());
+	}
+
+	@Test
+	public void validation() throws Exception {
+		pool.setValidation(1, 0, TimeUnit.SECONDS);
+
+		AbstractAESConnector connector = borrow();
+		pool.release(connector);
+
+		//the validation pings
+		assertSame(connector, borrow());
+		pool.release(connector);
+
+		//the server closes the connection
+		serverConnectors.get(0).disconnect();
+
+		AbstractAESConnector other = borrow();
+		assertNotSame(connector, other);
+		assertEquals(2, created.get());
+	}
+
+	@Test
+	public void invalidate() throws Exception {
+		AbstractAESConnector connector = borrow();
+		pool.invalidate(connector);
+
+		assertNotSame(connector, borrow());
+		assertEquals(0, pool.getIdleCount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void releaseForeignConnector() throws Exception {
+		pool.release(new AESConnector(new Socket("localhost", serverSocket.getLocalPort()), KEY));
+	}
+
+	@Test
+	public void idleEviction() throws Exception {
+		pool.setIdleTimeout(50, TimeUnit.MILLISECONDS);
+
+		pool.release(borrow());
+		assertEquals(1, pool.getIdleCount());
+
+		Thread.sleep(500);
+		assertEquals(0, pool.getIdleCount());
+	}
+
+	@Test
+	public void minIdle() throws Exception {
+		pool.setIdleTimeout(50, TimeUnit.MILLISECONDS);
+		pool.setMinIdle(2);
+
+		pool.release(borrow());
+
+		Thread.sleep(500);
+		assertEquals(2, pool.getIdleCount());
+	}
+
+	@Test
+	public void leakDetection() throws Exception {
+		final CountDownLatch leaked = new CountDownLatch(1);
+		pool.setLeakDetection(50, TimeUnit.MILLISECONDS, new AESConnectorPool.LeakListener() {
+			@Override
+			public void onLeak(AbstractAESConnector connector, Throwable borrower) {
+				leaked.countDown();
+			}
+		});
+
+		borrow();
+		assertTrue(leaked.await(5, TimeUnit.SECONDS));
+	}
+}
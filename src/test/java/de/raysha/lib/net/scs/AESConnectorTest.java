@@ -1,13 +1,22 @@
 package de.raysha.lib.net.scs;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.StringUtils;
 import org.junit.AfterClass;
@@ -19,7 +28,10 @@ import de.raysha.lib.net.scs.Connector;
 import de.raysha.lib.net.scs.exception.NoSerializerFoundException;
 import de.raysha.lib.net.scs.exception.UnknownMessageException;
 import de.raysha.lib.net.scs.model.Message;
+import de.raysha.lib.net.scs.model.QuoteMessage;
 import de.raysha.lib.net.scs.model.SimpleMessage;
+import de.raysha.lib.net.scs.model.TextMessage;
+import de.raysha.lib.net.scs.utils.DictionaryTrainer;
 
 public class AESConnectorTest {
 	private static String secretKey;
@@ -107,6 +119,18 @@ public class AESConnectorTest {
 		assertEquals(message, ((SimpleMessage)msg).getMessage());
 	}
 
+	@Test
+	public void identicalMessagesAreEncryptedDifferently() throws Exception{
+		AESConnector connector = buildConnector(null);
+		final byte[] rawMessage = connector.serializeShared(new SimpleMessage("Hello World!"));
+
+		final byte[] first = connector.encodeShared(SimpleMessage.class, rawMessage);
+		final byte[] second = connector.encodeShared(SimpleMessage.class, rawMessage);
+
+		assertEquals(first.length, second.length);
+		assertFalse(Arrays.equals(first, second));
+	}
+
 	@Test
 	public void clientToServerVeryLongMessage() throws Exception{
 		final String message = StringUtils.repeat("Long", Connector.BUFFER_SIZE);
@@ -171,6 +195,245 @@ public class AESConnectorTest {
 		}
 	}
 
+	@Test
+	public void clientToServerBatch() throws Exception{
+		AESConnector serverConnector = buildConnector(server);
+		AESConnector clientConnector = buildConnector(client);
+
+		List<Message> batch = new ArrayList<Message>();
+		for(int i=0; i < 10; i++) {
+			batch.add(new SimpleMessage("Hello World! " + i));
+		}
+		clientConnector.send(batch);
+		clientConnector.send(new SimpleMessage("After batch"));
+
+		for(int i=0; i < 10; i++) {
+			Message msg = serverConnector.receive();
+
+			assertTrue(msg instanceof SimpleMessage);
+			assertEquals("Hello World! " + i, ((SimpleMessage)msg).getMessage());
+		}
+		assertEquals("After batch", ((SimpleMessage)serverConnector.receive()).getMessage());
+	}
+
+	@Test
+	public void serverToClientBatch() throws Exception{
+		AESConnector serverConnector = buildConnector(server);
+		AESConnector clientConnector = buildConnector(client);
+
+		List<Message> batch = new ArrayList<Message>();
+		batch.add(new SimpleMessage("Hello World!"));
+		batch.add(new SimpleMessage(StringUtils.repeat("Long", Connector.BUFFER_SIZE)));
+
+		serverConnector.send(new SimpleMessage("Before batch"));
+		serverConnector.send(batch);
+
+		assertEquals("Before batch", ((SimpleMessage)clientConnector.receive()).getMessage());
+		assertEquals("Hello World!", ((SimpleMessage)clientConnector.receive()).getMessage());
+		assertEquals(StringUtils.repeat("Long", Connector.BUFFER_SIZE), ((SimpleMessage)clientConnector.receive()).getMessage());
+	}
+
+	@Test
+	public void clientToServerCompactMessageIds() throws Exception{
+		AESConnector serverConnector = buildConnector(server);
+		AESConnector clientConnector = buildConnector(client);
+
+		clientConnector.enableCompactMessageIds();
+		assertTrue(clientConnector.isCompactMessageIds());
+
+		List<Message> batch = new ArrayList<Message>();
+		batch.add(new SimpleMessage("In batch 1"));
+		batch.add(new SimpleMessage("In batch 2"));
+
+		clientConnector.send(new SimpleMessage("Hello World!"));
+		clientConnector.send(batch);
+		clientConnector.send(new SimpleMessage(StringUtils.repeat("Long", Connector.BUFFER_SIZE)));
+
+		assertEquals("Hello World!", ((SimpleMessage)serverConnector.receive()).getMessage());
+		assertEquals("In batch 1", ((SimpleMessage)serverConnector.receive()).getMessage());
+		assertEquals("In batch 2", ((SimpleMessage)serverConnector.receive()).getMessage());
+		assertEquals(StringUtils.repeat("Long", Connector.BUFFER_SIZE), ((SimpleMessage)serverConnector.receive()).getMessage());
+
+		//the other direction is not affected
+		serverConnector.send(new SimpleMessage("Answer"));
+		assertEquals("Answer", ((SimpleMessage)clientConnector.receive()).getMessage());
+	}
+
+	@Test
+	public void compactMessageIdsForLateRegistration() throws Exception{
+		AESConnector serverConnector = buildConnector(server);
+		AESConnector clientConnector = new AESConnector(client, secretKey);
+
+		clientConnector.enableCompactMessageIds();
+		clientConnector.registerSerializer(SimpleMessage.class, new SimpleMessage.Serializer());
+
+		clientConnector.send(new SimpleMessage("Hello World!"));
+
+		assertEquals("Hello World!", ((SimpleMessage)serverConnector.receive()).getMessage());
+	}
+
+	@Test
+	public void clientToServerCompressed() throws Exception{
+		AESConnector serverConnector = buildConnector(server);
+		AESConnector clientConnector = buildConnector(client);
+
+		clientConnector.enableCompression(64);
+		assertTrue(clientConnector.isCompressionEnabled());
+
+		final String longMessage = StringUtils.repeat("Long", Connector.BUFFER_SIZE);
+		assertTrue(clientConnector.compress(SimpleMessage.class, longMessage.getBytes()).length < longMessage.length());
+		assertNull(clientConnector.compress(SimpleMessage.class, "Short".getBytes()));
+
+		List<Message> batch = new ArrayList<Message>();
+		batch.add(new SimpleMessage(longMessage));
+		batch.add(new SimpleMessage("In batch"));
+
+		clientConnector.send(new SimpleMessage(longMessage));
+		clientConnector.send(new SimpleMessage("Short"));
+		clientConnector.send(batch);
+
+		assertEquals(longMessage, ((SimpleMessage)serverConnector.receive()).getMessage());
+		assertEquals("Short", ((SimpleMessage)serverConnector.receive()).getMessage());
+		assertEquals(longMessage, ((SimpleMessage)serverConnector.receive()).getMessage());
+		assertEquals("In batch", ((SimpleMessage)serverConnector.receive()).getMessage());
+
+		clientConnector.setCompression(SimpleMessage.class, false);
+		assertNull(clientConnector.compress(SimpleMessage.class, longMessage.getBytes()));
+
+		clientConnector.disableCompression();
+		assertFalse(clientConnector.isCompressionEnabled());
+	}
+
+	@Test
+	public void compressedWithDictionary() throws Exception{
+		AESConnector serverConnector = buildConnector(server);
+		AESConnector clientConnector = buildConnector(client);
+
+		List<byte[]> samples = new ArrayList<byte[]>();
+		for(int i=0; i < 10; i++){
+			samples.add(new SimpleMessage.Serializer().serialize(new SimpleMessage("{\"name\":\"sample\",\"id\":" + i + "}")));
+		}
+		final byte[] dictionary = DictionaryTrainer.train(samples, 1024);
+
+		clientConnector.enableCompression(0);
+		clientConnector.setCompressionDictionary(SimpleMessage.class, dictionary);
+		serverConnector.setCompressionDictionary(SimpleMessage.class, dictionary);
+
+		clientConnector.send(new SimpleMessage("{\"name\":\"sample\",\"id\":42}"));
+
+		assertEquals("{\"name\":\"sample\",\"id\":42}", ((SimpleMessage)serverConnector.receive()).getMessage());
+	}
+
+	@Test(expected = IOException.class)
+	public void compressedWithUnknownDictionary() throws Exception{
+		AESConnector serverConnector = buildConnector(server);
+		AESConnector clientConnector = buildConnector(client);
+
+		clientConnector.enableCompression(0);
+		clientConnector.setCompressionDictionary(SimpleMessage.class, "Hello World! Hello World!".getBytes());
+
+		clientConnector.send(new SimpleMessage("Hello World! Hello World! Hello World!"));
+		serverConnector.receive();
+	}
+
+	@Test
+	public void clientToServerStreamed() throws Exception{
+		AESConnector serverConnector = buildConnector(server);
+		AESConnector clientConnector = buildConnector(client);
+
+		clientConnector.setChunkSize(1024);
+
+		final String longMessage = StringUtils.repeat("Long", Connector.BUFFER_SIZE);
+		clientConnector.sendStreamed(new SimpleMessage(longMessage));
+		clientConnector.sendStreamed(new SimpleMessage("Short"));
+		clientConnector.send(new SimpleMessage("After stream"));
+
+		assertEquals(longMessage, ((SimpleMessage)serverConnector.receive()).getMessage());
+		assertEquals("Short", ((SimpleMessage)serverConnector.receive()).getMessage());
+		assertEquals("After stream", ((SimpleMessage)serverConnector.receive()).getMessage());
+	}
+
+	@Test
+	public void unknownStreamedMessageIsSkipped() throws Exception{
+		AESConnector serverConnector = new AESConnector(server, secretKey);
+		AESConnector clientConnector = buildConnector(client);
+
+		clientConnector.setChunkSize(1024);
+		clientConnector.sendStreamed(new SimpleMessage(StringUtils.repeat("Long", Connector.BUFFER_SIZE)));
+		clientConnector.send(new SimpleMessage("After stream"));
+
+		try {
+			serverConnector.receive();
+			fail("The message should be unknown!");
+		} catch (UnknownMessageException e) { }
+
+		serverConnector.registerSerializer(SimpleMessage.class, new SimpleMessage.Serializer());
+		assertEquals("After stream", ((SimpleMessage)serverConnector.receive()).getMessage());
+	}
+
+	@Test
+	public void bigMessageIsChunked() throws Exception{
+		AESConnector serverConnector = buildConnector(server);
+		final AESConnector clientConnector = buildConnector(client);
+
+		//bigger than the default maximal frame size of the server
+		final String hugeMessage = StringUtils.repeat("x", FrameTransport.DEFAULT_MAX_FRAME_SIZE + 1024);
+		Thread sender = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					clientConnector.send(new SimpleMessage(hugeMessage));
+					clientConnector.send(new SimpleMessage("After"));
+				} catch (IOException e) { }
+			}
+		});
+		sender.start();
+
+		assertEquals(hugeMessage, ((SimpleMessage)serverConnector.receive()).getMessage());
+		assertEquals("After", ((SimpleMessage)serverConnector.receive()).getMessage());
+		sender.join();
+	}
+
+	@Test(expected = IOException.class)
+	public void frameTooBig() throws Exception{
+		ServerSocket serverSocket = new ServerSocket(0);
+		Socket client = new Socket("localhost", serverSocket.getLocalPort());
+		Socket server = serverSocket.accept();
+
+		try {
+			AESConnector serverConnector = buildConnector(server);
+			AESConnector clientConnector = buildConnector(client);
+
+			serverConnector.setMaxFrameSize(1024);
+
+			clientConnector.send(new SimpleMessage(StringUtils.repeat("Long", 1024)));
+			serverConnector.receive();
+		} finally {
+			client.close();
+			server.close();
+			serverSocket.close();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void unauthenticatedIdAnnouncement() throws Exception{
+		ServerSocket serverSocket = new ServerSocket(0);
+		Socket client = new Socket("localhost", serverSocket.getLocalPort());
+		Socket server = serverSocket.accept();
+
+		try {
+			AESConnector serverConnector = buildConnector(server);
+
+			//somebody without the key announces his compact message ids in plain text
+			new RawConnector(client).enableCompactMessageIds();
+			serverConnector.receive();
+		} finally {
+			client.close();
+			server.close();
+			serverSocket.close();
+		}
+	}
+
 	@Test(expected = UnknownMessageException.class)
 	public void unknownMessageOnReceive() throws Exception{
 		final String message = "Hello World!";
@@ -190,4 +453,100 @@ public class AESConnectorTest {
 
 		clientConnector.send(new SimpleMessage(message));
 	}
+
+	@Test
+	public void bufferSerializer() throws Exception{
+		AESConnector serverConnector = buildConnector(server);
+		AESConnector clientConnector = buildConnector(client);
+		serverConnector.registerSerializer(TextMessage.class, new TextMessage.Serializer());
+		clientConnector.registerSerializer(TextMessage.class, new TextMessage.Serializer());
+
+		clientConnector.enableCompression(1024);
+
+		final String longText = StringUtils.repeat("Long", Connector.BUFFER_SIZE);
+		List<Message> batch = new ArrayList<Message>();
+		batch.add(new TextMessage(2, "In batch"));
+		batch.add(new SimpleMessage("Mixed"));
+
+		clientConnector.send(new TextMessage(1, "Hello World!"));
+		clientConnector.send(batch);
+		clientConnector.send(new TextMessage(3, longText));
+
+		TextMessage msg = (TextMessage)serverConnector.receive();
+		assertEquals(1, msg.getNumber());
+		assertEquals("Hello World!", msg.getText());
+
+		msg = (TextMessage)serverConnector.receive();
+		assertEquals(2, msg.getNumber());
+		assertEquals("In batch", msg.getText());
+		assertEquals("Mixed", ((SimpleMessage)serverConnector.receive()).getMessage());
+
+		msg = (TextMessage)serverConnector.receive();
+		assertEquals(3, msg.getNumber());
+		assertEquals(longText, msg.getText());
+	}
+
+	@Test
+	public void compactSerializer() throws Exception{
+		AESConnector serverConnector = buildConnector(server);
+		AESConnector clientConnector = buildConnector(client);
+		serverConnector.registerSerializer(QuoteMessage.class, new QuoteMessage.Serializer());
+		clientConnector.registerSerializer(QuoteMessage.class, new QuoteMessage.Serializer());
+
+		clientConnector.send(new QuoteMessage(1L, "ACME", 42.5, 100, true, QuoteMessage.Side.BID, null, null));
+		QuoteMessage quote = (QuoteMessage)serverConnector.receive();
+
+		assertEquals("ACME", quote.getSymbol());
+		assertEquals(42.5, quote.getPrice(), 0);
+		assertEquals(QuoteMessage.Side.BID, quote.getSide());
+	}
+
+	@Test
+	public void sharedClassDescriptors() throws Exception{
+		AESConnector serverConnector = buildConnector(server);
+		AESConnector clientConnector = buildConnector(client);
+
+		clientConnector.enableClassDescriptorSharing();
+		clientConnector.enableCompactMessageIds();
+
+		List<Message> batch = new ArrayList<Message>();
+		batch.add(new SimpleMessage("In batch 1"));
+		batch.add(new SimpleMessage("In batch 2"));
+
+		clientConnector.send(new SimpleMessage("Before batch"));
+		clientConnector.send(batch);
+		clientConnector.sendStreamed(new SimpleMessage("Streamed"));
+		clientConnector.send(new SimpleMessage("After batch"));
+
+		assertEquals("Before batch", ((SimpleMessage)serverConnector.receive()).getMessage());
+		assertEquals("In batch 1", ((SimpleMessage)serverConnector.receive()).getMessage());
+		assertEquals("In batch 2", ((SimpleMessage)serverConnector.receive()).getMessage());
+		assertEquals("Streamed", ((SimpleMessage)serverConnector.receive()).getMessage());
+		assertEquals("After batch", ((SimpleMessage)serverConnector.receive()).getMessage());
+	}
+
+	@Test
+	public void ping() throws Exception{
+		final AESConnector serverConnector = buildConnector(server);
+		AESConnector clientConnector = buildConnector(client);
+
+		serverConnector.send(new SimpleMessage("Before pong"));
+
+		//the server answers the ping while he receives
+		FutureTask<Message> received = new FutureTask<Message>(new Callable<Message>() {
+			@Override
+			public Message call() throws Exception {
+				return serverConnector.receive();
+			}
+		});
+		new Thread(received).start();
+
+		assertTrue(clientConnector.ping(5, TimeUnit.SECONDS));
+
+		//the message which was received by the ping is not lost
+		assertEquals("Before pong", ((SimpleMessage)clientConnector.receive()).getMessage());
+
+		clientConnector.send(new SimpleMessage("After ping"));
+		assertEquals("After ping", ((SimpleMessage)received.get(5, TimeUnit.SECONDS)).getMessage());
+	}
 }
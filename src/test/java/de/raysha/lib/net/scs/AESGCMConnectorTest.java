@@ -0,0 +1,226 @@
+package de.raysha.lib.net.scs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.raysha.lib.net.scs.Connector.RawMessage;
+import de.raysha.lib.net.scs.model.Message;
+import de.raysha.lib.net.scs.model.SimpleMessage;
+import de.raysha.lib.net.scs.model.TextMessage;
+
+public class AESGCMConnectorTest {
+	private static String secretKey;
+	private static Socket server;
+	private static Socket client;
+	private static ServerSocket serverSocket;
+
+	@BeforeClass
+	public static void setup() throws IOException, InterruptedException{
+		byte[] raw = new byte[1024];
+		new Random().nextBytes(raw);
+
+		secretKey = new String(raw);
+
+		serverSocket = new ServerSocket(0);
+
+		Thread t1 = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					server = serverSocket.accept();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+		t1.start();
+
+		client = new Socket("localhost", serverSocket.getLocalPort());
+		t1.join();
+	}
+
+	@AfterClass
+	public static void clean(){
+		try { serverSocket.close(); } catch (Exception e) { }
+		try { server.close(); } catch (Exception e) { }
+		try { client.close(); } catch (Exception e) { }
+	}
+
+	private AbstractAESConnector buildConnector(Socket socket) throws InvalidKeyException {
+		AbstractAESConnector connector = new AESGCMConnector(socket, secretKey, socket == server);
+
+		connector.registerSerializer(SimpleMessage.class, new SimpleMessage.Serializer());
+
+		return connector;
+	}
+
+	@Test
+	public void clientToServer() throws Exception{
+		AbstractAESConnector serverConnector = buildConnector(server);
+		AbstractAESConnector clientConnector = buildConnector(client);
+
+		clientConnector.enableCompression(1024);
+
+		for(int i=0; i < 10; i++) {
+			clientConnector.send(new SimpleMessage("Hello World! " + i));
+		}
+		clientConnector.send(new SimpleMessage(StringUtils.repeat("Long", Connector.BUFFER_SIZE)));
+
+		for(int i=0; i < 10; i++) {
+			Message msg = serverConnector.receive();
+
+			assertTrue(msg instanceof SimpleMessage);
+			assertEquals("Hello World! " + i, ((SimpleMessage)msg).getMessage());
+		}
+		assertEquals(StringUtils.repeat("Long", Connector.BUFFER_SIZE), ((SimpleMessage)serverConnector.receive()).getMessage());
+	}
+
+	@Test
+	public void serverToClientBatch() throws Exception{
+		AbstractAESConnector serverConnector = buildConnector(server);
+		AbstractAESConnector clientConnector = buildConnector(client);
+
+		serverConnector.enableCompactMessageIds();
+
+		List<Message> batch = new ArrayList<Message>();
+		batch.add(new SimpleMessage("In batch 1"));
+		batch.add(new SimpleMessage("In batch 2"));
+
+		serverConnector.send(new SimpleMessage("Before batch"));
+		serverConnector.send(batch);
+
+		assertEquals("Before batch", ((SimpleMessage)clientConnector.receive()).getMessage());
+		assertEquals("In batch 1", ((SimpleMessage)clientConnector.receive()).getMessage());
+		assertEquals("In batch 2", ((SimpleMessage)clientConnector.receive()).getMessage());
+	}
+
+	@Test
+	public void clientToServerStreamed() throws Exception{
+		AbstractAESConnector serverConnector = buildConnector(server);
+		AbstractAESConnector clientConnector = buildConnector(client);
+
+		clientConnector.setChunkSize(1024);
+
+		final String longMessage = StringUtils.repeat("Long", Connector.BUFFER_SIZE);
+		clientConnector.sendStreamed(new SimpleMessage(longMessage));
+		clientConnector.sendStreamed(new SimpleMessage("Short"));
+
+		assertEquals(longMessage, ((SimpleMessage)serverConnector.receive()).getMessage());
+		assertEquals("Short", ((SimpleMessage)serverConnector.receive()).getMessage());
+	}
+
+	@Test(expected = IOException.class)
+	public void unauthenticatedMessage() throws Exception{
+		AbstractAESConnector serverConnector = buildConnector(server);
+		AESConnector clientConnector = new AESConnector(client, secretKey);
+		clientConnector.registerSerializer(SimpleMessage.class, new SimpleMessage.Serializer());
+
+		//cbc-encrypted message can not be authenticated
+		clientConnector.send(new SimpleMessage("Hello World!"));
+		serverConnector.receive();
+	}
+
+	@Test
+	public void bufferSerializer() throws Exception{
+		AbstractAESConnector serverConnector = buildConnector(server);
+		AbstractAESConnector clientConnector = buildConnector(client);
+		serverConnector.registerSerializer(TextMessage.class, new TextMessage.Serializer());
+		clientConnector.registerSerializer(TextMessage.class, new TextMessage.Serializer());
+
+		clientConnector.enableCompression(1024);
+
+		final String longText = StringUtils.repeat("Long", Connector.BUFFER_SIZE);
+		List<Message> batch = new ArrayList<Message>();
+		batch.add(new TextMessage(2, "In batch"));
+		batch.add(new SimpleMessage("Mixed"));
+
+		clientConnector.send(new TextMessage(1, "Hello World!"));
+		clientConnector.send(batch);
+		clientConnector.send(new TextMessage(3, longText));
+
+		TextMessage msg = (TextMessage)serverConnector.receive();
+		assertEquals(1, msg.getNumber());
+		assertEquals("Hello World!", msg.getText());
+
+		msg = (TextMessage)serverConnector.receive();
+		assertEquals(2, msg.getNumber());
+		assertEquals("In batch", msg.getText());
+		assertEquals("Mixed", ((SimpleMessage)serverConnector.receive()).getMessage());
+
+		msg = (TextMessage)serverConnector.receive();
+		assertEquals(3, msg.getNumber());
+		assertEquals(longText, msg.getText());
+	}
+
+	@Test
+	public void sharedClassDescriptors() throws Exception{
+		AbstractAESConnector serverConnector = buildConnector(server);
+		AbstractAESConnector clientConnector = buildConnector(client);
+
+		clientConnector.enableClassDescriptorSharing();
+		clientConnector.enableCompactMessageIds();
+
+		List<Message> batch = new ArrayList<Message>();
+		batch.add(new SimpleMessage("In batch 1"));
+		batch.add(new SimpleMessage("In batch 2"));
+
+		clientConnector.send(new SimpleMessage("Before batch"));
+		clientConnector.send(batch);
+		clientConnector.sendStreamed(new SimpleMessage("Streamed"));
+		clientConnector.send(new SimpleMessage("After batch"));
+
+		assertEquals("Before batch", ((SimpleMessage)serverConnector.receive()).getMessage());
+		assertEquals("In batch 1", ((SimpleMessage)serverConnector.receive()).getMessage());
+		assertEquals("In batch 2", ((SimpleMessage)serverConnector.receive()).getMessage());
+		assertEquals("Streamed", ((SimpleMessage)serverConnector.receive()).getMessage());
+		assertEquals("After batch", ((SimpleMessage)serverConnector.receive()).getMessage());
+	}
+
+	private static RawMessage chunk(AESGCMConnector receiver, byte[] encrypted) {
+		return new RawMessage(receiver.classToMessageId.get(SimpleMessage.class), SimpleMessage.class, ByteBuffer.wrap(encrypted));
+	}
+
+	private static void assertRejected(AESGCMConnector receiver, byte[] encrypted) {
+		try {
+			receiver.decodeChunk(chunk(receiver, encrypted), 0, true);
+			fail("The message should be rejected!");
+		} catch (IOException e) { }
+	}
+
+	@Test
+	public void replayedMessages() throws Exception{
+		AESGCMConnector serverConnector = new AESGCMConnector(null, secretKey, true);
+		AESGCMConnector clientConnector = new AESGCMConnector(null, secretKey);
+		AESGCMConnector otherClient = new AESGCMConnector(null, secretKey);
+		serverConnector.registerSerializer(SimpleMessage.class, new SimpleMessage.Serializer());
+		clientConnector.registerSerializer(SimpleMessage.class, new SimpleMessage.Serializer());
+		otherClient.registerSerializer(SimpleMessage.class, new SimpleMessage.Serializer());
+
+		final byte[] first = clientConnector.encodeChunk(SimpleMessage.class, 0, true, "first".getBytes(), 5);
+		final byte[] second = clientConnector.encodeChunk(SimpleMessage.class, 0, true, "second".getBytes(), 6);
+
+		//a bit out of order is fine, because the messages are encrypted in parallel
+		assertEquals("second", new String(serverConnector.decodeChunk(chunk(serverConnector, second), 0, true)));
+		assertEquals("first", new String(serverConnector.decodeChunk(chunk(serverConnector, first), 0, true)));
+
+		//but each message is accepted only once, only from his direction and only on his connection
+		assertRejected(serverConnector, first);
+		assertRejected(clientConnector, second);
+		assertRejected(serverConnector, otherClient.encodeChunk(SimpleMessage.class, 0, true, "other".getBytes(), 5));
+	}
+}
@@ -0,0 +1,67 @@
+package de.raysha.lib.net.scs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.crypto.SecretKey;
+
+import org.junit.Test;
+
+public class AESKeyProviderTest {
+
+	@Test
+	public void derivedOnlyOnce() {
+		AESKeyProvider provider = new AESKeyProvider("salt".getBytes(), 1000);
+
+		SecretKey key = provider.getKey("secret");
+
+		assertSame(key, provider.getKey("secret"));
+		assertFalse(Arrays.equals(key.getEncoded(), provider.getKey("other").getEncoded()));
+	}
+
+	@Test
+	public void configurableDerivation() {
+		SecretKey key = new AESKeyProvider("salt".getBytes(), 1000).getKey("secret");
+
+		assertFalse(Arrays.equals(key.getEncoded(), new AESKeyProvider("pepper".getBytes(), 1000).getKey("secret").getEncoded()));
+		assertFalse(Arrays.equals(key.getEncoded(), new AESKeyProvider("salt".getBytes(), 1001).getKey("secret").getEncoded()));
+		assertArrayEquals(key.getEncoded(), new AESKeyProvider("salt".getBytes(), 1000).getKey("secret").getEncoded());
+	}
+
+	@Test
+	public void boundedCache() {
+		AESKeyProvider provider = new AESKeyProvider("salt".getBytes(), 1000, 2);
+
+		SecretKey first = provider.getKey("first");
+		SecretKey second = provider.getKey("second");
+		provider.getKey("third");
+
+		//the least recently used key was evicted, so it is derived again
+		assertSame(second, provider.getKey("second"));
+		assertNotSame(first, provider.getKey("first"));
+		assertArrayEquals(first.getEncoded(), provider.getKey("first").getEncoded());
+
+		provider.evict("second");
+		assertNotSame(second, provider.getKey("second"));
+	}
+
+	@Test
+	public void prewarm() throws Exception {
+		AESKeyProvider provider = new AESKeyProvider("salt".getBytes(), 1000);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+
+		Future<SecretKey> future = provider.prewarm("secret", executor);
+
+		assertSame(future.get(), provider.getKey("secret"));
+		assertSame(future, provider.prewarm("secret", executor));
+
+		executor.shutdown();
+	}
+}
@@ -1,18 +1,31 @@
 package de.raysha.lib.net.scs;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
 import java.security.InvalidKeyException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.apache.commons.lang.StringUtils;
 import org.junit.Test;
 
 import de.raysha.lib.net.scs.AESConnector;
 import de.raysha.lib.net.scs.AESServer;
+import de.raysha.lib.net.scs.model.Message;
+import de.raysha.lib.net.scs.model.SimpleMessage;
+import de.raysha.lib.net.scs.utils.ConnectionExecutors;
 
 public class AESServerTest {
 
@@ -35,4 +48,277 @@ public class AESServerTest {
 
 		assertEquals(1, list.size());
 	}
+
+	private ServerSocketChannel openChannel() throws IOException {
+		ServerSocketChannel channel = ServerSocketChannel.open();
+		channel.socket().bind(new InetSocketAddress(0));
+
+		return channel;
+	}
+
+	@Test
+	public void newConnectionSelectorMode() throws IOException, InterruptedException, InvalidKeyException{
+		ServerSocketChannel channel = openChannel();
+		final CountDownLatch latch = new CountDownLatch(1);
+
+		AESServer server = new AESServer("secret", channel) {
+			@Override
+			protected void handleNewConnetion(AESConnector connector) {
+				latch.countDown();
+			}
+		};
+		server.start();
+
+		//client connect
+		new Socket("localhost", channel.socket().getLocalPort());
+
+		assertTrue(server.isSelectorMode());
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+		server.shutdown();
+	}
+
+	@Test
+	public void echoSelectorMode() throws Exception{
+		ServerSocketChannel channel = openChannel();
+
+		AESServer server = new AESServer("secret", channel) {
+			@Override
+			protected void handleNewConnetion(final AESConnector connector) {
+				connector.registerSerializer(SimpleMessage.class, new SimpleMessage.Serializer());
+
+				new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							while(true){
+								connector.send(connector.receive());
+							}
+						} catch (IOException e) { }
+					}
+				}).start();
+			}
+		};
+		server.start();
+
+		//blocking client
+		AESConnector client = new AESConnector(new Socket("localhost", channel.socket().getLocalPort()), "secret");
+		client.registerSerializer(SimpleMessage.class, new SimpleMessage.Serializer());
+
+		final String longMessage = StringUtils.repeat("Long", Connector.BUFFER_SIZE);
+
+		for(int i=0; i < 10; i++){
+			client.send(new SimpleMessage("Hello World! " + i));
+		}
+		client.send(new SimpleMessage(longMessage));
+
+		for(int i=0; i < 10; i++){
+			Message msg = client.receive();
+			assertEquals("Hello World! " + i, ((SimpleMessage)msg).getMessage());
+		}
+		assertEquals(longMessage, ((SimpleMessage)client.receive()).getMessage());
+
+		client.disconnect();
+		server.shutdown();
+	}
+
+	@Test(timeout = 5000)
+	public void receivingHandlerSelectorMode() throws Exception{
+		ServerSocketChannel channel = openChannel();
+
+		//the handling runs on the default executor, not on the event loop
+		AESServer server = new AESServer("secret", channel) {
+			@Override
+			protected void handleNewConnetion(AESConnector connector) {
+				connector.registerSerializer(SimpleMessage.class, new SimpleMessage.Serializer());
+
+				try {
+					connector.send(connector.receive());
+				} catch (IOException e) { }
+			}
+		};
+		server.start();
+
+		AESConnector first = new AESConnector(new Socket("localhost", channel.socket().getLocalPort()), "secret");
+		first.registerSerializer(SimpleMessage.class, new SimpleMessage.Serializer());
+		AESConnector second = new AESConnector(new Socket("localhost", channel.socket().getLocalPort()), "secret");
+		second.registerSerializer(SimpleMessage.class, new SimpleMessage.Serializer());
+
+		//the waiting handling of the first client does not stall the second one
+		second.send(new SimpleMessage("second"));
+		assertEquals("second", ((SimpleMessage)second.receive()).getMessage());
+		first.send(new SimpleMessage("first"));
+		assertEquals("first", ((SimpleMessage)first.receive()).getMessage());
+
+		first.disconnect();
+		second.disconnect();
+		server.shutdown();
+	}
+
+	@Test
+	public void echoGCMMode() throws Exception{
+		ServerSocketChannel channel = openChannel();
+
+		AESServer server = new AESServer("secret", channel) {
+			@Override
+			protected void handleNewConnetion(AESConnector connector) {
+				fail("Only GCM connectors are expected!");
+			}
+
+			@Override
+			protected void handleNewGCMConnection(AESGCMConnector connector) {
+				connector.registerSerializer(SimpleMessage.class, new SimpleMessage.Serializer());
+
+				try {
+					connector.send(connector.receive());
+				} catch (IOException e) { }
+			}
+		};
+		server.setGCMMode(true);
+		server.setConnectionExecutor(ConnectionExecutors.newBoundedPool(4, 4));
+		server.start();
+
+		AbstractAESConnector client = new AESGCMConnector(new Socket("localhost", channel.socket().getLocalPort()), "secret");
+		client.registerSerializer(SimpleMessage.class, new SimpleMessage.Serializer());
+
+		client.send(new SimpleMessage("Hello World!"));
+		assertEquals("Hello World!", ((SimpleMessage)client.receive()).getMessage());
+
+		client.disconnect();
+		server.shutdown();
+	}
+
+	@Test(timeout = 5000)
+	public void receiveOnEventLoopFailsFast() throws Exception{
+		ServerSocketChannel channel = openChannel();
+		final CountDownLatch failed = new CountDownLatch(1);
+
+		AESServer server = new AESServer("secret", channel) {
+			@Override
+			protected void handleNewConnetion(AESConnector connector) {
+				try {
+					connector.receive();
+				} catch (IllegalStateException e) {
+					failed.countDown();
+				} catch (IOException e) { }
+			}
+		};
+		//the handling runs on the event loop
+		server.setConnectionExecutor(new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				command.run();
+			}
+		});
+		server.start();
+
+		Socket client = new Socket("localhost", channel.socket().getLocalPort());
+		assertTrue(failed.await(5, TimeUnit.SECONDS));
+
+		client.close();
+		server.shutdown();
+	}
+
+	/**
+	 * Wait until the server has released all connections (see {@link Server#setMaxConnections(int)}).
+	 */
+	private static void awaitReleased(Server server) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while(server.getLiveConnections() > 0 && System.nanoTime() < deadline){
+			Thread.sleep(10);
+		}
+		assertEquals(0, server.getLiveConnections());
+	}
+
+	/**
+	 * The first client drops his socket, after that the second client must be admitted.
+	 */
+	private void assertDroppedClientIsReleased(AESServer server, int port, Semaphore handled) throws Exception {
+		server.setMaxConnections(1);
+		server.start();
+
+		Socket first = new Socket("localhost", port);
+		assertTrue(handled.tryAcquire(5, TimeUnit.SECONDS));
+		first.close();
+		awaitReleased(server);
+
+		Socket second = new Socket("localhost", port);
+		assertTrue(handled.tryAcquire(5, TimeUnit.SECONDS));
+
+		second.close();
+		server.shutdown();
+	}
+
+	@Test(timeout = 20000)
+	public void droppedClientIsReleased() throws Exception{
+		ServerSocket socket = new ServerSocket(0);
+		final Semaphore handled = new Semaphore(0);
+
+		AESServer server = new AESServer("secret", socket) {
+			@Override
+			protected void handleNewConnetion(final AESConnector connector) {
+				//receive until the connection is broken, but never disconnect the connector
+				new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							while(true){
+								connector.receive();
+							}
+						} catch (IOException e) { }
+					}
+				}).start();
+				handled.release();
+			}
+		};
+
+		assertDroppedClientIsReleased(server, socket.getLocalPort(), handled);
+	}
+
+	@Test(timeout = 20000)
+	public void droppedClientIsReleasedSelectorMode() throws Exception{
+		ServerSocketChannel channel = openChannel();
+		final Semaphore handled = new Semaphore(0);
+
+		//nobody receives: the event loop sees the closing
+		AESServer server = new AESServer("secret", channel) {
+			@Override
+			protected void handleNewConnetion(AESConnector connector) {
+				handled.release();
+			}
+		};
+
+		assertDroppedClientIsReleased(server, channel.socket().getLocalPort(), handled);
+	}
+
+	@Test(timeout = 20000)
+	public void failedHandlingIsReleased() throws Exception{
+		ServerSocketChannel channel = openChannel();
+		final Semaphore handled = new Semaphore(0);
+		final AtomicBoolean fail = new AtomicBoolean(true);
+
+		AESServer server = new AESServer("secret", channel) {
+			@Override
+			protected void handleNewConnetion(AESConnector connector) {
+				handled.release();
+				if(fail.getAndSet(false)){
+					throw new IllegalStateException("The handling failed!");
+				}
+			}
+		};
+		server.setMaxConnections(1);
+		server.start();
+
+		//the first client stays connected, but his handling has failed
+		Socket first = new Socket("localhost", channel.socket().getLocalPort());
+		assertTrue(handled.tryAcquire(5, TimeUnit.SECONDS));
+		awaitReleased(server);
+
+		Socket second = new Socket("localhost", channel.socket().getLocalPort());
+		assertTrue(handled.tryAcquire(5, TimeUnit.SECONDS));
+
+		first.close();
+		second.close();
+		server.shutdown();
+	}
 }
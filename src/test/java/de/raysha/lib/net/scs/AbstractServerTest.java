@@ -1,16 +1,24 @@
 package de.raysha.lib.net.scs;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 
 import de.raysha.lib.net.scs.Server;
+import de.raysha.lib.net.scs.utils.ConnectionExecutors;
 
 public class AbstractServerTest {
 
@@ -108,4 +116,162 @@ public class AbstractServerTest {
 
 		server.shutdown();
 	}
+
+	@Test(timeout = 5000)
+	public void slowHandlerWithExecutor() throws IOException, InterruptedException{
+		ServerSocket socket = new ServerSocket(0);
+		final CountDownLatch handled = new CountDownLatch(2);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		Server server = new Server(socket) {
+			@Override
+			protected void handleNewSocket(Socket newSocket) {
+				handled.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {}
+			}
+		};
+		ExecutorService executor = ConnectionExecutors.newConnectionExecutor();
+		server.setConnectionExecutor(executor);
+		server.start();
+
+		//both clients must be handled although the first handling is still running
+		new Socket("localhost", socket.getLocalPort());
+		new Socket("localhost", socket.getLocalPort());
+
+		assertTrue(handled.await(2, TimeUnit.SECONDS));
+
+		release.countDown();
+		server.shutdown();
+		executor.shutdown();
+	}
+
+	private Server buildCollectingServer(ServerSocket socket, final List<Socket> list){
+		return new Server(socket) {
+			@Override
+			protected void handleNewSocket(Socket newSocket) {
+				list.add(newSocket);
+			}
+		};
+	}
+
+	private static void awaitSize(List<Socket> list, int expected) throws InterruptedException{
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while(list.size() < expected && System.nanoTime() < deadline){
+			Thread.sleep(10);
+		}
+
+		assertEquals(expected, list.size());
+	}
+
+	private static void assertClosedByServer(Socket socket) throws IOException{
+		socket.setSoTimeout(5000);
+		assertEquals(-1, socket.getInputStream().read());
+	}
+
+	@Test(timeout = 10000)
+	public void maxConnectionsReject() throws IOException, InterruptedException{
+		ServerSocket socket = new ServerSocket(0);
+		final List<Socket> list = Collections.synchronizedList(new ArrayList<Socket>());
+		Server server = buildCollectingServer(socket, list);
+		ServerMetrics metrics = server.enableMetrics();
+		server.setMaxConnections(1);
+		server.start();
+
+		try {
+			new Socket("localhost", socket.getLocalPort());
+			awaitSize(list, 1);
+
+			assertClosedByServer(new Socket("localhost", socket.getLocalPort()));
+			assertEquals(1, metrics.getRejectedByConnectionLimit());
+			assertEquals(1, server.getLiveConnections());
+
+			//the slot is free again
+			server.releaseConnection();
+			new Socket("localhost", socket.getLocalPort());
+			awaitSize(list, 2);
+		} finally {
+			server.shutdown();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void maxConnectionsDelay() throws IOException, InterruptedException{
+		ServerSocket socket = new ServerSocket(0);
+		final List<Socket> list = Collections.synchronizedList(new ArrayList<Socket>());
+		Server server = buildCollectingServer(socket, list);
+		ServerMetrics metrics = server.enableMetrics();
+		server.setMaxConnections(1);
+		server.setAdmissionPolicy(AdmissionPolicy.DELAY);
+		server.start();
+
+		try {
+			assertDelayed(server, socket.getLocalPort(), list);
+			assertEquals(2, metrics.getDelayedConnections());
+			assertEquals(0, metrics.getRejectedConnections());
+		} finally {
+			server.shutdown();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void maxConnectionsDelaySelectorMode() throws IOException, InterruptedException{
+		ServerSocketChannel channel = ServerSocketChannel.open();
+		channel.socket().bind(new InetSocketAddress("localhost", 0));
+		final List<Socket> list = Collections.synchronizedList(new ArrayList<Socket>());
+		Server server = new Server(channel, 1) {
+			@Override
+			protected void handleNewSocket(Socket newSocket) {
+				list.add(newSocket);
+			}
+		};
+		server.setMaxConnections(1);
+		server.setAdmissionPolicy(AdmissionPolicy.DELAY);
+		server.start();
+
+		try {
+			assertDelayed(server, channel.socket().getLocalPort(), list);
+		} finally {
+			server.shutdown();
+		}
+	}
+
+	private void assertDelayed(Server server, int port, List<Socket> list) throws IOException, InterruptedException{
+		new Socket("localhost", port);
+		awaitSize(list, 1);
+
+		//the second connection waits until the first is released
+		new Socket("localhost", port);
+		new Socket("localhost", port);
+		Thread.sleep(200);
+		assertEquals(1, list.size());
+
+		server.releaseConnection();
+		awaitSize(list, 2);
+		server.releaseConnection();
+		awaitSize(list, 3);
+	}
+
+	@Test(timeout = 10000)
+	public void acceptRate() throws IOException, InterruptedException{
+		ServerSocket socket = new ServerSocket(0);
+		final List<Socket> list = Collections.synchronizedList(new ArrayList<Socket>());
+		Server server = buildCollectingServer(socket, list);
+		ServerMetrics metrics = server.enableMetrics();
+		server.setAcceptRate(0.01, 2);
+		server.start();
+
+		try {
+			new Socket("localhost", socket.getLocalPort());
+			new Socket("localhost", socket.getLocalPort());
+			awaitSize(list, 2);
+
+			assertClosedByServer(new Socket("localhost", socket.getLocalPort()));
+			assertEquals(1, metrics.getRejectedByAcceptRate());
+			assertEquals(2, metrics.getAcceptedConnections());
+		} finally {
+			server.shutdown();
+		}
+	}
 }
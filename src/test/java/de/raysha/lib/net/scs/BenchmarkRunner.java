@@ -0,0 +1,245 @@
+package de.raysha.lib.net.scs;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import de.raysha.lib.net.scs.utils.LatencyHistogram;
+
+/**
+ * A small fallback harness for the benchmarks if JMH is not available (see {@link HotPathBenchmarks} and the
+ * JMH benchmarks in the module <i>benchmarks</i>). Each benchmark is run for each
+ * payload size and each thread count: first a warm up, then the measurement. Each thread has his own
+ * {@link Worker}. The result contains the throughput, the latency percentiles and the allocated bytes per
+ * operation. The results can be written as CSV file and two CSV files can be compared (see {@link #compare(String, String)}).
+ *
+ * @author rainu
+ */
+class BenchmarkRunner {
+	static final String CSV_HEADER = "benchmark,payload,threads,operations,opsPerSecond,meanNanos,p50Nanos,p99Nanos,p999Nanos,allocatedBytesPerOp";
+
+	/**
+	 * A benchmark which creates one worker per thread.
+	 */
+	static abstract class Benchmark {
+		private final String name;
+
+		public Benchmark(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Create the worker for one thread.
+		 *
+		 * @param payload The payload size in bytes.
+		 */
+		public abstract Worker newWorker(int payload) throws Exception;
+	}
+
+	/**
+	 * The operations of one thread.
+	 */
+	static abstract class Worker {
+		/**
+		 * Run one measured operation.
+		 */
+		public abstract void operate() throws Exception;
+
+		/**
+		 * Free the resources of this worker.
+		 */
+		public void close() throws Exception {
+		}
+	}
+
+	static class Result {
+		final String benchmark;
+		final int payload;
+		final int threads;
+		final long operations;
+		final double opsPerSecond;
+		final double meanNanos;
+		final long p50Nanos;
+		final long p99Nanos;
+		final long p999Nanos;
+		final long allocatedBytesPerOp;
+
+		Result(String benchmark, int payload, int threads, long operations, double opsPerSecond, double meanNanos,
+				long p50Nanos, long p99Nanos, long p999Nanos, long allocatedBytesPerOp) {
+			this.benchmark = benchmark;
+			this.payload = payload;
+			this.threads = threads;
+			this.operations = operations;
+			this.opsPerSecond = opsPerSecond;
+			this.meanNanos = meanNanos;
+			this.p50Nanos = p50Nanos;
+			this.p99Nanos = p99Nanos;
+			this.p999Nanos = p999Nanos;
+			this.allocatedBytesPerOp = allocatedBytesPerOp;
+		}
+
+		String key() {
+			return benchmark + "," + payload + "," + threads;
+		}
+
+		String toCsv() {
+			return String.format(Locale.ROOT, "%s,%d,%d,%d,%.1f,%.1f,%d,%d,%d,%d", benchmark, payload, threads, operations,
+					opsPerSecond, meanNanos, p50Nanos, p99Nanos, p999Nanos, allocatedBytesPerOp);
+		}
+
+		static Result fromCsv(String line) {
+			final String[] fields = line.split(",");
+			return new Result(fields[0], Integer.parseInt(fields[1]), Integer.parseInt(fields[2]), Long.parseLong(fields[3]),
+					Double.parseDouble(fields[4]), Double.parseDouble(fields[5]), Long.parseLong(fields[6]),
+					Long.parseLong(fields[7]), Long.parseLong(fields[8]), Long.parseLong(fields[9]));
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-28s %8d %3d %12.0f ops/s  mean %9.1f us  p50 %9.1f us  p99 %9.1f us  p99.9 %9.1f us  %9d B/op",
+					benchmark, payload, threads, opsPerSecond, meanNanos / 1000, p50Nanos / 1000d, p99Nanos / 1000d,
+					p999Nanos / 1000d, allocatedBytesPerOp);
+		}
+	}
+
+	private final long warmupMillis;
+	private final long measureMillis;
+
+	public BenchmarkRunner(long warmupMillis, long measureMillis) {
+		this.warmupMillis = warmupMillis;
+		this.measureMillis = measureMillis;
+	}
+
+	public Result run(final Benchmark benchmark, int payload, int threads) throws Exception {
+		final List<Worker> workers = new ArrayList<Worker>();
+		try {
+			for(int i=0; i < threads; i++){
+				workers.add(benchmark.newWorker(payload));
+			}
+
+			final com.sun.management.ThreadMXBean threadBean =
+					(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+			final LatencyHistogram latency = new LatencyHistogram();
+			final AtomicLong allocated = new AtomicLong();
+			final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+			final CountDownLatch done = new CountDownLatch(threads);
+
+			final long measureStart = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+			final long measureEnd = measureStart + TimeUnit.MILLISECONDS.toNanos(measureMillis);
+
+			for(final Worker worker : workers){
+				final Thread thread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							//warm up
+							while(System.nanoTime() < measureStart){
+								worker.operate();
+							}
+
+							final long threadId = Thread.currentThread().getId();
+							final long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+							long now = System.nanoTime();
+							while(now < measureEnd){
+								worker.operate();
+
+								final long end = System.nanoTime();
+								latency.record(end - now);
+								now = end;
+							}
+							allocated.addAndGet(threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore);
+						} catch (Exception e) {
+							failure.compareAndSet(null, e);
+						} finally {
+							done.countDown();
+						}
+					}
+				}, "Benchmark-" + benchmark.getName());
+				thread.setDaemon(true);
+				thread.start();
+			}
+
+			done.await();
+			if(failure.get() != null){
+				throw failure.get();
+			}
+
+			final long operations = latency.getCount();
+			return new Result(benchmark.getName(), payload, threads, operations,
+					operations * 1000d / measureMillis, latency.getMean(), latency.getPercentile(50),
+					latency.getPercentile(99), latency.getPercentile(99.9), operations == 0 ? 0 : allocated.get() / operations);
+		} finally {
+			for(Worker worker : workers){
+				try { worker.close(); } catch (Exception e) { }
+			}
+		}
+	}
+
+	public static void writeCsv(String file, List<Result> results) throws IOException {
+		final PrintWriter out = new PrintWriter(new FileWriter(file));
+		try {
+			out.println(CSV_HEADER);
+			for(Result result : results){
+				out.println(result.toCsv());
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	public static Map<String, Result> readCsv(String file) throws IOException {
+		final Map<String, Result> results = new LinkedHashMap<String, Result>();
+		final BufferedReader in = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while((line = in.readLine()) != null){
+				if(line.isEmpty() || line.equals(CSV_HEADER)) continue;
+
+				final Result result = Result.fromCsv(line);
+				results.put(result.key(), result);
+			}
+		} finally {
+			in.close();
+		}
+
+		return results;
+	}
+
+	/**
+	 * Print the changes of the throughput, the p99 latency and the allocations between two result files.
+	 */
+	public static void compare(String baselineFile, String currentFile) throws IOException {
+		final Map<String, Result> baseline = readCsv(baselineFile);
+		final Map<String, Result> current = readCsv(currentFile);
+
+		System.out.printf("%-28s %8s %3s %12s %12s %12s%n", "benchmark", "payload", "thr", "throughput", "p99", "alloc/op");
+		for(Result now : current.values()){
+			final Result before = baseline.get(now.key());
+			if(before == null) continue;
+
+			System.out.printf("%-28s %8d %3d %+11.1f%% %+11.1f%% %+11.1f%%%n", now.benchmark, now.payload, now.threads,
+					change(before.opsPerSecond, now.opsPerSecond), change(before.p99Nanos, now.p99Nanos),
+					change(before.allocatedBytesPerOp, now.allocatedBytesPerOp));
+		}
+	}
+
+	private static double change(double before, double now) {
+		return before == 0 ? 0 : (now - before) * 100 / before;
+	}
+}
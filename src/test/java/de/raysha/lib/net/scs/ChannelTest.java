@@ -0,0 +1,176 @@
+package de.raysha.lib.net.scs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import de.raysha.lib.net.scs.model.SimpleMessage;
+
+public class ChannelTest {
+	private ServerSocket serverSocket;
+	private AbstractAESConnector server;
+	private AbstractAESConnector client;
+	private Socket clientSocket;
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	private void connect(boolean gcm) throws Exception {
+		serverSocket = new ServerSocket(0);
+		clientSocket = new Socket("localhost", serverSocket.getLocalPort());
+		Socket serverSocket = this.serverSocket.accept();
+
+		if(gcm){
+			client = new AESGCMConnector(clientSocket, "password");
+			server = new AESGCMConnector(serverSocket, "password", true);
+		}else{
+			client = new AESConnector(clientSocket, "password");
+			server = new AESConnector(serverSocket, "password");
+		}
+		client.registerSerializer(SimpleMessage.class, new SimpleMessage.Serializer());
+		server.registerSerializer(SimpleMessage.class, new SimpleMessage.Serializer());
+	}
+
+	@After
+	public void clean() throws Exception {
+		client.disconnect();
+		server.disconnect();
+		serverSocket.close();
+		executor.shutdownNow();
+	}
+
+	private static String largeText(int length) {
+		char[] text = new char[length];
+		Arrays.fill(text, 'x');
+
+		return new String(text);
+	}
+
+	private Future<?> sendAsync(final Channel channel, final String text) {
+		return executor.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				channel.send(new SimpleMessage(text));
+				return null;
+			}
+		});
+	}
+
+	private void interleaved() throws Exception {
+		final String large = largeText(4 * Channel.WINDOW_SIZE);
+
+		Future<?> largeSent = sendAsync(client.getChannel(1), large);
+		client.getChannel(2).send(new SimpleMessage("small"));
+
+		//the large message does not block the other channel
+		assertEquals("small", ((SimpleMessage)server.getChannel(2).receive()).getMessage());
+
+		//nobody consumes the large message: the sender waits for credit
+		Thread.sleep(200);
+		assertFalse(largeSent.isDone());
+
+		assertEquals(large, ((SimpleMessage)server.getChannel(1).receive()).getMessage());
+		largeSent.get(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void interleavedChannels() throws Exception {
+		connect(false);
+		interleaved();
+	}
+
+	@Test
+	public void interleavedChannelsGCM() throws Exception {
+		connect(true);
+		interleaved();
+	}
+
+	@Test
+	public void channelsAndUsualMessages() throws Exception {
+		connect(false);
+		client.enableCompactMessageIds();
+
+		client.getChannel(7).send(new SimpleMessage("channel 7"));
+		client.send(new SimpleMessage("usual"));
+		client.getChannel(0).send(new SimpleMessage("channel 0"));
+
+		assertEquals("usual", ((SimpleMessage)server.receive()).getMessage());
+		assertEquals("channel 0", ((SimpleMessage)server.getChannel(0).receive()).getMessage());
+		assertEquals("channel 7", ((SimpleMessage)server.getChannel(7).receive()).getMessage());
+	}
+
+	@Test
+	public void manyMessages() throws Exception {
+		connect(false);
+
+		final String text = largeText(10000);
+		Future<?> sent = executor.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				for(int i=0; i < 200; i++){
+					client.getChannel(3).send(new SimpleMessage(i + text));
+				}
+				return null;
+			}
+		});
+
+		for(int i=0; i < 200; i++){
+			assertEquals(i + text, ((SimpleMessage)server.getChannel(3).receive()).getMessage());
+		}
+		sent.get(5, TimeUnit.SECONDS);
+	}
+
+	@Test(expected = IOException.class)
+	public void creditForUnopenedChannel() throws Exception {
+		connect(true);
+
+		client.writeChannelCredit(5, 100);
+		server.receive();
+	}
+
+	@Test(expected = IOException.class)
+	public void tooMuchCredit() throws Exception {
+		connect(true);
+		server.getChannel(1);
+
+		//the server has not sent anything on this channel
+		client.writeChannelCredit(1, 100);
+		server.receive();
+	}
+
+	@Test(expected = IOException.class)
+	public void unauthenticatedChunk() throws Exception {
+		connect(true);
+
+		//somebody without the key sends a plain chunk on a new channel
+		new RawConnector(clientSocket).writeChannelChunk(4, RawConnector.PayloadMessage.class, 0, true, new byte[10], 10);
+		server.receive();
+	}
+
+	@Test
+	public void tooManyChannels() throws Exception {
+		connect(true);
+
+		for(int i=0; i <= Channel.MAX_PARTNER_CHANNELS; i++){
+			client.getChannel(i).send(new SimpleMessage("open"));
+		}
+
+		try {
+			server.receive();
+			fail("My partner has opened too many channels!");
+		} catch (IOException e) {
+			//expected
+		}
+	}
+}
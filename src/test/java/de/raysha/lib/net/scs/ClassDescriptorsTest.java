@@ -0,0 +1,86 @@
+package de.raysha.lib.net.scs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ObjectStreamClass;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import de.raysha.lib.net.scs.exception.SerializeException;
+import de.raysha.lib.net.scs.model.SimpleMessage;
+
+public class ClassDescriptorsTest {
+
+	@Test
+	public void descriptorsAreSentOnce() throws Exception {
+		ClassDescriptors sending = new ClassDescriptors();
+		ClassDescriptors receiving = new ClassDescriptors();
+		sending.enable();
+
+		SharedDescriptorSerializer<SimpleMessage> sender = new SharedDescriptorSerializer<SimpleMessage>(
+				new SimpleMessage.Serializer(), sending);
+		SharedDescriptorSerializer<SimpleMessage> receiver = new SharedDescriptorSerializer<SimpleMessage>(
+				new SimpleMessage.Serializer(), receiving);
+
+		byte[] first = sender.serialize(new SimpleMessage("Hello World!"));
+		assertTrue(sending.hasUnannounced());
+		receiving.announced(sending.drainAnnouncements());
+		byte[] second = sender.serialize(new SimpleMessage("Hello World!"));
+
+		assertFalse(sending.hasUnannounced());
+		assertEquals(first.length, second.length);
+		assertTrue(second.length * 3 < new SimpleMessage.Serializer().serialize(new SimpleMessage("Hello World!")).length);
+
+		assertEquals("Hello World!", receiver.deserialize(first).getMessage());
+		assertEquals("Hello World!", receiver.deserialize(second).getMessage());
+	}
+
+	@Test
+	public void usualStreamsAreReadToo() {
+		ClassDescriptors receiving = new ClassDescriptors();
+		SharedDescriptorSerializer<SimpleMessage> receiver = new SharedDescriptorSerializer<SimpleMessage>(
+				new SimpleMessage.Serializer(), receiving);
+
+		byte[] raw = new SimpleMessage.Serializer().serialize(new SimpleMessage("Hello World!"));
+
+		assertEquals("Hello World!", receiver.deserialize(ByteBuffer.wrap(raw).asReadOnlyBuffer()).getMessage());
+	}
+
+	@Test(expected = SerializeException.class)
+	public void unannouncedDescriptor() {
+		ClassDescriptors sending = new ClassDescriptors();
+		sending.enable();
+
+		byte[] raw = new SharedDescriptorSerializer<SimpleMessage>(new SimpleMessage.Serializer(), sending)
+				.serialize(new SimpleMessage("Hello World!"));
+
+		new SharedDescriptorSerializer<SimpleMessage>(new SimpleMessage.Serializer(), new ClassDescriptors()).deserialize(raw);
+	}
+
+	@Test
+	public void unknownClass() throws Exception {
+		ClassDescriptors sending = new ClassDescriptors();
+		ClassDescriptors receiving = new ClassDescriptors();
+
+		sending.handleOf(ObjectStreamClass.lookup(SimpleMessage.class));
+		sending.handleOf(ObjectStreamClass.lookup(Integer.class));
+		byte[] announcement = sending.drainAnnouncements();
+
+		//rename the message class, so that it is unknown on the receiving side
+		String stream = new String(announcement, "ISO-8859-1");
+		announcement = stream.replace("model.SimpleMessage", "model.SimpleMassage").getBytes("ISO-8859-1");
+		receiving.announced(announcement);
+
+		try {
+			receiving.descriptorOf(0);
+			fail("The class is unknown!");
+		} catch (ClassNotFoundException e) {
+			//expected
+		}
+		assertEquals(Integer.class.getName(), receiving.descriptorOf(1).getName());
+	}
+}
@@ -0,0 +1,46 @@
+package de.raysha.lib.net.scs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+
+import de.raysha.lib.net.scs.model.Message;
+import de.raysha.lib.net.scs.utils.VarInt;
+
+public class CompactMessageIdsTest {
+	private static final String MESSAGE_ID = "0123456789abcdef0123456789abcdef";
+	private static final Map<String, Class<? extends Message>> NO_CLASSES = Collections.emptyMap();
+
+	private static ByteBuffer announcement(int id) {
+		final byte[] varint = VarInt.toBytes(id);
+		return (ByteBuffer) ByteBuffer.allocate(varint.length + MESSAGE_ID.length())
+				.put(varint).put(MESSAGE_ID.getBytes()).flip();
+	}
+
+	@Test
+	public void assignmentsAreAnnounced() {
+		CompactMessageIds sending = new CompactMessageIds();
+		CompactMessageIds receiving = new CompactMessageIds();
+
+		sending.assign(MESSAGE_ID);
+		receiving.announced(ByteBuffer.wrap(sending.drainAnnouncements()), NO_CLASSES);
+
+		assertEquals(MESSAGE_ID, receiving.messageIdOf(VarInt.read(ByteBuffer.wrap(sending.encode(MESSAGE_ID)))));
+		assertNull(receiving.messageIdOf(-1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void hugeIdIsRejected() {
+		new CompactMessageIds().announced(announcement(0x0FFFFFFF), NO_CLASSES);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void negativeIdIsRejected() {
+		new CompactMessageIds().announced(announcement(-1), NO_CLASSES);
+	}
+}
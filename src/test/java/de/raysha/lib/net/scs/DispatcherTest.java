@@ -0,0 +1,240 @@
+package de.raysha.lib.net.scs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.raysha.lib.net.scs.model.Message;
+import de.raysha.lib.net.scs.model.SimpleMessage;
+import de.raysha.lib.net.scs.model.TextMessage;
+
+public class DispatcherTest {
+	private ServerSocket serverSocket;
+	private AESConnector server;
+	private AESConnector client;
+	private ExecutorService executor;
+
+	private static class RecordingErrorHandler implements DispatchErrorHandler {
+		private final BlockingQueue<Throwable> errors = new LinkedBlockingQueue<Throwable>();
+
+		@Override
+		public void onError(Connector connector, Throwable error) {
+			errors.add(error);
+		}
+	}
+
+	@Before
+	public void setup() throws Exception {
+		serverSocket = new ServerSocket(0);
+		client = buildConnector(new Socket("localhost", serverSocket.getLocalPort()));
+		server = buildConnector(serverSocket.accept());
+		executor = Executors.newFixedThreadPool(4);
+	}
+
+	@After
+	public void clean() throws Exception {
+		client.disconnect();
+		server.disconnect();
+		serverSocket.close();
+		executor.shutdownNow();
+	}
+
+	private AESConnector buildConnector(Socket socket) throws Exception {
+		AESConnector connector = new AESConnector(socket, "password");
+		connector.registerSerializer(SimpleMessage.class, new SimpleMessage.Serializer());
+		connector.registerSerializer(TextMessage.class, new TextMessage.Serializer());
+
+		return connector;
+	}
+
+	@Test
+	public void dispatchInOrder() throws Exception {
+		final List<String> handled = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch latch = new CountDownLatch(200);
+
+		server.registerHandler(SimpleMessage.class, new MessageHandler<SimpleMessage>() {
+			@Override
+			public void handle(Connector connector, SimpleMessage message) {
+				handled.add(message.getMessage());
+				latch.countDown();
+			}
+		});
+		server.startDispatching(executor, null);
+		assertTrue(server.isDispatching());
+
+		for(int i=0; i < 200; i++){
+			client.send(new SimpleMessage("Message " + i));
+		}
+
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		for(int i=0; i < 200; i++){
+			assertEquals("Message " + i, handled.get(i));
+		}
+	}
+
+	@Test
+	public void fallbackHandler() throws Exception {
+		final BlockingQueue<Message> handled = new LinkedBlockingQueue<Message>();
+
+		server.registerHandler(SimpleMessage.class, new MessageHandler<SimpleMessage>() {
+			@Override
+			public void handle(Connector connector, SimpleMessage message) {
+				handled.add(message);
+			}
+		});
+		server.registerHandler(Message.class, new MessageHandler<Message>() {
+			@Override
+			public void handle(Connector connector, Message message) {
+				handled.add(message);
+			}
+		});
+		server.startDispatching(executor, null);
+
+		client.send(new TextMessage(1, "text"));
+		client.send(new SimpleMessage("simple"));
+
+		assertTrue(handled.poll(5, TimeUnit.SECONDS) instanceof TextMessage);
+		assertTrue(handled.poll(5, TimeUnit.SECONDS) instanceof SimpleMessage);
+	}
+
+	@Test
+	public void failingHandler() throws Exception {
+		final BlockingQueue<String> handled = new LinkedBlockingQueue<String>();
+		final RecordingErrorHandler errorHandler = new RecordingErrorHandler();
+
+		server.registerHandler(SimpleMessage.class, new MessageHandler<SimpleMessage>() {
+			@Override
+			public void handle(Connector connector, SimpleMessage message) throws Exception {
+				if("fail".equals(message.getMessage())){
+					throw new Exception("expected");
+				}
+				handled.add(message.getMessage());
+			}
+		});
+		server.startDispatching(executor, errorHandler);
+
+		client.send(new SimpleMessage("fail"));
+		client.send(new TextMessage(1, "no handler"));
+		client.send(new SimpleMessage("next"));
+
+		assertEquals("next", handled.poll(5, TimeUnit.SECONDS));
+		assertEquals("expected", errorHandler.errors.poll(5, TimeUnit.SECONDS).getMessage());
+		assertTrue(errorHandler.errors.poll(5, TimeUnit.SECONDS) instanceof IllegalStateException);
+		assertTrue(server.isDispatching());
+	}
+
+	@Test
+	public void brokenConnection() throws Exception {
+		final RecordingErrorHandler errorHandler = new RecordingErrorHandler();
+		server.startDispatching(executor, errorHandler);
+
+		client.disconnect();
+
+		assertTrue(errorHandler.errors.poll(5, TimeUnit.SECONDS) instanceof IOException);
+		assertFalse(server.isDispatching());
+	}
+
+	@Test
+	public void dispatchSelectorMode() throws Exception {
+		final ServerSocketChannel channel = ServerSocketChannel.open();
+		channel.socket().bind(new InetSocketAddress(0));
+
+		AESServer aesServer = new AESServer("password", channel) {
+			@Override
+			protected void handleNewConnetion(AESConnector connector) {
+				connector.registerSerializer(SimpleMessage.class, new SimpleMessage.Serializer());
+				connector.registerHandler(SimpleMessage.class, new MessageHandler<SimpleMessage>() {
+					@Override
+					public void handle(Connector connector, SimpleMessage message) throws IOException {
+						connector.send(message);	//echo
+					}
+				});
+				connector.startDispatching(executor, null);
+			}
+		};
+		aesServer.start();
+
+		AESConnector echoClient = buildConnector(new Socket("localhost", channel.socket().getLocalPort()));
+		try {
+			for(int i=0; i < 200; i++){
+				echoClient.send(new SimpleMessage("Message " + i));
+			}
+			for(int i=0; i < 200; i++){
+				assertEquals("Message " + i, ((SimpleMessage)echoClient.receive()).getMessage());
+			}
+		} finally {
+			echoClient.disconnect();
+			aesServer.shutdown();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void protocolFramesDoNotBlockExecutor() throws Exception {
+		final ServerSocketChannel channel = ServerSocketChannel.open();
+		channel.socket().bind(new InetSocketAddress(0));
+		final ExecutorService smallPool = Executors.newFixedThreadPool(2);
+
+		AESServer aesServer = new AESServer("password", channel) {
+			@Override
+			protected void handleNewConnetion(AESConnector connector) {
+				connector.registerSerializer(SimpleMessage.class, new SimpleMessage.Serializer());
+				connector.registerHandler(SimpleMessage.class, new MessageHandler<SimpleMessage>() {
+					@Override
+					public void handle(Connector connector, SimpleMessage message) throws IOException {
+						connector.send(message);	//echo
+					}
+				});
+				connector.startDispatching(smallPool, null);
+			}
+		};
+		aesServer.start();
+
+		final List<AESConnector> clients = new ArrayList<AESConnector>();
+		try {
+			//two idle clients send only a ping: no drain task may wait for their messages
+			for(int i=0; i < 2; i++){
+				AESConnector idleClient = buildConnector(new Socket("localhost", channel.socket().getLocalPort()));
+				clients.add(idleClient);
+				idleClient.sendHeartbeat();
+			}
+			Thread.sleep(200);
+
+			AESConnector echoClient = buildConnector(new Socket("localhost", channel.socket().getLocalPort()));
+			clients.add(echoClient);
+			echoClient.send(new SimpleMessage("Hello World!"));
+			assertEquals("Hello World!", ((SimpleMessage)echoClient.receive()).getMessage());
+
+			//a streamed message is dispatched when all his chunks are received
+			final String longMessage = StringUtils.repeat("Long", Connector.BUFFER_SIZE);
+			echoClient.setChunkSize(1024);
+			echoClient.sendStreamed(new SimpleMessage(longMessage));
+			assertEquals(longMessage, ((SimpleMessage)echoClient.receive()).getMessage());
+		} finally {
+			for(AESConnector client : clients){
+				client.disconnect();
+			}
+			aesServer.shutdown();
+			smallPool.shutdownNow();
+		}
+	}
+}
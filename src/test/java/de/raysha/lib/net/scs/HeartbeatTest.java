@@ -0,0 +1,196 @@
+package de.raysha.lib.net.scs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import de.raysha.lib.net.scs.model.SimpleMessage;
+import de.raysha.lib.net.scs.utils.HashGenerator;
+import de.raysha.lib.net.scs.utils.HashedWheelTimer;
+
+public class HeartbeatTest {
+	private final HashedWheelTimer timer = new HashedWheelTimer("test", 10, TimeUnit.MILLISECONDS, 64);
+	private ServerSocket serverSocket;
+	private AESConnector server;
+	private AESConnector client;
+
+	private void connect() throws Exception {
+		serverSocket = new ServerSocket(0);
+		client = new AESConnector(new Socket("localhost", serverSocket.getLocalPort()), "password");
+		server = new AESConnector(serverSocket.accept(), "password");
+
+		client.registerSerializer(SimpleMessage.class, new SimpleMessage.Serializer());
+		server.registerSerializer(SimpleMessage.class, new SimpleMessage.Serializer());
+	}
+
+	@After
+	public void clean() throws Exception {
+		timer.stop();
+		if(client != null){
+			client.disconnect();
+			server.disconnect();
+			serverSocket.close();
+		}
+	}
+
+	@Test(timeout = 5000)
+	public void deadPartnerIsReaped() throws Exception {
+		connect();
+
+		//my partner does not receive, so he never answers the pings
+		server.startHeartbeat(timer, 50, 300, TimeUnit.MILLISECONDS);
+
+		final long start = System.nanoTime();
+		try {
+			server.receive();
+			fail("The connector should be disconnected!");
+		} catch (IOException e) {
+			assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(250));
+		}
+	}
+
+	@Test(timeout = 5000)
+	public void heartbeatKeepsAlive() throws Exception {
+		connect();
+
+		final BlockingQueue<SimpleMessage> received = new LinkedBlockingQueue<SimpleMessage>();
+		server.registerHandler(SimpleMessage.class, new MessageHandler<SimpleMessage>() {
+			@Override
+			public void handle(Connector connector, SimpleMessage message) {
+				received.add(message);
+			}
+		});
+		server.startDispatching(null, null);
+		client.startDispatching(null, null);
+
+		//only the pongs of the server reach the client and only the pings of the client reach the server
+		server.startHeartbeat(timer, 0, 300, TimeUnit.MILLISECONDS);
+		client.startHeartbeat(timer, 50, 300, TimeUnit.MILLISECONDS);
+		Thread.sleep(1000);
+
+		client.send(new SimpleMessage("still alive"));
+		assertEquals("still alive", received.poll(2, TimeUnit.SECONDS).getMessage());
+	}
+
+	@Test(timeout = 5000)
+	public void forgedPingIsNotAnswered() throws Exception {
+		serverSocket = new ServerSocket(0);
+		final Socket forger = new Socket("localhost", serverSocket.getLocalPort());
+		final AESConnector victim = new AESConnector(serverSocket.accept(), "password");
+
+		//a plain ping (type, type and number) without encryption
+		final byte[] controlId = HashGenerator.toMD5("de.raysha.lib.net.scs.Connector$Control").getBytes();
+		final ByteBuffer frame = ByteBuffer.allocate(4 + controlId.length + 3);
+		frame.putInt(controlId.length + 3).put(controlId).put((byte) 0).put((byte) 0).put((byte) 1);
+		forger.getOutputStream().write(frame.array());
+
+		try {
+			victim.receive();
+			fail("The forged ping should be rejected!");
+		} catch (IOException e) { }
+
+		//no pong: the connection is closed without an answer
+		forger.setSoTimeout(1000);
+		try {
+			assertEquals(-1, forger.getInputStream().read());
+		} catch (SocketTimeoutException e) { }
+
+		forger.close();
+		victim.disconnect();
+		serverSocket.close();
+	}
+
+	@Test(timeout = 10000)
+	public void serverReapsIdleConnections() throws Exception {
+		final ServerSocket socket = new ServerSocket(0);
+		final AESServer aesServer = new AESServer("password", socket) {
+			@Override
+			protected void handleNewConnetion(AESConnector connector) {
+				connector.startDispatching(null, new DispatchErrorHandler() {
+					@Override
+					public void onError(Connector connector, Throwable error) {
+					}
+				});
+			}
+		};
+		aesServer.setHeartbeat(50, 300, TimeUnit.MILLISECONDS);
+		aesServer.start();
+
+		try {
+			Socket idle = new Socket("localhost", socket.getLocalPort());
+			Socket other = new Socket("localhost", socket.getLocalPort());
+
+			final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while(aesServer.getLiveConnections() > 0 && System.nanoTime() < deadline){
+				Thread.sleep(10);
+			}
+			assertEquals(0, aesServer.getLiveConnections());
+
+			idle.close();
+			other.close();
+		} finally {
+			aesServer.shutdown();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void busyHandlerStaysAlive() throws Exception {
+		//the event loop reads the pings while the handler is busy
+		final ServerSocketChannel channel = ServerSocketChannel.open();
+		channel.socket().bind(new InetSocketAddress(0));
+		final AESServer aesServer = new AESServer("password", channel) {
+			@Override
+			protected void handleNewConnetion(AESConnector connector) {
+				connector.registerSerializer(SimpleMessage.class, new SimpleMessage.Serializer());
+				connector.registerHandler(SimpleMessage.class, new MessageHandler<SimpleMessage>() {
+					@Override
+					public void handle(Connector connector, SimpleMessage message) {
+						try {
+							//much longer than the idle timeout
+							Thread.sleep(1000);
+							connector.send(new SimpleMessage("done"));
+						} catch (Exception e) { }
+					}
+				});
+				connector.startDispatching(null, null);
+			}
+		};
+		aesServer.setHeartbeat(0, 300, TimeUnit.MILLISECONDS);
+		aesServer.start();
+
+		final AESConnector busyClient = new AESConnector(new Socket("localhost", channel.socket().getLocalPort()), "password");
+		try {
+			busyClient.registerSerializer(SimpleMessage.class, new SimpleMessage.Serializer());
+
+			final BlockingQueue<SimpleMessage> received = new LinkedBlockingQueue<SimpleMessage>();
+			busyClient.registerHandler(SimpleMessage.class, new MessageHandler<SimpleMessage>() {
+				@Override
+				public void handle(Connector connector, SimpleMessage message) {
+					received.add(message);
+				}
+			});
+			busyClient.startDispatching(null, null);
+			busyClient.startHeartbeat(timer, 50, 300, TimeUnit.MILLISECONDS);
+
+			busyClient.send(new SimpleMessage("work"));
+			assertEquals("done", received.poll(3, TimeUnit.SECONDS).getMessage());
+		} finally {
+			busyClient.disconnect();
+			aesServer.shutdown();
+		}
+	}
+}
@@ -0,0 +1,301 @@
+package de.raysha.lib.net.scs;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import javax.crypto.SecretKey;
+
+import de.raysha.lib.net.scs.BenchmarkRunner.Benchmark;
+import de.raysha.lib.net.scs.BenchmarkRunner.Result;
+import de.raysha.lib.net.scs.BenchmarkRunner.Worker;
+import de.raysha.lib.net.scs.Connector.RawMessage;
+import de.raysha.lib.net.scs.model.Message;
+import de.raysha.lib.net.scs.model.serialize.MessageSerializer;
+import de.raysha.lib.net.scs.model.serialize.ObjectSerializer;
+import de.raysha.lib.net.scs.utils.HashGenerator;
+
+/**
+ * The benchmarks of the hot paths: each stage alone (framing, encryption, serialization, hashing of the message
+ * ids) and whole round trips over loopback and over an in-memory socket pair (see {@link InMemorySocket}). Each
+ * benchmark is run for each payload size and thread count (see {@link BenchmarkRunner}). This is not a unit test.
+ * <p>
+ * The real benchmarks are the JMH benchmarks in the module <i>benchmarks</i>, which measure the same. This
+ * harness is only the fallback if JMH is not available. Run it with:
+ * <pre>
+ * java -cp ... [-Dbench.filter=regex] [-Dbench.payloads=64,1024] [-Dbench.threads=1,4] [-Dbench.warmup=millis]
+ *     [-Dbench.time=millis] [-Dbench.out=results.csv] de.raysha.lib.net.scs.HotPathBenchmarks
+ * </pre>
+ * The results of two versions can be compared with:
+ * <code>java -cp ... de.raysha.lib.net.scs.HotPathBenchmarks compare baseline.csv current.csv</code>
+ *
+ * @author rainu
+ */
+public class HotPathBenchmarks {
+	private static final SecretKey KEY = AESConnector.initialiseKey("benchmark");
+
+	static class PayloadMessage implements Message, Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final byte[] payload;
+
+		public PayloadMessage(byte[] payload) {
+			this.payload = payload;
+		}
+	}
+
+	/**
+	 * Copies only the payload, so the round trips do not measure the java serialization.
+	 */
+	static class PayloadSerializer implements MessageSerializer<PayloadMessage> {
+		@Override
+		public byte[] serialize(PayloadMessage message) {
+			return message.payload;
+		}
+
+		@Override
+		public PayloadMessage deserialize(byte[] rawMessage) {
+			return new PayloadMessage(rawMessage);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if(args.length == 3 && "compare".equals(args[0])){
+			BenchmarkRunner.compare(args[1], args[2]);
+			return;
+		}
+
+		final Pattern filter = Pattern.compile(System.getProperty("bench.filter", ".*"));
+		final int[] payloads = parse(System.getProperty("bench.payloads", "64,1024,16384,262144"));
+		final int[] threads = parse(System.getProperty("bench.threads", "1,4"));
+		final BenchmarkRunner runner = new BenchmarkRunner(
+				Long.parseLong(System.getProperty("bench.warmup", "1000")),
+				Long.parseLong(System.getProperty("bench.time", "3000")));
+
+		final List<Result> results = new ArrayList<Result>();
+		for(Benchmark benchmark : benchmarks()){
+			if(!filter.matcher(benchmark.getName()).matches()) continue;
+
+			for(int payload : payloads){
+				for(int threadCount : threads){
+					final Result result = runner.run(benchmark, payload, threadCount);
+					System.out.println(result);
+					results.add(result);
+				}
+			}
+		}
+
+		final String out = System.getProperty("bench.out");
+		if(out != null){
+			BenchmarkRunner.writeCsv(out, results);
+		}
+	}
+
+	private static int[] parse(String values) {
+		final String[] split = values.split(",");
+		final int[] parsed = new int[split.length];
+		for(int i=0; i < split.length; i++){
+			parsed[i] = Integer.parseInt(split[i].trim());
+		}
+
+		return parsed;
+	}
+
+	private static List<Benchmark> benchmarks() {
+		return Arrays.asList(
+				md5(),
+				objectSerializer(),
+				framing(),
+				encrypt("aes-cbc-encrypt", false),
+				encrypt("aes-gcm-encrypt", true),
+				decrypt("aes-cbc-decrypt", false),
+				decrypt("aes-gcm-decrypt", true),
+				roundTrip("roundtrip-memory-cbc", false, true),
+				roundTrip("roundtrip-loopback-cbc", false, false),
+				roundTrip("roundtrip-loopback-gcm", true, false));
+	}
+
+	private static Benchmark md5() {
+		return new Benchmark("md5") {
+			@Override
+			public Worker newWorker(int payload) {
+				final char[] text = new char[payload];
+				Arrays.fill(text, 'x');
+				final String string = new String(text);
+
+				return new Worker() {
+					@Override
+					public void operate() {
+						HashGenerator.toMD5(string);
+					}
+				};
+			}
+		};
+	}
+
+	private static Benchmark objectSerializer() {
+		return new Benchmark("object-serializer") {
+			@Override
+			public Worker newWorker(int payload) {
+				final ObjectSerializer<PayloadMessage> serializer = new ObjectSerializer<PayloadMessage>();
+				final PayloadMessage message = new PayloadMessage(new byte[payload]);
+
+				return new Worker() {
+					@Override
+					public void operate() {
+						serializer.deserialize(serializer.serialize(message));
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * Only the framing: one frame is written into and read from an in-memory socket pair.
+	 */
+	private static Benchmark framing() {
+		return new Benchmark("framing-memory") {
+			@Override
+			public Worker newWorker(int payload) throws Exception {
+				final InMemorySocket[] sockets = InMemorySocket.pair(Math.max(64 * 1024, 2 * payload + 64));
+				final RawConnector sender = new RawConnector(sockets[0]);
+				final RawConnector receiver = new RawConnector(sockets[1]);
+				final byte[] bytes = new byte[payload];
+
+				return new Worker() {
+					@Override
+					public void operate() throws IOException {
+						sender.sendPayload(bytes);
+						receiver.receivePayload();
+					}
+
+					@Override
+					public void close() throws IOException {
+						sender.disconnect();
+						receiver.disconnect();
+					}
+				};
+			}
+		};
+	}
+
+	static AbstractAESConnector newConnector(Socket socket, boolean gcm) throws Exception {
+		return newConnector(socket, gcm, false);
+	}
+
+	static AbstractAESConnector newConnector(Socket socket, boolean gcm, boolean serverSide) throws Exception {
+		final AbstractAESConnector connector = gcm ? new AESGCMConnector(socket, KEY, serverSide) : new AESConnector(socket, KEY);
+		connector.registerSerializer(PayloadMessage.class, new PayloadSerializer());
+
+		return connector;
+	}
+
+	private static Benchmark encrypt(String name, final boolean gcm) {
+		return new Benchmark(name) {
+			@Override
+			public Worker newWorker(int payload) throws Exception {
+				final AbstractAESConnector connector = newConnector(null, gcm);
+				final byte[] bytes = new byte[payload];
+
+				return new Worker() {
+					@Override
+					public void operate() {
+						connector.encodeChunk(PayloadMessage.class, 0, true, bytes, bytes.length);
+					}
+				};
+			}
+		};
+	}
+
+	private static Benchmark decrypt(String name, final boolean gcm) {
+		return new Benchmark(name) {
+			@Override
+			public Worker newWorker(int payload) throws Exception {
+				final AbstractAESConnector sender = newConnector(null, gcm);
+				final String messageId = sender.classToMessageId.get(PayloadMessage.class);
+
+				//a gcm connector accepts each nonce only once, so the chunks are encrypted in advance
+				final byte[][] encrypted = new byte[Math.max(16, 4 * 1024 * 1024 / Math.max(1, payload))][];
+				for(int i=0; i < encrypted.length; i++){
+					encrypted[i] = sender.encodeChunk(PayloadMessage.class, 0, true, new byte[payload], payload);
+				}
+
+				return new Worker() {
+					private AbstractAESConnector receiver = newConnector(null, gcm, true);
+					private int next = 0;
+
+					@Override
+					public void operate() throws Exception {
+						if(next == encrypted.length){
+							receiver = newConnector(null, gcm, true);
+							next = 0;
+						}
+						receiver.decodeChunk(new RawMessage(messageId, PayloadMessage.class, ByteBuffer.wrap(encrypted[next++])), 0, true);
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * A whole round trip: the message is sent to an echo connector and received again.
+	 */
+	private static Benchmark roundTrip(String name, final boolean gcm, final boolean inMemory) {
+		return new Benchmark(name) {
+			@Override
+			public Worker newWorker(int payload) throws Exception {
+				final Socket clientSocket;
+				final Socket serverSocket;
+				if(inMemory){
+					final InMemorySocket[] sockets = InMemorySocket.pair(Math.max(64 * 1024, 2 * payload + 1024));
+					clientSocket = sockets[0];
+					serverSocket = sockets[1];
+				}else{
+					final ServerSocket listener = new ServerSocket(0);
+					try {
+						clientSocket = new Socket("localhost", listener.getLocalPort());
+						serverSocket = listener.accept();
+					} finally {
+						listener.close();
+					}
+				}
+
+				final AbstractAESConnector client = newConnector(clientSocket, gcm);
+				final AbstractAESConnector echo = newConnector(serverSocket, gcm, true);
+				final Thread echoThread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							while(true){
+								echo.send(echo.receive());
+							}
+						} catch (IOException e) { }
+					}
+				}, "Benchmark-Echo");
+				echoThread.setDaemon(true);
+				echoThread.start();
+
+				final PayloadMessage message = new PayloadMessage(new byte[payload]);
+				return new Worker() {
+					@Override
+					public void operate() throws IOException {
+						client.send(message);
+						client.receive();
+					}
+
+					@Override
+					public void close() throws IOException {
+						client.disconnect();
+						echo.disconnect();
+					}
+				};
+			}
+		};
+	}
+}
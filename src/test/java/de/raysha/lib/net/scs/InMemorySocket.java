@@ -0,0 +1,197 @@
+package de.raysha.lib.net.scs;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketImpl;
+import java.net.SocketTimeoutException;
+
+/**
+ * One end of an in-memory socket pair (see {@link #pair(int)}). The bytes are moved through ring buffers, so the
+ * benchmarks can measure a {@link Connector} without the network stack. Only the streams, the timeout and
+ * {@link #close()} are supported.
+ *
+ * @author rainu
+ */
+class InMemorySocket extends Socket {
+	private final Pipe in;
+	private final Pipe out;
+	private volatile int soTimeout = 0;
+	private volatile boolean closed = false;
+
+	private InMemorySocket(Pipe in, Pipe out) throws SocketException {
+		super((SocketImpl) null);
+
+		this.in = in;
+		this.out = out;
+	}
+
+	/**
+	 * Create two connected sockets.
+	 *
+	 * @param capacity The number of bytes which can be buffered in each direction.
+	 */
+	public static InMemorySocket[] pair(int capacity) throws SocketException {
+		final Pipe first = new Pipe(capacity);
+		final Pipe second = new Pipe(capacity);
+
+		return new InMemorySocket[]{ new InMemorySocket(first, second), new InMemorySocket(second, first) };
+	}
+
+	@Override
+	public InputStream getInputStream() {
+		return inputStream;
+	}
+
+	@Override
+	public OutputStream getOutputStream() {
+		return outputStream;
+	}
+
+	@Override
+	public void setTcpNoDelay(boolean on) {
+	}
+
+	@Override
+	public void setSoTimeout(int timeout) {
+		this.soTimeout = timeout;
+	}
+
+	@Override
+	public int getSoTimeout() {
+		return soTimeout;
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closed;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		in.close();
+		out.close();
+	}
+
+	@Override
+	public String toString() {
+		return "InMemorySocket@" + Integer.toHexString(hashCode());
+	}
+
+	private final InputStream inputStream = new InputStream() {
+		@Override
+		public int read() throws IOException {
+			final byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return in.read(b, off, len, soTimeout);
+		}
+
+		@Override
+		public int available() {
+			return in.available();
+		}
+	};
+
+	private final OutputStream outputStream = new OutputStream() {
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[]{ (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+	};
+
+	/**
+	 * A blocking ring buffer for one direction.
+	 */
+	private static class Pipe {
+		private final byte[] buffer;
+		private int readPosition = 0;
+		private int size = 0;
+		private boolean closed = false;
+
+		public Pipe(int capacity) {
+			this.buffer = new byte[capacity];
+		}
+
+		public synchronized int read(byte[] b, int off, int len, int timeout) throws IOException {
+			if(len == 0){
+				return 0;
+			}
+
+			final long deadline = System.currentTimeMillis() + timeout;
+			while(size == 0){
+				if(closed){
+					return -1;
+				}
+
+				final long remaining = deadline - System.currentTimeMillis();
+				if(timeout > 0 && remaining <= 0){
+					throw new SocketTimeoutException();
+				}
+				await(timeout > 0 ? remaining : 0);
+			}
+
+			final int count = Math.min(len, size);
+			final int first = Math.min(count, buffer.length - readPosition);
+			System.arraycopy(buffer, readPosition, b, off, first);
+			System.arraycopy(buffer, 0, b, off + first, count - first);
+
+			readPosition = (readPosition + count) % buffer.length;
+			size -= count;
+			notifyAll();
+
+			return count;
+		}
+
+		public synchronized void write(byte[] b, int off, int len) throws IOException {
+			while(len > 0){
+				while(size == buffer.length && !closed){
+					await(0);
+				}
+				if(closed){
+					throw new EOFException("The socket is closed!");
+				}
+
+				final int writePosition = (readPosition + size) % buffer.length;
+				final int count = Math.min(len, Math.min(buffer.length - size, buffer.length - writePosition));
+				System.arraycopy(b, off, buffer, writePosition, count);
+
+				size += count;
+				off += count;
+				len -= count;
+				notifyAll();
+			}
+		}
+
+		private void await(long timeout) throws InterruptedIOException {
+			try {
+				wait(timeout);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+
+		public synchronized int available() {
+			return size;
+		}
+
+		public synchronized void close() {
+			closed = true;
+			notifyAll();
+		}
+	}
+}
@@ -0,0 +1,300 @@
+package de.raysha.lib.net.scs;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.crypto.SecretKey;
+
+import de.raysha.lib.net.scs.HotPathBenchmarks.PayloadMessage;
+import de.raysha.lib.net.scs.HotPathBenchmarks.PayloadSerializer;
+import de.raysha.lib.net.scs.model.Message;
+import de.raysha.lib.net.scs.model.QuoteMessage;
+import de.raysha.lib.net.scs.model.QuoteMessage.Side;
+import de.raysha.lib.net.scs.model.SimpleMessage;
+import de.raysha.lib.net.scs.utils.LatencyHistogram;
+
+/**
+ * A load and soak test of an {@link AESServer}: N simulated {@link AESConnector} clients send messages to a local
+ * echo server and measure the round trips. Each client sends with a fixed rate and the latency is measured from
+ * the time when the message should have been sent. So a stalled server is not hidden by clients which wait for it
+ * (coordinated omission). The clients can reconnect after a number of messages (connection churn).
+ * <p>
+ * Every report interval the throughput, the latency percentiles of the interval, the errors, the live connections
+ * and the threads and heap of the JVM are printed (and optionally written as CSV). At the end the percentiles of
+ * the whole run are printed. This is not a unit test. Run it with:
+ * <pre>
+ * java -cp ... [-Dload.clients=100] [-Dload.duration=seconds] [-Dload.rate=messages per second and client, 0 = unlimited]
+ *     [-Dload.types=raw,object,quote] [-Dload.sizes=64,1024] [-Dload.churn=messages per connection, 0 = never]
+ *     [-Dload.report=seconds] [-Dload.gcm=true] [-Dload.selector=true] [-Dload.out=report.csv]
+ *     de.raysha.lib.net.scs.LoadGenerator
+ * </pre>
+ * The message types are <i>raw</i> (the payload is copied only), <i>object</i> (java serialization) and
+ * <i>quote</i> (a small compact serialized message with the payload as extra bytes).
+ *
+ * @author rainu
+ */
+public class LoadGenerator {
+	private static final SecretKey KEY = AESConnector.initialiseKey("load");
+
+	private final int clients = Integer.getInteger("load.clients", 100);
+	private final long durationSeconds = Long.getLong("load.duration", 60);
+	private final int rate = Integer.getInteger("load.rate", 100);
+	private final String[] types = System.getProperty("load.types", "raw").split(",");
+	private final int[] sizes = parse(System.getProperty("load.sizes", "64,1024"));
+	private final int churn = Integer.getInteger("load.churn", 0);
+	private final long reportSeconds = Long.getLong("load.report", 10);
+	private final boolean gcm = Boolean.getBoolean("load.gcm");
+	private final boolean selector = Boolean.getBoolean("load.selector");
+	private final String out = System.getProperty("load.out");
+
+	private final LatencyHistogram total = new LatencyHistogram();
+	private final AtomicReference<LatencyHistogram> interval = new AtomicReference<LatencyHistogram>(new LatencyHistogram());
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong connects = new AtomicLong();
+	private volatile boolean running = true;
+	private int port;
+
+	public static void main(String[] args) throws Exception {
+		new LoadGenerator().run();
+	}
+
+	private static int[] parse(String values) {
+		final String[] split = values.split(",");
+		final int[] parsed = new int[split.length];
+		for(int i=0; i < split.length; i++){
+			parsed[i] = Integer.parseInt(split[i].trim());
+		}
+
+		return parsed;
+	}
+
+	private static void registerSerializers(Connector connector) {
+		connector.registerSerializer(PayloadMessage.class, new PayloadSerializer());
+		connector.registerSerializer(SimpleMessage.class, new SimpleMessage.Serializer());
+		connector.registerSerializer(QuoteMessage.class, new QuoteMessage.Serializer());
+	}
+
+	private static Message newMessage(String type, int size) {
+		if("object".equals(type)){
+			final char[] text = new char[size];
+			Arrays.fill(text, 'x');
+			return new SimpleMessage(new String(text));
+		}
+		if("quote".equals(type)){
+			return new QuoteMessage(System.currentTimeMillis(), "ACME", 42.5, 100, true, Side.ASK, 7, new byte[size]);
+		}
+		if("raw".equals(type)){
+			return new PayloadMessage(new byte[size]);
+		}
+
+		throw new IllegalArgumentException("Unknown message type: " + type);
+	}
+
+	private AESServer startServer(final ExecutorService dispatchers) throws Exception {
+		final AESServer server;
+		if(selector){
+			final ServerSocketChannel channel = ServerSocketChannel.open();
+			channel.socket().bind(new InetSocketAddress("localhost", 0), 1024);
+			port = channel.socket().getLocalPort();
+			server = new EchoServer(channel, dispatchers);
+		}else{
+			final ServerSocket socket = new ServerSocket(0, 1024);
+			port = socket.getLocalPort();
+			server = new EchoServer(socket, dispatchers);
+		}
+		server.setGCMMode(gcm);
+		server.enableMetrics();
+		server.start();
+
+		return server;
+	}
+
+	private static class EchoServer extends AESServer {
+		private final ExecutorService dispatchers;
+
+		public EchoServer(ServerSocket socket, ExecutorService dispatchers) throws Exception {
+			super(KEY, socket);
+			this.dispatchers = dispatchers;
+		}
+
+		public EchoServer(ServerSocketChannel channel, ExecutorService dispatchers) throws Exception {
+			super(KEY, channel);
+			this.dispatchers = dispatchers;
+		}
+
+		@Override
+		protected void handleNewConnetion(AESConnector connector) {
+			handle(connector);
+		}
+
+		@Override
+		protected void handleNewGCMConnection(AESGCMConnector connector) {
+			handle(connector);
+		}
+
+		private void handle(AbstractAESConnector connector) {
+			registerSerializers(connector);
+			connector.registerHandler(Message.class, new MessageHandler<Message>() {
+				@Override
+				public void handle(Connector connector, Message message) throws IOException {
+					connector.send(message);
+				}
+			});
+			connector.startDispatching(dispatchers, new DispatchErrorHandler() {
+				@Override
+				public void onError(Connector connector, Throwable error) {
+					//a client has disconnected
+				}
+			});
+		}
+	}
+
+	private class Client implements Runnable {
+		private final Random random;
+
+		public Client(long seed) {
+			this.random = new Random(seed);
+		}
+
+		private AbstractAESConnector connect() throws Exception {
+			final Socket socket = new Socket("localhost", port);
+			final AbstractAESConnector connector = gcm ? new AESGCMConnector(socket, KEY) : new AESConnector(socket, KEY);
+			registerSerializers(connector);
+			connects.incrementAndGet();
+
+			return connector;
+		}
+
+		@Override
+		public void run() {
+			final long period = rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+			//spread the clients over the first period
+			long next = System.nanoTime() + (period > 0 ? (long) (random.nextDouble() * period) : 0);
+
+			while(running){
+				AbstractAESConnector connector = null;
+				try {
+					connector = connect();
+
+					for(int sent=0; running && (churn <= 0 || sent < churn); sent++){
+						final Message message = newMessage(types[random.nextInt(types.length)], sizes[random.nextInt(sizes.length)]);
+
+						long now = System.nanoTime();
+						if(period > 0){
+							if(next > now){
+								TimeUnit.NANOSECONDS.sleep(next - now);
+							}
+						}else{
+							next = now;
+						}
+
+						connector.send(message);
+						connector.receive();
+
+						//from the intended start: a stall is counted for all messages which should have been sent
+						final long latency = System.nanoTime() - next;
+						total.record(latency);
+						interval.get().record(latency);
+						next += period;
+					}
+				} catch (InterruptedException e) {
+					return;
+				} catch (Exception e) {
+					if(running){
+						errors.incrementAndGet();
+					}
+				} finally {
+					if(connector != null){
+						try { connector.disconnect(); } catch (IOException e) { }
+					}
+				}
+			}
+		}
+	}
+
+	public void run() throws Exception {
+		final ExecutorService dispatchers = Executors.newCachedThreadPool();
+		final AESServer server = startServer(dispatchers);
+		final ServerMetrics serverMetrics = server.getMetrics();
+		final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		final PrintWriter csv = out == null ? null : new PrintWriter(new FileWriter(out));
+
+		System.out.printf("clients=%d, rate=%d/s per client, types=%s, sizes=%s, churn=%d, gcm=%s, selector=%s, duration=%ds%n",
+				clients, rate, Arrays.toString(types), Arrays.toString(sizes), churn, gcm, selector, durationSeconds);
+		final String header = "seconds,messagesPerSecond,p50Micros,p90Micros,p99Micros,p999Micros,maxMicros,errors,connects,liveConnections,threads,heapMB";
+		if(csv != null){
+			csv.println(header);
+		}
+
+		final List<Thread> clientThreads = new ArrayList<Thread>();
+		for(int i=0; i < clients; i++){
+			final Thread thread = new Thread(new Client(i), "LoadGenerator-Client-" + i);
+			thread.setDaemon(true);
+			thread.start();
+			clientThreads.add(thread);
+		}
+
+		final long start = System.nanoTime();
+		final long end = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+		try {
+			while(System.nanoTime() < end){
+				Thread.sleep(Math.min(TimeUnit.SECONDS.toMillis(reportSeconds), TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime()) + 1));
+
+				final LatencyHistogram latency = interval.getAndSet(new LatencyHistogram());
+				final long seconds = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start);
+				final String line = String.format(Locale.ROOT, "%d,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f,%d,%d,%d,%d,%d",
+						seconds, latency.getCount() / (double) reportSeconds,
+						latency.getPercentile(50, TimeUnit.MICROSECONDS), latency.getPercentile(90, TimeUnit.MICROSECONDS),
+						latency.getPercentile(99, TimeUnit.MICROSECONDS), latency.getPercentile(99.9, TimeUnit.MICROSECONDS),
+						latency.getMax() / 1000d, errors.get(), connects.get(), serverMetrics.getLiveConnections(),
+						threads.getThreadCount(), memory.getHeapMemoryUsage().getUsed() / (1024 * 1024));
+
+				System.out.printf("%4ds  %10.0f msg/s  p50 %8.1f us  p99 %8.1f us  p99.9 %8.1f us  max %9.1f us  errors %d  live %d  threads %d  heap %d MB%n",
+						seconds, latency.getCount() / (double) reportSeconds, latency.getPercentile(50, TimeUnit.MICROSECONDS),
+						latency.getPercentile(99, TimeUnit.MICROSECONDS), latency.getPercentile(99.9, TimeUnit.MICROSECONDS),
+						latency.getMax() / 1000d, errors.get(), serverMetrics.getLiveConnections(), threads.getThreadCount(),
+						memory.getHeapMemoryUsage().getUsed() / (1024 * 1024));
+				if(csv != null){
+					csv.println(line);
+					csv.flush();
+				}
+			}
+		} finally {
+			running = false;
+			for(Thread thread : clientThreads){
+				thread.join(2500);
+			}
+			server.shutdown();
+			dispatchers.shutdownNow();
+			if(csv != null){
+				csv.close();
+			}
+		}
+
+		final double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("total: %d messages, %.0f msg/s, %d errors, %d connects%n",
+				total.getCount(), total.getCount() / seconds, errors.get(), connects.get());
+		for(double percentile : new double[]{ 50, 90, 99, 99.9, 99.99, 100 }){
+			System.out.printf("  p%-6s %10.1f us%n", percentile, total.getPercentile(percentile, TimeUnit.MICROSECONDS));
+		}
+	}
+}
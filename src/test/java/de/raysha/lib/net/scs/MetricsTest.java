@@ -0,0 +1,165 @@
+package de.raysha.lib.net.scs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Test;
+
+import de.raysha.lib.net.scs.model.Message;
+import de.raysha.lib.net.scs.model.SimpleMessage;
+
+public class MetricsTest {
+	private ServerSocket serverSocket;
+	private AESConnector server;
+	private AESConnector client;
+
+	private void connect() throws Exception {
+		serverSocket = new ServerSocket(0);
+		client = new AESConnector(new Socket("localhost", serverSocket.getLocalPort()), "password");
+		server = new AESConnector(serverSocket.accept(), "password");
+
+		client.registerSerializer(SimpleMessage.class, new SimpleMessage.Serializer());
+		server.registerSerializer(SimpleMessage.class, new SimpleMessage.Serializer());
+	}
+
+	@After
+	public void clean() throws Exception {
+		if(client != null){
+			client.disconnect();
+			server.disconnect();
+			serverSocket.close();
+		}
+	}
+
+	@Test
+	public void connectorMetrics() throws Exception {
+		connect();
+		assertNull(client.getMetrics());
+
+		ConnectorMetrics clientMetrics = new ConnectorMetrics();
+		ConnectorMetrics serverMetrics = new ConnectorMetrics();
+		client.setMetrics(clientMetrics);
+		server.setMetrics(serverMetrics);
+
+		for(int i=0; i < 10; i++){
+			client.send(new SimpleMessage("Message " + i));
+		}
+		for(int i=0; i < 10; i++){
+			server.receive();
+		}
+
+		assertEquals(10, clientMetrics.getMessagesSent());
+		assertEquals(10, clientMetrics.getFramesSent());
+		assertEquals(10, clientMetrics.getTypeMetrics(SimpleMessage.class).getSent());
+		assertEquals(10, clientMetrics.getLatency(MetricStage.SERIALIZE).getCount());
+		assertEquals(10, clientMetrics.getLatency(MetricStage.ENCRYPT).getCount());
+		assertEquals(10, clientMetrics.getLatency(MetricStage.WRITE).getCount());
+
+		assertEquals(10, serverMetrics.getMessagesReceived());
+		assertEquals(10, serverMetrics.getFramesReceived());
+		assertEquals(clientMetrics.getBytesSent(), serverMetrics.getBytesReceived());
+		assertEquals(10, serverMetrics.getTypeMetrics(SimpleMessage.class).getReceived());
+		assertEquals(10, serverMetrics.getLatency(MetricStage.READ).getCount());
+		assertEquals(10, serverMetrics.getLatency(MetricStage.DECRYPT).getCount());
+		assertEquals(10, serverMetrics.getLatency(MetricStage.DESERIALIZE).getCount());
+		assertEquals(0, serverMetrics.getMessagesSent());
+	}
+
+	@Test
+	public void mbean() throws Exception {
+		connect();
+
+		ConnectorMetrics metrics = new ConnectorMetrics();
+		client.setMetrics(metrics);
+		ObjectName name = metrics.registerMBean("client");
+
+		client.send(new SimpleMessage("Hello"));
+
+		MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+		assertEquals(1L, mbeanServer.getAttribute(name, "MessagesSent"));
+		assertEquals(1L, mbeanServer.invoke(name, "getMessagesSentOf",
+				new Object[]{ SimpleMessage.class.getName() }, new String[]{ String.class.getName() }));
+		assertTrue((Double) mbeanServer.invoke(name, "getStagePercentileMicros",
+				new Object[]{ "SERIALIZE", 99d }, new String[]{ String.class.getName(), double.class.getName() }) >= 0);
+
+		//the mbean lives as long as the connector
+		client.disconnect();
+		assertFalse(mbeanServer.isRegistered(name));
+	}
+
+	@Test
+	public void serverMetrics() throws Exception {
+		final ServerSocket socket = new ServerSocket(0);
+		final AESServer aesServer = new AESServer("password", socket) {
+			@Override
+			protected void handleNewConnetion(final AESConnector connector) {
+				connector.registerSerializer(SimpleMessage.class, new SimpleMessage.Serializer());
+				connector.registerHandler(SimpleMessage.class, new MessageHandler<SimpleMessage>() {
+					@Override
+					public void handle(Connector connector, SimpleMessage message) throws Exception {
+						connector.disconnect();
+					}
+				});
+				connector.startDispatching(null, null);
+			}
+		};
+		final ServerMetrics metrics = aesServer.enableMetrics();
+		final AtomicInteger received = new AtomicInteger();
+		metrics.addListener(new MetricsListener() {
+			@Override
+			public void onStage(ConnectorMetrics metrics, MetricStage stage, Class<? extends Message> messageClass, long nanos) {
+				if(stage == MetricStage.DESERIALIZE) received.incrementAndGet();
+			}
+
+			@Override
+			public void onFrameSent(ConnectorMetrics metrics, int bytes) {
+			}
+
+			@Override
+			public void onFrameReceived(ConnectorMetrics metrics, int bytes) {
+			}
+		});
+		aesServer.start();
+
+		try {
+			AESConnector first = new AESConnector(new Socket("localhost", socket.getLocalPort()), "password");
+			AESConnector second = new AESConnector(new Socket("localhost", socket.getLocalPort()), "password");
+			first.registerSerializer(SimpleMessage.class, new SimpleMessage.Serializer());
+
+			awaitLiveConnections(metrics, 2);
+			assertEquals(2, metrics.getAcceptedConnections());
+
+			//the server disconnects after the first message
+			first.send(new SimpleMessage("bye"));
+			awaitLiveConnections(metrics, 1);
+			assertEquals(1, metrics.getConnectorMetrics().getMessagesReceived());
+			assertEquals(1, received.get());
+
+			first.disconnect();
+			second.disconnect();
+		} finally {
+			aesServer.shutdown();
+		}
+	}
+
+	private static void awaitLiveConnections(ServerMetrics metrics, int expected) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while(metrics.getLiveConnections() != expected && System.nanoTime() < deadline){
+			Thread.sleep(10);
+		}
+
+		assertEquals(expected, metrics.getLiveConnections());
+	}
+}
@@ -0,0 +1,236 @@
+package de.raysha.lib.net.scs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import de.raysha.lib.net.scs.model.Message;
+import de.raysha.lib.net.scs.model.SimpleMessage;
+
+public class PublishTest {
+	private static final String TOPIC = "news";
+	private static final int HIGH_WATERMARK = 8;
+
+	/**
+	 * Serializes the messages in upper case, so the receivers can see which serializer was used.
+	 */
+	private static class ShoutingSerializer extends SimpleMessage.Serializer {
+		@Override
+		public byte[] serialize(SimpleMessage message) {
+			return super.serialize(new SimpleMessage(message.getMessage().toUpperCase()));
+		}
+	}
+
+	private AESServer server;
+	private int port;
+	private final List<AbstractAESConnector> clients = new ArrayList<AbstractAESConnector>();
+	private final List<AbstractAESConnector> subscribers = new CopyOnWriteArrayList<AbstractAESConnector>();
+	private final SimpleMessage.Serializer serializer = new SimpleMessage.Serializer();
+	private int shoutingSubscriber = -1;
+
+	private void startServer(boolean gcm, int slowSubscriber) throws Exception {
+		startServer(gcm, slowSubscriber, false);
+	}
+
+	private void startServer(boolean gcm, final int slowSubscriber, final boolean watermarks) throws Exception {
+		final ServerSocket socket = new ServerSocket(0);
+		final AtomicInteger connections = new AtomicInteger();
+		port = socket.getLocalPort();
+		server = new AESServer("password", socket) {
+			@Override
+			protected void handleNewConnetion(AESConnector connector) {
+				handle(connector);
+			}
+
+			@Override
+			protected void handleNewGCMConnection(AESGCMConnector connector) {
+				handle(connector);
+			}
+
+			private void handle(AbstractAESConnector connector) {
+				final int number = connections.getAndIncrement();
+				connector.registerSerializer(SimpleMessage.class,
+						number == shoutingSubscriber ? new ShoutingSerializer() : serializer);
+				try {
+					if(number == 1){
+						connector.enableCompactMessageIds();
+					}
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+				if(number == slowSubscriber && watermarks){
+					connector.setSendQueueWatermarks(2, HIGH_WATERMARK, new SendQueueListener() {
+						@Override
+						public void onHighWatermark(Connector connector) { }
+						@Override
+						public void onLowWatermark(Connector connector) { }
+					});
+				}else if(number == slowSubscriber){
+					connector.setSendQueue(1, OverflowPolicy.FAIL);
+				}
+
+				//connect() waits for the subscription, so the connector must be listed before
+				subscribers.add(connector);
+				subscribe(TOPIC, connector);
+			}
+		};
+		server.setGCMMode(gcm);
+		server.enableMetrics();
+		server.start();
+	}
+
+	private void connect(int count, boolean gcm) throws Exception {
+		for(int i=0; i < count; i++){
+			final Socket socket = new Socket("localhost", port);
+			final AbstractAESConnector client = gcm ? new AESGCMConnector(socket, "password") : new AESConnector(socket, "password");
+			client.registerSerializer(SimpleMessage.class, new SimpleMessage.Serializer());
+			clients.add(client);
+		}
+
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while(server.getSubscriberCount(TOPIC) < count && System.nanoTime() < deadline){
+			Thread.sleep(10);
+		}
+		assertEquals(count, server.getSubscriberCount(TOPIC));
+	}
+
+	@After
+	public void clean() throws Exception {
+		for(AbstractAESConnector client : clients){
+			client.disconnect();
+		}
+		server.shutdown();
+	}
+
+	@Test(timeout = 10000)
+	public void publishCBC() throws Exception {
+		publish(false);
+	}
+
+	@Test(timeout = 10000)
+	public void publishGCM() throws Exception {
+		publish(true);
+	}
+
+	private void publish(boolean gcm) throws Exception {
+		startServer(gcm, -1);
+		connect(3, gcm);
+
+		//the (encrypted) announcements of the handshake are not part of the fan-out
+		final ConnectorMetrics metrics = server.getMetrics().getConnectorMetrics();
+		final long encrypted = metrics.getLatency(MetricStage.ENCRYPT).getCount();
+
+		assertEquals(3, server.publish(TOPIC, new SimpleMessage("first")));
+		assertEquals(3, server.publish(TOPIC, new SimpleMessage("second")));
+		assertEquals(0, server.publish("other", new SimpleMessage("nobody")));
+
+		for(AbstractAESConnector client : clients){
+			assertEquals("first", ((SimpleMessage) client.receive()).getMessage());
+			assertEquals("second", ((SimpleMessage) client.receive()).getMessage());
+		}
+
+		//each message was serialized only once, in CBC mode it was encrypted only once too
+		assertEquals(2, metrics.getLatency(MetricStage.SERIALIZE).getCount());
+		assertEquals(encrypted + (gcm ? 2 * 3 : 2), metrics.getLatency(MetricStage.ENCRYPT).getCount());
+	}
+
+	@Test(timeout = 10000)
+	public void subscriberWithOtherSerializer() throws Exception {
+		shoutingSubscriber = 1;
+		startServer(false, -1);
+		connect(3, false);
+
+		assertEquals(3, server.publish(TOPIC, new SimpleMessage("hello")));
+
+		assertEquals("hello", ((SimpleMessage) clients.get(0).receive()).getMessage());
+		assertEquals("HELLO", ((SimpleMessage) clients.get(1).receive()).getMessage());
+		assertEquals("hello", ((SimpleMessage) clients.get(2).receive()).getMessage());
+
+		//once by the shared serializer, once by the other one
+		assertEquals(2, server.getMetrics().getConnectorMetrics().getLatency(MetricStage.SERIALIZE).getCount());
+	}
+
+	@Test(timeout = 20000)
+	public void slowSubscriber() throws Exception {
+		startServer(false, 0);
+		connect(2, false);
+
+		final int count = 200;
+		assertEquals(true, publishToStalledSubscriber(count) < 2 * count);
+	}
+
+	@Test(timeout = 20000)
+	public void stalledSubscriberAboveHighWatermarkIsSkipped() throws Exception {
+		startServer(false, 0, true);
+		connect(2, false);
+
+		final int count = 200;
+		assertEquals(true, publishToStalledSubscriber(count) < 2 * count);
+
+		//the stalled subscriber has not collected all the messages which the fast one has received
+		final AbstractAESConnector stalled = subscribers.get(0);
+		assertTrue(stalled.getSendQueueSize() <= HIGH_WATERMARK);
+	}
+
+	/**
+	 * The first client never receives, so his socket and then his send queue will be full.
+	 * The second client receives all messages.
+	 *
+	 * @return The number of queued messages.
+	 */
+	private int publishToStalledSubscriber(final int count) throws Exception {
+		final char[] text = new char[64 * 1024];
+		Arrays.fill(text, 'x');
+		final Message message = new SimpleMessage(new String(text));
+
+		final AbstractAESConnector fast = clients.get(1);
+		final AtomicInteger received = new AtomicInteger();
+		final Thread receiver = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for(int i=0; i < count; i++){
+						fast.receive();
+						received.incrementAndGet();
+					}
+				} catch (Exception e) { }
+			}
+		});
+		receiver.start();
+
+		int queued = 0;
+		for(int i=0; i < count; i++){
+			queued += server.publish(TOPIC, message);
+		}
+		receiver.join();
+
+		assertEquals(count, received.get());
+		return queued;
+	}
+
+	@Test(timeout = 10000)
+	public void unsubscribe() throws Exception {
+		startServer(false, -1);
+		connect(2, false);
+
+		assertEquals(true, server.unsubscribe(TOPIC, subscribers.get(0)));
+		assertEquals(false, server.unsubscribe(TOPIC, subscribers.get(0)));
+		assertEquals(1, server.getSubscriberCount(TOPIC));
+
+		//a disconnected subscriber is unsubscribed from all topics
+		subscribers.get(1).disconnect();
+		assertEquals(0, server.getSubscriberCount(TOPIC));
+		assertEquals(0, server.publish(TOPIC, new SimpleMessage("nobody")));
+	}
+}
@@ -0,0 +1,47 @@
+package de.raysha.lib.net.scs;
+
+import java.io.IOException;
+import java.net.Socket;
+
+import de.raysha.lib.net.scs.model.Message;
+
+/**
+ * A {@link Connector} which sends and receives raw payloads without any serialization or
+ * encryption. It is used by the benchmarks for measuring the framing only.
+ *
+ * @author rainu
+ */
+class RawConnector extends Connector {
+
+	static class PayloadMessage implements Message {
+	}
+
+	public RawConnector(Socket socket) {
+		super(socket);
+
+		registerSerializer(PayloadMessage.class, null);
+	}
+
+	public void sendPayload(byte[] payload) throws IOException {
+		sendRaw(PayloadMessage.class, payload);
+	}
+
+	public int receivePayload() throws IOException {
+		RawMessage message = receiveRaw();
+		try {
+			return message.rawMessage.remaining();
+		} finally {
+			message.release();
+		}
+	}
+
+	@Override
+	public void send(Message message) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Message receive() throws IOException {
+		throw new UnsupportedOperationException();
+	}
+}
@@ -0,0 +1,69 @@
+package de.raysha.lib.net.scs;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+
+/**
+ * Measures how many bytes the receiving thread allocates per received frame. This is not a
+ * unit test. Run it with: <code>java -cp ... de.raysha.lib.net.scs.ReceiveAllocationBenchmark [size] [count]</code>
+ *
+ * @author rainu
+ */
+public class ReceiveAllocationBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		final int size = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+		final int count = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+
+		ServerSocket serverSocket = new ServerSocket(0);
+		Socket client = new Socket("localhost", serverSocket.getLocalPort());
+		Socket server = serverSocket.accept();
+
+		final RawConnector sender = new RawConnector(client);
+		final RawConnector receiver = new RawConnector(server);
+
+		final byte[] payload = new byte[size];
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for(int i=0; i < 2 * count; i++){
+						sender.sendPayload(payload);
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+		producer.start();
+
+		//warm up
+		for(int i=0; i < count; i++){
+			receiver.receivePayload();
+		}
+
+		final com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		final long threadId = Thread.currentThread().getId();
+
+		final long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+		final long start = System.nanoTime();
+		for(int i=0; i < count; i++){
+			receiver.receivePayload();
+		}
+		final long duration = System.nanoTime() - start;
+		final long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+		System.out.printf("payload=%d bytes, frames=%d%n", size, count);
+		System.out.printf("allocated per frame: %.1f bytes%n", (double) allocated / count);
+		System.out.printf("throughput: %.0f frames/s%n", count / (duration / 1e9));
+
+		producer.join();
+		client.close();
+		server.close();
+		serverSocket.close();
+	}
+}
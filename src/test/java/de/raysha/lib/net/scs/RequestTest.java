@@ -0,0 +1,180 @@
+package de.raysha.lib.net.scs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Test;
+
+import de.raysha.lib.net.scs.model.Message;
+import de.raysha.lib.net.scs.model.SimpleMessage;
+
+public class RequestTest {
+	private ServerSocket serverSocket;
+	private AbstractAESConnector server;
+	private AbstractAESConnector client;
+
+	private void connect(boolean gcm) throws Exception {
+		serverSocket = new ServerSocket(0);
+		Socket clientSocket = new Socket("localhost", serverSocket.getLocalPort());
+		Socket serverSocket = this.serverSocket.accept();
+
+		if(gcm){
+			client = new AESGCMConnector(clientSocket, "password");
+			server = new AESGCMConnector(serverSocket, "password", true);
+		}else{
+			client = new AESConnector(clientSocket, "password");
+			server = new AESConnector(serverSocket, "password");
+		}
+		client.registerSerializer(SimpleMessage.class, new SimpleMessage.Serializer());
+		server.registerSerializer(SimpleMessage.class, new SimpleMessage.Serializer());
+
+		//the responses are received by the dispatching
+		client.startDispatching(null, null);
+	}
+
+	@After
+	public void clean() throws Exception {
+		client.disconnect();
+		server.disconnect();
+		serverSocket.close();
+	}
+
+	private void pipelined() throws Exception {
+		List<Future<SimpleMessage>> responses = new ArrayList<Future<SimpleMessage>>();
+		for(int i=0; i < 100; i++){
+			responses.add(client.<SimpleMessage>request(new SimpleMessage("Request " + i)));
+		}
+
+		List<Message> requests = new ArrayList<Message>();
+		for(int i=0; i < 100; i++){
+			Message request = server.receive();
+			assertTrue(server.isRequest(request));
+			requests.add(request);
+		}
+
+		//answer in reverse order
+		for(int i=99; i >= 0; i--){
+			SimpleMessage request = (SimpleMessage) requests.get(i);
+			server.respond(request, new SimpleMessage("Response to " + request.getMessage()));
+		}
+
+		for(int i=0; i < 100; i++){
+			assertEquals("Response to Request " + i, responses.get(i).get(5, TimeUnit.SECONDS).getMessage());
+		}
+	}
+
+	@Test
+	public void pipelinedRequests() throws Exception {
+		connect(false);
+		pipelined();
+	}
+
+	@Test
+	public void pipelinedRequestsGCM() throws Exception {
+		connect(true);
+		pipelined();
+	}
+
+	@Test
+	public void usualMessagesBetweenRequests() throws Exception {
+		connect(false);
+
+		Future<SimpleMessage> response = client.request(new SimpleMessage("request"));
+		client.send(new SimpleMessage("usual"));
+
+		Message request = server.receive();
+		Message usual = server.receive();
+		assertTrue(server.isRequest(request));
+		assertFalse(server.isRequest(usual));
+
+		server.respond(request, new SimpleMessage("response"));
+		assertEquals("response", response.get(5, TimeUnit.SECONDS).getMessage());
+	}
+
+	@Test
+	public void timeout() throws Exception {
+		connect(false);
+
+		Future<SimpleMessage> response = client.request(new SimpleMessage("request"), 50, TimeUnit.MILLISECONDS);
+		Message request = server.receive();
+
+		try {
+			response.get(5, TimeUnit.SECONDS);
+			fail("The request should time out!");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+
+		//the late response is ignored
+		server.respond(request, new SimpleMessage("too late"));
+	}
+
+	@Test
+	public void answerOnlyOnce() throws Exception {
+		connect(false);
+
+		client.request(new SimpleMessage("request"));
+		Message request = server.receive();
+
+		server.respond(request, new SimpleMessage("response"));
+		try {
+			server.respond(request, new SimpleMessage("response"));
+			fail("A request can be answered only once!");
+		} catch (IllegalArgumentException e) {
+			//expected
+		}
+	}
+
+	@Test
+	public void unansweredRequestsAreBounded() throws Exception {
+		connect(false);
+
+		for(int i=0; i <= PendingRequests.MAX_UNANSWERED; i++){
+			client.request(new SimpleMessage("Request " + i));
+		}
+
+		List<Message> requests = new ArrayList<Message>();
+		for(int i=0; i <= PendingRequests.MAX_UNANSWERED; i++){
+			requests.add(server.receive());
+		}
+
+		//the oldest request is forgotten
+		assertFalse(server.isRequest(requests.get(0)));
+		try {
+			server.respond(requests.get(0), new SimpleMessage("response"));
+			fail("The oldest request should be forgotten!");
+		} catch (IllegalArgumentException e) {
+			//expected
+		}
+		server.respond(requests.get(1), new SimpleMessage("response"));
+		server.respond(requests.get(PendingRequests.MAX_UNANSWERED), new SimpleMessage("response"));
+	}
+
+	@Test
+	public void disconnectFailsPendingRequests() throws Exception {
+		connect(false);
+
+		Future<SimpleMessage> response = client.request(new SimpleMessage("request"));
+		server.disconnect();
+
+		try {
+			response.get(5, TimeUnit.SECONDS);
+			fail("The connection is broken!");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package de.raysha.lib.net.scs;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+
+/**
+ * Measures the round trip time of small frames (ping-pong) over loopback. This is not a
+ * unit test. Run it with: <code>java -cp ... de.raysha.lib.net.scs.SendLatencyBenchmark [size] [count]</code>
+ *
+ * @author rainu
+ */
+public class SendLatencyBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		final int size = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		final int count = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+		ServerSocket serverSocket = new ServerSocket(0);
+		Socket client = new Socket("localhost", serverSocket.getLocalPort());
+		Socket server = serverSocket.accept();
+
+		final RawConnector ping = new RawConnector(client);
+		final RawConnector pong = new RawConnector(server);
+
+		final byte[] payload = new byte[size];
+		Thread echo = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while(true){
+						pong.receivePayload();
+						pong.sendPayload(payload);
+					}
+				} catch (IOException e) { }
+			}
+		});
+		echo.start();
+
+		//warm up
+		for(int i=0; i < count; i++){
+			ping.sendPayload(payload);
+			ping.receivePayload();
+		}
+
+		final long[] rtt = new long[count];
+		for(int i=0; i < count; i++){
+			final long start = System.nanoTime();
+			ping.sendPayload(payload);
+			ping.receivePayload();
+			rtt[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(rtt);
+
+		long sum = 0;
+		for(long t : rtt) sum += t;
+
+		System.out.printf("payload=%d bytes, round trips=%d%n", size, count);
+		System.out.printf("rtt avg: %.1f us, p50: %.1f us, p99: %.1f us%n",
+				sum / (double) count / 1000, rtt[count / 2] / 1000.0, rtt[count * 99 / 100] / 1000.0);
+
+		client.close();
+		server.close();
+		serverSocket.close();
+		echo.join();
+	}
+}
@@ -0,0 +1,241 @@
+package de.raysha.lib.net.scs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.raysha.lib.net.scs.model.SimpleMessage;
+
+public class SendQueueTest {
+	private static Socket server;
+	private static Socket client;
+	private static ServerSocket serverSocket;
+
+	/**
+	 * Runs the writer task only on demand.
+	 */
+	private static class ManualExecutor implements Executor {
+		private final Queue<Runnable> tasks = new LinkedList<Runnable>();
+
+		@Override
+		public void execute(Runnable command) {
+			tasks.add(command);
+		}
+
+		public void runAll() {
+			Runnable task;
+			while((task = tasks.poll()) != null){
+				task.run();
+			}
+		}
+	}
+
+	private static class RecordingListener implements SendQueueListener {
+		private final List<String> events = new ArrayList<String>();
+
+		@Override
+		public void onHighWatermark(Connector connector) {
+			events.add("high");
+		}
+
+		@Override
+		public void onLowWatermark(Connector connector) {
+			events.add("low");
+		}
+	}
+
+	@BeforeClass
+	public static void setup() throws IOException {
+		serverSocket = new ServerSocket(0);
+		client = new Socket("localhost", serverSocket.getLocalPort());
+		server = serverSocket.accept();
+	}
+
+	@AfterClass
+	public static void clean(){
+		try { serverSocket.close(); } catch (Exception e) { }
+		try { server.close(); } catch (Exception e) { }
+		try { client.close(); } catch (Exception e) { }
+	}
+
+	private AESConnector buildConnector(Socket socket) throws InvalidKeyException {
+		AESConnector connector = new AESConnector(socket, "password");
+		connector.registerSerializer(SimpleMessage.class, new SimpleMessage.Serializer());
+
+		return connector;
+	}
+
+	@Test
+	public void sendAsync() throws Exception {
+		AESConnector serverConnector = buildConnector(server);
+		AESConnector clientConnector = buildConnector(client);
+
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		for(int i=0; i < 100; i++){
+			futures.add(clientConnector.sendAsync(new SimpleMessage("Message " + i)));
+		}
+
+		for(int i=0; i < 100; i++){
+			assertEquals("Message " + i, ((SimpleMessage)serverConnector.receive()).getMessage());
+		}
+		for(Future<Void> future : futures){
+			future.get();
+		}
+		assertEquals(0, clientConnector.getSendQueueSize());
+	}
+
+	@Test
+	public void failFast() throws Exception {
+		AESConnector serverConnector = buildConnector(server);
+		AESConnector clientConnector = buildConnector(client);
+		ManualExecutor executor = new ManualExecutor();
+		clientConnector.setSendExecutor(executor);
+		clientConnector.setSendQueue(2, OverflowPolicy.FAIL);
+
+		clientConnector.sendAsync(new SimpleMessage("1"));
+		clientConnector.sendAsync(new SimpleMessage("2"));
+		try {
+			clientConnector.sendAsync(new SimpleMessage("3"));
+			fail("The queue is full!");
+		} catch (RejectedExecutionException e) {
+			//expected
+		}
+
+		executor.runAll();
+		assertEquals("1", ((SimpleMessage)serverConnector.receive()).getMessage());
+		assertEquals("2", ((SimpleMessage)serverConnector.receive()).getMessage());
+	}
+
+	@Test
+	public void dropOldest() throws Exception {
+		AESConnector serverConnector = buildConnector(server);
+		AESConnector clientConnector = buildConnector(client);
+		ManualExecutor executor = new ManualExecutor();
+		clientConnector.setSendExecutor(executor);
+		clientConnector.setSendQueue(2, OverflowPolicy.DROP_OLDEST);
+
+		Future<Void> dropped = clientConnector.sendAsync(new SimpleMessage("1"));
+		clientConnector.sendAsync(new SimpleMessage("2"));
+		Future<Void> last = clientConnector.sendAsync(new SimpleMessage("3"));
+
+		try {
+			dropped.get();
+			fail("The message should be dropped!");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+
+		executor.runAll();
+		last.get();
+		assertEquals("2", ((SimpleMessage)serverConnector.receive()).getMessage());
+		assertEquals("3", ((SimpleMessage)serverConnector.receive()).getMessage());
+	}
+
+	@Test
+	public void watermarks() throws Exception {
+		AESConnector serverConnector = buildConnector(server);
+		AESConnector clientConnector = buildConnector(client);
+		ManualExecutor executor = new ManualExecutor();
+		RecordingListener listener = new RecordingListener();
+		clientConnector.setSendExecutor(executor);
+		clientConnector.setSendQueueWatermarks(1, 3, listener);
+
+		for(int i=0; i < 4; i++){
+			clientConnector.sendAsync(new SimpleMessage("Message " + i));
+		}
+		assertEquals(4, clientConnector.getSendQueueSize());
+		assertEquals("[high]", listener.events.toString());
+
+		executor.runAll();
+		assertEquals("[high, low]", listener.events.toString());
+		for(int i=0; i < 4; i++){
+			assertEquals("Message " + i, ((SimpleMessage)serverConnector.receive()).getMessage());
+		}
+	}
+
+	@Test
+	public void rejectedDrainer() throws Exception {
+		AESConnector clientConnector = buildConnector(client);
+		clientConnector.setSendExecutor(new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				throw new RejectedExecutionException();
+			}
+		});
+
+		try {
+			clientConnector.sendAsync(new SimpleMessage("never sent"));
+			fail("The drainer should be rejected!");
+		} catch (RejectedExecutionException e) {
+			//expected
+		}
+		assertEquals(0, clientConnector.getSendQueueSize());
+	}
+
+	@Test
+	public void interruptDoesNotLeakIntoNextTask() throws Exception {
+		ManualExecutor executor = new ManualExecutor();
+		SendQueue queue = new SendQueue(buildConnector(client));
+		queue.setExecutor(executor);
+
+		//like a task which is cancelled (and interrupted) while it is sent
+		queue.offer(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+		}, false);
+		Future<Void> next = queue.offer(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				assertFalse(Thread.currentThread().isInterrupted());
+				return null;
+			}
+		}, false);
+
+		executor.runAll();
+		next.get();
+	}
+
+	@Test
+	public void disconnectFailsWaitingMessages() throws Exception {
+		Socket other = new Socket("localhost", serverSocket.getLocalPort());
+		Socket otherServer = serverSocket.accept();
+		try {
+			AESConnector connector = buildConnector(other);
+			connector.setSendExecutor(new ManualExecutor());
+
+			Future<Void> waiting = connector.sendAsync(new SimpleMessage("never sent"));
+			connector.disconnect();
+
+			try {
+				waiting.get();
+				fail("The message should fail!");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof IOException);
+			}
+		} finally {
+			otherServer.close();
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package de.raysha.lib.net.scs;
+
+import java.lang.management.ManagementFactory;
+
+import de.raysha.lib.net.scs.model.QuoteMessage;
+import de.raysha.lib.net.scs.model.QuoteMessage.Side;
+import de.raysha.lib.net.scs.model.serialize.MessageSerializer;
+
+/**
+ * Compares the {@link de.raysha.lib.net.scs.model.serialize.CompactSerializer} with the
+ * {@link de.raysha.lib.net.scs.model.serialize.ObjectSerializer}: time, allocated bytes and size of one
+ * serialize/deserialize round trip. This is not a unit test. Run it with:
+ * <code>java -cp ... de.raysha.lib.net.scs.SerializerBenchmark [count]</code>
+ *
+ * @author rainu
+ */
+public class SerializerBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		final int count = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+
+		final QuoteMessage quote = new QuoteMessage(System.currentTimeMillis(), "ACME", 42.5, 100, true,
+				Side.ASK, 7, new byte[]{ 1, 2, 3, 4, 5, 6, 7, 8 });
+
+		for(int round=0; round < 3; round++){
+			measure("ObjectSerializer ", new QuoteMessage.JavaSerializer(), quote, count);
+			measure("CompactSerializer", new QuoteMessage.Serializer(), quote, count);
+		}
+	}
+
+	private static void measure(String name, MessageSerializer<QuoteMessage> serializer, QuoteMessage quote, int count) {
+		final com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		final long threadId = Thread.currentThread().getId();
+
+		int size = 0;
+		long check = 0;
+		final long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+		final long start = System.nanoTime();
+		for(int i=0; i < count; i++){
+			final byte[] raw = serializer.serialize(quote);
+			size = raw.length;
+			check += serializer.deserialize(raw).getQuantity();
+		}
+		final long duration = System.nanoTime() - start;
+		final long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+		System.out.printf("%s: %d bytes, %.2f us/round trip, %d bytes allocated/round trip (%d)%n",
+				name, size, duration / 1000.0 / count, allocated / count, check);
+	}
+}
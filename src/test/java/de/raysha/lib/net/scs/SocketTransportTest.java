@@ -0,0 +1,73 @@
+package de.raysha.lib.net.scs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.raysha.lib.net.scs.utils.BufferPool;
+
+public class SocketTransportTest {
+	private ServerSocket serverSocket;
+	private Socket client;
+	private Socket server;
+
+	@Before
+	public void connect() throws Exception {
+		serverSocket = new ServerSocket(0);
+		client = new Socket("localhost", serverSocket.getLocalPort());
+		server = serverSocket.accept();
+	}
+
+	@After
+	public void clean() throws Exception {
+		client.close();
+		server.close();
+		serverSocket.close();
+	}
+
+	@Test
+	public void timedReadKeepsSocketTimeout() throws Exception {
+		server.setSoTimeout(1234);
+		SocketTransport transport = new SocketTransport(server, BufferPool.DEFAULT);
+
+		assertNull(transport.readFrame(10, TimeUnit.MILLISECONDS));
+		assertEquals(1234, server.getSoTimeout());
+	}
+
+	@Test
+	public void oversizedHeaderIsRejectedWithoutAllocation() throws Exception {
+		final int[] acquired = new int[1];
+		final BufferPool pool = new BufferPool(64, 1024, 4) {
+			@Override
+			public ByteBuffer acquire(int size) {
+				acquired[0] = Math.max(acquired[0], size);
+				return super.acquire(size);
+			}
+		};
+		SocketTransport transport = new SocketTransport(server, pool);
+
+		//a header which announces nearly 512 MB
+		OutputStream out = client.getOutputStream();
+		out.write(new byte[]{0x1F, (byte) 0xFF, (byte) 0xFF, (byte) 0xF0});
+		out.flush();
+
+		try {
+			transport.readFrame();
+			fail("The frame is bigger than the default maximum!");
+		} catch (IOException e) {
+			//expected
+		}
+		assertEquals(0, acquired[0]);
+	}
+}
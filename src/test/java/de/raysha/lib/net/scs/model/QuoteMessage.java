@@ -0,0 +1,84 @@
+package de.raysha.lib.net.scs.model;
+
+import java.io.Serializable;
+
+import de.raysha.lib.net.scs.model.serialize.CompactSerializer;
+import de.raysha.lib.net.scs.model.serialize.ObjectSerializer;
+
+public class QuoteMessage implements Message, Serializable {
+	private static final long serialVersionUID = 3266457291738017547L;
+
+	public enum Side { BID, ASK }
+
+	private long timestamp;
+	private String symbol;
+	private double price;
+	private int quantity;
+	private boolean last;
+	private Side side;
+	private Integer venue;
+	private byte[] reference;
+	private transient String cached;
+
+	private QuoteMessage() {
+	}
+
+	public QuoteMessage(long timestamp, String symbol, double price, int quantity, boolean last,
+			Side side, Integer venue, byte[] reference) {
+		this.timestamp = timestamp;
+		this.symbol = symbol;
+		this.price = price;
+		this.quantity = quantity;
+		this.last = last;
+		this.side = side;
+		this.venue = venue;
+		this.reference = reference;
+		this.cached = symbol + price;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public String getSymbol() {
+		return symbol;
+	}
+
+	public double getPrice() {
+		return price;
+	}
+
+	public int getQuantity() {
+		return quantity;
+	}
+
+	public boolean isLast() {
+		return last;
+	}
+
+	public Side getSide() {
+		return side;
+	}
+
+	public Integer getVenue() {
+		return venue;
+	}
+
+	public byte[] getReference() {
+		return reference;
+	}
+
+	public String getCached() {
+		return cached;
+	}
+
+	public static class Serializer extends CompactSerializer<QuoteMessage> {
+		public Serializer() {
+			super(QuoteMessage.class);
+		}
+	}
+
+	public static class JavaSerializer extends ObjectSerializer<QuoteMessage> {
+
+	}
+}
@@ -0,0 +1,43 @@
+package de.raysha.lib.net.scs.model;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import de.raysha.lib.net.scs.model.serialize.AbstractBufferMessageSerializer;
+
+public class TextMessage implements Message {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final int number;
+	private final String text;
+
+	public TextMessage(int number, String text) {
+		this.number = number;
+		this.text = text;
+	}
+
+	public int getNumber() {
+		return number;
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	public static class Serializer extends AbstractBufferMessageSerializer<TextMessage> {
+		@Override
+		public void serialize(TextMessage message, ByteBuffer target) {
+			target.putInt(message.getNumber());
+			target.put(message.getText().getBytes(UTF8));
+		}
+
+		@Override
+		public TextMessage deserialize(ByteBuffer source) {
+			final int number = source.getInt();
+			final byte[] text = new byte[source.remaining()];
+			source.get(text);
+
+			return new TextMessage(number, new String(text, UTF8));
+		}
+	}
+}
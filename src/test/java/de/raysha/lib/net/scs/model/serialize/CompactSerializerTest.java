@@ -0,0 +1,113 @@
+package de.raysha.lib.net.scs.model.serialize;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import de.raysha.lib.net.scs.exception.SerializeException;
+import de.raysha.lib.net.scs.model.Message;
+import de.raysha.lib.net.scs.model.QuoteMessage;
+import de.raysha.lib.net.scs.model.QuoteMessage.Side;
+import de.raysha.lib.net.scs.model.SimpleMessage;
+
+public class CompactSerializerTest {
+
+	public static class BaseMessage implements Message {
+		protected int id;
+	}
+
+	public static class ExtendedMessage extends BaseMessage {
+		private char flag;
+		private Long sequence;
+	}
+
+	public static class UnsupportedMessage implements Message {
+		private Object payload;
+	}
+
+	@Test
+	public void roundTrip() {
+		CompactSerializer<QuoteMessage> serializer = new QuoteMessage.Serializer();
+		QuoteMessage quote = new QuoteMessage(1234567890123L, "ACME", 42.5, 100, true,
+				Side.ASK, 7, new byte[]{ 1, 2, 3 });
+
+		QuoteMessage result = serializer.deserialize(serializer.serialize(quote));
+
+		assertEquals(1234567890123L, result.getTimestamp());
+		assertEquals("ACME", result.getSymbol());
+		assertEquals(42.5, result.getPrice(), 0);
+		assertEquals(100, result.getQuantity());
+		assertTrue(result.isLast());
+		assertEquals(Side.ASK, result.getSide());
+		assertEquals(Integer.valueOf(7), result.getVenue());
+		assertArrayEquals(new byte[]{ 1, 2, 3 }, result.getReference());
+		assertNull(result.getCached());
+	}
+
+	@Test
+	public void nullValues() {
+		CompactSerializer<QuoteMessage> serializer = new QuoteMessage.Serializer();
+		QuoteMessage quote = new QuoteMessage(0, null, 0, 0, false, null, null, null);
+
+		QuoteMessage result = serializer.deserialize(serializer.serialize(quote));
+
+		assertNull(result.getSymbol());
+		assertFalse(result.isLast());
+		assertNull(result.getSide());
+		assertNull(result.getVenue());
+		assertNull(result.getReference());
+	}
+
+	@Test
+	public void superClassFields() {
+		CompactSerializer<ExtendedMessage> serializer = new CompactSerializer<ExtendedMessage>(ExtendedMessage.class);
+		ExtendedMessage message = new ExtendedMessage();
+		message.id = 13;
+		message.flag = 'x';
+		message.sequence = 99L;
+
+		byte[] raw = serializer.serialize(message);
+		ExtendedMessage result = serializer.deserialize(raw);
+
+		//id (4) + flag (2) + null marker (1) + sequence (8)
+		assertEquals(15, raw.length);
+		assertEquals(13, result.id);
+		assertEquals('x', result.flag);
+		assertEquals(Long.valueOf(99L), result.sequence);
+	}
+
+	@Test
+	public void smallerThanObjectSerializer() {
+		QuoteMessage quote = new QuoteMessage(1234567890123L, "ACME", 42.5, 100, true,
+				Side.ASK, 7, new byte[]{ 1, 2, 3 });
+
+		byte[] compact = new QuoteMessage.Serializer().serialize(quote);
+		byte[] java = new QuoteMessage.JavaSerializer().serialize(quote);
+
+		assertTrue(compact.length * 5 < java.length);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unsupportedFieldType() {
+		new CompactSerializer<UnsupportedMessage>(UnsupportedMessage.class);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void noDefaultConstructor() {
+		new CompactSerializer<SimpleMessage>(SimpleMessage.class);
+	}
+
+	@Test(expected = SerializeException.class)
+	public void truncatedMessage() {
+		CompactSerializer<QuoteMessage> serializer = new QuoteMessage.Serializer();
+		byte[] raw = serializer.serialize(new QuoteMessage(1, "ACME", 1, 1, true, Side.BID, 1, null));
+
+		serializer.deserialize(Arrays.copyOf(raw, raw.length - 3));
+	}
+}
@@ -0,0 +1,50 @@
+package de.raysha.lib.net.scs.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+	@Test
+	public void acquireBySizeClass() {
+		BufferPool pool = new BufferPool(64, 1024, 4);
+
+		ByteBuffer buffer = pool.acquire(100);
+		assertEquals(128, buffer.capacity());
+		assertEquals(0, buffer.position());
+		assertEquals(100, buffer.limit());
+
+		assertEquals(64, pool.acquire(1).capacity());
+		assertEquals(1024, pool.acquire(1024).capacity());
+	}
+
+	@Test
+	public void reuseReleasedBuffer() {
+		BufferPool pool = new BufferPool(64, 1024, 4);
+
+		ByteBuffer buffer = pool.acquire(100);
+		buffer.position(50);
+		pool.release(buffer);
+
+		ByteBuffer reused = pool.acquire(120);
+		assertSame(buffer, reused);
+		assertEquals(0, reused.position());
+		assertEquals(120, reused.limit());
+	}
+
+	@Test
+	public void tooBigBuffersAreNotPooled() {
+		BufferPool pool = new BufferPool(64, 1024, 4);
+
+		ByteBuffer buffer = pool.acquire(2000);
+		assertEquals(2000, buffer.capacity());
+
+		pool.release(buffer);
+		assertNotSame(buffer, pool.acquire(2000));
+	}
+}
@@ -0,0 +1,89 @@
+package de.raysha.lib.net.scs.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import de.raysha.lib.net.scs.utils.HashedWheelTimer.Timeout;
+
+public class HashedWheelTimerTest {
+	private HashedWheelTimer timer;
+
+	@After
+	public void clean() {
+		timer.stop();
+	}
+
+	@Test(timeout = 5000)
+	public void notTooEarly() throws InterruptedException {
+		//a small wheel: the timeouts need several rounds
+		timer = new HashedWheelTimer("test", 10, TimeUnit.MILLISECONDS, 4);
+
+		final int count = 50;
+		final CountDownLatch done = new CountDownLatch(count);
+		final AtomicInteger early = new AtomicInteger();
+		for(int i=0; i < count; i++){
+			final long delay = TimeUnit.MILLISECONDS.toNanos(i * 7);
+			final long start = System.nanoTime();
+			timer.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if(System.nanoTime() - start < delay){
+						early.incrementAndGet();
+					}
+					done.countDown();
+				}
+			}, delay, TimeUnit.NANOSECONDS);
+		}
+
+		assertTrue(done.await(3, TimeUnit.SECONDS));
+		assertEquals(0, early.get());
+	}
+
+	@Test(timeout = 5000)
+	public void cancel() throws InterruptedException {
+		timer = new HashedWheelTimer("test", 10, TimeUnit.MILLISECONDS, 8);
+
+		final AtomicInteger runs = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(1);
+		Timeout cancelled = timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				runs.incrementAndGet();
+			}
+		}, 50, TimeUnit.MILLISECONDS);
+		Timeout expired = timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				done.countDown();
+			}
+		}, 100, TimeUnit.MILLISECONDS);
+
+		assertTrue(cancelled.cancel());
+		assertTrue(done.await(2, TimeUnit.SECONDS));
+
+		assertEquals(0, runs.get());
+		assertTrue(cancelled.isCancelled());
+		assertTrue(expired.isExpired());
+		assertFalse(expired.cancel());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void stopped() {
+		timer = new HashedWheelTimer("test");
+		timer.stop();
+
+		timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+			}
+		}, 1, TimeUnit.SECONDS);
+	}
+}
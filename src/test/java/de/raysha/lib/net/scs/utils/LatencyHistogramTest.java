@@ -0,0 +1,60 @@
+package de.raysha.lib.net.scs.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void percentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for(int i=1; i <= 1000; i++){
+			histogram.record(i * 1000L);
+		}
+
+		assertEquals(1000, histogram.getCount());
+		assertEquals(500500d, histogram.getMean(), 0.1);
+		assertEquals(1000000, histogram.getMax());
+
+		assertAccurate(500000, histogram.getPercentile(50));
+		assertAccurate(990000, histogram.getPercentile(99));
+		assertEquals(1000000, histogram.getPercentile(100));
+	}
+
+	private static void assertAccurate(long expected, long actual) {
+		assertTrue("expected " + expected + " but was " + actual,
+				actual >= expected && actual <= expected + expected / LatencyHistogram.SUB_BUCKETS);
+	}
+
+	@Test
+	public void smallAndHugeValues() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(-5);
+		histogram.record(3);
+		histogram.record(Long.MAX_VALUE);
+
+		assertEquals(0, histogram.getPercentile(1));
+		assertEquals(3, histogram.getPercentile(50));
+		assertEquals(LatencyHistogram.MAX_VALUE, histogram.getPercentile(100));
+	}
+
+	@Test
+	public void addAndReset() {
+		LatencyHistogram first = new LatencyHistogram();
+		LatencyHistogram second = new LatencyHistogram();
+		first.record(100);
+		second.record(200);
+		second.record(300);
+
+		first.add(second);
+		assertEquals(3, first.getCount());
+		assertEquals(300, first.getMax());
+		assertEquals(200d, first.getMean(), 0.1);
+
+		first.reset();
+		assertEquals(0, first.getCount());
+		assertEquals(0, first.getPercentile(99));
+	}
+}